@@ -76,6 +76,8 @@ dependencies {
     add("implementation", "com.google.android.gms:play-services-location:21.3.0")
     add("implementation", "org.jetbrains.kotlinx:kotlinx-coroutines-android:1.7.3")
     add("implementation", "androidx.security:security-crypto:1.1.0-alpha06")
+    // HttpTransport.HTTP2 runs on the host app's OkHttp; the plugin doesn't ship it.
+    add("compileOnly", "com.squareup.okhttp3:okhttp:4.12.0")
 
     // JVM unit tests under src/test/kotlin. State helpers
     // (`CompressionFallbackState`, future drainExhaustedContexts) are
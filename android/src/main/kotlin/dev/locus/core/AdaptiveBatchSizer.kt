@@ -0,0 +1,71 @@
+package dev.locus.core
+
+/**
+ * Sizes location batches from how the last ones went (AIMD). A full batch
+ * answered under the latency target grows the size by [ADDITIVE_STEP];
+ * one that succeeds but overshoots the target trims it by a quarter; a
+ * timeout, 408, 413 or 5xx halves it. The size stays within the bounds
+ * given to [configure].
+ *
+ * A fixed `maxBatchSize` drains a backlog in hundreds of round trips on a
+ * fast link, and on a slow one a batch too large to finish in time fails
+ * every retry and strands its context.
+ *
+ * Shared by concurrent batches, so every method is synchronized.
+ */
+internal class AdaptiveBatchSizer {
+
+    private var initial = 0
+    private var min = 1
+    private var max = 1
+    private var latencyTargetMs = 0L
+    private var size = 0
+
+    /**
+     * Sets the bounds and target. The size starts at [initial] and is
+     * reset to it when [initial] changes; otherwise it is only clamped
+     * into the new bounds.
+     */
+    @Synchronized
+    fun configure(initial: Int, min: Int, max: Int, latencyTargetMs: Long) {
+        this.min = min.coerceAtLeast(1)
+        this.max = max.coerceAtLeast(this.min)
+        this.latencyTargetMs = latencyTargetMs
+        if (initial != this.initial || size == 0) {
+            this.initial = initial
+            size = initial
+        }
+        size = size.coerceIn(this.min, this.max)
+    }
+
+    /** The size to read the next batch with. */
+    val current: Int
+        @Synchronized get() = size
+
+    /**
+     * A 2xx for a batch of [batchSize] records after [latencyMs]. Only a
+     * full batch grows the size; a short one says nothing about capacity.
+     */
+    @Synchronized
+    fun onSuccess(batchSize: Int, latencyMs: Long) {
+        if (latencyMs > latencyTargetMs) {
+            size = (size - size / 4).coerceIn(min, max)
+        } else if (batchSize >= size) {
+            size = (size + ADDITIVE_STEP).coerceIn(min, max)
+        }
+    }
+
+    /** A timeout, 408, 413 or 5xx: halves the size. */
+    @Synchronized
+    fun onCongestion() {
+        size = (size / 2).coerceIn(min, max)
+    }
+
+    companion object {
+        const val ADDITIVE_STEP = 10
+
+        /** Whether a response [status] says the batch was too much for the server. */
+        fun isCongestion(status: Int): Boolean =
+            status == 408 || status == 413 || status in 500..599
+    }
+}
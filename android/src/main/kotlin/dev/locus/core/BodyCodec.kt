@@ -0,0 +1,20 @@
+package dev.locus.core
+
+/** How location batch bodies are encoded on the wire. */
+enum class BodyCodec(val contentType: String) {
+    /** The JSON envelope. The default. */
+    JSON("application/json"),
+
+    /**
+     * CBOR (RFC 8949) with positional, delta-coded points; see
+     * [LocationBatchCbor] for the schema. Falls back to [JSON] for a while
+     * after a 415.
+     */
+    CBOR("application/cbor");
+
+    companion object {
+        /** Parses the config value (case-insensitive); unknown → [JSON]. */
+        fun fromValue(value: String?): BodyCodec =
+            values().firstOrNull { it.name.equals(value, ignoreCase = true) } ?: JSON
+    }
+}
@@ -0,0 +1,144 @@
+package dev.locus.core
+
+import java.io.OutputStream
+
+/**
+ * Writes CBOR (RFC 8949) to an [OutputStream]. Arrays and maps are
+ * definite-length, so callers give the item count up front.
+ *
+ * [value] converts the way [JsonStreamWriter.value] does: maps become
+ * maps (keys via `toString()`, null values left out), collections and arrays become arrays,
+ * numbers and booleans stay as they are and anything else is written as
+ * its `toString()`. Integral doubles within `Long` range are written as
+ * integers; other doubles as float32 when that loses nothing, else
+ * float64.
+ *
+ * Not thread-safe; one writer per body.
+ */
+internal class CborWriter(private val out: OutputStream) {
+
+    fun beginArray(size: Int): CborWriter = head(MAJOR_ARRAY, size.toLong())
+
+    fun beginMap(size: Int): CborWriter = head(MAJOR_MAP, size.toLong())
+
+    fun int(value: Long): CborWriter =
+        if (value >= 0) head(MAJOR_UNSIGNED, value) else head(MAJOR_NEGATIVE, -1L - value)
+
+    fun string(value: String): CborWriter {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        head(MAJOR_TEXT, bytes.size.toLong())
+        out.write(bytes)
+        return this
+    }
+
+    fun bytes(value: ByteArray): CborWriter {
+        head(MAJOR_BYTES, value.size.toLong())
+        out.write(value)
+        return this
+    }
+
+    fun bool(value: Boolean): CborWriter {
+        out.write(if (value) TRUE else FALSE)
+        return this
+    }
+
+    fun nul(): CborWriter {
+        out.write(NULL)
+        return this
+    }
+
+    fun double(value: Double): CborWriter {
+        val asLong = value.toLong()
+        when {
+            value == asLong.toDouble() && asLong != Long.MIN_VALUE && asLong != Long.MAX_VALUE -> int(asLong)
+            value.toFloat().toDouble() == value || value.isNaN() -> {
+                out.write(FLOAT32)
+                writeBigEndian(java.lang.Float.floatToIntBits(value.toFloat()).toLong() and 0xFFFFFFFFL, 4)
+            }
+            else -> {
+                out.write(FLOAT64)
+                writeBigEndian(java.lang.Double.doubleToLongBits(value), 8)
+            }
+        }
+        return this
+    }
+
+    fun value(value: Any?): CborWriter {
+        when (value) {
+            null -> nul()
+            is String -> string(value)
+            is Boolean -> bool(value)
+            is Double -> double(value)
+            is Float -> double(value.toDouble())
+            is Long -> int(value)
+            is Int -> int(value.toLong())
+            is Short -> int(value.toLong())
+            is Byte -> int(value.toLong())
+            is Number -> double(value.toDouble())
+            is ByteArray -> bytes(value)
+            is Map<*, *> -> {
+                val entries = value.filterValues { it != null }
+                beginMap(entries.size)
+                entries.forEach { (key, item) -> string(key.toString()).value(item) }
+            }
+            is Collection<*> -> {
+                beginArray(value.size)
+                value.forEach { this.value(it) }
+            }
+            is Iterable<*> -> this.value(value.toList())
+            is Array<*> -> this.value(value.asList())
+            is IntArray -> this.value(value.asList())
+            is LongArray -> this.value(value.asList())
+            is DoubleArray -> this.value(value.asList())
+            is FloatArray -> this.value(value.asList())
+            is BooleanArray -> this.value(value.asList())
+            else -> string(value.toString())
+        }
+        return this
+    }
+
+    /** The initial byte and argument of a data item, in its shortest form. */
+    private fun head(major: Int, argument: Long): CborWriter {
+        val type = major shl 5
+        when {
+            argument in 0..23 -> out.write(type or argument.toInt())
+            argument in 0..0xFF -> {
+                out.write(type or 24)
+                out.write(argument.toInt())
+            }
+            argument in 0..0xFFFF -> {
+                out.write(type or 25)
+                writeBigEndian(argument, 2)
+            }
+            argument in 0..0xFFFFFFFFL -> {
+                out.write(type or 26)
+                writeBigEndian(argument, 4)
+            }
+            else -> {
+                out.write(type or 27)
+                writeBigEndian(argument, 8)
+            }
+        }
+        return this
+    }
+
+    private fun writeBigEndian(value: Long, byteCount: Int) {
+        for (shift in (byteCount - 1) * 8 downTo 0 step 8) {
+            out.write((value ushr shift).toInt() and 0xFF)
+        }
+    }
+
+    private companion object {
+        const val MAJOR_UNSIGNED = 0
+        const val MAJOR_NEGATIVE = 1
+        const val MAJOR_BYTES = 2
+        const val MAJOR_TEXT = 3
+        const val MAJOR_ARRAY = 4
+        const val MAJOR_MAP = 5
+        const val FALSE = 0xF4
+        const val TRUE = 0xF5
+        const val NULL = 0xF6
+        const val FLOAT32 = 0xFA
+        const val FLOAT64 = 0xFB
+    }
+}
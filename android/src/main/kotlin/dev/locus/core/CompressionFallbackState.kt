@@ -3,7 +3,8 @@ package dev.locus.core
 import kotlin.math.min
 
 /**
- * State for the "415 → disable compression" fallback. The deadline is held
+ * State for the "415 → disable compression" fallback, also used to drop
+ * a binary [BodyCodec] back to JSON. The deadline is held
  * in memory for hot-path reads and mirrored to a caller-supplied store so
  * the suppression window survives process death (mobile processes get
  * killed often — Doze, OOM, foreground-service restart, force-stop, OS
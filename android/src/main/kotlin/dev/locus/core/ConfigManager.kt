@@ -3,6 +3,8 @@ package dev.locus.core
 import android.content.Context
 import android.content.SharedPreferences
 import dev.locus.LocusPlugin
+import dev.locus.storage.LocationStorage
+import dev.locus.storage.WriteDurability
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
@@ -41,6 +43,7 @@ class ConfigManager(context: Context) {
          * expiry read or `resetCompressionFallback()`.
          */
         const val KEY_COMPRESSION_DISABLED_UNTIL_MS = "bg_compression_disabled_until_ms"
+        const val KEY_BODY_CODEC_DISABLED_UNTIL_MS = "bg_body_codec_disabled_until_ms"
     }
 
     init {
@@ -73,12 +76,20 @@ class ConfigManager(context: Context) {
     var autoSync: Boolean = false
     var batchSync: Boolean = false
     var maxBatchSize: Int = 50
+    var maxConcurrentSyncBatches: Int = 1
+    var adaptiveBatchSize: Boolean = false
+    var minBatchSize: Int = 10
+    var maxAdaptiveBatchSize: Int = 500
+    var batchLatencyTargetMs: Int = 3000
     var autoSyncThreshold: Int = 0
     var persistMode: String = "none"
     var httpRootProperty: String? = null
     var disableAutoSyncOnCellular: Boolean = false
     var queueMaxDays: Int = 0
     var queueMaxRecords: Int = 0
+    var queueMaxBytes: Long = 0L
+    var queueBatchSize: Int = 1
+    var queueBatchByType: Boolean = false
     var idempotencyHeader: String = "Idempotency-Key"
     var httpHeaders: MutableMap<String, Any> = java.util.concurrent.ConcurrentHashMap()
     var httpParams: MutableMap<String, Any> = java.util.concurrent.ConcurrentHashMap()
@@ -87,6 +98,8 @@ class ConfigManager(context: Context) {
     /** Alias for httpExtras to match iOS API */
     val extras: Map<String, Any> get() = httpExtras
     var httpTimeoutMs: Int = 10000
+    var httpTransport: HttpTransport = HttpTransport.POOLED
+    var bodyCodec: BodyCodec = BodyCodec.JSON
     var maxRetry: Int = 3
     var retryDelayMs: Int = 5000
     var retryDelayMultiplier: Double = 2.0
@@ -149,6 +162,29 @@ class ConfigManager(context: Context) {
     /** Test-only seam: clears the flag regardless of the deadline. */
     fun resetCompressionFallback() = compressionFallback.reset()
 
+    // A 415 on a [BodyCodec.CBOR] body means the server doesn't accept the
+    // binary format; batches go out as JSON for the window instead.
+    private val bodyCodecFallback = CompressionFallbackState(
+        loadDeadline = {
+            val stored = prefs.getLong(KEY_BODY_CODEC_DISABLED_UNTIL_MS, 0L)
+            if (stored > 0L) stored else null
+        },
+        saveDeadline = { deadline ->
+            prefs.edit().apply {
+                if (deadline == null) remove(KEY_BODY_CODEC_DISABLED_UNTIL_MS)
+                else putLong(KEY_BODY_CODEC_DISABLED_UNTIL_MS, deadline)
+            }.apply()
+        },
+    )
+
+    /** Sends batches as JSON instead of [bodyCodec] for [durationMs] ms from now. */
+    fun disableBodyCodecFor(durationMs: Long) =
+        bodyCodecFallback.disableFor(durationMs)
+
+    /** The codec for the next location batch, after the 415 fallback. */
+    val effectiveBodyCodec: BodyCodec
+        get() = if (bodyCodec == BodyCodec.JSON || bodyCodecFallback.isDisabled) BodyCodec.JSON else bodyCodec
+
     // Sync policy settings
     var syncPolicyLowBatteryThreshold: Int = 20
     var syncPolicyPreferWifi: Boolean = false
@@ -168,6 +204,28 @@ class ConfigManager(context: Context) {
     var logMaxDays: Int = 0
     var maxDaysToPersist: Int = 0
     var maxRecordsToPersist: Int = 0
+    var maxBytesToPersist: Long = 0L
+
+    /**
+     * How persisted locations are committed; see [WriteDurability]. Under
+     * GROUPED, inserts are buffered for up to [groupCommitIntervalMs] or
+     * [groupCommitMaxRows] rows, whichever comes first.
+     */
+    var writeDurability: WriteDurability = WriteDurability.FULL
+
+    /** Which backend persists locations; see [LocationStorage]. */
+    var locationStorage: LocationStorage = LocationStorage.SQLITE
+    var groupCommitIntervalMs: Long = 5_000L
+    var groupCommitMaxRows: Int = 20
+
+    /**
+     * Archive tier of the location store: seal synced rows and/or rows
+     * older than [archiveAfterHours] into compact segments instead of
+     * dropping them; [archiveCompression] deflates the segments.
+     */
+    var archiveSyncedLocations: Boolean = false
+    var archiveAfterHours: Int = 0
+    var archiveCompression: Boolean = true
 
     // Motion & geofence settings
     var disableMotionActivityUpdates: Boolean = false
@@ -221,20 +279,38 @@ class ConfigManager(context: Context) {
         (config["autoSync"] as? Boolean)?.let { autoSync = it }
         (config["batchSync"] as? Boolean)?.let { batchSync = it }
         (config["maxBatchSize"] as? Number)?.let { maxBatchSize = it.toInt() }
+        (config["maxConcurrentSyncBatches"] as? Number)?.let { maxConcurrentSyncBatches = it.toInt().coerceAtLeast(1) }
+        (config["adaptiveBatchSize"] as? Boolean)?.let { adaptiveBatchSize = it }
+        (config["minBatchSize"] as? Number)?.let { minBatchSize = it.toInt().coerceAtLeast(1) }
+        (config["maxAdaptiveBatchSize"] as? Number)?.let { maxAdaptiveBatchSize = it.toInt().coerceAtLeast(1) }
+        (config["batchLatencyTarget"] as? Number)?.let { batchLatencyTargetMs = it.toInt().coerceAtLeast(1) }
         (config["autoSyncThreshold"] as? Number)?.let { autoSyncThreshold = it.toInt() }
         (config["disableAutoSyncOnCellular"] as? Boolean)?.let { disableAutoSyncOnCellular = it }
         (config["queueMaxDays"] as? Number)?.let { queueMaxDays = it.toInt() }
         (config["queueMaxRecords"] as? Number)?.let { queueMaxRecords = it.toInt() }
+        (config["queueMaxBytes"] as? Number)?.let { queueMaxBytes = it.toLong() }
+        (config["queueBatchSize"] as? Number)?.let { queueBatchSize = it.toInt().coerceAtLeast(1) }
+        (config["queueBatchByType"] as? Boolean)?.let { queueBatchByType = it }
         (config["idempotencyHeader"] as? String)?.let { idempotencyHeader = it }
         (config["persistMode"] as? String)?.let { persistMode = it }
         (config["maxDaysToPersist"] as? Number)?.let { maxDaysToPersist = it.toInt() }
         (config["maxRecordsToPersist"] as? Number)?.let { maxRecordsToPersist = it.toInt() }
+        (config["maxBytesToPersist"] as? Number)?.let { maxBytesToPersist = it.toLong() }
+        (config["writeDurability"] as? String)?.let { writeDurability = WriteDurability.fromValue(it) }
+        (config["locationStorage"] as? String)?.let { locationStorage = LocationStorage.fromValue(it) }
+        (config["groupCommitInterval"] as? Number)?.let { groupCommitIntervalMs = it.toLong() }
+        (config["groupCommitMaxRows"] as? Number)?.let { groupCommitMaxRows = it.toInt() }
+        (config["archiveSyncedLocations"] as? Boolean)?.let { archiveSyncedLocations = it }
+        (config["archiveAfterHours"] as? Number)?.let { archiveAfterHours = it.toInt() }
+        (config["archiveCompression"] as? Boolean)?.let { archiveCompression = it }
         (config["maxMonitoredGeofences"] as? Number)?.let { maxMonitoredGeofences = it.toInt() }
         (config["httpRootProperty"] as? String)?.let { httpRootProperty = it }
 
         // HTTP settings
         (config["url"] as? String)?.let { httpUrl = it }
         (config["httpTimeout"] as? Number)?.let { httpTimeoutMs = it.toInt() }
+        (config["httpTransport"] as? String)?.let { httpTransport = HttpTransport.fromValue(it) }
+        (config["bodyCodec"] as? String)?.let { bodyCodec = BodyCodec.fromValue(it) }
         (config["maxRetry"] as? Number)?.let { maxRetry = it.toInt() }
         (config["retryDelay"] as? Number)?.let { retryDelayMs = it.toInt() }
         (config["retryDelayMultiplier"] as? Number)?.let { retryDelayMultiplier = it.toDouble() }
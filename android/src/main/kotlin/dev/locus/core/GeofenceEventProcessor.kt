@@ -1,5 +1,7 @@
 package dev.locus.core
 
+import android.os.Handler
+import android.os.Looper
 import dev.locus.activity.MotionManager
 import dev.locus.geofence.GeofenceManager
 import org.json.JSONException
@@ -16,6 +18,8 @@ class GeofenceEventProcessor(
     private val eventDispatcher: EventDispatcher,
     private val autoSyncChecker: AutoSyncChecker
 ) {
+    private val mainHandler = Handler(Looper.getMainLooper())
+
     fun handle(raw: String) {
         val obj = try {
             JSONObject(raw)
@@ -31,20 +35,31 @@ class GeofenceEventProcessor(
 
         locationPayload?.let { payload ->
             if (PersistencePolicy.shouldPersist(config, "geofence")) {
-                stateManager.storeLocationPayload(payload, config.maxDaysToPersist, config.maxRecordsToPersist)
-            }
-            if (config.autoSync && !config.httpUrl.isNullOrEmpty() && autoSyncChecker.isAutoSyncAllowed()) {
-                if (config.batchSync) {
-                    syncManager.attemptBatchSync()
-                } else {
-                    syncManager.syncNow(payload)
+                val maxDays = config.maxDaysToPersist
+                val maxRecords = config.maxRecordsToPersist
+                // The insert may wait on the database writer; sync once stored.
+                stateManager.storageExecutor.execute {
+                    stateManager.storeLocationPayload(payload, maxDays, maxRecords)
+                    mainHandler.post { autoSync(payload) }
                 }
+            } else {
+                autoSync(payload)
             }
         }
 
         eventDispatcher.sendEvent(event)
     }
 
+    private fun autoSync(payload: Map<String, Any>) {
+        if (config.autoSync && !config.httpUrl.isNullOrEmpty() && autoSyncChecker.isAutoSyncAllowed()) {
+            if (config.batchSync) {
+                syncManager.attemptBatchSync()
+            } else {
+                syncManager.syncNow(payload)
+            }
+        }
+    }
+
     private fun buildGeofenceEvent(obj: JSONObject): Map<String, Any>? {
         val action = obj.optString("action", "unknown")
         val identifiers = mutableListOf<String>()
@@ -0,0 +1,23 @@
+package dev.locus.core
+
+/** Which [SyncTransport] carries sync requests. */
+enum class HttpTransport {
+    /**
+     * [UrlConnectionTransport]: the platform's `HttpURLConnection`, with
+     * connections kept alive in its pool. The default.
+     */
+    POOLED,
+
+    /**
+     * [OkHttpTransport]: HTTP/2, with concurrent requests to one origin
+     * multiplexed over a single connection. Needs OkHttp 4 in the host
+     * app; without it [POOLED] is used.
+     */
+    HTTP2;
+
+    companion object {
+        /** Parses the config value (case-insensitive); unknown → [POOLED]. */
+        fun fromValue(value: String?): HttpTransport =
+            values().firstOrNull { it.name.equals(value, ignoreCase = true) } ?: POOLED
+    }
+}
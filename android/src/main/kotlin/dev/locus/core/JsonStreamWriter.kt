@@ -0,0 +1,143 @@
+package dev.locus.core
+
+import java.io.Writer
+
+/**
+ * Writes JSON straight to a [Writer] without building a `JSONObject`
+ * tree or an intermediate `String`, so a sync body can be encoded into
+ * the gzip stream and the socket as it is produced.
+ *
+ * [value] converts the way `JSONObject(map)` does: maps become objects
+ * (keys via `toString()`, null values left out, as `JSONObject(map)`
+ * drops them), collections and arrays become arrays, numbers
+ * and booleans stay as they are and anything else is written as its
+ * `toString()`. Integral doubles are written without a fraction, as
+ * `org.json` does; NaN and infinities, which `org.json` rejects, are
+ * written as `null`.
+ *
+ * Not thread-safe; one writer per body.
+ */
+internal class JsonStreamWriter(private val out: Writer) {
+
+    /** Per open container: whether a value was written yet (comma needed). */
+    private val hasValue = ArrayList<Boolean>()
+    private var pendingName = false
+
+    fun beginObject(): JsonStreamWriter = open('{')
+
+    fun endObject(): JsonStreamWriter = close('}')
+
+    fun beginArray(): JsonStreamWriter = open('[')
+
+    fun endArray(): JsonStreamWriter = close(']')
+
+    fun name(name: String): JsonStreamWriter {
+        check(!pendingName) { "Name without a value" }
+        separate()
+        writeString(name)
+        out.write(':'.code)
+        pendingName = true
+        return this
+    }
+
+    fun value(value: Any?): JsonStreamWriter {
+        when (value) {
+            null -> literal("null")
+            is String -> {
+                separate()
+                writeString(value)
+            }
+            is Boolean -> literal(if (value) "true" else "false")
+            is Double -> literal(numberToString(value))
+            is Float -> literal(numberToString(value.toDouble()))
+            is Number -> literal(value.toString())
+            is Map<*, *> -> {
+                beginObject()
+                value.forEach { (key, item) -> if (item != null) name(key.toString()).value(item) }
+                endObject()
+            }
+            is Iterable<*> -> {
+                beginArray()
+                value.forEach { this.value(it) }
+                endArray()
+            }
+            is Array<*> -> this.value(value.asList())
+            is IntArray -> this.value(value.asList())
+            is LongArray -> this.value(value.asList())
+            is DoubleArray -> this.value(value.asList())
+            is FloatArray -> this.value(value.asList())
+            is BooleanArray -> this.value(value.asList())
+            else -> {
+                separate()
+                writeString(value.toString())
+            }
+        }
+        return this
+    }
+
+    /** Writes [json], an already serialized value, as is. */
+    fun rawValue(json: String): JsonStreamWriter = literal(json)
+
+    fun flush() = out.flush()
+
+    private fun open(bracket: Char): JsonStreamWriter {
+        separate()
+        out.write(bracket.code)
+        hasValue.add(false)
+        return this
+    }
+
+    private fun close(bracket: Char): JsonStreamWriter {
+        check(hasValue.isNotEmpty() && !pendingName) { "Unbalanced $bracket" }
+        hasValue.removeAt(hasValue.size - 1)
+        out.write(bracket.code)
+        return this
+    }
+
+    private fun literal(text: String): JsonStreamWriter {
+        separate()
+        out.write(text)
+        return this
+    }
+
+    /** Writes the comma before a value or name, unless it follows a name. */
+    private fun separate() {
+        if (pendingName) {
+            pendingName = false
+            return
+        }
+        val last = hasValue.size - 1
+        if (last < 0) return
+        if (hasValue[last]) out.write(','.code) else hasValue[last] = true
+    }
+
+    private fun writeString(value: String) {
+        out.write('"'.code)
+        var start = 0
+        for (i in value.indices) {
+            val c = value[i]
+            val escape = when {
+                c == '"' -> "\\\""
+                c == '\\' -> "\\\\"
+                c == '\n' -> "\\n"
+                c == '\r' -> "\\r"
+                c == '\t' -> "\\t"
+                c == '\b' -> "\\b"
+                c == '\u000C' -> "\\f"
+                c < ' ' || c == '\u2028' || c == '\u2029' -> "\\u%04x".format(c.code)
+                else -> continue
+            }
+            out.write(value, start, i - start)
+            out.write(escape)
+            start = i + 1
+        }
+        out.write(value, start, value.length - start)
+        out.write('"'.code)
+    }
+
+    private fun numberToString(value: Double): String {
+        if (value.isNaN() || value.isInfinite()) return "null"
+        val asLong = value.toLong()
+        return if (value == asLong.toDouble()) asLong.toString() else value.toString()
+    }
+}
@@ -0,0 +1,138 @@
+package dev.locus.core
+
+import java.nio.ByteBuffer
+import java.time.Instant
+import java.util.UUID
+
+/**
+ * Encodes a location batch for [BodyCodec.CBOR]. The envelope is the JSON
+ * one as a CBOR map: extras, the batch under the root property, then
+ * params, which win on a shared key. The batch itself is
+ * `{"v": 1, "points": [point, ...]}`, each point a positional array:
+ *
+ * | # | Field    | Encoding                                                  |
+ * |---|----------|-----------------------------------------------------------|
+ * | 0 | uuid     | 16-byte bstr, or tstr when not a UUID                     |
+ * | 1 | time     | epoch ms for the first point, then ms since the previous  |
+ * | 2 | latitude | microdegrees; after the first point, delta from previous  |
+ * | 3 | longitude| microdegrees; after the first point, delta from previous  |
+ * | 4 | accuracy | decimetres, or null                                       |
+ * | 5 | speed    | cm/s, or null                                             |
+ * | 6 | heading  | tenths of a degree, or null                               |
+ * | 7 | altitude | decimetres, or null                                       |
+ * | 8 | rest     | map of the other payload fields (`activity`, `event`,     |
+ * |   |          | `is_moving`, `odometer`, `extras`), `true` when equal to  |
+ * |   |          | the previous point's, or null when empty                  |
+ *
+ * Neighbouring fixes differ by small amounts, so the deltas fit in one to
+ * three bytes where the JSON repeated every key and a 17-digit double.
+ * The CDDL is published in the HTTP sync guide; bump [VERSION] on any
+ * incompatible change.
+ */
+internal object LocationBatchCbor {
+
+    const val VERSION = 1
+
+    private val POINT_FIELDS = setOf("uuid", "timestamp", "coords")
+
+    fun write(
+        writer: CborWriter,
+        rootProperty: String,
+        payloads: List<Map<String, Any>>,
+        extras: Map<String, Any>,
+        params: Map<String, Any>,
+    ) {
+        val envelope = extras.filterKeys { it != rootProperty && it !in params }
+        val includeBatch = rootProperty !in params
+        writer.beginMap(envelope.size + params.size + if (includeBatch) 1 else 0)
+        envelope.forEach { (key, value) -> writer.string(key).value(value) }
+        if (includeBatch) {
+            writer.string(rootProperty)
+            writeBatch(writer, payloads)
+        }
+        params.forEach { (key, value) -> writer.string(key).value(value) }
+    }
+
+    private fun writeBatch(writer: CborWriter, payloads: List<Map<String, Any>>) {
+        writer.beginMap(2)
+        writer.string("v").int(VERSION.toLong())
+        writer.string("points").beginArray(payloads.size)
+
+        var previousTime = 0L
+        var previousLat = 0L
+        var previousLon = 0L
+        var previousRest: Map<String, Any>? = null
+        payloads.forEachIndexed { index, payload ->
+            val coords = payload["coords"] as? Map<*, *> ?: emptyMap<String, Any>()
+            val time = epochMillis(payload["timestamp"]) ?: previousTime
+            val lat = scaled(coords["latitude"], 1_000_000.0) ?: 0L
+            val lon = scaled(coords["longitude"], 1_000_000.0) ?: 0L
+            val rest = payload.filterKeys { it !in POINT_FIELDS }
+
+            writer.beginArray(9)
+            writeUuid(writer, payload["uuid"])
+            if (index == 0) {
+                writer.int(time).int(lat).int(lon)
+            } else {
+                writer.int(time - previousTime).int(lat - previousLat).int(lon - previousLon)
+            }
+            writeScaled(writer, coords["accuracy"], 10.0)
+            writeScaled(writer, coords["speed"], 100.0)
+            writeScaled(writer, coords["heading"], 10.0)
+            writeScaled(writer, coords["altitude"], 10.0)
+            when {
+                rest.isEmpty() -> writer.nul()
+                rest == previousRest -> writer.bool(true)
+                else -> writer.value(rest)
+            }
+
+            previousTime = time
+            previousLat = lat
+            previousLon = lon
+            previousRest = rest
+        }
+    }
+
+    private fun writeUuid(writer: CborWriter, uuid: Any?) {
+        val text = uuid?.toString()
+        if (text == null) {
+            writer.nul()
+            return
+        }
+        val parsed = try {
+            UUID.fromString(text).takeIf { it.toString().equals(text, ignoreCase = true) }
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+        if (parsed == null) {
+            writer.string(text)
+            return
+        }
+        val bytes = ByteBuffer.allocate(16)
+            .putLong(parsed.mostSignificantBits)
+            .putLong(parsed.leastSignificantBits)
+            .array()
+        writer.bytes(bytes)
+    }
+
+    private fun writeScaled(writer: CborWriter, value: Any?, factor: Double) {
+        val scaled = scaled(value, factor)
+        if (scaled == null) writer.nul() else writer.int(scaled)
+    }
+
+    private fun scaled(value: Any?, factor: Double): Long? {
+        val number = (value as? Number)?.toDouble() ?: return null
+        if (number.isNaN() || number.isInfinite()) return null
+        return Math.round(number * factor)
+    }
+
+    private fun epochMillis(timestamp: Any?): Long? = when (timestamp) {
+        is Number -> timestamp.toLong()
+        is String -> try {
+            Instant.parse(timestamp).toEpochMilli()
+        } catch (e: Exception) {
+            null
+        }
+        else -> null
+    }
+}
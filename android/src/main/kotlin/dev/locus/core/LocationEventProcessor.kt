@@ -1,5 +1,8 @@
 package dev.locus.core
 
+import android.location.Location
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 
 class LocationEventProcessor(
@@ -9,7 +12,9 @@ class LocationEventProcessor(
     private val eventDispatcher: EventDispatcher,
     private val autoSyncChecker: AutoSyncChecker
 ) {
-    fun dispatch(eventName: String, payload: Map<String, Any>) {
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    fun dispatch(eventName: String, payload: Map<String, Any>, location: Location? = null) {
         Log.d("locus.EventProcessor", ">>> dispatch called: eventName=$eventName")
         val event = mapOf(
             "type" to eventName,
@@ -24,10 +29,26 @@ class LocationEventProcessor(
         
         val shouldPersist = PersistencePolicy.shouldPersist(config, eventName)
         Log.d("locus.EventProcessor", ">>> shouldPersist=$shouldPersist, batchSync=${config.batchSync}, persistMode=${config.persistMode}")
-        if (shouldPersist) {
-            Log.d("locus.EventProcessor", ">>> Storing location payload...")
-            stateManager.storeLocationPayload(payload, config.maxDaysToPersist, config.maxRecordsToPersist)
+        if (!shouldPersist) {
+            autoSync(payload)
+            return
         }
+        Log.d("locus.EventProcessor", ">>> Storing location payload...")
+        val maxDays = config.maxDaysToPersist
+        val maxRecords = config.maxRecordsToPersist
+        // A FULL-durability insert commits before it returns, waiting on the
+        // database writer; sync once the row is stored.
+        stateManager.storageExecutor.execute {
+            if (location != null) {
+                stateManager.storeLocation(location, payload, maxDays, maxRecords)
+            } else {
+                stateManager.storeLocationPayload(payload, maxDays, maxRecords)
+            }
+            mainHandler.post { autoSync(payload) }
+        }
+    }
+
+    private fun autoSync(payload: Map<String, Any>) {
         if (config.autoSync && !config.httpUrl.isNullOrEmpty() && autoSyncChecker.isAutoSyncAllowed()) {
             Log.d("locus.EventProcessor", ">>> Auto sync triggered")
             if (config.batchSync) {
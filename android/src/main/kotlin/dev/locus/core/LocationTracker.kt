@@ -66,6 +66,18 @@ class LocationTracker(
 
     fun applyConfig(configMap: Map<String, Any>?) {
         trackingConfigApplier.apply(configMap, enabled)
+        stateManager.configureLocationStorage(config.locationStorage)
+        stateManager.configureLocationWrites(
+            config.writeDurability,
+            config.groupCommitIntervalMs,
+            config.groupCommitMaxRows,
+        )
+        stateManager.configureLocationArchive(
+            config.archiveSyncedLocations,
+            config.archiveAfterHours * 60L * 60L * 1000L,
+            config.archiveCompression,
+        )
+        stateManager.configureRetention(config.maxBytesToPersist, config.queueMaxBytes)
     }
 
     @SuppressLint("MissingPermission")
@@ -88,6 +100,12 @@ class LocationTracker(
         config.setTrackingActive(false)
         trackingLifecycleController.stop()
         stopHeartbeat()
+        // Commit what group commit and the log buffer still hold; both wait
+        // on the database writer, so not on the calling (main) thread.
+        stateManager.storageExecutor.execute {
+            stateManager.flushLocationWrites()
+            stateManager.flushLogs()
+        }
     }
 
     fun changePace(moving: Boolean) {
@@ -130,7 +148,7 @@ class LocationTracker(
 
     private fun emitLocationEvent(location: Location, eventName: String) {
         val payload = payloadBuilder.build(location, eventName)
-        eventProcessor.dispatch(eventName, payload)
+        eventProcessor.dispatch(eventName, payload, location)
     }
 
     /**
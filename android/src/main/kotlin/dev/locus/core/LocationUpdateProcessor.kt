@@ -13,10 +13,10 @@ class LocationUpdateProcessor(
         stateManager.updateOdometer(location)
         trackingStats.onLocationUpdate(location.accuracy)
         val payload = payloadBuilder.build(location, "location")
-        eventProcessor.dispatch("location", payload)
+        eventProcessor.dispatch("location", payload, location)
     }
 
     fun handleError(message: String) {
-        logManager.log("error", "Location error: $message")
+        logManager.log("error") { "Location error: $message" }
     }
 }
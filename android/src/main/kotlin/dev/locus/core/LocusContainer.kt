@@ -1,10 +1,12 @@
 package dev.locus.core
 
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
 import android.content.SharedPreferences
 import android.content.pm.PackageManager
+import android.content.res.Configuration
 import android.net.ConnectivityManager
 import android.net.NetworkCapabilities
 import android.os.BatteryManager
@@ -19,12 +21,14 @@ import dev.locus.activity.MotionManager
 import dev.locus.geofence.GeofenceManager
 import dev.locus.location.LocationClient
 import dev.locus.service.ForegroundService
+import dev.locus.storage.LocationQuery
 import io.flutter.plugin.common.MethodCall
 import io.flutter.plugin.common.MethodChannel
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
 import java.util.UUID
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * Process-lifetime holder for every long-lived native resource Locus owns:
@@ -96,6 +100,8 @@ internal class LocusContainer private constructor(private val context: Context)
         context.getSharedPreferences(LocusPlugin.PREFS_NAME, Context.MODE_PRIVATE)
     private val mainHandler = Handler(Looper.getMainLooper())
 
+    private val storageTrimQueued = AtomicBoolean(false)
+
     val configManager: ConfigManager
     val stateManager: StateManager
     val trackingStats: TrackingStats
@@ -115,6 +121,34 @@ internal class LocusContainer private constructor(private val context: Context)
     val scheduler: Scheduler
     val preferenceEventHandler: PreferenceEventHandler
 
+    /**
+     * Commits group-commit buffered locations and buffered log lines when
+     * the OS starts reclaiming memory: a trim callback is often the last
+     * chance before the process is killed. Outstanding WAL frames are
+     * checkpointed at the same time.
+     * The callbacks arrive on the main thread, and this work waits on the
+     * database writer, so it runs on [StateManager.storageExecutor]; a
+     * burst of callbacks queues one pass.
+     * Registered for the container's (= process's) lifetime.
+     */
+    private val storageTrimCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) = flushStorageForTrim()
+
+        override fun onLowMemory() = flushStorageForTrim()
+
+        override fun onConfigurationChanged(newConfig: Configuration) = Unit
+    }
+
+    private fun flushStorageForTrim() {
+        if (!storageTrimQueued.compareAndSet(false, true)) return
+        stateManager.storageExecutor.execute {
+            storageTrimQueued.set(false)
+            stateManager.flushLocationWrites()
+            logManager.flush()
+            stateManager.checkpointScheduler.checkpointAll()
+        }
+    }
+
     init {
         // Privacy mode: always start disabled on fresh container construction.
         // Stale persisted values could otherwise block location sync before
@@ -157,14 +191,14 @@ internal class LocusContainer private constructor(private val context: Context)
         syncManager = SyncManager(
             context,
             configManager,
-            stateManager.locationStore,
+            { stateManager.locations },
             stateManager.queueStore,
             object : SyncManager.SyncListener {
                 override fun onHttpEvent(eventData: Map<String, Any>) {
                     eventDispatcher.sendEvent(eventData)
                 }
 
-                override fun onLog(level: String, message: String) {
+                override fun onLog(level: String, message: () -> String) {
                     logManager.log(level, message)
                 }
 
@@ -306,6 +340,7 @@ internal class LocusContainer private constructor(private val context: Context)
         applyStoredConfig()
         systemMonitor.registerConnectivity()
         systemMonitor.registerPowerSave()
+        context.registerComponentCallbacks(storageTrimCallbacks)
 
         // Cold-start reconciliation: if tracking was active before the process
         // died, re-arm now. No-op on first install or after an explicit stop.
@@ -390,18 +425,44 @@ internal class LocusContainer private constructor(private val context: Context)
             "getGeofence" -> geofenceManager.getGeofence(call.arguments, result)
             "getGeofences" -> geofenceManager.getGeofences(result)
             "geofenceExists" -> geofenceManager.geofenceExists(call.arguments, result)
-            "destroyLocations" -> {
+            "destroyLocations" -> replyFromStorage(result) {
                 stateManager.clearLocations()
-                result.success(true)
+                true
             }
             "getLocations" -> {
                 val limit = (call.arguments.asMap()?.get("limit") as? Number)?.toInt() ?: 0
-                result.success(stateManager.getStoredLocations(limit))
+                replyFromStorage(result) { stateManager.getStoredLocations(limit) }
+            }
+            "queryLocations" -> {
+                val query = LocationQuery.fromMap(call.arguments.asMap())
+                replyFromStorage(result) { stateManager.queryStoredLocations(query) }
+            }
+            "getLocationSummary" -> {
+                val query = LocationQuery.fromMap(call.arguments.asMap())
+                replyFromStorage(result) { stateManager.summarizeStoredLocations(query) }
+            }
+            "getLocationsNear" -> {
+                val args = call.arguments.asMap()
+                val near = args?.let { LocationQuery.parseNear(it) }
+                if (near == null) {
+                    result.error("INVALID_ARGUMENT", "Expected latitude, longitude and a positive radius", null)
+                } else {
+                    val limit = (args["limit"] as? Number)?.toInt() ?: 0
+                    replyFromStorage(result) { stateManager.queryStoredLocationsNear(near, limit) }
+                }
+            }
+            "getLocationsPage" -> {
+                val args = call.arguments.asMap()
+                val pageSize = ((args?.get("pageSize") as? Number)?.toInt() ?: DEFAULT_LOCATION_PAGE_SIZE)
+                    .coerceIn(1, MAX_LOCATION_PAGE_SIZE)
+                val afterTimestamp = (args?.get("afterTimestamp") as? Number)?.toLong()
+                val afterId = (args?.get("afterId") as? Number)?.toLong()
+                replyFromStorage(result) { stateManager.getStoredLocationsPage(afterTimestamp, afterId, pageSize) }
             }
             "enqueue" -> handleEnqueue(call, result)
             "getQueue" -> {
                 val limit = (call.arguments.asMap()?.get("limit") as? Number)?.toInt() ?: 0
-                result.success(stateManager.getQueue(limit))
+                replyFromStorage(result) { stateManager.getQueue(limit) }
             }
             "setPrivacyMode" -> {
                 (call.arguments as? Boolean)?.let { enabled ->
@@ -410,9 +471,9 @@ internal class LocusContainer private constructor(private val context: Context)
                 }
                 result.success(true)
             }
-            "clearQueue" -> {
+            "clearQueue" -> replyFromStorage(result) {
                 stateManager.clearQueue()
-                result.success(true)
+                true
             }
             "syncQueue" -> {
                 val limit = (call.arguments.asMap()?.get("limit") as? Number)?.toInt() ?: 0
@@ -472,7 +533,7 @@ internal class LocusContainer private constructor(private val context: Context)
                 (call.arguments as? Number)?.let { backgroundTaskManager.stop(it.toInt()) }
                 result.success(true)
             }
-            "getLog" -> result.success(stateManager.readLogEntries(0))
+            "getLog" -> replyFromStorage(result) { stateManager.readLogEntries(0) }
             "getBatteryStats" -> result.success(buildBatteryStats())
             "getPowerState" -> result.success(buildPowerState())
             "getNetworkType" -> result.success(getNetworkType())
@@ -616,15 +677,42 @@ internal class LocusContainer private constructor(private val context: Context)
         @Suppress("UNCHECKED_CAST")
         val payload = payloadObj as Map<String, Any>
         val type = args["type"] as? String ?: "location"
+        // Without a caller key every enqueue is distinct; with one, a
+        // repeated call (e.g. retried after a channel timeout) dedupes.
         val idempotencyKey = (args["idempotencyKey"] as? String) ?: UUID.randomUUID().toString()
-        val id = stateManager.enqueue(
-            payload,
-            type,
-            idempotencyKey,
-            configManager.queueMaxDays.takeIf { it > 0 } ?: 7,
-            configManager.queueMaxRecords.takeIf { it > 0 } ?: 500,
-        )
-        result.success(id)
+        val coalesce = args["coalesce"] as? Boolean ?: false
+        val maxDays = configManager.queueMaxDays.takeIf { it > 0 } ?: 7
+        val maxRecords = configManager.queueMaxRecords.takeIf { it > 0 } ?: 500
+        replyFromStorage(result) {
+            stateManager.enqueue(
+                payload,
+                type,
+                idempotencyKey,
+                coalesce,
+                maxDays,
+                maxRecords,
+                syncManager::isQueueItemInFlight,
+            )
+        }
+    }
+
+    /**
+     * Answers [result] with what [work] returns, run on
+     * [StateManager.storageExecutor]: store calls wait on the database
+     * writer, which may be busy with retention, compaction or a VACUUM,
+     * so none of them run on the main thread. Requests run in the order
+     * they arrive.
+     */
+    private fun replyFromStorage(result: MethodChannel.Result, work: () -> Any?) {
+        stateManager.storageExecutor.execute {
+            try {
+                val value = work()
+                mainHandler.post { result.success(value) }
+            } catch (e: Exception) {
+                Log.e(TAG, "Storage call failed: ${e.message}", e)
+                mainHandler.post { result.error("STORAGE_ERROR", e.message, null) }
+            }
+        }
     }
 
     private fun handleRegisterHeadlessTask(call: MethodCall, result: MethodChannel.Result) {
@@ -705,6 +793,11 @@ internal class LocusContainer private constructor(private val context: Context)
         "hasLocationPermission" to hasLocationPermission(),
         "hasActivityPermission" to hasActivityPermission(),
         "hasBackgroundLocationPermission" to hasBackgroundLocationPermission(),
+        "storage" to mapOf(
+            "checkpoints" to stateManager.checkpointScheduler.snapshot(),
+            "database" to stateManager.vacuumScheduler.snapshot(),
+            "retention" to stateManager.retentionPruner.snapshot(),
+        ),
     )
 
     private fun validateManifestPermissions(): List<String> = try {
@@ -850,6 +943,8 @@ internal class LocusContainer private constructor(private val context: Context)
 
     companion object {
         private const val TAG = "locus"
+        private const val DEFAULT_LOCATION_PAGE_SIZE = 500
+        private const val MAX_LOCATION_PAGE_SIZE = 5_000
 
         @Volatile
         private var instance: LocusContainer? = null
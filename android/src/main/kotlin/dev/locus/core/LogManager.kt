@@ -12,6 +12,20 @@ class LogManager(
         logStore.append(level, message, config.logMaxDays)
     }
 
+    /**
+     * Like [log], but [message] is only built when [level] passes the
+     * configured `logLevel`, so filtered-out lines cost no formatting.
+     */
+    fun log(level: String, message: () -> String) {
+        if (!shouldLog(level)) return
+        logStore.append(level, message(), config.logMaxDays)
+    }
+
+    /** Commits buffered log lines; see [LogStore.flush]. */
+    fun flush() {
+        logStore.flush()
+    }
+
     private fun shouldLog(level: String): Boolean =
         logLevelRank(level) <= logLevelRank(config.logLevel)
 
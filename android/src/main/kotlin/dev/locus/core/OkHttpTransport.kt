@@ -0,0 +1,138 @@
+package dev.locus.core
+
+import okhttp3.Call
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.TimeUnit
+
+/**
+ * HTTP/2 through OkHttp, which the host app provides (the plugin only
+ * compiles against it). Concurrent requests to one origin share a single
+ * multiplexed connection, so a pipelined location drain and the queue
+ * drain don't each open their own. Origins without HTTP/2 get OkHttp's
+ * pooled HTTP/1.1. Proxy selection, redirects and the cleartext policy
+ * follow OkHttp's defaults for Android.
+ *
+ * Phase timings come from an [EventListener] per call.
+ */
+internal class OkHttpTransport : SyncTransport {
+
+    /** Phase timestamps of one call, filled by [TimingListener]. */
+    private class CallTiming {
+        @Volatile var dnsStart = 0L
+        @Volatile var dnsEnd = 0L
+        @Volatile var connectStart = 0L
+        @Volatile var secureStart = 0L
+        @Volatile var secureEnd = 0L
+        @Volatile var connectEnd = 0L
+        @Volatile var requestEnd = 0L
+        @Volatile var responseStart = 0L
+        @Volatile var newConnection = false
+    }
+
+    private class TimingListener(private val timing: CallTiming?) : EventListener() {
+        override fun dnsStart(call: Call, domainName: String) {
+            timing?.dnsStart = System.nanoTime()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            timing?.dnsEnd = System.nanoTime()
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            timing?.connectStart = System.nanoTime()
+            timing?.newConnection = true
+        }
+
+        override fun secureConnectStart(call: Call) {
+            timing?.secureStart = System.nanoTime()
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            timing?.secureEnd = System.nanoTime()
+        }
+
+        override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+            timing?.connectEnd = System.nanoTime()
+        }
+
+        override fun requestBodyEnd(call: Call, byteCount: Long) {
+            timing?.requestEnd = System.nanoTime()
+        }
+
+        override fun responseHeadersStart(call: Call) {
+            timing?.responseStart = System.nanoTime()
+        }
+    }
+
+    /** Content-Type stays in the headers, as for [UrlConnectionTransport]. */
+    private class BodyAdapter(private val body: SyncTransport.Body) : RequestBody() {
+        override fun contentType(): MediaType? = null
+
+        override fun contentLength(): Long = body.contentLength
+
+        override fun writeTo(sink: BufferedSink) {
+            body.writeTo(sink.outputStream())
+        }
+    }
+
+    private val client: OkHttpClient = OkHttpClient.Builder()
+        .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .retryOnConnectionFailure(true)
+        .eventListenerFactory(object : EventListener.Factory {
+            override fun create(call: Call): EventListener = TimingListener(call.request().tag(CallTiming::class.java))
+        })
+        .build()
+
+    override fun execute(request: SyncTransport.Request): SyncTransport.Response {
+        val timing = CallTiming()
+        val builder = Request.Builder()
+            .url(request.url)
+            .method(request.method, BodyAdapter(request.body))
+            .tag(CallTiming::class.java, timing)
+        request.headers.forEach { (name, value) -> builder.header(name, value) }
+
+        // Derived clients share the connection pool and dispatcher.
+        val callClient = client.newBuilder()
+            .connectTimeout(request.connectTimeoutMs.toLong(), TimeUnit.MILLISECONDS)
+            .readTimeout(request.readTimeoutMs.toLong(), TimeUnit.MILLISECONDS)
+            .writeTimeout(request.readTimeoutMs.toLong(), TimeUnit.MILLISECONDS)
+            .build()
+
+        val startedAt = System.nanoTime()
+        callClient.newCall(builder.build()).execute().use { response ->
+            val body = response.body?.string() ?: ""
+            val finishedAt = System.nanoTime()
+            return SyncTransport.Response(
+                status = response.code,
+                body = body,
+                timing = SyncTransport.Timing(
+                    dnsMs = millisBetween(timing.dnsStart, timing.dnsEnd),
+                    connectMs = millisBetween(timing.connectStart, timing.secureStart.takeIf { it != 0L } ?: timing.connectEnd),
+                    tlsMs = millisBetween(timing.secureStart, timing.secureEnd),
+                    ttfbMs = millisBetween(timing.requestEnd, timing.responseStart),
+                    totalMs = millisBetween(startedAt, finishedAt),
+                    reusedConnection = !timing.newConnection,
+                    protocol = response.protocol.toString(),
+                ),
+            )
+        }
+    }
+
+    override fun close() {
+        client.connectionPool.evictAll()
+    }
+
+    /** 0 when either end of the phase wasn't observed. */
+    private fun millisBetween(startNanos: Long, endNanos: Long): Long =
+        if (startNanos == 0L || endNanos == 0L) 0L else ((endNanos - startNanos) / 1_000_000L).coerceAtLeast(0L)
+}
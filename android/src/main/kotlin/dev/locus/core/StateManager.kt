@@ -5,25 +5,77 @@ import android.content.SharedPreferences
 import android.location.Location
 import dev.locus.LocusPlugin
 import dev.locus.location.Odometer
+import dev.locus.storage.CheckpointScheduler
+import dev.locus.storage.LocationBackend
+import dev.locus.storage.LocationJournal
+import dev.locus.storage.LocationQuery
+import dev.locus.storage.LocationStorage
 import dev.locus.storage.LocationStore
+import dev.locus.storage.LocusDatabase
 import dev.locus.storage.LogStore
 import dev.locus.storage.QueueStore
+import dev.locus.storage.RetentionPruner
+import dev.locus.storage.VacuumScheduler
+import dev.locus.storage.WriteDurability
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
+import java.io.File
 import java.time.Instant
 import java.util.UUID
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 class StateManager(context: Context) {
 
     private val prefs: SharedPreferences =
         context.getSharedPreferences(LocusPlugin.PREFS_NAME, Context.MODE_PRIVATE)
 
-    val locationStore: LocationStore = LocationStore(context)
-    val queueStore: QueueStore = QueueStore(context)
-    val logStore: LogStore = LogStore(context)
+    val checkpointScheduler: CheckpointScheduler = CheckpointScheduler(context)
+    val retentionPruner: RetentionPruner = RetentionPruner()
+    val database: LocusDatabase = LocusDatabase(context, checkpointScheduler)
+    val vacuumScheduler: VacuumScheduler = VacuumScheduler(context, database)
+    val locationStore: LocationStore = LocationStore(database, retentionPruner)
+    val queueStore: QueueStore = QueueStore(database, retentionPruner)
+    val logStore: LogStore = LogStore(context, database)
     val odometer: Odometer = Odometer(context)
 
+    /**
+     * Runs storage work that waits on the database writer or moves rows
+     * between backends, which must not block the main thread.
+     */
+    val storageExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "locus-storage-io").apply { isDaemon = true }
+    }
+
+    private val journalDirectory = File(context.noBackupFilesDir, JOURNAL_DIRECTORY)
+    private val backendLock = Any()
+    private var journal: LocationJournal? = null
+
+    /**
+     * The backend persisting locations, per [LocationStorage]. Starts as
+     * the last one configured, so fixes recorded before the config is
+     * re-applied after a restart land in the same place.
+     */
+    @Volatile
+    var locations: LocationBackend = locationStore
+        private set
+
+    init {
+        if (LocationStorage.fromValue(prefs.getString(KEY_LOCATION_STORAGE, null)) == LocationStorage.JOURNAL) {
+            locations = openJournal()
+        }
+        // A move the process didn't live to finish picks up where it stopped.
+        prefs.getString(KEY_LOCATION_MOVE_FROM, null)?.let { from ->
+            val source = backendFor(LocationStorage.fromValue(from))
+            if (source !== locations) {
+                scheduleMove(from, source, locations)
+            } else {
+                prefs.edit().remove(KEY_LOCATION_MOVE_FROM).apply()
+            }
+        }
+    }
+
     var odometerValue: Double
         get() = odometer.distance
         set(value) {
@@ -35,24 +87,164 @@ class StateManager(context: Context) {
     }
 
     fun clearLocations() {
-        locationStore.clear()
+        locations.clear()
     }
 
     fun getStoredLocations(limit: Int): List<Map<String, Any>> =
-        locationStore.readLocations(limit)
+        locations.readLocations(limit)
+            .mapNotNull { record -> buildPayloadFromRecord(record).takeIf { it.isNotEmpty() } }
+
+    /**
+     * One keyset page for `getLocationsPage`: `locations` plus a `next`
+     * token (`afterTimestamp`/`afterId`) to pass back for the following
+     * page, or null once the history is exhausted.
+     */
+    fun getStoredLocationsPage(afterTimestamp: Long?, afterId: Long?, pageSize: Int): Map<String, Any?> {
+        val records = locations.readLocationsPage(afterTimestamp, afterId, pageSize)
+        val last = records.lastOrNull()
+        val next = if (last != null && records.size >= pageSize) {
+            mapOf("afterTimestamp" to last["timestamp"], "afterId" to last["id"])
+        } else {
+            null
+        }
+        return mapOf(
+            "locations" to records.mapNotNull { record -> buildPayloadFromRecord(record).takeIf { it.isNotEmpty() } },
+            "next" to next,
+        )
+    }
+
+    fun queryStoredLocations(query: LocationQuery): List<Map<String, Any>> =
+        locations.queryLocations(query)
+            .mapNotNull { record -> buildPayloadFromRecord(record).takeIf { it.isNotEmpty() } }
+
+    /** Summary aggregates for `getLocationSummary`; see [LocationStore.summarizeLocations]. */
+    fun summarizeStoredLocations(query: LocationQuery): Map<String, Any> =
+        locations.summarizeLocations(query)
+
+    fun queryStoredLocationsNear(near: LocationQuery.Near, limit: Int): List<Map<String, Any>> =
+        locations.queryLocationsNear(near, limit)
             .mapNotNull { record -> buildPayloadFromRecord(record).takeIf { it.isNotEmpty() } }
 
     fun storeLocationPayload(payload: Map<String, Any>, maxDays: Int, maxRecords: Int) {
-        locationStore.insertPayload(payload, maxDays, maxRecords)
+        locations.insertPayload(payload, maxDays, maxRecords)
+    }
+
+    /**
+     * Stores a fix from the raw [location], taking only the fields the
+     * platform object lacks (activity, motion state, odometer, extras)
+     * from the already-built [payload].
+     */
+    fun storeLocation(location: Location, payload: Map<String, Any>, maxDays: Int, maxRecords: Int) {
+        val activity = payload["activity"] as? Map<*, *>
+        locations.insertLocation(
+            location = location,
+            isMoving = payload["is_moving"] as? Boolean ?: false,
+            activityType = activity?.get("type") as? String,
+            activityConfidence = (activity?.get("confidence") as? Number)?.toInt() ?: 0,
+            event = payload["event"] as? String,
+            odometer = (payload["odometer"] as? Number)?.toDouble() ?: 0.0,
+            extras = payload["extras"] as? Map<*, *>,
+            maxDays = maxDays,
+            maxRecords = maxRecords,
+        )
+    }
+
+    fun configureLocationWrites(durability: WriteDurability, windowMs: Long, maxRows: Int) {
+        locationStore.configureWrites(durability, windowMs, maxRows)
+        journal?.configureWrites(durability, windowMs, maxRows)
+    }
+
+    /**
+     * Switches the location backend. New fixes go to the new one at once;
+     * unsynced rows move over on [storageExecutor], in batches, each
+     * removed from the old backend only once the new one has stored it
+     * durably ([LocationBackend.importPayloads]). A move that fails or is
+     * cut short by the process dying leaves the rest in the old backend
+     * and resumes on the next start. SQLite's archive segments stay in
+     * SQLite.
+     */
+    fun configureLocationStorage(storage: LocationStorage) {
+        synchronized(backendLock) {
+            val previous = locations
+            val next = backendFor(storage)
+            if (next === previous) return
+            val from = if (previous === locationStore) LocationStorage.SQLITE else LocationStorage.JOURNAL
+            locations = next
+            prefs.edit()
+                .putString(KEY_LOCATION_STORAGE, storage.name)
+                .putString(KEY_LOCATION_MOVE_FROM, from.name)
+                .apply()
+            scheduleMove(from.name, previous, next)
+        }
+    }
+
+    private fun backendFor(storage: LocationStorage): LocationBackend =
+        if (storage == LocationStorage.JOURNAL) journal ?: openJournal() else locationStore
+
+    private fun openJournal(): LocationJournal =
+        LocationJournal(journalDirectory).also { journal = it }
+
+    private fun scheduleMove(fromName: String, from: LocationBackend, to: LocationBackend) {
+        storageExecutor.execute {
+            if (!moveLocations(from, to)) return@execute
+            synchronized(backendLock) {
+                // A later switch may have started a move of its own.
+                if (prefs.getString(KEY_LOCATION_MOVE_FROM, null) == fromName && locations === to) {
+                    prefs.edit().remove(KEY_LOCATION_MOVE_FROM).apply()
+                }
+            }
+        }
+    }
+
+    /** True once [from] has no unsynced rows left. */
+    private fun moveLocations(from: LocationBackend, to: LocationBackend): Boolean {
+        try {
+            while (true) {
+                val batch = from.readPendingLocations(MOVE_BATCH_SIZE)
+                if (batch.isEmpty()) return true
+                val stored = to.importPayloads(batch.map { record -> buildPayloadFromRecord(record) })
+                if (stored > 0) {
+                    from.removeLocations(batch.take(stored).mapNotNull { (it["id"] as? Number)?.toLong() })
+                }
+                if (stored < batch.size) {
+                    android.util.Log.w(
+                        "StateManager",
+                        "Moved $stored of ${batch.size} location(s); the rest stay in the previous backend"
+                    )
+                    return false
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("StateManager", "Failed to move locations: ${e.message}", e)
+            return false
+        }
+    }
+
+    fun configureLocationArchive(archiveSynced: Boolean, archiveAfterMs: Long, compress: Boolean) {
+        locationStore.configureArchive(archiveSynced, archiveAfterMs, compress)
+    }
+
+    /** Byte quotas for the location and queue databases; 0 disables. */
+    fun configureRetention(locationMaxBytes: Long, queueMaxBytes: Long) {
+        locationStore.configureRetention(locationMaxBytes)
+        journal?.configureRetention(locationMaxBytes)
+        queueStore.configureRetention(queueMaxBytes)
+    }
+
+    /** Commits locations buffered by group commit, if any. */
+    fun flushLocationWrites() {
+        locations.flush()
     }
 
     fun enqueue(
         payload: Map<String, Any>,
         type: String,
         idempotencyKey: String,
+        coalesce: Boolean,
         maxDays: Int,
-        maxRecords: Int
-    ): String = queueStore.insertPayload(payload, type, idempotencyKey, maxDays, maxRecords)
+        maxRecords: Int,
+        inFlight: (String) -> Boolean
+    ): String = queueStore.insertPayload(payload, type, idempotencyKey, maxDays, maxRecords, coalesce, inFlight)
 
     fun getQueue(limit: Int): List<Map<String, Any>> =
         buildQueuePayload(queueStore.readQueue(limit))
@@ -65,6 +257,11 @@ class StateManager(context: Context) {
         logStore.append(level, message, maxDays)
     }
 
+    /** Commits log lines still buffered in [LogStore]. */
+    fun flushLogs() {
+        logStore.flush()
+    }
+
     fun readLogEntries(limit: Int): List<Map<String, Any>> =
         logStore.readEntries(limit)
 
@@ -110,7 +307,7 @@ class StateManager(context: Context) {
         }
 
         val timestamp = (record["timestamp"] as? Number)?.toLong() ?: System.currentTimeMillis()
-        val uuid = (record["id"] as? String) ?: UUID.randomUUID().toString()
+        val uuid = (record["uuid"] as? String) ?: UUID.randomUUID().toString()
 
         return mutableMapOf<String, Any>(
             "uuid" to uuid,
@@ -193,5 +390,9 @@ class StateManager(context: Context) {
 
     companion object {
         private const val KEY_TRIP_STATE = "bg_trip_state"
+        private const val KEY_LOCATION_STORAGE = "bg_location_storage"
+        private const val KEY_LOCATION_MOVE_FROM = "bg_location_move_from"
+        private const val JOURNAL_DIRECTORY = "locus_journal"
+        private const val MOVE_BATCH_SIZE = 500
     }
 }
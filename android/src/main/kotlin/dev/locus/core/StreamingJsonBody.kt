@@ -0,0 +1,91 @@
+package dev.locus.core
+
+import java.io.BufferedWriter
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.util.zip.GZIPOutputStream
+
+/**
+ * A JSON request body that [encode] writes straight into the request
+ * stream, through gzip when [gzip] is set. Building the body as a
+ * `JSONObject`, its `String`, the UTF-8 bytes and the gzip output held
+ * several copies of a large batch on the heap at once; this holds one
+ * small buffer per stage.
+ *
+ * The length isn't known up front, so the body goes out chunked.
+ * [encode] runs once per [writeTo] and must write the same JSON each time.
+ */
+internal class StreamingJsonBody(
+    private val gzip: Boolean,
+    private val encode: (JsonStreamWriter) -> Unit,
+) : SyncTransport.Body {
+
+    override val contentLength: Long get() = -1L
+
+    override fun writeTo(out: OutputStream) {
+        val target = NonClosingOutputStream(out)
+        if (gzip) {
+            GZIPOutputStream(target, BUFFER_SIZE).use { write(it, encode) }
+        } else {
+            write(target, encode)
+        }
+    }
+
+    /** The first bytes of an encoding, and whether they are all of it. */
+    class Probe(val bytes: ByteArray, val complete: Boolean)
+
+    private class ProbeFull : RuntimeException(null, null, false, false)
+
+    /** Keeps at most [limit] bytes, then aborts the encoding. */
+    private class CappedOutputStream(private val limit: Int) : ByteArrayOutputStream() {
+        override fun write(b: Int) {
+            if (count >= limit) throw ProbeFull()
+            super.write(b)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            val room = limit - count
+            if (len > room) {
+                super.write(b, off, room)
+                throw ProbeFull()
+            }
+            super.write(b, off, len)
+        }
+    }
+
+    /** Lets gzip finish and release its deflater without closing the socket stream. */
+    private class NonClosingOutputStream(private val out: OutputStream) : OutputStream() {
+        override fun write(b: Int) = out.write(b)
+
+        override fun write(b: ByteArray, off: Int, len: Int) = out.write(b, off, len)
+
+        override fun flush() = out.flush()
+
+        override fun close() = out.flush()
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 8 * 1024
+
+        /**
+         * Encodes uncompressed until [limit] bytes. A complete probe is the
+         * whole body and can be sent as bytes; otherwise it is a sample to
+         * decide on compression from.
+         */
+        fun probe(limit: Int, encode: (JsonStreamWriter) -> Unit): Probe {
+            val buffer = CappedOutputStream(limit)
+            return try {
+                write(buffer, encode)
+                Probe(buffer.toByteArray(), complete = true)
+            } catch (e: ProbeFull) {
+                Probe(buffer.toByteArray(), complete = false)
+            }
+        }
+
+        private fun write(out: OutputStream, encode: (JsonStreamWriter) -> Unit) {
+            val writer = BufferedWriter(OutputStreamWriter(out, Charsets.UTF_8), BUFFER_SIZE)
+            JsonStreamWriter(writer).also(encode).flush()
+        }
+    }
+}
@@ -5,22 +5,21 @@ import android.content.SharedPreferences
 import android.os.SystemClock
 import android.util.Log
 import dev.locus.LocusPlugin
-import dev.locus.storage.LocationStore
+import dev.locus.storage.LocationBackend
+import dev.locus.storage.QueueKeys
 import dev.locus.storage.QueueStore
+import dev.locus.storage.RouteContext
 import kotlinx.coroutines.*
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
-import java.io.BufferedReader
-import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
-import java.io.InputStreamReader
-import java.net.HttpURLConnection
-import java.net.URL
 import java.time.Instant
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.zip.GZIPOutputStream
 import kotlin.math.max
 import kotlin.math.min
@@ -29,13 +28,14 @@ import kotlin.math.pow
 class SyncManager(
     private val context: Context,
     private val config: ConfigManager,
-    private val locationStore: LocationStore,
+    /** The active location backend; re-read per use since config can switch it. */
+    private val locations: () -> LocationBackend,
     private val queueStore: QueueStore,
     private val listener: SyncListener
 ) {
     interface SyncListener {
         fun onHttpEvent(eventData: Map<String, Any>)
-        fun onLog(level: String, message: String)
+        fun onLog(level: String, message: () -> String)
         fun onSyncRequest()
 
         /**
@@ -77,6 +77,13 @@ class SyncManager(
         context.getSharedPreferences(LocusPlugin.PREFS_NAME, Context.MODE_PRIVATE)
     private val locationSyncLock = Any()
 
+    private val transportLock = Any()
+    private var transport: SyncTransport? = null
+    private var transportKind: HttpTransport? = null
+
+    /** Sizes location batches when [ConfigManager.adaptiveBatchSize] is on. */
+    private val batchSizer = AdaptiveBatchSizer()
+
     /**
      * Sync starts ACTIVE when Config.url is set. Pause is reserved for transport-level
      * auth failures (HTTP 401/403): those persist across process restarts via
@@ -95,8 +102,45 @@ class SyncManager(
     @Volatile
     private var isReleased = false
 
-    @Volatile
-    private var isLocationSyncInFlight = false
+    /**
+     * Route contexts with a location batch on its way to the server, at
+     * most [ConfigManager.maxConcurrentSyncBatches]. A context is in at most
+     * one batch at a time, so its rows still go out oldest first.
+     */
+    private val sendingContexts = mutableSetOf<RouteContext>()
+
+    /**
+     * Route contexts whose batch is waiting out a retry backoff. They don't
+     * hold a window slot, but [selectionExclusions] skips them so the
+     * same rows aren't read and sent again while the retry is pending.
+     */
+    private val retryingContexts = mutableSetOf<RouteContext>()
+
+    /**
+     * Window slots held by [requestLocationSync] callers reading a batch
+     * outside [locationSyncLock], before its context joins [sendingContexts].
+     */
+    private var readingSlots = 0
+
+    /** Queue item ids handed to [executor] and not yet acked or rescheduled. */
+    private val queueInFlight: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * [drainQueue] passes between reading due items and adding them to
+     * [queueInFlight], when a payload already read isn't in the set yet.
+     */
+    private val queueDrainPasses = AtomicInteger()
+
+    private val queueTimerLock = Any()
+
+    /** The single pending wake-up for the queue; see [armQueueTimer]. */
+    private var queueTimer: Job? = null
+
+    /**
+     * Consecutive drain passes that sent nothing while an item was due,
+     * e.g. because reading the queue failed; see [armQueueTimer].
+     */
+    private var queueStalledPasses = 0
 
     @Volatile
     private var pendingLocationDrainRequested = false
@@ -135,17 +179,10 @@ class SyncManager(
         val cooldownMs: Long,
     )
 
-    private data class RouteContext(
-        val ownerId: String,
-        val driverId: String,
-        val taskId: String,
-        val trackingSessionId: String,
-        val startedAt: String,
-    )
-
     private data class LocationBatch(
+        val context: RouteContext,
         val payloads: List<Map<String, Any>>,
-        val ids: List<String>,
+        val ids: List<Long>,
     )
 
     init {
@@ -221,25 +258,25 @@ class SyncManager(
         isReleased = true
         mainScope.cancel()
         executor.shutdown()
+        synchronized(transportLock) { transport?.close() }
         // Don't force-terminate - let in-flight syncs complete gracefully
         // Callbacks will be ignored since isReleased is true
     }
 
     fun syncNow(currentPayload: Map<String, Any>?) {
         if (config.httpUrl.isNullOrEmpty()) {
-            log("debug", "syncNow skipped: No URL configured. Set Config.url to enable sync.")
+            log("debug") { "syncNow skipped: No URL configured. Set Config.url to enable sync." }
             return
         }
         if (isSyncPaused) {
-            log(
-                "debug",
+            log("debug") {
                 "syncNow skipped: sync is paused (reason=${config.getSyncPauseReason() ?: "app"}). " +
                     "Call resumeSync() after resolving."
-            )
+            }
             return
         }
         if (config.batchSync) {
-            requestLocationSync(config.maxBatchSize)
+            requestLocationSync()
             return
         }
         currentPayload?.let { enqueueHttp(it, null, 0) }
@@ -261,7 +298,7 @@ class SyncManager(
             drainExhaustedContexts.clear()
         }
         if (wasPaused) emitPauseChange(false, null)
-        requestLocationSync(config.maxBatchSize)
+        requestLocationSync()
         syncQueue(0)
     }
 
@@ -294,41 +331,122 @@ class SyncManager(
             return
         }
 
-        requestLocationSync(config.maxBatchSize)
+        requestLocationSync()
     }
 
     fun syncStoredLocations(limit: Int) {
         requestLocationSync(limit)
     }
 
+    /**
+     * Sends due queue items. An explicit call also gives items whose
+     * retries were exhausted ([QueueStore.park]) one more attempt.
+     */
     fun syncQueue(limit: Int): Int {
         if (config.httpUrl.isNullOrEmpty() || isSyncPaused) return 0
-        
+        queueStore.resumeParked(System.currentTimeMillis())
+        return drainQueue(limit)
+    }
+
+    /**
+     * Dispatches up to [limit] (default `maxBatchSize`) due queue items that
+     * aren't already in flight, then re-arms [queueTimer]. With
+     * `queueBatchSize` above 1 they go out as batches of up to that many
+     * (per `type` with `queueBatchByType`); otherwise one request each.
+     */
+    private fun drainQueue(limit: Int): Int {
+        if (isReleased || config.httpUrl.isNullOrEmpty() || isSyncPaused) return 0
+
         val fetchLimit = if (limit > 0) limit else config.maxBatchSize
-        val records = queueStore.readQueue(fetchLimit)
-        var scheduled = 0
-        val now = System.currentTimeMillis()
-        
+        queueDrainPasses.incrementAndGet()
+        val items = try {
+            claimDue(fetchLimit)
+        } finally {
+            queueDrainPasses.decrementAndGet()
+        }
+
+        val batchSize = config.queueBatchSize
+        if (batchSize <= 1) {
+            items.forEach { enqueueQueueHttp(listOf(it), batched = false) }
+        } else {
+            val groups = if (config.queueBatchByType) items.groupBy { it.type }.values else listOf(items)
+            groups.forEach { group ->
+                group.chunked(batchSize).forEach { enqueueQueueHttp(it, batched = true) }
+            }
+        }
+        if (items.isNotEmpty()) synchronized(queueTimerLock) { queueStalledPasses = 0 }
+        armQueueTimer(sentNothing = items.isEmpty())
+        return items.size
+    }
+
+    /**
+     * Whether queue item [id] may already be on the wire: handed to a
+     * request, or read by a drain pass that hasn't added it to
+     * [queueInFlight] yet. A coalescing `enqueue` gives its replacement a
+     * new key when it is; see [QueueKeys].
+     */
+    fun isQueueItemInFlight(id: String): Boolean =
+        queueDrainPasses.get() > 0 || id in queueInFlight
+
+    /** Reads up to [limit] due queue items not already in flight and adds them to [queueInFlight]. */
+    private fun claimDue(limit: Int): List<QueueItem> {
+        val items = mutableListOf<QueueItem>()
+        val records = queueStore.readDue(System.currentTimeMillis(), limit, queueInFlight.toList())
         for (record in records) {
-            val nextRetryAt = (record["nextRetryAt"] as? Number)?.toLong() ?: 0L
-            if (nextRetryAt > now) continue
-            
             val id = record["id"] as? String ?: continue
-            val payloadJson = record["payload"] as? String ?: continue
-            
-            try {
-                val payload = QueueStore.parsePayload(payloadJson)
-                val type = record["type"] as? String
-                val key = record["idempotencyKey"] as? String ?: UUID.randomUUID().toString()
-                val retryCount = (record["retryCount"] as? Number)?.toInt() ?: 0
-                
-                enqueueQueueHttp(payload, id, type, key, retryCount)
-                scheduled++
-            } catch (e: JSONException) {
-                // Ignore malformed entries
+            val retryCount = (record["retryCount"] as? Number)?.toInt() ?: 0
+
+            // Stored JSON text, spliced into the body as is (no parse).
+            val payloadJson = record["payload"] as? String
+            if (payloadJson == null) {
+                // Undecodable entries can never be sent; park them so they
+                // don't stay due and keep re-arming the timer.
+                queueStore.park(id, retryCount)
+                continue
+            }
+            val type = record["type"] as? String
+            val generation = (record["idempotencyGeneration"] as? Number)?.toInt() ?: QueueKeys.FIRST_GENERATION
+            val key = (record["idempotencyKey"] as? String)?.let { QueueKeys.wireKey(it, generation) }
+                ?: UUID.randomUUID().toString()
+
+            if (queueInFlight.add(id)) {
+                items.add(QueueItem(id, payloadJson, type, key, retryCount))
+            }
+        }
+        return items
+    }
+
+    /**
+     * Points [queueTimer] at the earliest `next_retry_at` among queue items
+     * not in flight. One timer covers every item in backoff, instead of a
+     * coroutine per retry.
+     *
+     * [sentNothing] is set by a drain pass that dispatched no item. If an
+     * item is still due after such a pass, the queue couldn't be read (the
+     * read failed and came back empty), and re-arming at once would spin
+     * the main thread; the wake-up backs off from [QUEUE_STALL_MIN_DELAY_MS]
+     * up to [QUEUE_STALL_MAX_DELAY_MS] until a pass sends something.
+     */
+    private fun armQueueTimer(sentNothing: Boolean = false) {
+        if (isReleased || config.httpUrl.isNullOrEmpty()) return
+        val nextDueAt = queueStore.nextDueAt(queueInFlight.toList())
+        synchronized(queueTimerLock) {
+            queueTimer?.cancel()
+            queueTimer = null
+            if (nextDueAt == null) return
+            var delayMs = nextDueAt - System.currentTimeMillis()
+            // A full batch is already in flight; its completions re-arm.
+            if (delayMs <= 0 && queueInFlight.size >= config.maxBatchSize) return
+            if (delayMs <= 0 && sentNothing) {
+                val shift = min(queueStalledPasses, QUEUE_STALL_MAX_SHIFT)
+                delayMs = min(QUEUE_STALL_MIN_DELAY_MS shl shift, QUEUE_STALL_MAX_DELAY_MS)
+                queueStalledPasses++
+            }
+            queueTimer = mainScope.launch {
+                delay(max(0L, delayMs))
+                drainQueue(0)
             }
         }
-        return scheduled
     }
 
     fun getLocationSyncBacklog(): Map<String, Any?> {
@@ -336,6 +454,7 @@ class SyncManager(
         return mapOf(
             "pendingLocationCount" to backlog.pendingLocationCount,
             "pendingBatchCount" to backlog.pendingBatchCount,
+            "effectiveBatchSize" to backlog.effectiveBatchSize,
             "isPaused" to isSyncPaused,
             "quarantinedLocationCount" to backlog.quarantinedLocationCount,
             "lastSuccessAt" to readLastSuccessAt(),
@@ -347,59 +466,109 @@ class SyncManager(
     private data class BacklogSnapshot(
         val pendingLocationCount: Int,
         val pendingBatchCount: Int,
+        val effectiveBatchSize: Int,
         val quarantinedLocationCount: Int,
         val groups: List<Map<String, Any>>,
     )
 
-    private fun requestLocationSync(limit: Int) {
+    /**
+     * Records per location batch: `maxBatchSize`, or with
+     * [ConfigManager.adaptiveBatchSize] whatever [batchSizer] has settled on.
+     */
+    private fun locationBatchSize(): Int {
+        if (!config.adaptiveBatchSize) return config.maxBatchSize
+        batchSizer.configure(
+            initial = config.maxBatchSize,
+            min = config.minBatchSize,
+            max = config.maxAdaptiveBatchSize,
+            latencyTargetMs = config.batchLatencyTargetMs.toLong(),
+        )
+        return batchSizer.current
+    }
+
+    /**
+     * Fills the in-flight window: dispatches one batch per free slot, each
+     * from a different [RouteContext]. With a full window the request is
+     * remembered and replayed when a batch completes. A [limit] of 0 reads
+     * [locationBatchSize] records per batch.
+     */
+    private fun requestLocationSync(limit: Int = 0) {
         if (config.httpUrl.isNullOrEmpty() || isSyncPaused) return
 
-        val effectiveLimit = if (limit <= 0) config.maxBatchSize else limit
+        val effectiveLimit = if (limit <= 0) locationBatchSize() else limit
+        val window = config.maxConcurrentSyncBatches.coerceIn(1, MAX_CONCURRENT_SYNC_BATCHES)
         var noBatchAvailable = false
-        val batch = synchronized(locationSyncLock) {
-            pendingLocationDrainRequested = true
-            if (isLocationSyncInFlight) {
-                null
-            } else {
-                val nextBatch = selectNextLocationBatch(effectiveLimit)
-                if (nextBatch == null) {
-                    pendingLocationDrainRequested = false
-                    noBatchAvailable = true
+        val batches = mutableListOf<LocationBatch>()
+        while (true) {
+            // The read goes to SQLite or the journal, so it happens outside
+            // the lock; the slot taken here keeps the window bounded meanwhile.
+            val excluded = synchronized(locationSyncLock) {
+                if (sendingContexts.size + readingSlots >= window) {
                     null
                 } else {
-                    isLocationSyncInFlight = true
-                    pendingLocationDrainRequested = false
-                    nextBatch
+                    readingSlots++
+                    selectionExclusions()
                 }
+            } ?: break
+            val nextBatch = try {
+                readNextLocationBatch(effectiveLimit, excluded)
+            } catch (e: RuntimeException) {
+                synchronized(locationSyncLock) { readingSlots-- }
+                throw e
             }
+            val reserved = synchronized(locationSyncLock) {
+                readingSlots--
+                nextBatch != null &&
+                    nextBatch.context !in retryingContexts &&
+                    sendingContexts.add(nextBatch.context)
+            }
+            if (nextBatch == null) break
+            // Not reserved: another caller took the context while this one
+            // was reading, so read again with it excluded.
+            if (reserved) batches.add(nextBatch)
         }
-
-        if (batch == null) {
-            if (noBatchAvailable) maybeLogAllStranded()
-            return
+        synchronized(locationSyncLock) {
+            if (batches.isNotEmpty()) {
+                pendingLocationDrainRequested = false
+            } else if (sendingContexts.size + readingSlots >= window) {
+                pendingLocationDrainRequested = true
+            } else {
+                pendingLocationDrainRequested = false
+                noBatchAvailable = sendingContexts.isEmpty() && readingSlots == 0
+            }
         }
 
-        enqueueHttpBatch(batch.payloads, batch.ids, 0)
+        if (noBatchAvailable) maybeLogAllStranded()
+        batches.forEach { enqueueHttpBatch(it.payloads, it.ids, 0) }
     }
 
     /**
      * Advances the drain after a batch failure.
      *
      * When a retry is scheduled, the drain pauses for this batch — the retry
-     * runs independently and restarts the drain on success.
+     * runs independently and restarts the drain on success. Its context
+     * stays out of selection meanwhile ([retryingContexts]).
      *
      * When retries are exhausted, the batch's [RouteContext] is parked in
      * [drainExhaustedContexts] with a cooldown (initial value on first
      * strand, doubling up to the configured cap on each subsequent strand).
-     * [selectNextLocationBatch] skips contexts whose cooldown hasn't elapsed.
+     * [selectionExclusions] skips contexts whose cooldown hasn't elapsed.
      * The drain continues to the next context group; if all contexts are in
      * cooldown the next [requestLocationSync] yields no batch.
+     *
+     * [sending] is the context whose window slot the batch held, null for
+     * the single-location path, which doesn't take one.
      */
-    private fun advanceDrainAfterFailure(payloads: List<Map<String, Any>>, retryScheduled: Boolean) {
+    private fun advanceDrainAfterFailure(
+        payloads: List<Map<String, Any>>,
+        retryScheduled: Boolean,
+        sending: RouteContext?,
+    ) {
         if (retryScheduled) {
             // Retry handles this batch independently. Pause drain — the retry's
             // eventual completeLocationSync(true) on success will restart it.
-            completeLocationSync(false)
+            // scheduleBatchRetry already moved the slot to retryingContexts.
+            completeLocationSync(null, false)
             return
         }
         // Retries exhausted — park this context with a cooldown. Cooldown
@@ -434,21 +603,21 @@ class SyncManager(
                 }
             }
             if (appliedCooldown != null) {
-                log(
-                    "warn",
+                log("warn") {
                     "drain stranded for context taskId=${context.taskId}; " +
                         "next attempt in ${appliedCooldown}ms"
-                )
+                }
             }
             // else: re-strand inside an already-pending cooldown window;
             // keep the existing entry untouched so the original eligibility wins.
         }
-        completeLocationSync(true)
+        completeLocationSync(sending, true)
     }
 
-    private fun completeLocationSync(continueDrain: Boolean) {
+    /** Frees [sending]'s window slot (if any) and refills the window when asked to. */
+    private fun completeLocationSync(sending: RouteContext?, continueDrain: Boolean) {
         val shouldContinue = synchronized(locationSyncLock) {
-            isLocationSyncInFlight = false
+            if (sending != null) sendingContexts.remove(sending)
             if (continueDrain) {
                 pendingLocationDrainRequested = true
             }
@@ -458,50 +627,51 @@ class SyncManager(
         }
 
         if (shouldContinue && !isSyncPaused && !isReleased) {
-            requestLocationSync(config.maxBatchSize)
+            requestLocationSync()
         }
     }
 
-    private fun selectNextLocationBatch(limit: Int): LocationBatch? {
-        val records = locationStore.readLocations(0)
+    /**
+     * The contexts the next read must skip: those whose strand-cooldown
+     * hasn't elapsed, and those already in flight or waiting on a retry.
+     * An expired strand entry is a green light — it stays in the map (so
+     * the *next* strand doubles the cooldown), but is not passed as an
+     * exclusion. Called under [locationSyncLock].
+     */
+    private fun selectionExclusions(): Set<RouteContext> {
+        val now = SystemClock.elapsedRealtime()
+        return drainExhaustedContexts
+            .filterValues { now < it.eligibleAtElapsedMs }
+            .keys + sendingContexts + retryingContexts
+    }
+
+    /**
+     * Picks the next batch with a single indexed query against the promoted
+     * route-context columns: the context owning the oldest routable row
+     * outside [excluded], and at most [limit] of its oldest rows. Not
+     * called under [locationSyncLock]; the caller reserves the batch's
+     * context afterwards.
+     */
+    private fun readNextLocationBatch(limit: Int, excluded: Set<RouteContext>): LocationBatch? {
+        val records = locations().readNextContextBatch(limit, excluded)
         if (records.isEmpty()) return null
 
-        var selectedContext: RouteContext? = null
         val payloads = mutableListOf<Map<String, Any>>()
-        val ids = mutableListOf<String>()
-
+        val ids = mutableListOf<Long>()
         for (record in records) {
             val payload = buildPayloadFromRecord(record)
             if (payload.isEmpty()) continue
-
-            val context = extractRouteContext(payload) ?: continue
-            // Skip contexts whose strand-cooldown hasn't elapsed yet. An
-            // expired entry is a green light — it stays in the map (so the
-            // *next* strand doubles the cooldown), but selectNextLocationBatch
-            // treats it as eligible.
-            val strand = drainExhaustedContexts[context]
-            if (strand != null && SystemClock.elapsedRealtime() < strand.eligibleAtElapsedMs) {
-                continue
-            }
-            if (selectedContext == null) {
-                selectedContext = context
-            }
-            if (selectedContext != context) {
-                continue
-            }
-
             payloads.add(payload)
-            (record["id"] as? String)?.let(ids::add)
-            if (payloads.size >= limit) {
-                break
-            }
+            (record["id"] as? Long)?.let(ids::add)
         }
 
-        return if (payloads.isEmpty()) null else LocationBatch(payloads, ids)
+        if (payloads.isEmpty()) return null
+        val context = extractRouteContext(payloads.first()) ?: return null
+        return LocationBatch(context, payloads, ids)
     }
 
     /**
-     * Logs a structured warning when [selectNextLocationBatch] yields no
+     * Logs a structured warning when [readNextLocationBatch] yields no
      * batch and at least one [RouteContext] is parked in
      * [drainExhaustedContexts]. Without this, an operator watching logs
      * sees `attemptBatchSync: pending=N` grow with no diagnostic — the
@@ -529,34 +699,25 @@ class SyncManager(
 
         val nextEligibleMs = snapshot.values.minOf { it.eligibleAtElapsedMs }
         val msUntilNext = (nextEligibleMs - now).coerceAtLeast(0L)
-        log(
-            "warn",
+        log("warn") {
             "drain idle: all ${snapshot.size} context(s) stranded; " +
                 "next attempt in ${msUntilNext}ms taskIds=" +
                 snapshot.keys.joinToString(",") { it.taskId }
-        )
+        }
     }
 
+    /**
+     * Built from [LocationBackend.readBacklogCounts], so the cost is
+     * O(contexts) rather than a read-and-parse of every stored row — this
+     * runs after each persisted location when batch sync is on.
+     */
     private fun buildBacklog(): BacklogSnapshot {
-        val records = locationStore.readLocations(0)
-        val groupedCounts = linkedMapOf<RouteContext, Int>()
-        var pendingLocationCount = 0
-        var quarantinedLocationCount = 0
-
-        for (record in records) {
-            val payload = buildPayloadFromRecord(record)
-            if (payload.isEmpty()) continue
-            val context = extractRouteContext(payload)
-            if (context == null) {
-                quarantinedLocationCount++
-                continue
-            }
-            pendingLocationCount++
-            groupedCounts[context] = (groupedCounts[context] ?: 0) + 1
-        }
+        val counts = locations().readBacklogCounts()
+        val groupedCounts = counts.contexts
 
+        val batchSize = locationBatchSize()
         val pendingBatchCount = groupedCounts.values.sumOf { count ->
-            max(1, (count + config.maxBatchSize - 1) / config.maxBatchSize)
+            max(1, (count + batchSize - 1) / batchSize)
         }
         val groups = groupedCounts.entries.map { (context, count) ->
             mapOf(
@@ -570,38 +731,16 @@ class SyncManager(
         }
 
         return BacklogSnapshot(
-            pendingLocationCount = pendingLocationCount,
+            pendingLocationCount = counts.pendingCount,
             pendingBatchCount = pendingBatchCount,
-            quarantinedLocationCount = quarantinedLocationCount,
+            effectiveBatchSize = batchSize,
+            quarantinedLocationCount = counts.quarantinedCount,
             groups = groups,
         )
     }
 
-    private fun extractRouteContext(payload: Map<String, Any>): RouteContext? {
-        val extras = payload["extras"] as? Map<*, *> ?: return null
-        val ownerId = extras["owner_id"]?.toString().orEmpty()
-        val driverId = extras["driver_id"]?.toString().orEmpty()
-        val taskId = extras["task_id"]?.toString().orEmpty()
-        val trackingSessionId = extras["tracking_session_id"]?.toString().orEmpty()
-        val startedAt = extras["started_at"]?.toString().orEmpty()
-
-        if (ownerId.isBlank() ||
-            driverId.isBlank() ||
-            taskId.isBlank() ||
-            trackingSessionId.isBlank() ||
-            startedAt.isBlank()
-        ) {
-            return null
-        }
-
-        return RouteContext(
-            ownerId = ownerId,
-            driverId = driverId,
-            taskId = taskId,
-            trackingSessionId = trackingSessionId,
-            startedAt = startedAt,
-        )
-    }
+    private fun extractRouteContext(payload: Map<String, Any>): RouteContext? =
+        RouteContext.fromExtras(payload["extras"] as? Map<*, *>)
 
     private fun recordSyncSuccess() {
         prefs.edit()
@@ -651,7 +790,7 @@ class SyncManager(
     private fun readLastFailureReason(): String? =
         prefs.getString(KEY_LAST_LOCATION_SYNC_FAILURE_REASON, null)
 
-    private fun enqueueHttp(payload: Map<String, Any>, idsToDelete: List<String>?, attempt: Int) {
+    private fun enqueueHttp(payload: Map<String, Any>, idsToDelete: List<Long>?, attempt: Int) {
         if (isSyncPaused) return
 
         val locationPayload = buildPayloadFromRecord(payload)
@@ -661,13 +800,12 @@ class SyncManager(
             if (!proceed || isReleased) {
                 if (!proceed && !isReleased) {
                     emitHttpEvent(0, false, "pre_sync_validator_rejected")
-                    log(
-                        "error",
+                    log("error") {
                         "pre-sync validator rejected locations=1 extras=${JSONObject(config.extras).toString()}"
-                    )
+                    }
                     recordSyncFailure("pre_sync_validator_rejected")
                 }
-                advanceDrainAfterFailure(listOf(locationPayload), retryScheduled = false)
+                advanceDrainAfterFailure(listOf(locationPayload), retryScheduled = false, sending = null)
                 return@onPreSyncValidation
             }
 
@@ -679,13 +817,12 @@ class SyncManager(
                     executor.execute {
                         if (customBody == null) {
                             emitHttpEvent(0, false, "sync_body_builder_failed")
-                            log(
-                                "error",
+                            log("error") {
                                 "sync body builder failed locations=1 extras=${JSONObject(config.extras).toString()}"
-                            )
+                            }
                             recordSyncFailure("sync_body_builder_failed")
                             val retryScheduled = scheduleHttpRetry(locationPayload, idsToDelete, attempt + 1)
-                            advanceDrainAfterFailure(listOf(locationPayload), retryScheduled)
+                            advanceDrainAfterFailure(listOf(locationPayload), retryScheduled, sending = null)
                             return@execute
                         }
                         listener.onSyncRequest()
@@ -700,7 +837,7 @@ class SyncManager(
             } else {
                 executor.execute {
                     listener.onSyncRequest()
-                    val body = buildHttpBody(locationPayload, null).apply {
+                    val body = buildHttpBody(locationPayload).apply {
                         config.httpParams.forEach { (key, value) ->
                             put(key, value)
                         }
@@ -711,20 +848,23 @@ class SyncManager(
         }
     }
 
-    private fun enqueueHttpBatch(payloads: List<Map<String, Any>>, idsToDelete: List<String>, attempt: Int) {
-        if (isSyncPaused) return
+    private fun enqueueHttpBatch(payloads: List<Map<String, Any>>, idsToDelete: List<Long>, attempt: Int) {
+        val sending = extractRouteContext(payloads.first())
+        if (isSyncPaused) {
+            completeLocationSync(sending, false)
+            return
+        }
 
         listener.onPreSyncValidation(payloads, config.extras) { proceed ->
             if (!proceed || isReleased) {
                 if (!proceed && !isReleased) {
                     emitHttpEvent(0, false, "pre_sync_validator_rejected")
-                    log(
-                        "error",
+                    log("error") {
                         "pre-sync validator rejected locations=${payloads.size} extras=${JSONObject(config.extras).toString()}"
-                    )
+                    }
                     recordSyncFailure("pre_sync_validator_rejected")
                 }
-                advanceDrainAfterFailure(payloads, retryScheduled = false)
+                advanceDrainAfterFailure(payloads, retryScheduled = false, sending = sending)
                 return@onPreSyncValidation
             }
 
@@ -736,200 +876,300 @@ class SyncManager(
                     executor.execute {
                         if (customBody == null) {
                             emitHttpEvent(0, false, "sync_body_builder_failed")
-                            log(
-                                "error",
+                            log("error") {
                                 "sync body builder failed locations=${payloads.size} extras=${JSONObject(config.extras).toString()}"
-                            )
+                            }
                             recordSyncFailure("sync_body_builder_failed")
                             val retryScheduled = scheduleBatchRetry(payloads, idsToDelete, attempt + 1)
-                            advanceDrainAfterFailure(payloads, retryScheduled)
+                            advanceDrainAfterFailure(payloads, retryScheduled, sending)
                             return@execute
                         }
                         listener.onSyncRequest()
-                        val body = customBody.apply {
+                        val json = customBody.apply {
                             config.httpParams.forEach { (key, value) ->
                                 put(key, value)
                             }
-                        }
-                        performBatchHttpRequest(body, idsToDelete, attempt, payloads)
+                        }.toString()
+                        performBatchHttpRequest({ it.rawValue(json) }, idsToDelete, attempt, payloads)
                     }
                 }
             } else {
                 executor.execute {
                     listener.onSyncRequest()
-                    val body = buildHttpBody(null, payloads).apply {
-                        config.httpParams.forEach { (key, value) ->
-                            put(key, value)
-                        }
-                    }
-                    performBatchHttpRequest(body, idsToDelete, attempt, payloads)
+                    val extras = config.httpExtras.toMap()
+                    val params = config.httpParams.toMap()
+                    performBatchHttpRequest(
+                        { writeBatchBody(it, payloads, extras, params) },
+                        idsToDelete,
+                        attempt,
+                        payloads,
+                        binaryBody = { writer ->
+                            LocationBatchCbor.write(writer, batchRootProperty(), payloads, extras, params)
+                        },
+                    )
                 }
             }
         }
     }
 
-    private fun enqueueQueueHttp(
-        payload: Map<String, Any>,
-        id: String,
-        type: String?,
-        idempotencyKey: String,
-        attempt: Int
-    ) {
-        if (isSyncPaused) return
-        
+    /** One due queue row on its way to the server. */
+    private class QueueItem(
+        val id: String,
+        val payloadJson: String,
+        val type: String?,
+        val idempotencyKey: String,
+        val retryCount: Int,
+    )
+
+    /**
+     * Sends [items] in one request: the legacy single-payload body when not
+     * [batched], else an `items` array ([buildQueueBatchBody]). Acked rows
+     * are deleted and the rest rescheduled in one transaction
+     * ([QueueStore.complete]).
+     */
+    private fun enqueueQueueHttp(items: List<QueueItem>, batched: Boolean) {
+        val ids = items.map { it.id }
+        if (isSyncPaused) {
+            queueInFlight.removeAll(ids.toSet())
+            return
+        }
+
         executor.execute {
             listener.onSyncRequest()
-            var connection: HttpURLConnection? = null
             try {
-                val body = buildQueueBody(payload, id, type, idempotencyKey).apply {
-                    config.httpParams.forEach { (key, value) ->
-                        put(key, value)
-                    }
+                val single = items.first()
+                val body = if (batched) {
+                    buildQueueBatchBody(items, config.httpParams)
+                } else {
+                    buildQueueBody(single, config.httpParams)
                 }
+                val idempotencyKey = if (batched) batchIdempotencyKey(items) else single.idempotencyKey
 
-                val rawJson = body.toString().toByteArray(Charsets.UTF_8)
+                val rawJson = body.toByteArray(Charsets.UTF_8)
                 val (wireBytes, contentEncoding) = maybeCompress(rawJson)
 
-                connection = (URL(config.httpUrl).openConnection() as HttpURLConnection).apply {
-                    requestMethod = config.httpMethod
-                    connectTimeout = config.httpTimeoutMs
-                    readTimeout = config.httpTimeoutMs
-                    doOutput = true
-                    setRequestProperty("Content-Type", "application/json")
-                    config.httpHeaders.toMap().forEach { (key, value) ->
-                        setRequestProperty(sanitizeHeaderKey(key), sanitizeHeaderValue(value.toString()))
-                    }
-                    config.idempotencyHeader?.let { header ->
-                        setRequestProperty(sanitizeHeaderKey(header), idempotencyKey)
-                    }
-                    if (contentEncoding != null) {
-                        setRequestProperty("Content-Encoding", contentEncoding)
-                    }
-                }
-
-                connection.outputStream.use { output ->
-                    output.write(wireBytes)
-                    output.flush()
-                }
-
-                val status = connection.responseCode
-                val stream = if (status >= 400) {
-                    connection.errorStream ?: ByteArrayInputStream(ByteArray(0))
-                } else {
-                    connection.inputStream
-                }
-
-                val responseText = BufferedReader(InputStreamReader(stream)).use { reader ->
-                    reader.readText()
-                }
+                val idempotencyHeaders = config.idempotencyHeader
+                    ?.let { header -> mapOf(sanitizeHeaderKey(header) to idempotencyKey) }
+                    ?: emptyMap()
+                val response = send(SyncTransport.BytesBody(wireBytes), contentEncoding, idempotencyHeaders)
+                val status = response.status
+                val responseText = response.body
 
                 val ok = status in 200..299
-                if (ok) {
-                    queueStore.deleteByIds(listOf(id))
+                var ackedCount: Int? = null
+                when {
+                    ok -> {
+                        val acked = if (batched) parseQueueAcks(responseText, ids) else ids.toSet()
+                        queueStore.complete(acked, items.filter { it.id !in acked }.mapNotNull(::retryFor))
+                        ackedCount = acked.size
+                    }
+                    // Auth failures pause sync; rows stay due for the resume.
+                    status == 401 || status == 403 -> Unit
+                    else -> queueStore.complete(emptyList(), items.mapNotNull(::retryFor))
                 }
 
-                // Queue path always carries one record per request.
-                emitHttpEvent(status, ok, responseText, recordsSent = if (ok) 1 else null)
-                log("info", "http $status")
+                emitHttpEvent(status, ok, responseText, recordsSent = ackedCount, timing = response.timing)
+                log("info") { "http $status" }
 
-                when {
-                    status == 401 || status == 403 -> pauseForAuthFailure(status)
-                    !ok -> scheduleQueueRetry(payload, id, type, idempotencyKey, attempt + 1)
-                }
+                if (status == 401 || status == 403) pauseForAuthFailure(status)
             } catch (e: Exception) {
                 Log.e(TAG, "Queue HTTP sync failed: ${sanitizeError(e)}")
                 emitHttpEvent(0, false, e.message)
-                log("error", "http error ${sanitizeError(e)}")
-                scheduleQueueRetry(payload, id, type, idempotencyKey, attempt + 1)
+                log("error") { "http error ${sanitizeError(e)}" }
+                queueStore.complete(emptyList(), items.mapNotNull(::retryFor))
             } finally {
-                connection?.disconnect()
+                queueInFlight.removeAll(ids.toSet())
+                armQueueTimer()
+            }
+        }
+    }
+
+    /**
+     * Body of a queue batch: each item in the single-payload shape of
+     * [buildQueueBody] under `items`, plus the shared `type` when batches
+     * are grouped by type, plus [params].
+     */
+    private fun buildQueueBatchBody(items: List<QueueItem>, params: Map<String, Any>): String {
+        val envelope = JSONObject().apply {
+            if (config.queueBatchByType) {
+                items.first().type?.let { put("type", it) }
+            }
+            params.forEach { (key, value) -> put(key, value) }
+        }
+        return spliceJson(envelope, "items", items.joinToString(",", "[", "]") { buildQueueBody(it, emptyMap()) })
+    }
+
+    /**
+     * Idempotency key for a batch, derived from its items' keys so a retry
+     * of the same items repeats it while any other grouping gets a new one.
+     */
+    private fun batchIdempotencyKey(items: List<QueueItem>): String =
+        UUID.nameUUIDFromBytes(
+            items.map { it.idempotencyKey }.sorted().joinToString("\n").toByteArray(Charsets.UTF_8)
+        ).toString()
+
+    /**
+     * Ids of [ids] acknowledged by a 2xx batch response. A body with a
+     * `results` array acks exactly the entries whose `ok` is true (or whose
+     * `status` is 2xx); any other body acks the whole batch.
+     */
+    private fun parseQueueAcks(responseText: String, ids: List<String>): Set<String> {
+        val results = try {
+            JSONObject(responseText).optJSONArray("results")
+        } catch (e: JSONException) {
+            null
+        } ?: return ids.toSet()
+
+        val sent = ids.toSet()
+        val acked = mutableSetOf<String>()
+        for (i in 0 until results.length()) {
+            val result = results.optJSONObject(i) ?: continue
+            val id = result.optString("queueId").takeIf { it in sent } ?: continue
+            val ok = if (result.has("ok")) {
+                result.optBoolean("ok")
+            } else {
+                result.optInt("status") in 200..299
             }
+            if (ok) acked.add(id)
         }
+        return acked
     }
 
-    private fun buildHttpBody(
-        locationPayload: Map<String, Any>?,
-        locations: List<Map<String, Any>>?
-    ): JSONObject = JSONObject().apply {
+    /** Body for one location; batches are streamed by [writeBatchBody]. */
+    private fun buildHttpBody(locationPayload: Map<String, Any>): JSONObject = JSONObject().apply {
         // Merge extras at top level first (these are user-defined envelope fields)
         config.httpExtras?.forEach { (key, value) ->
             put(key, value)
         }
 
-        // Add locations under the specified root property
+        // Add the location under the specified root property
         val rootProperty = config.httpRootProperty?.takeIf { it.isNotEmpty() }
-        
-        when {
-            locations != null -> {
-                val list = JSONArray().apply {
-                    locations.forEach { put(JSONObject(it)) }
-                }
-                put(rootProperty ?: "locations", list)
-            }
-            locationPayload != null -> {
-                val payload = JSONObject(locationPayload)
-                put(rootProperty ?: "location", payload)
-            }
+        put(rootProperty ?: "location", JSONObject(locationPayload))
+    }
+
+    /**
+     * Streams the batch envelope: [extras] first, then [payloads] under the
+     * root property (`locations` by default), then [params], which win
+     * over both on a shared key, as `JSONObject.put` order did.
+     */
+    private fun writeBatchBody(
+        writer: JsonStreamWriter,
+        payloads: List<Map<String, Any>>,
+        extras: Map<String, Any>,
+        params: Map<String, Any>,
+    ) {
+        val rootProperty = batchRootProperty()
+        writer.beginObject()
+        extras.forEach { (key, value) ->
+            if (key != rootProperty && key !in params) writer.name(key).value(value)
+        }
+        if (rootProperty !in params) {
+            writer.name(rootProperty).beginArray()
+            payloads.forEach { writer.value(it) }
+            writer.endArray()
         }
+        params.forEach { (key, value) -> writer.name(key).value(value) }
+        writer.endObject()
     }
 
-    private fun buildQueueBody(
-        payload: Map<String, Any>,
-        id: String,
-        type: String?,
-        idempotencyKey: String?
-    ): JSONObject = JSONObject().apply {
+    private fun batchRootProperty(): String =
+        config.httpRootProperty?.takeIf { it.isNotEmpty() } ?: "locations"
+
+    /**
+     * JSON body for one queue [item]: its stored payload JSON under the root
+     * property, spliced in as text, next to `queueId`, `type`,
+     * `idempotencyKey` and [params].
+     */
+    private fun buildQueueBody(item: QueueItem, params: Map<String, Any>): String {
+        val envelope = JSONObject().apply {
+            put("queueId", item.id)
+            item.type?.let { put("type", it) }
+            put("idempotencyKey", item.idempotencyKey)
+            params.forEach { (key, value) -> put(key, value) }
+        }
         val rootProperty = config.httpRootProperty?.takeIf { it.isNotEmpty() } ?: "payload"
-        put(rootProperty, JSONObject(payload))
-        put("queueId", id)
-        type?.let { put("type", it) }
-        idempotencyKey?.let { put("idempotencyKey", it) }
+        return spliceJson(envelope, rootProperty, item.payloadJson)
+    }
+
+    /**
+     * Serializes [envelope] with [rawJson] added verbatim under [key]. An
+     * existing [key] in [envelope] (a colliding http param) wins, as it did
+     * when params were put after the payload.
+     */
+    private fun spliceJson(envelope: JSONObject, key: String, rawJson: String): String {
+        if (envelope.has(key)) return envelope.toString()
+        val field = JSONObject.quote(key) + ":" + rawJson
+        val rest = envelope.toString()
+        return if (envelope.length() == 0) "{$field}" else "{$field,${rest.substring(1)}"
+    }
+
+    /**
+     * One request to `Config.url` through the [SyncTransport] picked by
+     * [ConfigManager.httpTransport], rebuilt when that setting changes so
+     * its pooled connections carry over from one sync to the next.
+     *
+     * A [contentType] overrides a `Content-Type` in `Config.headers`, which
+     * apps commonly set to JSON.
+     */
+    private fun send(
+        body: SyncTransport.Body,
+        contentEncoding: String?,
+        extraHeaders: Map<String, String> = emptyMap(),
+        contentType: String? = null,
+    ): SyncTransport.Response {
+        val headers = LinkedHashMap<String, String>()
+        headers["Content-Type"] = "application/json"
+        config.httpHeaders.toMap().forEach { (key, value) ->
+            headers[sanitizeHeaderKey(key)] = sanitizeHeaderValue(value.toString())
+        }
+        headers.putAll(extraHeaders)
+        if (contentType != null) {
+            headers.keys.removeAll { it.equals("Content-Type", ignoreCase = true) }
+            headers["Content-Type"] = contentType
+        }
+        if (contentEncoding != null) {
+            headers["Content-Encoding"] = contentEncoding
+        }
+        val url = config.httpUrl ?: throw IllegalStateException("No sync URL configured")
+        val request = SyncTransport.Request(
+            url = url,
+            method = config.httpMethod,
+            headers = headers,
+            body = body,
+            connectTimeoutMs = config.httpTimeoutMs,
+            readTimeoutMs = config.httpTimeoutMs,
+        )
+        return transport().execute(request)
+    }
+
+    private fun transport(): SyncTransport = synchronized(transportLock) {
+        val kind = config.httpTransport
+        transport?.takeIf { transportKind == kind } ?: run {
+            transport?.close()
+            SyncTransport.create(kind).also {
+                transport = it
+                transportKind = kind
+            }
+        }
     }
 
     private fun performHttpRequest(
         body: JSONObject,
-        idsToDelete: List<String>?,
+        idsToDelete: List<Long>?,
         attempt: Int,
         originalPayload: Map<String, Any>,
         allowRecovery: Boolean = true,
     ) {
-        var connection: HttpURLConnection? = null
         try {
             val rawJson = body.toString().toByteArray(Charsets.UTF_8)
             val (wireBytes, contentEncoding) = maybeCompress(rawJson)
 
-            connection = (URL(config.httpUrl).openConnection() as HttpURLConnection).apply {
-                requestMethod = config.httpMethod
-                connectTimeout = config.httpTimeoutMs
-                readTimeout = config.httpTimeoutMs
-                doOutput = true
-                setRequestProperty("Content-Type", "application/json")
-                config.httpHeaders.toMap().forEach { (key, value) ->
-                    setRequestProperty(sanitizeHeaderKey(key), sanitizeHeaderValue(value.toString()))
-                }
-                if (contentEncoding != null) {
-                    setRequestProperty("Content-Encoding", contentEncoding)
-                }
-            }
-
-            connection.outputStream.use { output ->
-                output.write(wireBytes)
-                output.flush()
-            }
-
-            val status = connection.responseCode
-            val stream = if (status >= 400) {
-                connection.errorStream ?: ByteArrayInputStream(ByteArray(0))
-            } else {
-                connection.inputStream
-            }
-
-            val responseText = BufferedReader(InputStreamReader(stream)).use { reader ->
-                reader.readText()
-            }
+            val response = send(SyncTransport.BytesBody(wireBytes), contentEncoding)
+            val status = response.status
+            val responseText = response.body
 
             if (status == 401 && allowRecovery) {
-                attemptLocationHeadersRecovery {
+                attemptLocationHeadersRecovery(sending = null) {
                     performHttpRequest(
                         body = body,
                         idsToDelete = idsToDelete,
@@ -943,7 +1183,9 @@ class SyncManager(
 
             val ok = status in 200..299
             if (ok && !idsToDelete.isNullOrEmpty()) {
-                locationStore.deleteLocations(idsToDelete)
+                locations().deleteLocations(idsToDelete) {
+                    log("debug") { "Deleted ${idsToDelete.size} synced location(s)" }
+                }
                 recordSyncSuccess()
             }
 
@@ -951,8 +1193,8 @@ class SyncManager(
             // when the call had no idsToDelete (legacy callers). Failures emit
             // no count so syncAttemptsFailed is not misread as records sent.
             val sentCount = if (ok) (idsToDelete?.size ?: 1) else null
-            emitHttpEvent(status, ok, responseText, recordsSent = sentCount)
-            log(if (ok) "info" else "error", "http $status${if (ok) "" else " $responseText"}")
+            emitHttpEvent(status, ok, responseText, recordsSent = sentCount, timing = response.timing)
+            log(if (ok) "info" else "error") { "http $status${if (ok) "" else " $responseText"}" }
 
             if (status == 415) {
                 handle415Fallback()
@@ -962,98 +1204,103 @@ class SyncManager(
                 status == 401 || status == 403 -> {
                     recordSyncFailure("http_$status")
                     pauseForAuthFailure(status)
-                    completeLocationSync(false)
+                    completeLocationSync(null, false)
                 }
                 !ok -> {
                     recordSyncFailure("http_$status")
                     val retryScheduled = scheduleHttpRetry(originalPayload, idsToDelete, attempt + 1)
-                    advanceDrainAfterFailure(listOf(originalPayload), retryScheduled)
+                    advanceDrainAfterFailure(listOf(originalPayload), retryScheduled, sending = null)
                 }
-                else -> completeLocationSync(true)
+                else -> completeLocationSync(null, true)
             }
         } catch (e: Exception) {
             Log.e(TAG, "HTTP sync failed: ${sanitizeError(e)}")
             emitHttpEvent(0, false, e.message)
-            log("error", "http error ${sanitizeError(e)}")
+            log("error") { "http error ${sanitizeError(e)}" }
             recordSyncFailure("exception:${e.javaClass.simpleName}")
             val retryScheduled = scheduleHttpRetry(originalPayload, idsToDelete, attempt + 1)
-            advanceDrainAfterFailure(listOf(originalPayload), retryScheduled)
-        } finally {
-            connection?.disconnect()
+            advanceDrainAfterFailure(listOf(originalPayload), retryScheduled, sending = null)
         }
     }
 
     /**
      * 415 on a possibly-gzipped request → an intermediary proxy stripped or
      * double-encoded the body. Suppress compression for 60 minutes so the
-     * next batches succeed; retry below picks up the new setting.
+     * next batches succeed; retry below picks up the new setting. When the
+     * body was [codec]-encoded rather than JSON, the server more likely
+     * rejects the format, so batches go out as JSON for the window instead.
      */
-    private fun handle415Fallback() {
+    private fun handle415Fallback(codec: BodyCodec = BodyCodec.JSON) {
+        if (codec != BodyCodec.JSON) {
+            config.disableBodyCodecFor(COMPRESSION_DISABLE_DURATION_ON_415_MS)
+            log("warn") {
+                "http_415_disabling_body_codec codec=${codec.name.lowercase()} " +
+                    "duration_seconds=${COMPRESSION_DISABLE_DURATION_ON_415_MS / 1000}"
+            }
+            return
+        }
         config.disableCompressionFor(COMPRESSION_DISABLE_DURATION_ON_415_MS)
-        log(
-            "warn",
-            "http_415_disabling_compression duration_seconds=${COMPRESSION_DISABLE_DURATION_ON_415_MS / 1000}",
-        )
+        log("warn") {
+            "http_415_disabling_compression duration_seconds=${COMPRESSION_DISABLE_DURATION_ON_415_MS / 1000}"
+        }
     }
 
+    /**
+     * Sends one location batch. [body] writes it as JSON; [binaryBody], when
+     * given, writes it for [ConfigManager.bodyCodec] and is used instead
+     * unless that codec is JSON or suppressed after a 415.
+     */
     private fun performBatchHttpRequest(
-        body: JSONObject,
-        idsToDelete: List<String>,
+        body: (JsonStreamWriter) -> Unit,
+        idsToDelete: List<Long>,
         attempt: Int,
         payloads: List<Map<String, Any>>,
         allowRecovery: Boolean = true,
+        binaryBody: ((CborWriter) -> Unit)? = null,
     ) {
-        var connection: HttpURLConnection? = null
+        val sending = extractRouteContext(payloads.first())
         try {
-            val rawJson = body.toString().toByteArray(Charsets.UTF_8)
-            val (wireBytes, contentEncoding) = maybeCompress(rawJson)
-
-            connection = (URL(config.httpUrl).openConnection() as HttpURLConnection).apply {
-                requestMethod = config.httpMethod
-                connectTimeout = config.httpTimeoutMs
-                readTimeout = config.httpTimeoutMs
-                doOutput = true
-                setRequestProperty("Content-Type", "application/json")
-                config.httpHeaders.toMap().forEach { (key, value) ->
-                    setRequestProperty(sanitizeHeaderKey(key), sanitizeHeaderValue(value.toString()))
-                }
-                if (contentEncoding != null) {
-                    setRequestProperty("Content-Encoding", contentEncoding)
-                }
-            }
-
-            connection.outputStream.use { output ->
-                output.write(wireBytes)
-                output.flush()
-            }
-
-            val status = connection.responseCode
-            val stream = if (status >= 400) {
-                connection.errorStream ?: ByteArrayInputStream(ByteArray(0))
+            val codec = if (binaryBody != null) config.effectiveBodyCodec else BodyCodec.JSON
+            val (requestBody, contentEncoding) = if (binaryBody != null && codec == BodyCodec.CBOR) {
+                cborBody(binaryBody)
             } else {
-                connection.inputStream
+                jsonBody(body)
             }
 
-            val responseText = BufferedReader(InputStreamReader(stream)).use { reader ->
-                reader.readText()
-            }
+            val response = send(
+                requestBody,
+                contentEncoding,
+                contentType = codec.contentType.takeIf { codec != BodyCodec.JSON },
+            )
+            val status = response.status
+            val responseText = response.body
 
             if (status == 401 && allowRecovery) {
-                attemptLocationHeadersRecovery {
+                attemptLocationHeadersRecovery(sending) {
                     performBatchHttpRequest(
                         body = body,
                         idsToDelete = idsToDelete,
                         attempt = attempt,
                         payloads = payloads,
                         allowRecovery = false,
+                        binaryBody = binaryBody,
                     )
                 }
                 return
             }
 
             val ok = status in 200..299
+            if (config.adaptiveBatchSize) {
+                if (ok) {
+                    batchSizer.onSuccess(payloads.size, response.timing.totalMs)
+                } else if (AdaptiveBatchSizer.isCongestion(status)) {
+                    batchSizer.onCongestion()
+                }
+            }
             if (ok && idsToDelete.isNotEmpty()) {
-                locationStore.deleteLocations(idsToDelete)
+                locations().deleteLocations(idsToDelete) {
+                    log("debug") { "Deleted ${idsToDelete.size} synced location(s)" }
+                }
                 recordSyncSuccess()
             }
 
@@ -1061,39 +1308,41 @@ class SyncManager(
             // 2xx response. Non-2xx attempts skip the count so the failure
             // path can't accidentally inflate `pointsSent`.
             val sentCount = if (ok) idsToDelete.size else null
-            emitHttpEvent(status, ok, responseText, recordsSent = sentCount)
-            log(if (ok) "info" else "error", "http $status${if (ok) "" else " $responseText"}")
+            emitHttpEvent(status, ok, responseText, recordsSent = sentCount, timing = response.timing)
+            log(if (ok) "info" else "error") { "http $status${if (ok) "" else " $responseText"}" }
 
             if (status == 415) {
-                handle415Fallback()
+                handle415Fallback(codec)
             }
 
             when {
                 status == 401 || status == 403 -> {
                     recordSyncFailure("http_$status")
                     pauseForAuthFailure(status)
-                    completeLocationSync(false)
+                    completeLocationSync(sending, false)
                 }
                 !ok -> {
                     recordSyncFailure("http_$status")
                     val retryScheduled = scheduleBatchRetry(payloads, idsToDelete, attempt + 1)
-                    advanceDrainAfterFailure(payloads, retryScheduled)
+                    advanceDrainAfterFailure(payloads, retryScheduled, sending)
                 }
-                else -> completeLocationSync(true)
+                else -> completeLocationSync(sending, true)
             }
         } catch (e: Exception) {
             Log.e(TAG, "HTTP sync failed: ${sanitizeError(e)}")
             emitHttpEvent(0, false, e.message)
-            log("error", "http error ${sanitizeError(e)}")
+            log("error") { "http error ${sanitizeError(e)}" }
             recordSyncFailure("exception:${e.javaClass.simpleName}")
+            // Socket and OkHttp call timeouts; other I/O errors say nothing about size.
+            if (config.adaptiveBatchSize && e is java.io.InterruptedIOException) {
+                batchSizer.onCongestion()
+            }
             val retryScheduled = scheduleBatchRetry(payloads, idsToDelete, attempt + 1)
-            advanceDrainAfterFailure(payloads, retryScheduled)
-        } finally {
-            connection?.disconnect()
+            advanceDrainAfterFailure(payloads, retryScheduled, sending)
         }
     }
 
-    private fun attemptLocationHeadersRecovery(retry: () -> Unit) {
+    private fun attemptLocationHeadersRecovery(sending: RouteContext?, retry: () -> Unit) {
         listener.onHeadersRefresh { headers ->
             val recovered = headers?.get("Authorization")?.isNotBlank() == true
             if (recovered) {
@@ -1103,7 +1352,7 @@ class SyncManager(
                 // channel result for the bridge path; mainHandler.post for the
                 // headless path — see HeadlessHeadersDispatcher.refreshHeaders).
                 // The retry calls performHttp(Batch)Request directly which
-                // does blocking I/O via HttpURLConnection, so it must run on
+                // does blocking I/O through the SyncTransport, so it must run on
                 // the sync executor or Android raises NetworkOnMainThread-
                 // Exception and the recovery batch is silently dropped.
                 executor.execute { retry() }
@@ -1113,21 +1362,50 @@ class SyncManager(
             recordSyncFailure("http_401")
             emitHttpEvent(401, false, "unauthorized")
             pauseForAuthFailure(401)
-            completeLocationSync(false)
+            completeLocationSync(sending, false)
         }
     }
 
     /**
-     * Schedules an exponential-backoff retry for a failed batch.
+     * Schedules an exponential-backoff retry for a failed batch. When
+     * [batchSizer] has since shrunk below the batch, only its oldest rows
+     * are retried; the rest stay stored and go out with the drain.
      *
      * @return `true` if a retry was scheduled, `false` if retries are exhausted.
      */
-    private fun scheduleBatchRetry(payloads: List<Map<String, Any>>, idsToDelete: List<String>, attempt: Int): Boolean {
+    private fun scheduleBatchRetry(
+        failedPayloads: List<Map<String, Any>>,
+        failedIds: List<Long>,
+        attempt: Int,
+    ): Boolean {
         if (isReleased || attempt > config.maxRetry || config.httpUrl.isNullOrEmpty()) return false
 
+        var payloads = failedPayloads
+        var idsToDelete = failedIds
+        val batchSize = locationBatchSize()
+        if (config.adaptiveBatchSize && payloads.size > batchSize && idsToDelete.size == payloads.size) {
+            payloads = payloads.take(batchSize)
+            idsToDelete = idsToDelete.take(batchSize)
+        }
+
+        // The context gives up its window slot while it backs off and takes
+        // one again when the retry fires, so it never has two batches out.
+        val context = extractRouteContext(payloads.first())
+        if (context != null) {
+            synchronized(locationSyncLock) {
+                sendingContexts.remove(context)
+                retryingContexts.add(context)
+            }
+        }
         val delay = calculateRetryDelay(attempt)
         mainScope.launch {
             delay(delay)
+            if (context != null) {
+                synchronized(locationSyncLock) {
+                    retryingContexts.remove(context)
+                    if (!isReleased) sendingContexts.add(context)
+                }
+            }
             if (!isReleased) enqueueHttpBatch(payloads, idsToDelete, attempt)
         }
         return true
@@ -1138,7 +1416,7 @@ class SyncManager(
      *
      * @return `true` if a retry was scheduled, `false` if retries are exhausted.
      */
-    private fun scheduleHttpRetry(payload: Map<String, Any>, idsToDelete: List<String>?, attempt: Int): Boolean {
+    private fun scheduleHttpRetry(payload: Map<String, Any>, idsToDelete: List<Long>?, attempt: Int): Boolean {
         if (isReleased || attempt > config.maxRetry || config.httpUrl.isNullOrEmpty()) return false
 
         val delay = calculateRetryDelay(attempt)
@@ -1149,22 +1427,18 @@ class SyncManager(
         return true
     }
 
-    private fun scheduleQueueRetry(
-        payload: Map<String, Any>,
-        id: String,
-        type: String?,
-        idempotencyKey: String,
-        attempt: Int
-    ) {
-        if (isReleased || attempt > config.maxRetry || config.httpUrl.isNullOrEmpty()) return
-        
-        val delay = calculateRetryDelay(attempt)
-        val nextRetryAt = System.currentTimeMillis() + delay
-        queueStore.updateRetry(id, attempt, nextRetryAt)
-        mainScope.launch {
-            delay(delay)
-            if (!isReleased) enqueueQueueHttp(payload, id, type, idempotencyKey, attempt)
+    /**
+     * The next attempt for a failed queue [item]; [armQueueTimer] picks it
+     * up when due. Once [ConfigManager.maxRetry] is exceeded the item is
+     * parked until the next explicit [syncQueue]. Null leaves the row as is.
+     */
+    private fun retryFor(item: QueueItem): QueueStore.Retry? {
+        if (isReleased || config.httpUrl.isNullOrEmpty()) return null
+        val attempt = item.retryCount + 1
+        if (attempt > config.maxRetry) {
+            return QueueStore.Retry(item.id, item.retryCount, nextRetryAt = null)
         }
+        return QueueStore.Retry(item.id, attempt, System.currentTimeMillis() + calculateRetryDelay(attempt))
     }
 
     private fun calculateRetryDelay(attempt: Int): Long {
@@ -1209,21 +1483,52 @@ class SyncManager(
         val gzipped = gzip(rawJson)
         return if (gzipped.size < rawJson.size) {
             val ratio = "%.2f".format(gzipped.size.toDouble() / rawJson.size)
-            log(
-                "info",
+            log("info") {
                 "sync_body_compressed raw_bytes=${rawJson.size} compressed_bytes=${gzipped.size} ratio=$ratio"
-            )
+            }
             gzipped to "gzip"
         } else {
             rawJson to null
         }
     }
 
+    /**
+     * The wire body for a JSON body written by [encode], with its
+     * `Content-Encoding`. A body that fits in [STREAM_PROBE_BYTES] is
+     * encoded to bytes and goes through [maybeCompress] as before. A larger
+     * one is streamed: it is past [COMPRESSION_THRESHOLD_BYTES] by then, and
+     * whether gzip pays off is judged on the first [STREAM_PROBE_BYTES].
+     */
+    private fun jsonBody(encode: (JsonStreamWriter) -> Unit): Pair<SyncTransport.Body, String?> {
+        val probe = StreamingJsonBody.probe(STREAM_PROBE_BYTES, encode)
+        if (probe.complete) {
+            val (wireBytes, contentEncoding) = maybeCompress(probe.bytes)
+            return SyncTransport.BytesBody(wireBytes) to contentEncoding
+        }
+        val compress = config.compressRequests &&
+            !config.isCompressionDisabledByFallback &&
+            gzip(probe.bytes).size < probe.bytes.size
+        log("info") { "sync_body_streamed gzip=$compress" }
+        return StreamingJsonBody(compress, encode) to (if (compress) "gzip" else null)
+    }
+
+    /**
+     * The wire body for a CBOR body written by [encode], with its
+     * `Content-Encoding`. Delta-coded batches are small, so this encodes to
+     * bytes and leaves gzip to [maybeCompress].
+     */
+    private fun cborBody(encode: (CborWriter) -> Unit): Pair<SyncTransport.Body, String?> {
+        val raw = ByteArrayOutputStream().also { encode(CborWriter(it)) }.toByteArray()
+        val (wireBytes, contentEncoding) = maybeCompress(raw)
+        return SyncTransport.BytesBody(wireBytes) to contentEncoding
+    }
+
     private fun emitHttpEvent(
         status: Int,
         ok: Boolean,
         responseText: String?,
         recordsSent: Int? = null,
+        timing: SyncTransport.Timing? = null,
     ) {
         // recordsSent is the SDK's best-effort count of locations the backend
         // acknowledged in this attempt. Only the success branches of the
@@ -1237,6 +1542,9 @@ class SyncManager(
         if (recordsSent != null) {
             data["recordsSent"] = recordsSent
         }
+        if (timing != null) {
+            data["timing"] = timing.toMap()
+        }
         val httpEvent = mapOf(
             "type" to "http",
             "data" to data,
@@ -1244,14 +1552,14 @@ class SyncManager(
         listener.onHttpEvent(httpEvent)
     }
 
-    private fun log(level: String, message: String) {
+    private fun log(level: String, message: () -> String) {
         listener.onLog(level, message)
     }
 
     fun buildPayloadFromRecord(record: Map<String, Any>?): Map<String, Any> {
         if (record == null) return emptyMap()
         
-        val id = record["id"]
+        val uuid = record["uuid"]
         val timestampValue = record["timestamp"]
         val latitude = record["latitude"]
         val longitude = record["longitude"]
@@ -1281,7 +1589,7 @@ class SyncManager(
         val timestamp = (timestampValue as? Number)?.toLong() ?: System.currentTimeMillis()
         
         return buildMap {
-            put("uuid", (id as? String) ?: UUID.randomUUID().toString())
+            put("uuid", (uuid as? String) ?: UUID.randomUUID().toString())
             put("timestamp", Instant.ofEpochMilli(timestamp).toString())
             put("coords", coords)
             if (activity.isNotEmpty()) put("activity", activity)
@@ -1332,6 +1640,14 @@ class SyncManager(
 
     companion object {
         private const val TAG = "locus"
+
+        /** Upper bound for the in-flight window: the size of [executor]. */
+        private const val MAX_CONCURRENT_SYNC_BATCHES = 4
+
+        /** First re-arm delay after a drain pass that sent nothing; see [armQueueTimer]. */
+        private const val QUEUE_STALL_MIN_DELAY_MS = 1_000L
+        private const val QUEUE_STALL_MAX_DELAY_MS = 60_000L
+        private const val QUEUE_STALL_MAX_SHIFT = 6
         private const val KEY_LAST_LOCATION_SYNC_SUCCESS_AT =
             "bg_last_location_sync_success_at"
         private const val KEY_LAST_LOCATION_SYNC_FAILURE_REASON =
@@ -1346,6 +1662,13 @@ class SyncManager(
          */
         internal const val COMPRESSION_THRESHOLD_BYTES = 1024
 
+        /**
+         * Batch bodies up to this size are encoded in memory and sent with a
+         * Content-Length; larger ones are streamed chunked. Also the sample
+         * the streamed body's compression decision is made on.
+         */
+        private const val STREAM_PROBE_BYTES = 16 * 1024
+
         /**
          * How long the 415 fallback suppresses compression after a single
          * `Unsupported Media Type` response. Long enough to outlast a
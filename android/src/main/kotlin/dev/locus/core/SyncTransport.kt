@@ -0,0 +1,108 @@
+package dev.locus.core
+
+import java.io.OutputStream
+
+/**
+ * Sends one sync request and returns its response. `SyncManager` routes
+ * location, batch and queue uploads through one instance so connections
+ * outlive a request: the per-request `HttpURLConnection` plus
+ * `disconnect()` it replaces paid a TCP and TLS handshake on every sync.
+ *
+ * [UrlConnectionTransport] (the default) leaves connections in the
+ * platform's keep-alive pool between requests; [OkHttpTransport]
+ * multiplexes requests over HTTP/2 when the host app ships OkHttp.
+ * Picked by [HttpTransport].
+ *
+ * Called concurrently from the sync executor's threads.
+ */
+interface SyncTransport {
+
+    /** Throws [java.io.IOException] when no response was received. */
+    fun execute(request: Request): Response
+
+    /** Closes idle connections it owns. In-flight requests finish. */
+    fun close()
+
+    class Request(
+        val url: String,
+        val method: String,
+        val headers: Map<String, String>,
+        val body: Body,
+        val connectTimeoutMs: Int,
+        val readTimeoutMs: Int,
+    )
+
+    /**
+     * A request body. [writeTo] may run more than once when a request is
+     * resent on a new connection, and must write the same bytes each time.
+     */
+    interface Body {
+        /** Byte count, or -1 when not known up front (sent chunked). */
+        val contentLength: Long
+
+        /** Writes the body to [out] without closing it. */
+        fun writeTo(out: OutputStream)
+    }
+
+    class BytesBody(private val bytes: ByteArray) : Body {
+        override val contentLength: Long get() = bytes.size.toLong()
+
+        override fun writeTo(out: OutputStream) = out.write(bytes)
+    }
+
+    class Response(
+        val status: Int,
+        val body: String,
+        val timing: Timing,
+    )
+
+    /**
+     * Where the time of one request went. Phases the request skipped,
+     * such as DNS, connect and TLS on a reused connection, are 0, as are
+     * phases the transport can't observe; [reusedConnection] and
+     * [protocol] are null when it can't tell.
+     * [ttfbMs] runs from the request being written to the first response
+     * byte, [totalMs] from the start of [execute] to the end of the body.
+     */
+    data class Timing(
+        val dnsMs: Long,
+        val connectMs: Long,
+        val tlsMs: Long,
+        val ttfbMs: Long,
+        val totalMs: Long,
+        val reusedConnection: Boolean?,
+        val protocol: String?,
+    ) {
+        fun toMap(): Map<String, Any> = buildMap {
+            put("dnsMs", dnsMs)
+            put("connectMs", connectMs)
+            put("tlsMs", tlsMs)
+            put("ttfbMs", ttfbMs)
+            put("totalMs", totalMs)
+            reusedConnection?.let { put("reusedConnection", it) }
+            protocol?.let { put("protocol", it) }
+        }
+    }
+
+    companion object {
+        /**
+         * A transport of [kind]. [HttpTransport.HTTP2] falls back to
+         * [UrlConnectionTransport] when OkHttp isn't on the classpath.
+         */
+        fun create(kind: HttpTransport): SyncTransport {
+            if (kind == HttpTransport.HTTP2) {
+                if (isOkHttpAvailable()) return OkHttpTransport()
+                android.util.Log.w("locus", "httpTransport http2 needs OkHttp 4 on the classpath; using HttpURLConnection")
+            }
+            return UrlConnectionTransport()
+        }
+
+        // Checked by name so OkHttpTransport is never loaded without OkHttp.
+        private fun isOkHttpAvailable(): Boolean = try {
+            Class.forName("okhttp3.OkHttpClient")
+            true
+        } catch (e: Throwable) {
+            false
+        }
+    }
+}
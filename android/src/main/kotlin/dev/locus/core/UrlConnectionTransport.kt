@@ -0,0 +1,68 @@
+package dev.locus.core
+
+import java.io.InputStream
+import java.net.HttpURLConnection
+import java.net.URL
+
+/**
+ * HTTP/1.1 through the platform's [HttpURLConnection], which keeps
+ * connections alive in its own pool. A connection goes back to that pool
+ * only when the response stream was read to the end and closed and
+ * `disconnect()` wasn't called, so this does the former and never the
+ * latter. Proxies, redirects, TLS and the app's network security config
+ * (cleartext policy included) are the platform's.
+ *
+ * Known-length bodies are buffered by the connection as before; bodies of
+ * unknown length go out chunked. The connection doesn't expose DNS,
+ * connect or TLS phases, or whether it was reused, so [SyncTransport.Timing]
+ * carries only time to first byte and the total.
+ */
+internal class UrlConnectionTransport : SyncTransport {
+
+    override fun execute(request: SyncTransport.Request): SyncTransport.Response {
+        val startedAt = System.nanoTime()
+        val connection = URL(request.url).openConnection() as HttpURLConnection
+        connection.requestMethod = request.method
+        connection.connectTimeout = request.connectTimeoutMs
+        connection.readTimeout = request.readTimeoutMs
+        connection.doOutput = true
+        request.headers.forEach { (name, value) -> connection.setRequestProperty(name, value) }
+        if (request.body.contentLength < 0) connection.setChunkedStreamingMode(0)
+
+        try {
+            connection.outputStream.use { request.body.writeTo(it) }
+            val requestEnd = System.nanoTime()
+            val status = connection.responseCode
+            val responseStart = System.nanoTime()
+            val body = readFully(if (status >= 400) connection.errorStream else connection.inputStream)
+            return SyncTransport.Response(
+                status = status,
+                body = body,
+                timing = SyncTransport.Timing(
+                    dnsMs = 0L,
+                    connectMs = 0L,
+                    tlsMs = 0L,
+                    ttfbMs = millisBetween(requestEnd, responseStart),
+                    totalMs = millisBetween(startedAt, System.nanoTime()),
+                    reusedConnection = null,
+                    protocol = null,
+                ),
+            )
+        } catch (e: Exception) {
+            // A failed exchange leaves the connection in an unknown state;
+            // this is the one case where it must not go back to the pool.
+            connection.disconnect()
+            throw e
+        }
+    }
+
+    /** Idle connections belong to the platform pool; there is nothing to close. */
+    override fun close() = Unit
+
+    /** Reads [stream] to the end and closes it, which returns the connection to the pool. */
+    private fun readFully(stream: InputStream?): String =
+        stream?.use { it.readBytes().toString(Charsets.UTF_8) } ?: ""
+
+    private fun millisBetween(startNanos: Long, endNanos: Long): Long =
+        ((endNanos - startNanos) / 1_000_000L).coerceAtLeast(0L)
+}
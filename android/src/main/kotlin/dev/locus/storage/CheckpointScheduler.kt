@@ -0,0 +1,193 @@
+package dev.locus.storage
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.os.BatteryManager
+import android.os.PowerManager
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Decides when the WAL databases behind [LocationStore], [QueueStore] and
+ * [LogStore] are checkpointed, instead of each store running
+ * `wal_checkpoint(PASSIVE)` after every write.
+ *
+ * Stores call [Database.onWrite] after committing. A checkpoint then runs
+ * on a background thread when either:
+ *  - [WRITE_THRESHOLD] commits have accumulated, or the last checkpoint
+ *    left at least [WAL_FRAME_THRESHOLD] frames behind (readers pinned
+ *    the WAL), so the next commit retries; or
+ *  - the database has seen no write for [IDLE_DELAY_MS].
+ *
+ * When the device is charging or in doze the checkpoint escalates to
+ * TRUNCATE, which also shrinks the `-wal` file back to zero bytes; the
+ * extra I/O is free on external power and nothing else is running in
+ * doze. Otherwise it stays PASSIVE, which never blocks readers or writers.
+ *
+ * `wal_autocheckpoint` is raised to [AUTOCHECKPOINT_PAGES] as a backstop:
+ * if this scheduler ever stalls the WAL is still bounded, but SQLite no
+ * longer checkpoints on the committing thread every 100–1000 pages.
+ *
+ * Durability is unaffected: a commit is durable once it is in the WAL
+ * (synchronous=FULL), whether or not it has been checkpointed.
+ */
+class CheckpointScheduler(context: Context) {
+
+    private val appContext = context.applicationContext
+    private val databases = ConcurrentHashMap<String, Database>()
+
+    private val executor: ScheduledExecutorService by lazy {
+        Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "locus-checkpoint").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * Registers a store's database under [name] (used as the diagnostics
+     * key). [open] is invoked on the checkpoint thread, so it may lazily
+     * open the database.
+     */
+    fun register(name: String, open: () -> SQLiteDatabase): Database =
+        databases.getOrPut(name) { Database(name, open) }
+
+    /** Applies the per-connection pragmas; call from `onConfigure`. */
+    fun configure(db: SQLiteDatabase) {
+        db.rawQuery("PRAGMA wal_autocheckpoint=$AUTOCHECKPOINT_PAGES", null).use { it.moveToFirst() }
+    }
+
+    /** Checkpoints every registered database now (e.g. on memory trim). */
+    fun checkpointAll() {
+        databases.values.forEach { it.requestCheckpoint() }
+    }
+
+    /** Per-database counters for diagnostics, keyed by registration name. */
+    fun snapshot(): Map<String, Map<String, Any>> =
+        databases.values.associate { it.name to it.snapshot() }
+
+    inner class Database internal constructor(
+        internal val name: String,
+        private val open: () -> SQLiteDatabase,
+    ) {
+        private val lock = Any()
+        private var writesSinceCheckpoint = 0
+        private var lastRemainingFrames = 0
+        private var idleCheckpoint: ScheduledFuture<*>? = null
+        private var checkpointQueued = false
+
+        // Diagnostics.
+        private var writes = 0L
+        private var passiveCheckpoints = 0L
+        private var truncateCheckpoints = 0L
+        private var busyCheckpoints = 0L
+        private var failedCheckpoints = 0L
+        private var totalDurationMs = 0L
+        private var maxDurationMs = 0L
+        private var lastWalFrames = 0
+        private var lastCheckpointAt = 0L
+
+        /** Records a committed write transaction and schedules as needed. */
+        fun onWrite() {
+            synchronized(lock) {
+                writes++
+                writesSinceCheckpoint++
+                idleCheckpoint?.cancel(false)
+                idleCheckpoint = null
+                if (writesSinceCheckpoint >= WRITE_THRESHOLD ||
+                    lastRemainingFrames >= WAL_FRAME_THRESHOLD
+                ) {
+                    queueCheckpointLocked()
+                } else if (!checkpointQueued) {
+                    idleCheckpoint = executor.schedule(
+                        { runCheckpoint() },
+                        IDLE_DELAY_MS,
+                        TimeUnit.MILLISECONDS
+                    )
+                }
+            }
+        }
+
+        /** Queues a checkpoint regardless of thresholds. */
+        fun requestCheckpoint() {
+            synchronized(lock) {
+                if (writesSinceCheckpoint == 0 && lastRemainingFrames == 0) return
+                idleCheckpoint?.cancel(false)
+                idleCheckpoint = null
+                queueCheckpointLocked()
+            }
+        }
+
+        private fun queueCheckpointLocked() {
+            if (checkpointQueued) return
+            checkpointQueued = true
+            executor.execute { runCheckpoint() }
+        }
+
+        private fun runCheckpoint() {
+            val mode = if (isDeviceQuiet(appContext)) "TRUNCATE" else "PASSIVE"
+            synchronized(lock) {
+                checkpointQueued = false
+                idleCheckpoint = null
+                writesSinceCheckpoint = 0
+            }
+
+            val startedAt = System.nanoTime()
+            try {
+                // Result row: (busy, WAL frames, frames checkpointed).
+                // -1/-1 means the database isn't in WAL mode.
+                val (busy, walFrames, checkpointed) =
+                    open().rawQuery("PRAGMA wal_checkpoint($mode)", null).use { cursor ->
+                        if (cursor.moveToFirst()) {
+                            Triple(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2))
+                        } else {
+                            Triple(0, 0, 0)
+                        }
+                    }
+                val durationMs = (System.nanoTime() - startedAt) / 1_000_000L
+                synchronized(lock) {
+                    if (mode == "TRUNCATE") truncateCheckpoints++ else passiveCheckpoints++
+                    if (busy != 0) busyCheckpoints++
+                    totalDurationMs += durationMs
+                    maxDurationMs = maxOf(maxDurationMs, durationMs)
+                    lastWalFrames = walFrames.coerceAtLeast(0)
+                    lastRemainingFrames = (walFrames - checkpointed).coerceAtLeast(0)
+                    lastCheckpointAt = System.currentTimeMillis()
+                }
+            } catch (e: Exception) {
+                synchronized(lock) { failedCheckpoints++ }
+                android.util.Log.w("CheckpointScheduler", "wal_checkpoint($mode) failed for $name: ${e.message}")
+            }
+        }
+
+        internal fun snapshot(): Map<String, Any> = synchronized(lock) {
+            mapOf(
+                "writes" to writes,
+                "writesSinceCheckpoint" to writesSinceCheckpoint,
+                "passiveCheckpoints" to passiveCheckpoints,
+                "truncateCheckpoints" to truncateCheckpoints,
+                "busyCheckpoints" to busyCheckpoints,
+                "failedCheckpoints" to failedCheckpoints,
+                "totalCheckpointMs" to totalDurationMs,
+                "maxCheckpointMs" to maxDurationMs,
+                "lastWalFrames" to lastWalFrames,
+                "lastCheckpointAt" to lastCheckpointAt,
+            )
+        }
+    }
+
+    companion object {
+        /** Charging or in doze: extra maintenance I/O costs nothing noticeable. */
+        internal fun isDeviceQuiet(context: Context): Boolean = runCatching {
+            val battery = context.getSystemService(BatteryManager::class.java)
+            val power = context.getSystemService(PowerManager::class.java)
+            battery?.isCharging == true || power?.isDeviceIdleMode == true
+        }.getOrDefault(false)
+
+        private const val WRITE_THRESHOLD = 64
+        private const val WAL_FRAME_THRESHOLD = 1_000
+        private const val IDLE_DELAY_MS = 10_000L
+        private const val AUTOCHECKPOINT_PAGES = 4_000
+    }
+}
@@ -0,0 +1,105 @@
+package dev.locus.storage
+
+import android.location.Location
+
+/**
+ * Where persisted locations live: [LocationStore] (SQLite, the default)
+ * or [LocationJournal] (memory-mapped append-only journal), chosen by
+ * [LocationStorage]. `SyncManager` drains whichever is active through
+ * [readNextContextBatch], [readBacklogCounts] and [deleteLocations].
+ *
+ * Records are maps with the same keys from either backend: `id` (the key
+ * to pass to [deleteLocations]), `uuid`, `timestamp` (epoch ms),
+ * `latitude`, `longitude`, `accuracy`, `speed`, `heading`, `altitude`,
+ * `is_moving`, `activity_confidence`, `odometer`, and when present
+ * `activity_type`, `event` and `extras` (a map) or `extras_json`.
+ */
+interface LocationBackend {
+
+    /** See [WriteDurability]; values ≤ 0 keep the defaults. */
+    fun configureWrites(durability: WriteDurability, windowMs: Long, maxRows: Int)
+
+    /** Byte quota for stored locations; 0 disables. */
+    fun configureRetention(maxBytes: Long)
+
+    fun insertLocation(
+        location: Location,
+        isMoving: Boolean,
+        activityType: String?,
+        activityConfidence: Int,
+        event: String?,
+        odometer: Double,
+        extras: Map<*, *>?,
+        maxDays: Int,
+        maxRecords: Int,
+    )
+
+    fun insertPayload(payload: Map<String, Any>?, maxDays: Int, maxRecords: Int)
+
+    /**
+     * Stores [payloads] durably, past any group-commit buffer, and returns
+     * how many were stored: always a prefix of [payloads], so a caller
+     * moving rows here deletes only those from their source. Failures are
+     * logged, not thrown.
+     */
+    fun importPayloads(payloads: List<Map<String, Any>>): Int
+
+    /** Makes buffered or unsynced writes durable. */
+    fun flush()
+
+    fun clear()
+
+    /** Oldest first, at most [limit] (all when ≤ 0). */
+    fun readLocations(limit: Int): List<Map<String, Any>>
+
+    /** Keyset page in (timestamp, id) order strictly after the given key. */
+    fun readLocationsPage(afterTimestamp: Long?, afterId: Long?, pageSize: Int): List<Map<String, Any>>
+
+    fun queryLocations(query: LocationQuery): List<Map<String, Any>>
+
+    /** Stored locations within [near], nearest first, at most [limit] (all when ≤ 0). */
+    fun queryLocationsNear(near: LocationQuery.Near, limit: Int): List<Map<String, Any>> {
+        val matches = queryLocations(LocationQuery(near = near))
+        val sorted = matches.sortedBy { near.distanceTo(it["latitude"] as Double, it["longitude"] as Double) }
+        return if (limit > 0) sorted.take(limit) else sorted
+    }
+
+    /** [LocationSummaryAccumulator] aggregates over the rows matching [query]. */
+    fun summarizeLocations(query: LocationQuery): Map<String, Any>
+
+    /**
+     * The oldest [limit] rows of the next drainable route context,
+     * skipping contexts in [excluded]. Quarantined rows (no context) are
+     * never returned. Empty when nothing is drainable.
+     */
+    fun readNextContextBatch(limit: Int, excluded: Collection<RouteContext>): List<Map<String, Any>>
+
+    fun readBacklogCounts(): BacklogCounts
+
+    /**
+     * Removes synced rows. [alsoInTransaction] runs with the removal: in
+     * the same transaction for [LocationStore], right after the journal's
+     * acknowledgement is on disk for [LocationJournal].
+     */
+    fun deleteLocations(ids: List<Long>?, alsoInTransaction: () -> Unit = {})
+
+    /**
+     * Unsynced rows (never archived ones), oldest first, at most [limit]
+     * (all when ≤ 0). With [removeLocations], moves rows to another
+     * backend when [LocationStorage] changes.
+     */
+    fun readPendingLocations(limit: Int): List<Map<String, Any>>
+
+    /** Deletes rows outright: no archiving, unlike [deleteLocations]. */
+    fun removeLocations(ids: List<Long>)
+
+    fun close()
+
+    /** Row counts per drainable [RouteContext], oldest context first. */
+    data class BacklogCounts(
+        val contexts: Map<RouteContext, Int>,
+        val quarantinedCount: Int,
+    ) {
+        val pendingCount: Int get() = contexts.values.sum()
+    }
+}
@@ -0,0 +1,665 @@
+package dev.locus.storage
+
+import android.location.Location
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.time.Instant
+import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.zip.CRC32
+
+/**
+ * [LocationBackend] over a [MappedJournal]: one 64-byte record per fix,
+ * appended to a memory-mapped segment. Selected with
+ * [LocationStorage.JOURNAL] for very high fix rates, where even a grouped
+ * SQLite commit per fix is a visible share of CPU and battery.
+ *
+ * Record payload (little of it is text, so the slot stays fixed-size):
+ * timestamp, latitude, longitude and odometer as 8-byte values; altitude,
+ * accuracy, speed and heading as floats; then the id of the extras JSON in
+ * the journal's string table, the 16-bit ids of the activity type and
+ * event in its label table, the activity confidence and the moving flag.
+ * Both tables (`strings`, `labels`) are append-only files of CRC-checked
+ * entries. Tracking extras repeat fix after fix, so each distinct JSON is
+ * stored once and its decoded map and [RouteContext] are cached per id;
+ * labels are kept apart so extras that vary can't use up their id range.
+ *
+ * [WriteDurability] maps onto [MappedJournal.sync]: FULL forces the
+ * segment after every append, GROUPED once per group-commit window or
+ * row limit, NORMAL leaves write-back to the kernel (an app crash loses
+ * nothing, power loss may lose the latest fixes).
+ *
+ * Sync acknowledgement flags records in place and compacts segments once
+ * fully acknowledged. Retention drops whole segments, oldest first, so
+ * the limits are honoured to within one segment. There is no archive
+ * tier; queries and summaries scan the live records.
+ */
+class LocationJournal(
+    directory: File,
+    recordsPerSegment: Int = MappedJournal.DEFAULT_RECORDS_PER_SEGMENT,
+) : LocationBackend {
+
+    private val lock = Any()
+    private val journal = MappedJournal(directory, recordsPerSegment)
+    private val strings = StringTable(File(directory, STRINGS_NAME))
+    private val labels = StringTable(File(directory, LABELS_NAME))
+    private val segmentBytes = recordsPerSegment.toLong() * MappedJournal.RECORD_SIZE
+
+    private val syncExecutor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "locus-journal-sync").apply { isDaemon = true }
+    }
+
+    // All mutable state below is guarded by [lock].
+    private var durability = WriteDurability.FULL
+    private var groupCommitWindowMs = DEFAULT_GROUP_COMMIT_WINDOW_MS
+    private var groupCommitMaxRows = DEFAULT_GROUP_COMMIT_MAX_ROWS
+    private var unsyncedAppends = 0
+    private var scheduledSync: ScheduledFuture<*>? = null
+    private var maxSegments = 0
+
+    private var lastExtras: Map<*, *>? = null
+    private var lastExtrasId = NO_STRING
+    private val extrasById = HashMap<Int, Map<String, Any>?>()
+    private val contextById = HashMap<Int, RouteContext?>()
+
+    // Live records per context in first-appended order; null until first
+    // needed and after retention drops a segment, then rebuilt by a scan.
+    private var contextCounts: LinkedHashMap<RouteContext, Int>? = null
+    private var quarantinedCount = 0
+
+    override fun configureWrites(durability: WriteDurability, windowMs: Long, maxRows: Int) {
+        synchronized(lock) {
+            this.durability = durability
+            groupCommitWindowMs = if (windowMs > 0) windowMs else DEFAULT_GROUP_COMMIT_WINDOW_MS
+            groupCommitMaxRows = if (maxRows > 0) maxRows else DEFAULT_GROUP_COMMIT_MAX_ROWS
+            if (durability != WriteDurability.GROUPED) syncNow()
+        }
+    }
+
+    override fun configureRetention(maxBytes: Long) {
+        synchronized(lock) {
+            maxSegments = if (maxBytes > 0) (maxBytes / segmentBytes).toInt().coerceAtLeast(1) else 0
+        }
+    }
+
+    override fun insertLocation(
+        location: Location,
+        isMoving: Boolean,
+        activityType: String?,
+        activityConfidence: Int,
+        event: String?,
+        odometer: Double,
+        extras: Map<*, *>?,
+        maxDays: Int,
+        maxRecords: Int,
+    ) {
+        try {
+            synchronized(lock) {
+                append(
+                    timestamp = location.time,
+                    latitude = location.latitude,
+                    longitude = location.longitude,
+                    accuracy = location.accuracy,
+                    speed = location.speed,
+                    heading = location.bearing,
+                    altitude = location.altitude.toFloat(),
+                    isMoving = isMoving,
+                    activityType = activityType,
+                    activityConfidence = activityConfidence,
+                    event = event,
+                    odometer = odometer,
+                    extras = extras,
+                )
+                afterAppend(maxDays, maxRecords)
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationJournal", "Failed to append location: ${e.message}", e)
+        }
+    }
+
+    override fun insertPayload(payload: Map<String, Any>?, maxDays: Int, maxRecords: Int) {
+        if (payload == null) return
+
+        try {
+            synchronized(lock) {
+                if (!appendPayload(payload)) return
+                afterAppend(maxDays, maxRecords)
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationJournal", "Failed to append payload: ${e.message}", e)
+        }
+    }
+
+    /**
+     * Appends [payloads] in order and checkpoints. Stops at the first one
+     * that can't be appended; if the checkpoint fails, none count as
+     * stored (the appended ones may come back as duplicates, never as
+     * losses).
+     */
+    override fun importPayloads(payloads: List<Map<String, Any>>): Int = synchronized(lock) {
+        var appended = 0
+        try {
+            for (payload in payloads) {
+                if (!appendPayload(payload)) break
+                appended++
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationJournal", "Failed to import location: ${e.message}", e)
+        }
+        if (appended == 0) return@synchronized 0
+        try {
+            scheduledSync?.cancel(false)
+            scheduledSync = null
+            unsyncedAppends = 0
+            journal.checkpoint()
+            appended
+        } catch (e: Exception) {
+            android.util.Log.e("LocationJournal", "Failed to sync imported locations: ${e.message}", e)
+            0
+        }
+    }
+
+    /** Appends [payload]; false when it has no coordinates. Caller holds [lock]. */
+    private fun appendPayload(payload: Map<String, Any>): Boolean {
+        val coords = payload["coords"] as? Map<*, *> ?: return false
+        val activity = payload["activity"] as? Map<*, *>
+        val timestamp = (payload["timestamp"] as? String)?.let { timestampStr ->
+            runCatching { Instant.parse(timestampStr).toEpochMilli() }.getOrNull()
+        } ?: System.currentTimeMillis()
+        append(
+            timestamp = timestamp,
+            latitude = coords["latitude"].toDoubleOrZero(),
+            longitude = coords["longitude"].toDoubleOrZero(),
+            accuracy = coords["accuracy"].toDoubleOrZero().toFloat(),
+            speed = coords["speed"].toDoubleOrZero().toFloat(),
+            heading = coords["heading"].toDoubleOrZero().toFloat(),
+            altitude = coords["altitude"].toDoubleOrZero().toFloat(),
+            isMoving = payload["is_moving"] as? Boolean ?: false,
+            activityType = activity?.get("type") as? String,
+            activityConfidence = (activity?.get("confidence") as? Number)?.toInt() ?: 0,
+            event = payload["event"] as? String,
+            odometer = payload["odometer"].toDoubleOrZero(),
+            extras = payload["extras"] as? Map<*, *>,
+        )
+        return true
+    }
+
+    private fun append(
+        timestamp: Long,
+        latitude: Double,
+        longitude: Double,
+        accuracy: Float,
+        speed: Float,
+        heading: Float,
+        altitude: Float,
+        isMoving: Boolean,
+        activityType: String?,
+        activityConfidence: Int,
+        event: String?,
+        odometer: Double,
+        extras: Map<*, *>?,
+    ) {
+        val extrasId = extrasIdFor(extras)
+        val activityId = labelId(activityType)
+        val eventId = labelId(event)
+        journal.append { buffer, offset ->
+            buffer.putLong(offset + TIMESTAMP, timestamp)
+            buffer.putDouble(offset + LATITUDE, latitude)
+            buffer.putDouble(offset + LONGITUDE, longitude)
+            buffer.putDouble(offset + ODOMETER, odometer)
+            buffer.putFloat(offset + ALTITUDE, altitude)
+            buffer.putFloat(offset + ACCURACY, accuracy)
+            buffer.putFloat(offset + SPEED, speed)
+            buffer.putFloat(offset + HEADING, heading)
+            buffer.putInt(offset + EXTRAS, extrasId)
+            buffer.putShort(offset + ACTIVITY_TYPE, activityId)
+            buffer.putShort(offset + EVENT, eventId)
+            buffer.put(offset + ACTIVITY_CONFIDENCE, activityConfidence.coerceIn(0, 127).toByte())
+            buffer.put(offset + IS_MOVING, if (isMoving) 1 else 0)
+        }
+        contextCounts?.let { counts ->
+            val context = contextOf(extrasId)
+            if (context == null) quarantinedCount++ else counts[context] = (counts[context] ?: 0) + 1
+        }
+    }
+
+    private fun afterAppend(maxDays: Int, maxRecords: Int) {
+        when (durability) {
+            WriteDurability.FULL -> journal.sync()
+            WriteDurability.NORMAL -> Unit
+            WriteDurability.GROUPED -> {
+                unsyncedAppends++
+                if (unsyncedAppends >= groupCommitMaxRows) {
+                    syncNow()
+                } else if (scheduledSync == null) {
+                    scheduledSync = syncExecutor.schedule(
+                        { synchronized(lock) { syncNow() } },
+                        groupCommitWindowMs,
+                        TimeUnit.MILLISECONDS
+                    )
+                }
+            }
+        }
+        enforceRetention(maxDays, maxRecords)
+    }
+
+    private fun syncNow() {
+        scheduledSync?.cancel(false)
+        scheduledSync = null
+        unsyncedAppends = 0
+        journal.sync()
+    }
+
+    /**
+     * Drops the oldest segment while the rest still satisfy the record
+     * limit, the segment quota is exceeded, or its newest record is past
+     * the age limit. The segment being written is never dropped.
+     */
+    private fun enforceRetention(maxDays: Int, maxRecords: Int) {
+        val cutoff = if (maxDays > 0) System.currentTimeMillis() - maxDays * DAY_MS else Long.MIN_VALUE
+        while (journal.segmentCount > 1) {
+            val overRecords = maxRecords > 0 && journal.liveCount - journal.oldestSegmentLive >= maxRecords
+            val overBytes = maxSegments > 0 && journal.segmentCount > maxSegments
+            var expired = false
+            if (maxDays > 0) {
+                journal.readOldestSegmentLast { buffer, offset -> expired = buffer.getLong(offset + TIMESTAMP) < cutoff }
+            }
+            if (!overRecords && !overBytes && !expired) return
+            if (journal.dropOldestSegment() > 0) contextCounts = null
+        }
+    }
+
+    override fun flush() {
+        synchronized(lock) {
+            scheduledSync?.cancel(false)
+            scheduledSync = null
+            unsyncedAppends = 0
+            journal.checkpoint()
+        }
+    }
+
+    override fun clear() {
+        synchronized(lock) {
+            try {
+                journal.clear()
+                resetStrings()
+                contextCounts = LinkedHashMap()
+                quarantinedCount = 0
+            } catch (e: Exception) {
+                android.util.Log.e("LocationJournal", "Failed to clear journal: ${e.message}", e)
+            }
+        }
+    }
+
+    override fun readLocations(limit: Int): List<Map<String, Any>> = synchronized(lock) {
+        records(sortedKeys(ascending = true).let { if (limit > 0) it.take(limit) else it })
+    }
+
+    override fun readLocationsPage(afterTimestamp: Long?, afterId: Long?, pageSize: Int): List<Map<String, Any>> =
+        synchronized(lock) {
+            val afterKey = afterTimestamp?.let { Key(it, afterId ?: Long.MIN_VALUE) }
+            val keys = sortedKeys(ascending = true) { key, _, _ -> afterKey == null || KEY_ORDER.compare(key, afterKey) > 0 }
+            records(keys.take(pageSize))
+        }
+
+    override fun queryLocations(query: LocationQuery): List<Map<String, Any>> = synchronized(lock) {
+        val keys = sortedKeys(ascending = !query.newestFirst) { _, buffer, offset -> query.matches(buffer, offset) }
+        val fromIndex = query.offset.coerceAtMost(keys.size)
+        val toIndex = query.limit?.let { (fromIndex + it).coerceAtMost(keys.size) } ?: keys.size
+        records(keys.subList(fromIndex, toIndex))
+    }
+
+    override fun summarizeLocations(query: LocationQuery): Map<String, Any> = synchronized(lock) {
+        val summary = LocationSummaryAccumulator()
+        val keys = if (query.limit != null || query.offset > 0) {
+            val page = queryLocations(query).map { Key(it["timestamp"] as Long, it["id"] as Long) }
+            page.sortedWith(KEY_ORDER)
+        } else {
+            sortedKeys(ascending = true) { _, buffer, offset -> query.matches(buffer, offset) }
+        }
+        keys.forEach { key ->
+            journal.read(key.id) { buffer, offset ->
+                summary.add(
+                    buffer.getLong(offset + TIMESTAMP),
+                    buffer.getDouble(offset + LATITUDE),
+                    buffer.getDouble(offset + LONGITUDE),
+                    buffer.getFloat(offset + ACCURACY).toDouble(),
+                    buffer.getFloat(offset + SPEED).toDouble(),
+                    buffer.get(offset + IS_MOVING).toInt() == 1,
+                )
+            }
+        }
+        summary.toMap()
+    }
+
+    /**
+     * The first [limit] records, in append order, of the context owning
+     * the oldest drainable record outside [excluded]. One pass from the
+     * journal head; acknowledged records are skipped by their flag.
+     */
+    override fun readNextContextBatch(limit: Int, excluded: Collection<RouteContext>): List<Map<String, Any>> =
+        synchronized(lock) {
+            val results = mutableListOf<Map<String, Any>>()
+            if (limit <= 0) return@synchronized results
+            var target: RouteContext? = null
+            journal.forEach { id, buffer, offset ->
+                val context = contextOf(buffer.getInt(offset + EXTRAS)) ?: return@forEach true
+                if (target == null) {
+                    if (context in excluded) return@forEach true
+                    target = context
+                }
+                if (context == target) results.add(record(id, buffer, offset))
+                results.size < limit
+            }
+            results
+        }
+
+    override fun readBacklogCounts(): LocationBackend.BacklogCounts = synchronized(lock) {
+        val counts = contextCounts ?: rebuildContextCounts()
+        LocationBackend.BacklogCounts(LinkedHashMap(counts), quarantinedCount)
+    }
+
+    override fun deleteLocations(ids: List<Long>?, alsoInTransaction: () -> Unit) {
+        if (ids.isNullOrEmpty()) return
+
+        try {
+            synchronized(lock) { acknowledge(ids) }
+            alsoInTransaction()
+        } catch (e: Exception) {
+            android.util.Log.e("LocationJournal", "Failed to acknowledge locations: ${e.message}", e)
+        }
+    }
+
+    override fun readPendingLocations(limit: Int): List<Map<String, Any>> = synchronized(lock) {
+        val results = mutableListOf<Map<String, Any>>()
+        journal.forEach { id, buffer, offset ->
+            results.add(record(id, buffer, offset))
+            limit <= 0 || results.size < limit
+        }
+        results
+    }
+
+    override fun removeLocations(ids: List<Long>) {
+        if (ids.isEmpty()) return
+        try {
+            synchronized(lock) { acknowledge(ids) }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationJournal", "Failed to remove locations: ${e.message}", e)
+        }
+    }
+
+    private fun acknowledge(ids: List<Long>) {
+        journal.ack(ids) { _, buffer, offset ->
+            val counts = contextCounts ?: return@ack
+            val context = contextOf(buffer.getInt(offset + EXTRAS))
+            if (context == null) {
+                quarantinedCount--
+            } else {
+                val remaining = (counts[context] ?: 0) - 1
+                if (remaining > 0) counts[context] = remaining else counts.remove(context)
+            }
+        }
+        // Nothing left that references the string table: start it over.
+        if (journal.liveCount == 0) resetStrings()
+    }
+
+    override fun close() {
+        synchronized(lock) {
+            scheduledSync?.cancel(false)
+            scheduledSync = null
+            journal.close()
+        }
+        syncExecutor.shutdown()
+    }
+
+    private fun rebuildContextCounts(): LinkedHashMap<RouteContext, Int> {
+        val counts = LinkedHashMap<RouteContext, Int>()
+        var quarantined = 0
+        journal.forEach { _, buffer, offset ->
+            val context = contextOf(buffer.getInt(offset + EXTRAS))
+            if (context == null) quarantined++ else counts[context] = (counts[context] ?: 0) + 1
+            true
+        }
+        quarantinedCount = quarantined
+        contextCounts = counts
+        return counts
+    }
+
+    private class Key(val timestamp: Long, val id: Long)
+
+    /** (timestamp, id) of the live records passing [filter], sorted; records are read only for the page. */
+    private fun sortedKeys(
+        ascending: Boolean,
+        filter: (Key, ByteBuffer, Int) -> Boolean = { _, _, _ -> true },
+    ): List<Key> {
+        val keys = mutableListOf<Key>()
+        journal.forEach { id, buffer, offset ->
+            val key = Key(buffer.getLong(offset + TIMESTAMP), id)
+            if (filter(key, buffer, offset)) keys.add(key)
+            true
+        }
+        return keys.sortedWith(if (ascending) KEY_ORDER else KEY_ORDER.reversed())
+    }
+
+    private fun records(keys: List<Key>): List<Map<String, Any>> {
+        val results = ArrayList<Map<String, Any>>(keys.size)
+        keys.forEach { key -> journal.read(key.id) { buffer, offset -> results.add(record(key.id, buffer, offset)) } }
+        return results
+    }
+
+    private fun LocationQuery.matches(buffer: ByteBuffer, offset: Int): Boolean = matches(
+        buffer.getLong(offset + TIMESTAMP),
+        buffer.getFloat(offset + ACCURACY).toDouble(),
+        buffer.get(offset + IS_MOVING).toInt() == 1,
+        buffer.getDouble(offset + LATITUDE),
+        buffer.getDouble(offset + LONGITUDE),
+    )
+
+    /** Same shape as `LocationStore.readRecord`, with `extras` as a shared decoded map. */
+    private fun record(id: Long, buffer: ByteBuffer, offset: Int): Map<String, Any> {
+        val record = mutableMapOf<String, Any>(
+            "id" to id,
+            "uuid" to derivedUuid(id).toString(),
+            "timestamp" to buffer.getLong(offset + TIMESTAMP),
+            "latitude" to buffer.getDouble(offset + LATITUDE),
+            "longitude" to buffer.getDouble(offset + LONGITUDE),
+            "accuracy" to buffer.getFloat(offset + ACCURACY).toDouble(),
+            "speed" to buffer.getFloat(offset + SPEED).toDouble(),
+            "heading" to buffer.getFloat(offset + HEADING).toDouble(),
+            "altitude" to buffer.getFloat(offset + ALTITUDE).toDouble(),
+            "is_moving" to (buffer.get(offset + IS_MOVING).toInt() == 1),
+            "activity_confidence" to buffer.get(offset + ACTIVITY_CONFIDENCE).toInt(),
+            "odometer" to buffer.getDouble(offset + ODOMETER)
+        )
+        labels[buffer.getShort(offset + ACTIVITY_TYPE).toInt()]?.let { record["activity_type"] = it }
+        labels[buffer.getShort(offset + EVENT).toInt()]?.let { record["event"] = it }
+        extrasOf(buffer.getInt(offset + EXTRAS))?.let { record["extras"] = it }
+        return record
+    }
+
+    /** A version-4 UUID from the journal's instance id and the record id, like `LocationStore`'s. */
+    private fun derivedUuid(id: Long): UUID = UUID(
+        (journal.instanceId and -0xF001L) or 0x4000L,
+        (id and 0x3FFF_FFFF_FFFF_FFFFL) or Long.MIN_VALUE
+    )
+
+    private fun extrasIdFor(extras: Map<*, *>?): Int {
+        if (extras == null) return NO_STRING
+        if (extras == lastExtras) return lastExtrasId
+        val id = strings.idFor(JSONObject(extras).toString())
+        lastExtras = extras
+        lastExtrasId = id
+        return id
+    }
+
+    /**
+     * Activity types and events come from small fixed sets, so a 16-bit
+     * id into [labels] is plenty. A label past that range is left out of
+     * the record rather than widening every slot, and logged.
+     */
+    private fun labelId(value: String?): Short {
+        if (value == null) return NO_STRING.toShort()
+        val id = labels.idFor(value)
+        if (id <= Short.MAX_VALUE) return id.toShort()
+        android.util.Log.e("LocationJournal", "Label table full; dropping \"$value\" from the record")
+        return NO_STRING.toShort()
+    }
+
+    private fun extrasOf(id: Int): Map<String, Any>? {
+        if (id == NO_STRING) return null
+        if (extrasById.containsKey(id)) return extrasById[id]
+        val decoded = strings[id]?.let { json ->
+            try {
+                JSONObject(json).toMap()
+            } catch (e: Exception) {
+                android.util.Log.e("LocationJournal", "Failed to decode extras $id: ${e.message}", e)
+                null
+            }
+        }
+        extrasById[id] = decoded
+        return decoded
+    }
+
+    private fun contextOf(extrasId: Int): RouteContext? {
+        if (extrasId == NO_STRING) return null
+        if (contextById.containsKey(extrasId)) return contextById[extrasId]
+        return RouteContext.fromExtras(extrasOf(extrasId)).also { contextById[extrasId] = it }
+    }
+
+    private fun resetStrings() {
+        strings.clear()
+        labels.clear()
+        lastExtras = null
+        lastExtrasId = NO_STRING
+        extrasById.clear()
+        contextById.clear()
+    }
+
+    private fun Any?.toDoubleOrZero(): Double = (this as? Number)?.toDouble() ?: 0.0
+
+    private fun JSONObject.toMap(): Map<String, Any> {
+        val map = mutableMapOf<String, Any>()
+        val names = names() ?: return map
+
+        for (i in 0 until names.length()) {
+            val key = names.optString(i)
+            when (val value = opt(key)) {
+                is JSONObject -> map[key] = value.toMap()
+                is JSONArray -> map[key] = value.toList()
+                JSONObject.NULL -> { /* skip null values */ }
+                else -> value?.let { map[key] = it }
+            }
+        }
+        return map
+    }
+
+    private fun JSONArray.toList(): List<Any> {
+        val list = mutableListOf<Any>()
+        for (i in 0 until length()) {
+            when (val value = opt(i)) {
+                is JSONObject -> list.add(value.toMap())
+                is JSONArray -> list.add(value.toList())
+                JSONObject.NULL -> { /* skip null values */ }
+                else -> value?.let { list.add(it) }
+            }
+        }
+        return list
+    }
+
+    /**
+     * Append-only interned strings: `[length][UTF-8][crc32]` entries whose
+     * position is their id. A torn last entry is cut off on load. Synced
+     * on every new entry, before any record can reference it.
+     */
+    private class StringTable(private val file: File) {
+        private val values = mutableListOf<String>()
+        private val ids = HashMap<String, Int>()
+        private val crc = CRC32()
+
+        init {
+            load()
+        }
+
+        operator fun get(id: Int): String? = if (id < 0) null else values.getOrNull(id)
+
+        fun idFor(value: String): Int {
+            ids[value]?.let { return it }
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            crc.reset()
+            crc.update(bytes)
+            val entry = ByteBuffer.allocate(8 + bytes.size).putInt(bytes.size).put(bytes).putInt(crc.value.toInt())
+            RandomAccessFile(file, "rw").use { raf ->
+                raf.seek(raf.length())
+                raf.write(entry.array())
+                raf.fd.sync()
+            }
+            values.add(value)
+            return (values.size - 1).also { ids[value] = it }
+        }
+
+        fun clear() {
+            file.delete()
+            values.clear()
+            ids.clear()
+        }
+
+        private fun load() {
+            if (!file.exists()) return
+            val buffer = ByteBuffer.wrap(file.readBytes())
+            while (buffer.remaining() >= 8) {
+                val start = buffer.position()
+                val length = buffer.getInt()
+                if (length < 0 || length + 4 > buffer.remaining()) {
+                    buffer.position(start)
+                    break
+                }
+                val bytes = ByteArray(length).also { buffer.get(it) }
+                crc.reset()
+                crc.update(bytes)
+                if (buffer.getInt() != crc.value.toInt()) {
+                    buffer.position(start)
+                    break
+                }
+                val value = String(bytes, Charsets.UTF_8)
+                ids[value] = values.size
+                values.add(value)
+            }
+            if (buffer.position() < buffer.limit()) {
+                RandomAccessFile(file, "rw").use { it.setLength(buffer.position().toLong()) }
+            }
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_GROUP_COMMIT_WINDOW_MS = 5_000L
+        private const val DEFAULT_GROUP_COMMIT_MAX_ROWS = 20
+        private const val DAY_MS = 24L * 60L * 60L * 1000L
+
+        private const val STRINGS_NAME = "strings"
+        private const val LABELS_NAME = "labels"
+        private const val NO_STRING = -1
+
+        // Payload layout; 58 of MappedJournal.PAYLOAD_SIZE bytes.
+        private const val TIMESTAMP = 0
+        private const val LATITUDE = 8
+        private const val LONGITUDE = 16
+        private const val ODOMETER = 24
+        private const val ALTITUDE = 32
+        private const val ACCURACY = 36
+        private const val SPEED = 40
+        private const val HEADING = 44
+        private const val EXTRAS = 48
+        private const val ACTIVITY_TYPE = 52
+        private const val EVENT = 54
+        private const val ACTIVITY_CONFIDENCE = 56
+        private const val IS_MOVING = 57
+
+        private val KEY_ORDER = compareBy<Key>({ it.timestamp }, { it.id })
+    }
+}
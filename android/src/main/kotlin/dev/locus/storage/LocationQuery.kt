@@ -0,0 +1,174 @@
+package dev.locus.storage
+
+/**
+ * Native form of the Dart `LocationQuery`, compiled into a parameterized
+ * WHERE clause so filtering, ordering and paging run in SQLite and only
+ * matching rows cross the method channel.
+ *
+ * Semantics mirror `LocationQuery.apply` exactly, including its accuracy
+ * naming: [minAccuracy] keeps rows whose accuracy radius is *at most* the
+ * value (the "minimum accuracy" a fix must meet) and [maxAccuracy] keeps
+ * rows whose radius is *at least* the value. Time bounds are inclusive.
+ *
+ * [bounds] and [near] are answered through the `locations_rtree` spatial
+ * index when the device's SQLite has the R*Tree module, and through the
+ * plain latitude/longitude columns otherwise. [near] is a circle: SQL can
+ * only narrow it to its bounding box, so callers post-filter with
+ * [matches] (haversine) before paging.
+ */
+data class LocationQuery(
+    val fromMs: Long? = null,
+    val toMs: Long? = null,
+    val minAccuracy: Double? = null,
+    val maxAccuracy: Double? = null,
+    val isMoving: Boolean? = null,
+    val bounds: Bounds? = null,
+    val near: Near? = null,
+    val limit: Int? = null,
+    val offset: Int = 0,
+    val newestFirst: Boolean = true,
+) {
+    data class Bounds(val south: Double, val west: Double, val north: Double, val east: Double)
+
+    /** A circle of [radiusMeters] around ([latitude], [longitude]). */
+    data class Near(val latitude: Double, val longitude: Double, val radiusMeters: Double) {
+        /**
+         * Smallest lat/lng box containing the circle. Longitude is left
+         * unbounded (-180..180) when the box would wrap the antimeridian
+         * or reach a pole.
+         */
+        fun boundingBox(): Bounds {
+            val dLat = Math.toDegrees(radiusMeters / EARTH_RADIUS_METERS)
+            val south = latitude - dLat
+            val north = latitude + dLat
+            if (south <= -90.0 || north >= 90.0) {
+                return Bounds(south.coerceAtLeast(-90.0), -180.0, north.coerceAtMost(90.0), 180.0)
+            }
+            val dLng = Math.toDegrees(radiusMeters / (EARTH_RADIUS_METERS * Math.cos(Math.toRadians(latitude))))
+            val west = longitude - dLng
+            val east = longitude + dLng
+            if (west < -180.0 || east > 180.0) return Bounds(south, -180.0, north, 180.0)
+            return Bounds(south, west, north, east)
+        }
+
+        /** Haversine distance in metres from the centre. */
+        fun distanceTo(lat: Double, lng: Double): Double {
+            val dLat = Math.toRadians(lat - latitude)
+            val dLng = Math.toRadians(lng - longitude)
+            val a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(lat)) *
+                Math.sin(dLng / 2) * Math.sin(dLng / 2)
+            return EARTH_RADIUS_METERS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a))
+        }
+    }
+
+    /**
+     * WHERE clause (without the keyword; empty when unfiltered) and its
+     * arguments. With [spatialIndex], each box is first narrowed through
+     * `locations_rtree`; the R*Tree stores 32-bit floats rounded outward,
+     * so it is probed by overlap and the exact column test still applies.
+     */
+    fun whereClause(spatialIndex: Boolean = false): Pair<String, Array<String>> {
+        val clauses = mutableListOf<String>()
+        val args = mutableListOf<String>()
+        fromMs?.let { clauses.add("timestamp >= ?"); args.add(it.toString()) }
+        toMs?.let { clauses.add("timestamp <= ?"); args.add(it.toString()) }
+        minAccuracy?.let { clauses.add("accuracy <= ?"); args.add(it.toString()) }
+        maxAccuracy?.let { clauses.add("accuracy >= ?"); args.add(it.toString()) }
+        isMoving?.let { clauses.add("is_moving = ?"); args.add(if (it) "1" else "0") }
+        listOfNotNull(bounds, near?.boundingBox()).forEach { box ->
+            if (spatialIndex) {
+                clauses.add(
+                    "id IN (SELECT id FROM locations_rtree " +
+                        "WHERE max_lat >= ? AND min_lat <= ? AND max_lng >= ? AND min_lng <= ?)"
+                )
+                args.add(box.south.toString())
+                args.add(box.north.toString())
+                args.add(box.west.toString())
+                args.add(box.east.toString())
+            }
+            clauses.add("latitude BETWEEN ? AND ?")
+            args.add(box.south.toString())
+            args.add(box.north.toString())
+            clauses.add("longitude BETWEEN ? AND ?")
+            args.add(box.west.toString())
+            args.add(box.east.toString())
+        }
+        return clauses.joinToString(" AND ") to args.toTypedArray()
+    }
+
+    /** True when SQL alone can't decide membership, so paging must happen after [matches]. */
+    val needsPostFilter: Boolean
+        get() = near != null
+
+    /** `ORDER BY` body; id breaks timestamp ties so pages are stable. */
+    fun orderBy(): String = if (newestFirst) "timestamp DESC, id DESC" else "timestamp ASC, id ASC"
+
+    /** The same predicate as [whereClause], for rows decoded from archive segments. */
+    fun matches(
+        timestamp: Long,
+        accuracy: Double,
+        isMoving: Boolean,
+        latitude: Double,
+        longitude: Double,
+    ): Boolean {
+        if (fromMs != null && timestamp < fromMs) return false
+        if (toMs != null && timestamp > toMs) return false
+        if (minAccuracy != null && accuracy > minAccuracy) return false
+        if (maxAccuracy != null && accuracy < maxAccuracy) return false
+        if (this.isMoving != null && isMoving != this.isMoving) return false
+        if (bounds != null &&
+            (latitude < bounds.south || latitude > bounds.north ||
+                longitude < bounds.west || longitude > bounds.east)
+        ) {
+            return false
+        }
+        if (near != null && near.distanceTo(latitude, longitude) > near.radiusMeters) return false
+        return true
+    }
+
+    companion object {
+        /**
+         * Parses the channel arguments built by `LocusLocation.queryLocations`:
+         * epoch-millisecond `from`/`to`, `bounds` as `south/west/north/east`,
+         * `near` as `latitude/longitude/radius` (metres).
+         */
+        fun fromMap(map: Map<*, *>?): LocationQuery {
+            if (map == null) return LocationQuery()
+            val bounds = (map["bounds"] as? Map<*, *>)?.let { b ->
+                val south = (b["south"] as? Number)?.toDouble()
+                val west = (b["west"] as? Number)?.toDouble()
+                val north = (b["north"] as? Number)?.toDouble()
+                val east = (b["east"] as? Number)?.toDouble()
+                if (south != null && west != null && north != null && east != null) {
+                    Bounds(south, west, north, east)
+                } else {
+                    null
+                }
+            }
+            val near = (map["near"] as? Map<*, *>)?.let { n -> parseNear(n) }
+            return LocationQuery(
+                fromMs = (map["from"] as? Number)?.toLong(),
+                toMs = (map["to"] as? Number)?.toLong(),
+                minAccuracy = (map["minAccuracy"] as? Number)?.toDouble(),
+                maxAccuracy = (map["maxAccuracy"] as? Number)?.toDouble(),
+                isMoving = map["isMoving"] as? Boolean,
+                bounds = bounds,
+                near = near,
+                limit = (map["limit"] as? Number)?.toInt()?.takeIf { it >= 0 },
+                offset = ((map["offset"] as? Number)?.toInt() ?: 0).coerceAtLeast(0),
+                newestFirst = map["sortOrder"] != "oldestFirst",
+            )
+        }
+
+        /** Parses `{latitude, longitude, radius}`; null when incomplete or radius ≤ 0. */
+        fun parseNear(map: Map<*, *>): Near? {
+            val latitude = (map["latitude"] as? Number)?.toDouble() ?: return null
+            val longitude = (map["longitude"] as? Number)?.toDouble() ?: return null
+            val radius = (map["radius"] as? Number)?.toDouble()?.takeIf { it > 0 } ?: return null
+            return Near(latitude, longitude, radius)
+        }
+
+        private const val EARTH_RADIUS_METERS = 6_371_000.0
+    }
+}
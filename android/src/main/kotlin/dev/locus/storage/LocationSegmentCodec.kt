@@ -0,0 +1,248 @@
+package dev.locus.storage
+
+import java.io.ByteArrayOutputStream
+import java.util.UUID
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Columnar encoding for sealed location segments (the archive tier of
+ * [LocationStore]).
+ *
+ * A segment stores each field as its own column so similar values sit
+ * next to each other:
+ *  - row keys, timestamps and every numeric field are delta-encoded and
+ *    written as zigzag varints — consecutive fixes differ by a few
+ *    seconds and metres, so most values take one or two bytes;
+ *  - latitude/longitude are fixed-point at 1e-7° (~1 cm), the other
+ *    doubles at 1e-2 of their unit;
+ *  - `activity_type`, `event` and `extras_json` are indexes into a
+ *    per-segment string dictionary, so a trip's identical extras are
+ *    stored once;
+ *  - `is_moving` is a bitset.
+ * The body can additionally be deflated.
+ *
+ * Layout: `'L' 'S'`, version, flags (bit 0: deflated), then the body:
+ * row count, dictionary, then the columns in [Row] order.
+ */
+object LocationSegmentCodec {
+
+    /** One archived location. [uuid] is set only for rows with a stored UUID. */
+    data class Row(
+        val id: Long,
+        val uuid: UUID?,
+        val timestamp: Long,
+        val latitude: Double,
+        val longitude: Double,
+        val accuracy: Double,
+        val speed: Double,
+        val heading: Double,
+        val altitude: Double,
+        val isMoving: Boolean,
+        val activityType: String?,
+        val activityConfidence: Int,
+        val event: String?,
+        val odometer: Double,
+        val extrasJson: String?,
+    )
+
+    private const val MAGIC_0 = 'L'.code
+    private const val MAGIC_1 = 'S'.code
+    private const val VERSION = 1
+    private const val FLAG_DEFLATED = 1
+
+    private const val COORD_SCALE = 1e7
+    private const val VALUE_SCALE = 1e2
+
+    fun encode(rows: List<Row>, deflate: Boolean): ByteArray {
+        val dictionary = LinkedHashMap<String, Int>()
+        fun indexOf(value: String?): Long =
+            if (value == null) 0L else dictionary.getOrPut(value) { dictionary.size + 1 }.toLong()
+
+        val columns = Writer()
+        columns.deltas(rows) { it.id }
+        columns.deltas(rows) { it.timestamp }
+        columns.deltas(rows) { fixed(it.latitude, COORD_SCALE) }
+        columns.deltas(rows) { fixed(it.longitude, COORD_SCALE) }
+        columns.deltas(rows) { fixed(it.accuracy, VALUE_SCALE) }
+        columns.deltas(rows) { fixed(it.speed, VALUE_SCALE) }
+        columns.deltas(rows) { fixed(it.heading, VALUE_SCALE) }
+        columns.deltas(rows) { fixed(it.altitude, VALUE_SCALE) }
+        columns.deltas(rows) { fixed(it.odometer, VALUE_SCALE) }
+        rows.forEach { columns.varint(it.activityConfidence.toLong()) }
+        columns.bits(rows) { it.isMoving }
+        rows.forEach { columns.varint(indexOf(it.activityType)) }
+        rows.forEach { columns.varint(indexOf(it.event)) }
+        rows.forEach { columns.varint(indexOf(it.extrasJson)) }
+        columns.bits(rows) { it.uuid != null }
+        rows.forEach { row ->
+            row.uuid?.let {
+                columns.fixed64(it.mostSignificantBits)
+                columns.fixed64(it.leastSignificantBits)
+            }
+        }
+
+        val body = Writer()
+        body.varint(rows.size.toLong())
+        body.varint(dictionary.size.toLong())
+        dictionary.keys.forEach { body.string(it) }
+        body.bytes(columns.toByteArray())
+
+        val out = ByteArrayOutputStream()
+        out.write(MAGIC_0)
+        out.write(MAGIC_1)
+        out.write(VERSION)
+        out.write(if (deflate) FLAG_DEFLATED else 0)
+        if (deflate) {
+            DeflaterOutputStream(out, Deflater(Deflater.BEST_COMPRESSION)).use { it.write(body.toByteArray()) }
+        } else {
+            out.write(body.toByteArray())
+        }
+        return out.toByteArray()
+    }
+
+    fun decode(data: ByteArray): List<Row> {
+        require(data.size >= 4 && data[0].toInt() == MAGIC_0 && data[1].toInt() == MAGIC_1) {
+            "Not a location segment"
+        }
+        require(data[2].toInt() == VERSION) { "Unsupported segment version ${data[2]}" }
+        val body = if (data[3].toInt() and FLAG_DEFLATED != 0) {
+            InflaterInputStream(data.inputStream(4, data.size - 4)).use { it.readBytes() }
+        } else {
+            data.copyOfRange(4, data.size)
+        }
+
+        val reader = Reader(body)
+        val count = reader.varint().toInt()
+        val dictionary = List(reader.varint().toInt()) { reader.string() }
+        fun lookup(index: Long): String? = if (index == 0L) null else dictionary[(index - 1).toInt()]
+
+        val ids = reader.deltas(count)
+        val timestamps = reader.deltas(count)
+        val latitudes = reader.deltas(count)
+        val longitudes = reader.deltas(count)
+        val accuracies = reader.deltas(count)
+        val speeds = reader.deltas(count)
+        val headings = reader.deltas(count)
+        val altitudes = reader.deltas(count)
+        val odometers = reader.deltas(count)
+        val confidences = LongArray(count) { reader.varint() }
+        val moving = reader.bits(count)
+        val activityTypes = LongArray(count) { reader.varint() }
+        val events = LongArray(count) { reader.varint() }
+        val extras = LongArray(count) { reader.varint() }
+        val hasUuid = reader.bits(count)
+
+        return List(count) { i ->
+            Row(
+                id = ids[i],
+                uuid = if (hasUuid[i]) UUID(reader.fixed64(), reader.fixed64()) else null,
+                timestamp = timestamps[i],
+                latitude = latitudes[i] / COORD_SCALE,
+                longitude = longitudes[i] / COORD_SCALE,
+                accuracy = accuracies[i] / VALUE_SCALE,
+                speed = speeds[i] / VALUE_SCALE,
+                heading = headings[i] / VALUE_SCALE,
+                altitude = altitudes[i] / VALUE_SCALE,
+                isMoving = moving[i],
+                activityType = lookup(activityTypes[i]),
+                activityConfidence = confidences[i].toInt(),
+                event = lookup(events[i]),
+                odometer = odometers[i] / VALUE_SCALE,
+                extrasJson = lookup(extras[i]),
+            )
+        }
+    }
+
+    private fun fixed(value: Double, scale: Double): Long =
+        if (value.isFinite()) Math.round(value * scale) else 0L
+
+    private class Writer {
+        private val out = ByteArrayOutputStream()
+
+        fun varint(value: Long) {
+            var v = value
+            while (v and 0x7FL.inv() != 0L) {
+                out.write(((v and 0x7F) or 0x80).toInt())
+                v = v ushr 7
+            }
+            out.write(v.toInt())
+        }
+
+        fun deltas(rows: List<Row>, value: (Row) -> Long) {
+            var previous = 0L
+            rows.forEach { row ->
+                val current = value(row)
+                val delta = current - previous
+                varint((delta shl 1) xor (delta shr 63))
+                previous = current
+            }
+        }
+
+        fun bits(rows: List<Row>, value: (Row) -> Boolean) {
+            val packed = ByteArray((rows.size + 7) / 8)
+            rows.forEachIndexed { i, row ->
+                if (value(row)) packed[i / 8] = (packed[i / 8].toInt() or (1 shl (i % 8))).toByte()
+            }
+            out.write(packed)
+        }
+
+        fun fixed64(value: Long) {
+            for (shift in 56 downTo 0 step 8) out.write((value ushr shift).toInt() and 0xFF)
+        }
+
+        fun string(value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            varint(bytes.size.toLong())
+            out.write(bytes)
+        }
+
+        fun bytes(value: ByteArray) = out.write(value)
+
+        fun toByteArray(): ByteArray = out.toByteArray()
+    }
+
+    private class Reader(private val data: ByteArray) {
+        private var position = 0
+
+        fun varint(): Long {
+            var result = 0L
+            var shift = 0
+            while (true) {
+                val b = data[position++].toInt() and 0xFF
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+            }
+        }
+
+        fun deltas(count: Int): LongArray {
+            var previous = 0L
+            return LongArray(count) {
+                val zigzag = varint()
+                previous += (zigzag ushr 1) xor -(zigzag and 1)
+                previous
+            }
+        }
+
+        fun bits(count: Int): BooleanArray {
+            val start = position
+            position += (count + 7) / 8
+            return BooleanArray(count) { i -> data[start + i / 8].toInt() and (1 shl (i % 8)) != 0 }
+        }
+
+        fun fixed64(): Long {
+            var result = 0L
+            repeat(8) { result = (result shl 8) or (data[position++].toLong() and 0xFF) }
+            return result
+        }
+
+        fun string(): String {
+            val length = varint().toInt()
+            val value = String(data, position, length, Charsets.UTF_8)
+            position += length
+            return value
+        }
+    }
+}
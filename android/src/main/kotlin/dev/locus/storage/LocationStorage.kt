@@ -0,0 +1,21 @@
+package dev.locus.storage
+
+/** Which [LocationBackend] persists locations. */
+enum class LocationStorage {
+    /** [LocationStore]: SQLite, with the archive tier and spatial index. The default. */
+    SQLITE,
+
+    /**
+     * [LocationJournal]: a memory-mapped append-only journal. An insert is
+     * a 64-byte copy into the page cache instead of a SQLite transaction,
+     * for very high fix rates over long offline stretches. No archive
+     * tier; queries and summaries scan the journal.
+     */
+    JOURNAL;
+
+    companion object {
+        /** Parses the config value (case-insensitive); unknown → [SQLITE]. */
+        fun fromValue(value: String?): LocationStorage =
+            values().firstOrNull { it.name.equals(value, ignoreCase = true) } ?: SQLITE
+    }
+}
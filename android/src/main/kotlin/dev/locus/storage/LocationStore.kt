@@ -1,34 +1,206 @@
 package dev.locus.storage
 
-import android.content.ContentValues
-import android.content.Context
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
-import android.database.sqlite.SQLiteOpenHelper
+import android.database.sqlite.SQLiteStatement
 import android.location.Location
+import org.json.JSONArray
+import org.json.JSONObject
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.security.SecureRandom
 import java.time.Instant
+import java.util.PriorityQueue
 import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
-class LocationStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+class LocationStore(
+    private val database: LocusDatabase,
+    retentionPruner: RetentionPruner,
+) : LocationBackend, LocusDatabase.Schema {
 
-    override fun onConfigure(db: SQLiteDatabase) {
-        // Durability: WAL keeps the journal independent of the main DB, and
-        // synchronous=FULL fsyncs both files on commit. Together they survive
-        // process kills between commit and checkpoint without data loss.
-        //
-        // Use rawQuery instead of execSQL: Samsung's hardened SQLite (seen on
-        // SM A346E / Android 16) treats `PRAGMA journal_mode=WAL` as a query
-        // because it returns the resulting mode, and rejects it from execSQL
-        // with "Queries can be performed using SQLiteDatabase query or
-        // rawQuery methods only." rawQuery works on AOSP and Samsung alike.
-        db.rawQuery("PRAGMA journal_mode=WAL", null).use { it.moveToFirst() }
-        db.rawQuery("PRAGMA synchronous=FULL", null).use { it.moveToFirst() }
+    private val retention = retentionPruner.register("locations", RetentionTarget(), database)
+
+    private val readableDatabase: SQLiteDatabase
+        get() = database.readableDatabase
+
+    @Volatile
+    private var retentionMaxBytes = 0L
+
+    @Volatile
+    private var durability = WriteDurability.FULL
+
+    @Volatile
+    private var groupCommitWindowMs = DEFAULT_GROUP_COMMIT_WINDOW_MS
+
+    @Volatile
+    private var groupCommitMaxRows = DEFAULT_GROUP_COMMIT_MAX_ROWS
+
+    // Group-commit buffer (GROUPED durability). [pendingLock] guards the
+    // buffer and is never held across disk I/O, so inserts on the caller's
+    // thread don't wait on a commit. [flushLock] serializes commits, so a
+    // reader that calls [flush] returns only after rows taken by a
+    // concurrent flush are visible.
+    private val pendingLock = Any()
+    private val flushLock = Any()
+    private val pendingRows = mutableListOf<LocationRow>()
+    private var pendingMaxDays = 0
+    private var pendingMaxRecords = 0
+    private var scheduledFlush: ScheduledFuture<*>? = null
+
+    private val flushExecutor: ScheduledExecutorService by lazy {
+        Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "locus-location-commit").apply { isDaemon = true }
+        }
+    }
+
+    // Archive tier; see [configureArchive].
+    @Volatile
+    private var archiveSynced = false
+
+    @Volatile
+    private var archiveAfterMs = 0L
+
+    @Volatile
+    private var archiveDeflate = true
+
+    @Volatile
+    private var lastArchivePassAt = 0L
+
+    // Whether `locations_rtree` exists; the R*Tree module is optional in
+    // SQLite builds, so it is probed rather than assumed. Set in [onOpen].
+    @Volatile
+    private var hasSpatialIndex = false
+
+    // Reused INSERT, compiled once per connection; only touched inside
+    // [commitRows] under [flushLock].
+    private var insertStatement: SQLiteStatement? = null
+
+    // The tracking extras are usually identical fix after fix; keep the
+    // last serialization so the hot path doesn't rebuild the JSON string
+    // and the route context for every row.
+    @Volatile
+    private var extrasCache: ExtrasCache? = null
+
+    private class ExtrasCache(val extras: Map<*, *>, val json: String, val context: RouteContext?)
+
+    // `location_extras` id per extras JSON, so consecutive commits with the
+    // same extras skip the dictionary lookup. Only touched on the writer
+    // thread; cleared whenever unreferenced entries are collected.
+    private val extrasIds = HashMap<String, Long>()
+
+    // Decoded dictionary entries by id, shared by every row that
+    // references them. Ids are AUTOINCREMENT and entries never change, so
+    // a cached entry can't go stale.
+    private val extrasById = object : LinkedHashMap<Long, DecodedExtras>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, DecodedExtras>?): Boolean =
+            size > EXTRAS_CACHE_SIZE
+    }
+
+    private class DecodedExtras(val json: String, val map: Map<String, Any>)
+
+    /** Per-database salt for [derivedUuid]; see [readRecord]. */
+    private val uuidSalt: Long by lazy { readUuidSalt() }
+
+    /**
+     * A location as primitives, ready to bind: no ContentValues map, no
+     * boxing, no string keys. Also what the GROUPED buffer holds.
+     */
+    private class LocationRow(
+        val timestamp: Long,
+        val latitude: Double,
+        val longitude: Double,
+        val accuracy: Double,
+        val speed: Double,
+        val heading: Double,
+        val altitude: Double,
+        val isMoving: Boolean,
+        val activityType: String?,
+        val activityConfidence: Int,
+        val event: String?,
+        val odometer: Double,
+        val extrasJson: String?,
+        val context: RouteContext?,
+    )
+
+    init {
+        database.addSchema(this)
+    }
+
+    /**
+     * Sets how location rows are committed; see [WriteDurability]. Leaving
+     * GROUPED flushes whatever is buffered. [windowMs] and [maxRows] bound
+     * a group commit (and so the GROUPED loss window); values ≤ 0 keep the
+     * defaults. NORMAL applies to location commits only: the writer sets
+     * `synchronous` per transaction ([LocusDatabase.write]).
+     */
+    override fun configureWrites(durability: WriteDurability, windowMs: Long, maxRows: Int) {
+        val previous = this.durability
+        groupCommitWindowMs = if (windowMs > 0) windowMs else DEFAULT_GROUP_COMMIT_WINDOW_MS
+        groupCommitMaxRows = if (maxRows > 0) maxRows else DEFAULT_GROUP_COMMIT_MAX_ROWS
+        this.durability = durability
+        if (previous == WriteDurability.GROUPED && durability != WriteDurability.GROUPED) {
+            flush()
+        }
+    }
+
+    /**
+     * Configures the archive tier. With [archiveSynced], rows acknowledged
+     * by the server are sealed into compact per-hour segments
+     * ([LocationSegmentCodec]) instead of being deleted. With
+     * [archiveAfterMs] > 0, rows older than that are sealed too, synced or
+     * not — sealed rows are no longer uploaded. [deflate] compresses each
+     * segment. Segments stay readable through [readLocations] and are
+     * dropped by the `maxDays` retention.
+     */
+    fun configureArchive(archiveSynced: Boolean, archiveAfterMs: Long, deflate: Boolean) {
+        this.archiveSynced = archiveSynced
+        this.archiveAfterMs = archiveAfterMs.coerceAtLeast(0L)
+        this.archiveDeflate = deflate
+        lastArchivePassAt = 0L
     }
 
+    /**
+     * Size quota for stored locations in bytes: live rows, segments and
+     * the extras dictionary together, not the rest of `locus.db`; 0
+     * disables. Enforced with `maxDays`/`maxRecords` by [RetentionPruner].
+     */
+    override fun configureRetention(maxBytes: Long) {
+        retentionMaxBytes = maxBytes.coerceAtLeast(0L)
+    }
+
+    private val archiveEnabled: Boolean
+        get() = archiveSynced || archiveAfterMs > 0
+
     override fun onCreate(db: SQLiteDatabase) {
+        createLocationsTable(db, "locations")
+        createUuidSalt(db)
+        createRouteContextIndexes(db)
+        createBacklogCounters(db)
+        createSegmentTable(db)
+        createTimestampIndex(db)
+        createQueryIndexes(db)
+        createSpatialIndex(db)
+        createExtrasDictionary(db)
+    }
+
+    /**
+     * `id` is an INTEGER rowid alias: an 8-byte key instead of a 36-char
+     * TEXT UUID plus its separate unique index. AUTOINCREMENT keeps ids
+     * from being reused after the newest row is synced and deleted, which
+     * matters because the public uuid of a new row is derived from its id.
+     * `uuid` holds the original 16-byte UUID of rows migrated from v5;
+     * it is NULL for rows inserted since.
+     */
+    private fun createLocationsTable(db: SQLiteDatabase, name: String) {
         db.execSQL(
             """
-            CREATE TABLE locations (
-                id TEXT PRIMARY KEY,
+            CREATE TABLE $name (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                uuid BLOB,
                 timestamp INTEGER,
                 latitude REAL,
                 longitude REAL,
@@ -41,125 +213,752 @@ class LocationStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null,
                 activity_confidence INTEGER,
                 event TEXT,
                 odometer REAL,
-                extras_json TEXT
+                extras_json TEXT,
+                owner_id TEXT,
+                driver_id TEXT,
+                task_id TEXT,
+                tracking_session_id TEXT,
+                started_at TEXT
             )
             """.trimIndent()
         )
     }
 
+    private fun createUuidSalt(db: SQLiteDatabase) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS location_meta (key TEXT PRIMARY KEY, value INTEGER NOT NULL)")
+        db.execSQL(
+            "INSERT OR IGNORE INTO location_meta (key, value) VALUES ('uuid_salt', ?)",
+            arrayOf(SecureRandom().nextLong())
+        )
+    }
+
+    private fun readUuidSalt(): Long =
+        readableDatabase.rawQuery(
+            "SELECT value FROM location_meta WHERE key = 'uuid_salt'",
+            null
+        ).use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else 0L
+        }
+
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         if (oldVersion < 3) {
             db.execSQL("ALTER TABLE locations ADD COLUMN extras_json TEXT")
         }
+        if (oldVersion < 4) {
+            ROUTE_CONTEXT_COLUMNS.forEach { column ->
+                db.execSQL("ALTER TABLE locations ADD COLUMN $column TEXT")
+            }
+            backfillRouteContext(db)
+            createRouteContextIndexes(db)
+        }
+        if (oldVersion < 5) {
+            createBacklogCounters(db)
+        }
+        if (oldVersion < 6) {
+            migrateToIntegerKeys(db)
+        }
+        if (oldVersion < 7) {
+            createSegmentTable(db)
+        }
+        if (oldVersion < 8) {
+            createTimestampIndex(db)
+        }
+        if (oldVersion < 9) {
+            createQueryIndexes(db)
+        }
+        if (oldVersion < 10) {
+            addSegmentBounds(db)
+            if (createSpatialIndex(db)) {
+                db.execSQL(
+                    "INSERT INTO locations_rtree (id, min_lat, max_lat, min_lng, max_lng) " +
+                        "SELECT id, latitude, latitude, longitude, longitude FROM locations"
+                )
+            }
+        }
+        if (oldVersion < 15) {
+            createExtrasDictionary(db)
+            moveExtrasToDictionary(db)
+        }
+        if (oldVersion < 16) {
+            createExtrasReferenceIndex(db)
+        }
+    }
+
+    /**
+     * v5 → v6: rebuild `locations` with an INTEGER key, carrying each
+     * row's TEXT UUID over as a 16-byte BLOB so rows already handed to the
+     * backend keep their identity. Dropping the old table drops its
+     * indexes and counter triggers; both are recreated on the new one and
+     * [onOpen] reconciles the counters.
+     */
+    private fun migrateToIntegerKeys(db: SQLiteDatabase) {
+        createLocationsTable(db, "locations_v6")
+        val copy = db.compileStatement(
+            "INSERT INTO locations_v6 (${V6_COLUMNS.joinToString(", ")}) " +
+                "VALUES (${V6_COLUMNS.joinToString(", ") { "?" }})"
+        )
+        try {
+            db.rawQuery("SELECT * FROM locations ORDER BY timestamp ASC", null).use { cursor ->
+                val idIndex = cursor.getColumnIndexOrThrow("id")
+                // V6_COLUMNS[0] is uuid; the rest are copied verbatim.
+                val sourceIndexes = V6_COLUMNS.drop(1).map { cursor.getColumnIndexOrThrow(it) }
+                while (cursor.moveToNext()) {
+                    copy.clearBindings()
+                    uuidToBytes(cursor.getString(idIndex))?.let { copy.bindBlob(1, it) }
+                    sourceIndexes.forEachIndexed { offset, column ->
+                        val bindIndex = offset + 2
+                        when (cursor.getType(column)) {
+                            Cursor.FIELD_TYPE_INTEGER -> copy.bindLong(bindIndex, cursor.getLong(column))
+                            Cursor.FIELD_TYPE_FLOAT -> copy.bindDouble(bindIndex, cursor.getDouble(column))
+                            Cursor.FIELD_TYPE_STRING -> copy.bindString(bindIndex, cursor.getString(column))
+                            else -> copy.bindNull(bindIndex)
+                        }
+                    }
+                    copy.executeInsert()
+                }
+            }
+        } finally {
+            copy.close()
+        }
+        db.execSQL("DROP TABLE locations")
+        db.execSQL("ALTER TABLE locations_v6 RENAME TO locations")
+        createUuidSalt(db)
+        createRouteContextIndexes(db)
+        createBacklogCounters(db)
+    }
+
+    /**
+     * Sealed segments: one BLOB per hour of archived rows (several while
+     * the hour is still open, merged by [compactSegments] once it closes).
+     * [start_ts, end_ts] bound the rows' timestamps for range reads and
+     * retention.
+     */
+    private fun createSegmentTable(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE IF NOT EXISTS location_segments (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                hour INTEGER NOT NULL,
+                start_ts INTEGER NOT NULL,
+                end_ts INTEGER NOT NULL,
+                row_count INTEGER NOT NULL,
+                data BLOB NOT NULL,
+                min_lat REAL,
+                max_lat REAL,
+                min_lng REAL,
+                max_lng REAL
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_location_segments_start ON location_segments(start_ts)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_location_segments_hour ON location_segments(hour)")
+    }
+
+    /**
+     * v10: segment bounding boxes, so spatial queries skip segments that
+     * can't contain a match. NULL (segments sealed before v10) means
+     * unknown and is always decoded.
+     */
+    private fun addSegmentBounds(db: SQLiteDatabase) {
+        listOf("min_lat", "max_lat", "min_lng", "max_lng").forEach { column ->
+            db.execSQL("ALTER TABLE location_segments ADD COLUMN $column REAL")
+        }
+    }
+
+    /**
+     * v15: the extras dictionary. Tracking extras are the same few hundred
+     * bytes of owner/driver/task/session metadata fix after fix, so rows
+     * reference one `location_extras` entry by `extras_id` instead of each
+     * carrying the JSON. Entries are keyed by a 64-bit content hash
+     * ([extrasHash]); the lookup compares the JSON too, so a collision
+     * just adds an entry. `extras_json` stays in the table (SQLite can't
+     * drop columns here) but is NULL once a row's extras have moved.
+     */
+    private fun createExtrasDictionary(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE IF NOT EXISTS location_extras (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                hash INTEGER NOT NULL,
+                json TEXT NOT NULL
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_location_extras_hash ON location_extras(hash)")
+        db.execSQL("ALTER TABLE locations ADD COLUMN extras_id INTEGER")
+        createExtrasReferenceIndex(db)
+    }
+
+    /**
+     * Lets [collectUnusedExtras] find an entry's rows without scanning
+     * `locations`. v15 databases created before this index existed get it
+     * in the v16 upgrade.
+     */
+    private fun createExtrasReferenceIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_locations_extras_id ON locations(extras_id)")
+    }
+
+    /** One-time v14 → v15 migration: one dictionary entry per distinct `extras_json`. */
+    private fun moveExtrasToDictionary(db: SQLiteDatabase) {
+        val distinct = db.rawQuery(
+            "SELECT DISTINCT extras_json FROM locations WHERE extras_json IS NOT NULL",
+            null
+        ).use { cursor ->
+            buildList { while (cursor.moveToNext()) add(cursor.getString(0)) }
+        }
+        distinct.forEach { json ->
+            val id = insertExtras(db, json)
+            db.execSQL(
+                "UPDATE locations SET extras_id = ?, extras_json = NULL WHERE extras_json = ?",
+                arrayOf<Any?>(id, json)
+            )
+        }
+    }
+
+    override fun onOpen(db: SQLiteDatabase) {
+        hasSpatialIndex = db.rawQuery(
+            "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'locations_rtree'",
+            null
+        ).use { it.moveToFirst() }
+        reconcileBacklogCounters(db)
+    }
+
+    /** Commits buffered rows and releases the compiled insert. */
+    override fun close() {
+        flush()
+        synchronized(flushLock) {
+            insertStatement?.close()
+            insertStatement = null
+        }
+    }
+
+    /**
+     * Indexes backing [readNextContextBatch]:
+     *  - the partial timestamp index finds the oldest routable row without
+     *    touching quarantined rows (owner_id is NULL for those);
+     *  - the composite index then walks that row's context in timestamp
+     *    order, so the LIMIT stops after `limit` index entries.
+     */
+    private fun createRouteContextIndexes(db: SQLiteDatabase) {
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS idx_locations_routable_timestamp " +
+                "ON locations (timestamp) WHERE owner_id IS NOT NULL"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS idx_locations_route_context ON locations (" +
+                "owner_id, driver_id, task_id, tracking_session_id, started_at, timestamp)"
+        )
+    }
+
+    /**
+     * Full timestamp index for [readLocations] and [readLocationsPage].
+     * The rowid is implicitly the last index column, so it also serves the
+     * (timestamp, id) keyset order without a sort.
+     */
+    private fun createTimestampIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_locations_timestamp ON locations (timestamp)")
+    }
+
+    /**
+     * `locations_rtree` holds each row's point as a degenerate box keyed by
+     * the row id, for [LocationQuery.bounds] and [LocationQuery.near]
+     * lookups. Triggers keep it in step with every insert, delete and
+     * prune; location rows are never updated in place. Returns false, and
+     * leaves queries on the column indexes, when this SQLite build lacks
+     * the R*Tree module.
+     */
+    private fun createSpatialIndex(db: SQLiteDatabase): Boolean {
+        try {
+            db.execSQL(
+                "CREATE VIRTUAL TABLE IF NOT EXISTS locations_rtree " +
+                    "USING rtree(id, min_lat, max_lat, min_lng, max_lng)"
+            )
+        } catch (e: Exception) {
+            android.util.Log.w("LocationStore", "R*Tree unavailable, spatial queries use column scans: ${e.message}")
+            return false
+        }
+        db.execSQL(
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_locations_rtree_insert
+            AFTER INSERT ON locations
+            BEGIN
+                INSERT INTO locations_rtree (id, min_lat, max_lat, min_lng, max_lng)
+                VALUES (NEW.id, NEW.latitude, NEW.latitude, NEW.longitude, NEW.longitude);
+            END
+            """.trimIndent()
+        )
+        db.execSQL(
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_locations_rtree_delete
+            AFTER DELETE ON locations
+            BEGIN
+                DELETE FROM locations_rtree WHERE id = OLD.id;
+            END
+            """.trimIndent()
+        )
+        return true
+    }
+
+    /**
+     * Indexes for [queryLocations] filters beyond the time range: motion
+     * state within a time range, and accuracy thresholds.
+     */
+    private fun createQueryIndexes(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_locations_moving_timestamp ON locations (is_moving, timestamp)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_locations_accuracy ON locations (accuracy)")
+    }
+
+    /**
+     * Per-context row counts for [readBacklogCounts], kept in step with
+     * `locations` by triggers so every insert, delete and prune updates
+     * them inside the statement's own transaction. Quarantined rows are
+     * counted under the all-empty key (NULL columns are coalesced to '').
+     * A context's counter row is removed once its count reaches zero.
+     *
+     * minSdk 26 ships SQLite 3.18, which predates UPSERT, hence the
+     * guarded INSERT + UPDATE pair. The guard is a NOT EXISTS rather than
+     * INSERT OR IGNORE because a trigger body inherits the outer
+     * statement's conflict policy; should an insert ever run with
+     * OR REPLACE, OR IGNORE would silently become OR REPLACE and reset
+     * the count.
+     */
+    private fun createBacklogCounters(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE IF NOT EXISTS location_backlog (
+                owner_id TEXT NOT NULL,
+                driver_id TEXT NOT NULL,
+                task_id TEXT NOT NULL,
+                tracking_session_id TEXT NOT NULL,
+                started_at TEXT NOT NULL,
+                location_count INTEGER NOT NULL,
+                PRIMARY KEY (owner_id, driver_id, task_id, tracking_session_id, started_at)
+            )
+            """.trimIndent()
+        )
+        db.execSQL(
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_locations_backlog_insert
+            AFTER INSERT ON locations
+            BEGIN
+                INSERT INTO location_backlog
+                SELECT ${backlogKey("NEW")}, 0
+                WHERE NOT EXISTS (
+                    SELECT 1 FROM location_backlog WHERE ${backlogMatch("NEW")}
+                );
+                UPDATE location_backlog SET location_count = location_count + 1
+                WHERE ${backlogMatch("NEW")};
+            END
+            """.trimIndent()
+        )
+        db.execSQL(
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_locations_backlog_delete
+            AFTER DELETE ON locations
+            BEGIN
+                UPDATE location_backlog SET location_count = location_count - 1
+                WHERE ${backlogMatch("OLD")};
+                DELETE FROM location_backlog
+                WHERE ${backlogMatch("OLD")} AND location_count <= 0;
+            END
+            """.trimIndent()
+        )
+    }
+
+    /**
+     * Rebuilds the counters from `locations` once per process. Triggers
+     * keep them exact in normal operation; this bounds the damage of any
+     * drift (e.g. a row replaced without delete triggers firing) to one
+     * app session.
+     */
+    private fun reconcileBacklogCounters(db: SQLiteDatabase) {
+        if (db.isReadOnly) return
+        try {
+            db.beginTransaction()
+            try {
+                db.execSQL("DELETE FROM location_backlog")
+                db.execSQL(
+                    """
+                    INSERT INTO location_backlog
+                    SELECT ${backlogKey("locations")}, COUNT(*)
+                    FROM locations
+                    GROUP BY 1, 2, 3, 4, 5
+                    """.trimIndent()
+                )
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to reconcile backlog counters: ${e.message}", e)
+        }
     }
 
-    fun insertLocation(
+    private fun backlogKey(row: String): String =
+        ROUTE_CONTEXT_COLUMNS.joinToString(", ") { "COALESCE($row.$it, '')" }
+
+    private fun backlogMatch(row: String): String =
+        ROUTE_CONTEXT_COLUMNS.joinToString(" AND ") { "$it = COALESCE($row.$it, '')" }
+
+    /**
+     * One-time v3 → v4 migration: parse each row's `extras_json` once and
+     * copy its route context into the new columns. Rows without a complete
+     * context keep NULLs and stay quarantined, exactly as before.
+     */
+    private fun backfillRouteContext(db: SQLiteDatabase) {
+        val update = db.compileStatement(
+            "UPDATE locations SET owner_id = ?, driver_id = ?, task_id = ?, " +
+                "tracking_session_id = ?, started_at = ? WHERE id = ?"
+        )
+        try {
+            db.rawQuery(
+                "SELECT id, extras_json FROM locations WHERE extras_json IS NOT NULL",
+                null
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    val id = cursor.getString(0) ?: continue
+                    val extras = try {
+                        val json = org.json.JSONObject(cursor.getString(1))
+                        json.keys().asSequence().associateWith { key ->
+                            json.opt(key).takeUnless { it == org.json.JSONObject.NULL }
+                        }
+                    } catch (e: org.json.JSONException) {
+                        continue
+                    }
+                    val context = RouteContext.fromExtras(extras) ?: continue
+                    update.clearBindings()
+                    update.bindString(1, context.ownerId)
+                    update.bindString(2, context.driverId)
+                    update.bindString(3, context.taskId)
+                    update.bindString(4, context.trackingSessionId)
+                    update.bindString(5, context.startedAt)
+                    update.bindString(6, id)
+                    update.executeUpdateDelete()
+                }
+            }
+        } finally {
+            update.close()
+        }
+    }
+
+    /**
+     * Hot-path insert straight from a fix: coordinates and time are bound
+     * from [location]'s primitives, skipping the payload map round-trip
+     * (and the ISO-8601 timestamp parse) of [insertPayload].
+     */
+    override fun insertLocation(
         location: Location,
         isMoving: Boolean,
         activityType: String?,
         activityConfidence: Int,
         event: String?,
-        odometer: Double
+        odometer: Double,
+        extras: Map<*, *>?,
+        maxDays: Int,
+        maxRecords: Int,
     ) {
-        val values = ContentValues().apply {
-            put("id", UUID.randomUUID().toString())
-            put("timestamp", location.time)
-            put("latitude", location.latitude)
-            put("longitude", location.longitude)
-            put("accuracy", location.accuracy)
-            put("speed", location.speed)
-            put("heading", location.bearing)
-            put("altitude", location.altitude)
-            put("is_moving", if (isMoving) 1 else 0)
-            put("activity_type", activityType)
-            put("activity_confidence", activityConfidence)
-            put("event", event)
-            put("odometer", odometer)
-        }
-
-        try {
-            val db = writableDatabase
-            db.insertWithOnConflict("locations", null, values, SQLiteDatabase.CONFLICT_REPLACE)
-            checkpoint(db)
+        try {
+            val cache = serializeExtras(extras)
+            storeRow(
+                LocationRow(
+                    timestamp = location.time,
+                    latitude = location.latitude,
+                    longitude = location.longitude,
+                    accuracy = location.accuracy.toDouble(),
+                    speed = location.speed.toDouble(),
+                    heading = location.bearing.toDouble(),
+                    altitude = location.altitude,
+                    isMoving = isMoving,
+                    activityType = activityType,
+                    activityConfidence = activityConfidence,
+                    event = event,
+                    odometer = odometer,
+                    extrasJson = cache?.json,
+                    context = cache?.context,
+                ),
+                maxDays,
+                maxRecords
+            )
         } catch (e: Exception) {
             android.util.Log.e("LocationStore", "Failed to insert location: ${e.message}", e)
         }
     }
 
-    fun clear() {
+    override fun clear() {
+        synchronized(pendingLock) {
+            scheduledFlush?.cancel(false)
+            scheduledFlush = null
+            pendingRows.clear()
+        }
         try {
-            val db = writableDatabase
-            db.execSQL("DELETE FROM locations")
-            checkpoint(db)
+            database.write { db ->
+                db.execSQL("DELETE FROM locations")
+                db.execSQL("DELETE FROM location_segments")
+                db.execSQL("DELETE FROM location_extras")
+                extrasIds.clear()
+            }
         } catch (e: Exception) {
             android.util.Log.e("LocationStore", "Failed to clear locations: ${e.message}", e)
         }
     }
 
-    fun insertPayload(payload: Map<String, Any>?, maxDays: Int, maxRecords: Int) {
+    override fun insertPayload(payload: Map<String, Any>?, maxDays: Int, maxRecords: Int) {
         if (payload == null) return
 
         try {
-            val coords = payload["coords"] as? Map<*, *> ?: return
-            val latitude = coords["latitude"].toDoubleOrZero()
-            val longitude = coords["longitude"].toDoubleOrZero()
-            val accuracy = coords["accuracy"].toDoubleOrZero()
-            val speed = coords["speed"].toDoubleOrZero()
-            val heading = coords["heading"].toDoubleOrZero()
-            val altitude = coords["altitude"].toDoubleOrZero()
-
-            val activity = payload["activity"] as? Map<*, *>
-            val activityType = activity?.get("type") as? String
-            val activityConfidence = (activity?.get("confidence") as? Number)?.toInt() ?: 0
-
-            val timestamp = (payload["timestamp"] as? String)?.let { timestampStr ->
-                runCatching { Instant.parse(timestampStr).toEpochMilli() }.getOrNull()
-            } ?: System.currentTimeMillis()
-
-            val isMoving = payload["is_moving"] as? Boolean ?: false
-            val event = payload["event"] as? String
-            val odometer = payload["odometer"].toDoubleOrZero()
-            val extrasJson = (payload["extras"] as? Map<*, *>)?.let { extras ->
-                org.json.JSONObject(extras).toString()
-            }
-
-            val values = ContentValues().apply {
-                put("id", UUID.randomUUID().toString())
-                put("timestamp", timestamp)
-                put("latitude", latitude)
-                put("longitude", longitude)
-                put("accuracy", accuracy)
-                put("speed", speed)
-                put("heading", heading)
-                put("altitude", altitude)
-                put("is_moving", if (isMoving) 1 else 0)
-                put("activity_type", activityType)
-                put("activity_confidence", activityConfidence)
-                put("event", event)
-                put("odometer", odometer)
-                put("extras_json", extrasJson)
-            }
-
-            val db = writableDatabase
-            db.beginTransaction()
-            try {
-                db.insertWithOnConflict("locations", null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            val row = payloadRow(payload) ?: return
+            storeRow(row, maxDays, maxRecords)
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to insert payload: ${e.message}", e)
+        }
+    }
 
-                if (maxDays > 0) pruneByAge(maxDays)
-                if (maxRecords > 0) pruneByCount(maxRecords)
-                db.setTransactionSuccessful()
-            } finally {
-                db.endTransaction()
+    /** All of [payloads] in one durable transaction, or none of them. */
+    override fun importPayloads(payloads: List<Map<String, Any>>): Int {
+        if (payloads.isEmpty()) return 0
+        return try {
+            val rows = payloads.map { payload ->
+                payloadRow(payload) ?: throw IllegalArgumentException("Payload without coords")
             }
-            checkpoint(db)
+            commitRows(rows, 0, 0, durable = true)
+            rows.size
         } catch (e: Exception) {
-            android.util.Log.e("LocationStore", "Failed to insert payload: ${e.message}", e)
+            android.util.Log.e("LocationStore", "Failed to import ${payloads.size} location(s): ${e.message}", e)
+            0
         }
     }
 
-    fun readLocations(limit: Int): List<Map<String, Any>> {
+    private fun payloadRow(payload: Map<String, Any>): LocationRow? {
+        val coords = payload["coords"] as? Map<*, *> ?: return null
+        val activity = payload["activity"] as? Map<*, *>
+        val timestamp = (payload["timestamp"] as? String)?.let { timestampStr ->
+            runCatching { Instant.parse(timestampStr).toEpochMilli() }.getOrNull()
+        } ?: System.currentTimeMillis()
+        val cache = serializeExtras(payload["extras"] as? Map<*, *>)
+
+        return LocationRow(
+            timestamp = timestamp,
+            latitude = coords["latitude"].toDoubleOrZero(),
+            longitude = coords["longitude"].toDoubleOrZero(),
+            accuracy = coords["accuracy"].toDoubleOrZero(),
+            speed = coords["speed"].toDoubleOrZero(),
+            heading = coords["heading"].toDoubleOrZero(),
+            altitude = coords["altitude"].toDoubleOrZero(),
+            isMoving = payload["is_moving"] as? Boolean ?: false,
+            activityType = activity?.get("type") as? String,
+            activityConfidence = (activity?.get("confidence") as? Number)?.toInt() ?: 0,
+            event = payload["event"] as? String,
+            odometer = payload["odometer"].toDoubleOrZero(),
+            extrasJson = cache?.json,
+            context = cache?.context,
+        )
+    }
+
+    private fun storeRow(row: LocationRow, maxDays: Int, maxRecords: Int) {
+        if (durability == WriteDurability.GROUPED) {
+            bufferRow(row, maxDays, maxRecords)
+        } else {
+            commitRows(listOf(row), maxDays, maxRecords)
+        }
+    }
+
+    private fun serializeExtras(extras: Map<*, *>?): ExtrasCache? {
+        if (extras == null) return null
+        extrasCache?.let { cached -> if (cached.extras == extras) return cached }
+        return ExtrasCache(
+            extras = extras,
+            json = org.json.JSONObject(extras).toString(),
+            context = RouteContext.fromExtras(extras),
+        ).also { extrasCache = it }
+    }
+
+    /**
+     * The `location_extras` id for [json], adding an entry when there is
+     * none. Runs inside the commit transaction. Adding an entry also
+     * queues a collection of the ones no row references any more (extras
+     * only change between tasks or sessions, so this is rare); it runs as
+     * its own write after this one, which keeps the dictionary near the
+     * live set without a scan of `locations` in the insert path.
+     */
+    private fun extrasIdFor(db: SQLiteDatabase, json: String): Long {
+        extrasIds[json]?.let { return it }
+        val hash = extrasHash(json)
+        val existing = db.rawQuery(
+            "SELECT id FROM location_extras WHERE hash = ? AND json = ?",
+            arrayOf(hash.toString(), json)
+        ).use { if (it.moveToFirst()) it.getLong(0) else null }
+        val id = existing ?: insertExtras(db, json, hash).also {
+            flushExecutor.execute { collectUnusedExtras() }
+        }
+        if (extrasIds.size >= EXTRAS_CACHE_SIZE) extrasIds.clear()
+        extrasIds[json] = id
+        return id
+    }
+
+    private fun insertExtras(db: SQLiteDatabase, json: String, hash: Long = extrasHash(json)): Long {
+        return db.compileStatement("INSERT INTO location_extras (hash, json) VALUES (?, ?)").use { insert ->
+            insert.bindLong(1, hash)
+            insert.bindString(2, json)
+            insert.executeInsert()
+        }
+    }
+
+    /**
+     * Deletes dictionary entries no live row references. Probes
+     * `idx_locations_extras_id` once per entry, so the cost follows the
+     * dictionary, not the table. Evictions are re-derivable, so this
+     * commits without the extra fsync.
+     */
+    private fun collectUnusedExtras() {
+        try {
+            database.write(durable = false) { db ->
+                db.execSQL(
+                    "DELETE FROM location_extras WHERE NOT EXISTS " +
+                        "(SELECT 1 FROM locations WHERE locations.extras_id = location_extras.id)"
+                )
+                extrasIds.clear()
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to collect unused extras: ${e.message}", e)
+        }
+    }
+
+    /** First 8 bytes of the SHA-256 of [json]'s UTF-8 bytes. */
+    private fun extrasHash(json: String): Long =
+        ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(json.toByteArray(Charsets.UTF_8))).long
+
+    /**
+     * Dictionary entry [id], decoded once and then served from
+     * [extrasById]. Null if the entry is missing or not valid JSON.
+     */
+    private fun extrasFor(id: Long): DecodedExtras? {
+        synchronized(extrasById) { extrasById[id] }?.let { return it }
+        val json = readableDatabase.rawQuery(
+            "SELECT json FROM location_extras WHERE id = ?",
+            arrayOf(id.toString())
+        ).use { if (it.moveToFirst()) it.getString(0) else null } ?: return null
+        val decoded = try {
+            DecodedExtras(json, JSONObject(json).toMap())
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to decode extras $id: ${e.message}", e)
+            return null
+        }
+        synchronized(extrasById) { extrasById[id] = decoded }
+        return decoded
+    }
+
+    /**
+     * Commits every buffered GROUPED row in one transaction. Called by the
+     * group-commit timer, before sync reads, on stopTracking and when the
+     * process is asked to trim memory. No-op when nothing is buffered.
+     */
+    override fun flush() {
+        synchronized(flushLock) {
+            val rows: List<LocationRow>
+            val maxDays: Int
+            val maxRecords: Int
+            synchronized(pendingLock) {
+                scheduledFlush?.cancel(false)
+                scheduledFlush = null
+                if (pendingRows.isEmpty()) return
+                rows = pendingRows.toList()
+                pendingRows.clear()
+                maxDays = pendingMaxDays
+                maxRecords = pendingMaxRecords
+            }
+            try {
+                commitRows(rows, maxDays, maxRecords)
+            } catch (e: Exception) {
+                android.util.Log.e(
+                    "LocationStore",
+                    "Failed to flush ${rows.size} buffered location(s): ${e.message}",
+                    e
+                )
+            }
+        }
+    }
+
+    private fun bufferRow(row: LocationRow, maxDays: Int, maxRecords: Int) {
+        val flushNow: Boolean
+        synchronized(pendingLock) {
+            pendingRows.add(row)
+            pendingMaxDays = maxDays
+            pendingMaxRecords = maxRecords
+            flushNow = pendingRows.size >= groupCommitMaxRows
+            if (!flushNow && scheduledFlush == null) {
+                scheduledFlush = flushExecutor.schedule(
+                    { flush() },
+                    groupCommitWindowMs,
+                    TimeUnit.MILLISECONDS
+                )
+            }
+        }
+        // Commit off the caller's thread (usually main): the buffer is
+        // full, but the caller shouldn't pay for the fsync.
+        if (flushNow) flushExecutor.execute { flush() }
+    }
+
+    /**
+     * Inserts [rows] through the reused statement in one transaction, so a
+     * group commit costs the same fsyncs as a single-row insert. Retention
+     * limits are left to [RetentionPruner], off this path.
+     */
+    private fun commitRows(
+        rows: List<LocationRow>,
+        maxDays: Int,
+        maxRecords: Int,
+        durable: Boolean = durability != WriteDurability.NORMAL,
+    ) {
+        synchronized(flushLock) {
+            database.write(durable = durable) { db ->
+                val insert = insertStatement ?: db.compileStatement(INSERT_SQL).also { insertStatement = it }
+                rows.forEach { row ->
+                    bindRow(insert, row, row.extrasJson?.let { extrasIdFor(db, it) })
+                    insert.executeInsert()
+                }
+            }
+        }
+        retention.configure(
+            RetentionPruner.Policy(
+                maxAgeMs = if (maxDays > 0) maxDays * DAY_MS else 0L,
+                maxRecords = maxRecords,
+                maxBytes = retentionMaxBytes,
+            )
+        )
+        retention.onInsert(rows.size)
+        maybeScheduleArchivePass()
+    }
+
+    /** Binds [row] in [INSERT_COLUMNS] order; `uuid` (1) stays NULL. */
+    private fun bindRow(statement: SQLiteStatement, row: LocationRow, extrasId: Long?) {
+        statement.clearBindings()
+        statement.bindLong(2, row.timestamp)
+        statement.bindDouble(3, row.latitude)
+        statement.bindDouble(4, row.longitude)
+        statement.bindDouble(5, row.accuracy)
+        statement.bindDouble(6, row.speed)
+        statement.bindDouble(7, row.heading)
+        statement.bindDouble(8, row.altitude)
+        statement.bindLong(9, if (row.isMoving) 1L else 0L)
+        row.activityType?.let { statement.bindString(10, it) }
+        statement.bindLong(11, row.activityConfidence.toLong())
+        row.event?.let { statement.bindString(12, it) }
+        statement.bindDouble(13, row.odometer)
+        extrasId?.let { statement.bindLong(14, it) }
+        // Route context: all five columns or none (quarantined row).
+        row.context?.let { context ->
+            statement.bindString(15, context.ownerId)
+            statement.bindString(16, context.driverId)
+            statement.bindString(17, context.taskId)
+            statement.bindString(18, context.trackingSessionId)
+            statement.bindString(19, context.startedAt)
+        }
+    }
+
+    override fun readLocations(limit: Int): List<Map<String, Any>> {
         val results = mutableListOf<Map<String, Any>>()
         val limitValue = if (limit > 0) limit.toString() else null
+        flush()
 
         try {
             readableDatabase.query(
@@ -173,77 +972,777 @@ class LocationStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null,
                 limitValue
             ).use { cursor ->
                 while (cursor.moveToNext()) {
-                    val record = mutableMapOf<String, Any>(
-                        "id" to cursor.getString(cursor.getColumnIndexOrThrow("id")),
-                        "timestamp" to cursor.getLong(cursor.getColumnIndexOrThrow("timestamp")),
-                        "latitude" to cursor.getDouble(cursor.getColumnIndexOrThrow("latitude")),
-                        "longitude" to cursor.getDouble(cursor.getColumnIndexOrThrow("longitude")),
-                        "accuracy" to cursor.getDouble(cursor.getColumnIndexOrThrow("accuracy")),
-                        "speed" to cursor.getDouble(cursor.getColumnIndexOrThrow("speed")),
-                        "heading" to cursor.getDouble(cursor.getColumnIndexOrThrow("heading")),
-                        "altitude" to cursor.getDouble(cursor.getColumnIndexOrThrow("altitude")),
-                        "is_moving" to (cursor.getInt(cursor.getColumnIndexOrThrow("is_moving")) == 1),
-                        "activity_confidence" to cursor.getInt(cursor.getColumnIndexOrThrow("activity_confidence")),
-                        "odometer" to cursor.getDouble(cursor.getColumnIndexOrThrow("odometer"))
-                    )
-                    cursor.getString(cursor.getColumnIndexOrThrow("activity_type"))?.let { record["activity_type"] = it }
-                    cursor.getString(cursor.getColumnIndexOrThrow("event"))?.let { record["event"] = it }
-                    cursor.getString(cursor.getColumnIndexOrThrow("extras_json"))?.let { record["extras_json"] = it }
-                    results.add(record)
+                    results.add(readRecord(cursor))
                 }
             }
         } catch (e: Exception) {
             android.util.Log.e("LocationStore", "Failed to read locations: ${e.message}", e)
         }
+        return mergeArchived(results, limit, null)
+    }
+
+    /**
+     * Keyset page over both tiers: the [pageSize] oldest rows strictly
+     * after ([afterTimestamp], [afterId]) in (timestamp, id) order, or
+     * from the start when [afterTimestamp] is null. Each call costs one
+     * index seek regardless of how deep into the history it starts, and
+     * only one page of records is ever materialized.
+     */
+    override fun readLocationsPage(afterTimestamp: Long?, afterId: Long?, pageSize: Int): List<Map<String, Any>> {
+        val results = mutableListOf<Map<String, Any>>()
+        val after = afterTimestamp?.let { PageKey(it, afterId ?: Long.MIN_VALUE) }
+        flush()
+
+        try {
+            val (where, args) = if (after == null) {
+                "" to null
+            } else {
+                // Expanded row-value comparison; keeps the timestamp range
+                // seekable on idx_locations_timestamp.
+                "WHERE timestamp >= ? AND (timestamp > ? OR id > ?) " to
+                    arrayOf(after.timestamp.toString(), after.timestamp.toString(), after.id.toString())
+            }
+            readableDatabase.rawQuery(
+                "SELECT * FROM locations ${where}ORDER BY timestamp ASC, id ASC LIMIT $pageSize",
+                args
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    results.add(readRecord(cursor))
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to read locations page: ${e.message}", e)
+        }
+        return mergeArchived(results, pageSize, after)
+    }
+
+    /**
+     * Runs [query] in SQLite: filtered, ordered and paged by the database,
+     * so only matching rows are materialized. Spatial filters go through
+     * `locations_rtree` when available. When archive segments could hold
+     * matches, or [LocationQuery.near] needs its haversine post-filter,
+     * offset and limit are applied after merging and filtering instead.
+     */
+    override fun queryLocations(query: LocationQuery): List<Map<String, Any>> {
+        flush()
+        val (where, args) = query.whereClause(hasSpatialIndex)
+        val whereSql = if (where.isEmpty()) "" else "WHERE $where "
+        val segments = readSegments(query)
+        val pageInSql = segments.isEmpty() && !query.needsPostFilter
+
+        val results = mutableListOf<Map<String, Any>>()
+        try {
+            // When merging archived rows, the live side can't skip the
+            // offset itself: it returns the first offset+limit candidates.
+            val paging = when {
+                pageInSql && query.limit != null -> "LIMIT ${query.limit} OFFSET ${query.offset}"
+                pageInSql && query.offset > 0 -> "LIMIT -1 OFFSET ${query.offset}"
+                !query.needsPostFilter && query.limit != null -> "LIMIT ${query.limit + query.offset}"
+                else -> ""
+            }
+            readableDatabase.rawQuery(
+                "SELECT * FROM locations ${whereSql}ORDER BY ${query.orderBy()} $paging",
+                args
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    val record = readRecord(cursor)
+                    if (!query.needsPostFilter || query.matchesRecord(record)) results.add(record)
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to query locations: ${e.message}", e)
+        }
+        if (pageInSql) return results
+
+        segments.forEach { data ->
+            LocationSegmentCodec.decode(data).forEach { row ->
+                if (query.matches(row.timestamp, row.accuracy, row.isMoving, row.latitude, row.longitude)) {
+                    results.add(segmentRecord(row))
+                }
+            }
+        }
+        val ascending = compareBy<Map<String, Any>>({ it["timestamp"] as Long }, { it["id"] as Long })
+        val sorted = results.sortedWith(if (query.newestFirst) ascending.reversed() else ascending)
+        val fromIndex = query.offset.coerceAtMost(sorted.size)
+        val toIndex = query.limit?.let { (fromIndex + it).coerceAtMost(sorted.size) } ?: sorted.size
+        return sorted.subList(fromIndex, toIndex)
+    }
+
+    /**
+     * Summary aggregates (see [LocationSummaryAccumulator]) over the rows
+     * matching [query], computed in one oldest-first pass: the live cursor
+     * reads only the six summary columns and is merged with matching
+     * archived rows, and no per-row record is built. A paged query
+     * (limit or offset) summarizes exactly the page [queryLocations]
+     * would return.
+     */
+    override fun summarizeLocations(query: LocationQuery): Map<String, Any> {
+        val summary = LocationSummaryAccumulator()
+        if (query.limit != null || query.offset > 0) {
+            queryLocations(query)
+                .sortedWith(compareBy({ it["timestamp"] as Long }, { it["id"] as Long }))
+                .forEach { record ->
+                    summary.add(
+                        record["timestamp"] as Long,
+                        record["latitude"] as Double,
+                        record["longitude"] as Double,
+                        record["accuracy"] as Double,
+                        record["speed"] as Double,
+                        record["is_moving"] as Boolean,
+                    )
+                }
+            return summary.toMap()
+        }
+
+        flush()
+        val archived = readSegments(query)
+            .flatMap { LocationSegmentCodec.decode(it) }
+            .filter { query.matches(it.timestamp, it.accuracy, it.isMoving, it.latitude, it.longitude) }
+            .sortedWith(compareBy({ it.timestamp }, { it.id }))
+        var next = 0
+        fun addArchivedUntil(timestamp: Long, id: Long) {
+            while (next < archived.size &&
+                (archived[next].timestamp < timestamp || (archived[next].timestamp == timestamp && archived[next].id < id))
+            ) {
+                val row = archived[next++]
+                summary.add(row.timestamp, row.latitude, row.longitude, row.accuracy, row.speed, row.isMoving)
+            }
+        }
+
+        val (where, args) = query.whereClause(hasSpatialIndex)
+        val whereSql = if (where.isEmpty()) "" else "WHERE $where "
+        try {
+            readableDatabase.rawQuery(
+                "SELECT id, timestamp, latitude, longitude, accuracy, speed, is_moving FROM locations " +
+                    "${whereSql}ORDER BY timestamp ASC, id ASC",
+                args
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    val id = cursor.getLong(0)
+                    val timestamp = cursor.getLong(1)
+                    val latitude = cursor.getDouble(2)
+                    val longitude = cursor.getDouble(3)
+                    val accuracy = cursor.getDouble(4)
+                    val isMoving = cursor.getInt(6) == 1
+                    if (query.needsPostFilter && !query.matches(timestamp, accuracy, isMoving, latitude, longitude)) {
+                        continue
+                    }
+                    addArchivedUntil(timestamp, id)
+                    summary.add(timestamp, latitude, longitude, accuracy, cursor.getDouble(5), isMoving)
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to summarize locations: ${e.message}", e)
+        }
+        addArchivedUntil(Long.MAX_VALUE, Long.MAX_VALUE)
+        return summary.toMap()
+    }
+
+    private fun LocationQuery.matchesRecord(record: Map<String, Any>): Boolean = matches(
+        record["timestamp"] as Long,
+        record["accuracy"] as Double,
+        record["is_moving"] as Boolean,
+        record["latitude"] as Double,
+        record["longitude"] as Double,
+    )
+
+    /**
+     * Archive segments that may hold rows matching [query]: overlapping its
+     * time range and, for spatial queries, its boxes (segments sealed
+     * before their bounds were recorded are always included).
+     */
+    private fun readSegments(query: LocationQuery): List<ByteArray> {
+        val clauses = mutableListOf("end_ts >= ?", "start_ts <= ?")
+        val args = mutableListOf((query.fromMs ?: Long.MIN_VALUE).toString(), (query.toMs ?: Long.MAX_VALUE).toString())
+        listOfNotNull(query.bounds, query.near?.boundingBox()).forEach { box ->
+            clauses.add("(min_lat IS NULL OR (max_lat >= ? AND min_lat <= ? AND max_lng >= ? AND min_lng <= ?))")
+            args.addAll(listOf(box.south, box.north, box.west, box.east).map { it.toString() })
+        }
+        val segments = mutableListOf<ByteArray>()
+        try {
+            readableDatabase.rawQuery(
+                "SELECT data FROM location_segments WHERE ${clauses.joinToString(" AND ")}",
+                args.toTypedArray()
+            ).use { cursor ->
+                while (cursor.moveToNext()) segments.add(cursor.getBlob(0))
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to read archived locations: ${e.message}", e)
+        }
+        return segments
+    }
+
+    private data class PageKey(val timestamp: Long, val id: Long)
+
+    private fun PageKey.isAfter(other: PageKey): Boolean =
+        timestamp > other.timestamp || (timestamp == other.timestamp && id > other.id)
+
+    /** A row competing for a merged page: a live [record] or an archived [row]. */
+    private class MergeCandidate(
+        val key: PageKey,
+        val record: Map<String, Any>? = null,
+        val row: LocationSegmentCodec.Row? = null,
+    )
+
+    /**
+     * Merges archived rows after [after] into [live] (both oldest first)
+     * and applies [limit]. With a limit, the candidates sit in a max-heap
+     * of [limit] entries whose head is the page bound: segments are read
+     * in start order only until one starts after it, and archived rows
+     * past it are never turned into records.
+     */
+    private fun mergeArchived(
+        live: List<Map<String, Any>>,
+        limit: Int,
+        after: PageKey?,
+    ): List<Map<String, Any>> {
+        val oldestFirst = compareBy<MergeCandidate>({ it.key.timestamp }, { it.key.id })
+        val candidates = if (limit > 0) {
+            PriorityQueue(limit + 1, oldestFirst.reversed())
+        } else {
+            PriorityQueue(maxOf(live.size, 1), oldestFirst)
+        }
+        live.forEach { record ->
+            candidates.add(MergeCandidate(PageKey(record["timestamp"] as Long, record["id"] as Long), record))
+        }
+        val bound = { if (limit > 0 && candidates.size >= limit) candidates.peek()?.key else null }
+
+        var archivedCount = 0
+        try {
+            readableDatabase.rawQuery(
+                "SELECT start_ts, data FROM location_segments WHERE end_ts >= ? ORDER BY start_ts ASC",
+                arrayOf((after?.timestamp ?: Long.MIN_VALUE).toString())
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    bound()?.let { if (cursor.getLong(0) > it.timestamp) return@use }
+                    LocationSegmentCodec.decode(cursor.getBlob(1)).forEach { row ->
+                        val key = PageKey(row.timestamp, row.id)
+                        if (after != null && !key.isAfter(after)) return@forEach
+                        if (bound()?.let { key.isAfter(it) } == true) return@forEach
+                        candidates.add(MergeCandidate(key, row = row))
+                        if (limit > 0 && candidates.size > limit) candidates.poll()
+                        archivedCount++
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to read archived locations: ${e.message}", e)
+        }
+        if (archivedCount == 0) return live
+
+        return candidates.sortedWith(oldestFirst).map { it.record ?: segmentRecord(it.row!!) }
+    }
+
+    /**
+     * Returns the oldest [limit] rows of the next drainable route context:
+     * the context owning the oldest routable row, skipping any context in
+     * [excluded] (stranded contexts still in cooldown). Quarantined rows
+     * are never returned. Empty when nothing is drainable.
+     *
+     * One statement, two index probes: the inner SELECT walks
+     * `idx_locations_routable_timestamp` to the first eligible row and the
+     * outer one reads that context's rows from `idx_locations_route_context`.
+     * Cost is bounded by [limit] (plus the rows of excluded contexts ahead
+     * of the first eligible one), not by table size.
+     */
+    override fun readNextContextBatch(limit: Int, excluded: Collection<RouteContext>): List<Map<String, Any>> {
+        val results = mutableListOf<Map<String, Any>>()
+        if (limit <= 0) return results
+
+        val exclusionSql = StringBuilder()
+        val args = mutableListOf<String>()
+        excluded.forEach { context ->
+            exclusionSql.append(
+                " AND NOT (owner_id = ? AND driver_id = ? AND task_id = ? " +
+                    "AND tracking_session_id = ? AND started_at = ?)"
+            )
+            args += context.ownerId
+            args += context.driverId
+            args += context.taskId
+            args += context.trackingSessionId
+            args += context.startedAt
+        }
+        args += limit.toString()
+        flush()
+
+        try {
+            readableDatabase.rawQuery(
+                """
+                SELECT l.* FROM locations AS l
+                JOIN (
+                    SELECT owner_id, driver_id, task_id, tracking_session_id, started_at
+                    FROM locations
+                    WHERE owner_id IS NOT NULL$exclusionSql
+                    ORDER BY timestamp ASC
+                    LIMIT 1
+                ) AS next
+                ON l.owner_id = next.owner_id
+                    AND l.driver_id = next.driver_id
+                    AND l.task_id = next.task_id
+                    AND l.tracking_session_id = next.tracking_session_id
+                    AND l.started_at = next.started_at
+                ORDER BY l.timestamp ASC
+                LIMIT ?
+                """.trimIndent(),
+                args.toTypedArray()
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    results.add(readRecord(cursor))
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to read next context batch: ${e.message}", e)
+        }
         return results
     }
 
-    fun deleteLocations(ids: List<String>?) {
+    /**
+     * Pending and quarantined counts from the trigger-maintained
+     * `location_backlog` table. Cost is O(contexts): one row per context
+     * plus an index probe on `idx_locations_route_context` for each
+     * context's oldest timestamp, which orders [LocationBackend.BacklogCounts.contexts]
+     * the same way the drain visits them.
+     *
+     * Rows still in the GROUPED buffer are added in memory rather than
+     * flushed: this runs after every persisted fix under batch sync, and
+     * flushing here would turn group commit back into a commit per fix.
+     */
+    override fun readBacklogCounts(): LocationBackend.BacklogCounts {
+        val contexts = linkedMapOf<RouteContext, Int>()
+        var quarantined = 0
+
+        try {
+            readableDatabase.rawQuery(
+                """
+                SELECT b.owner_id, b.driver_id, b.task_id, b.tracking_session_id,
+                    b.started_at, b.location_count,
+                    (
+                        SELECT MIN(l.timestamp) FROM locations AS l
+                        WHERE l.owner_id = b.owner_id
+                            AND l.driver_id = b.driver_id
+                            AND l.task_id = b.task_id
+                            AND l.tracking_session_id = b.tracking_session_id
+                            AND l.started_at = b.started_at
+                    ) AS oldest
+                FROM location_backlog AS b
+                WHERE b.location_count > 0
+                ORDER BY oldest ASC
+                """.trimIndent(),
+                null
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    val count = cursor.getInt(5)
+                    val context = RouteContext.fromExtras(
+                        mapOf(
+                            RouteContext.KEY_OWNER_ID to cursor.getString(0),
+                            RouteContext.KEY_DRIVER_ID to cursor.getString(1),
+                            RouteContext.KEY_TASK_ID to cursor.getString(2),
+                            RouteContext.KEY_TRACKING_SESSION_ID to cursor.getString(3),
+                            RouteContext.KEY_STARTED_AT to cursor.getString(4),
+                        )
+                    )
+                    if (context == null) {
+                        quarantined += count
+                    } else {
+                        contexts[context] = count
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to read backlog counts: ${e.message}", e)
+        }
+
+        synchronized(pendingLock) {
+            pendingRows.forEach { row ->
+                val context = row.context
+                if (context == null) {
+                    quarantined++
+                } else {
+                    contexts[context] = (contexts[context] ?: 0) + 1
+                }
+            }
+        }
+        return LocationBackend.BacklogCounts(contexts, quarantined)
+    }
+
+
+    /**
+     * `id` is the integer row key, used for deletes. `uuid` is the public
+     * identity sent to Dart and the backend: the stored UUID for rows
+     * migrated from v5, otherwise derived from the row key on the fly.
+     */
+    private fun readRecord(cursor: Cursor): Map<String, Any> {
+        val id = cursor.getLong(cursor.getColumnIndexOrThrow("id"))
+        val uuid = bytesToUuid(cursor.getBlob(cursor.getColumnIndexOrThrow("uuid"))) ?: derivedUuid(id)
+        val record = mutableMapOf<String, Any>(
+            "id" to id,
+            "uuid" to uuid.toString(),
+            "timestamp" to cursor.getLong(cursor.getColumnIndexOrThrow("timestamp")),
+            "latitude" to cursor.getDouble(cursor.getColumnIndexOrThrow("latitude")),
+            "longitude" to cursor.getDouble(cursor.getColumnIndexOrThrow("longitude")),
+            "accuracy" to cursor.getDouble(cursor.getColumnIndexOrThrow("accuracy")),
+            "speed" to cursor.getDouble(cursor.getColumnIndexOrThrow("speed")),
+            "heading" to cursor.getDouble(cursor.getColumnIndexOrThrow("heading")),
+            "altitude" to cursor.getDouble(cursor.getColumnIndexOrThrow("altitude")),
+            "is_moving" to (cursor.getInt(cursor.getColumnIndexOrThrow("is_moving")) == 1),
+            "activity_confidence" to cursor.getInt(cursor.getColumnIndexOrThrow("activity_confidence")),
+            "odometer" to cursor.getDouble(cursor.getColumnIndexOrThrow("odometer"))
+        )
+        cursor.getString(cursor.getColumnIndexOrThrow("activity_type"))?.let { record["activity_type"] = it }
+        cursor.getString(cursor.getColumnIndexOrThrow("event"))?.let { record["event"] = it }
+        readExtrasId(cursor)?.let { extrasFor(it) }?.let { record["extras"] = it.map }
+            ?: cursor.getString(cursor.getColumnIndexOrThrow("extras_json"))?.let { record["extras_json"] = it }
+        return record
+    }
+
+    /**
+     * Removes synced rows from the live table; with the archive tier on
+     * for synced rows they are sealed into segments in the same
+     * transaction instead of being dropped. [alsoInTransaction] runs in
+     * that same transaction, so other [LocusDatabase] writes it makes (e.g.
+     * a log entry) commit or roll back together with the delete.
+     */
+    override fun deleteLocations(ids: List<Long>?, alsoInTransaction: () -> Unit) {
         if (ids.isNullOrEmpty()) return
 
         try {
-            val db = writableDatabase
-            val placeholders = ids.joinToString(",") { "?" }
-            db.delete("locations", "id IN ($placeholders)", ids.toTypedArray())
-            checkpoint(db)
+            // Integer keys are inlined: no String[] of bind args to build,
+            // and no risk of injection from a Long.
+            val where = "id IN (${ids.joinToString(",")})"
+            database.write { db ->
+                if (archiveSynced) {
+                    sealRows(where)
+                } else {
+                    db.execSQL("DELETE FROM locations WHERE $where")
+                }
+                alsoInTransaction()
+            }
         } catch (e: Exception) {
             android.util.Log.e("LocationStore", "Failed to delete locations: ${e.message}", e)
         }
     }
 
-    private fun pruneByAge(maxDays: Int) {
-        val cutoff = System.currentTimeMillis() - (maxDays * 24L * 60L * 60L * 1000L)
-        writableDatabase.delete("locations", "timestamp < ?", arrayOf(cutoff.toString()))
+    override fun readPendingLocations(limit: Int): List<Map<String, Any>> {
+        val results = mutableListOf<Map<String, Any>>()
+        flush()
+
+        try {
+            readableDatabase.rawQuery(
+                "SELECT * FROM locations ORDER BY timestamp ASC, id ASC" + if (limit > 0) " LIMIT $limit" else "",
+                null
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    results.add(readRecord(cursor))
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to read pending locations: ${e.message}", e)
+        }
+        return results
     }
 
-    private fun pruneByCount(maxRecords: Int) {
-        writableDatabase.execSQL(
-            """
-            DELETE FROM locations WHERE id IN (
-                SELECT id FROM locations ORDER BY timestamp DESC LIMIT -1 OFFSET ?
-            )
-            """.trimIndent(),
-            arrayOf(maxRecords)
-        )
+    override fun removeLocations(ids: List<Long>) {
+        if (ids.isEmpty()) return
+
+        try {
+            database.write { db ->
+                db.execSQL("DELETE FROM locations WHERE id IN (${ids.joinToString(",")})")
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("LocationStore", "Failed to remove locations: ${e.message}", e)
+        }
     }
 
-    private fun Any?.toDoubleOrZero(): Double = (this as? Number)?.toDouble() ?: 0.0
+    private fun maybeScheduleArchivePass() {
+        if (!archiveEnabled) return
+        val now = System.currentTimeMillis()
+        if (now - lastArchivePassAt < ARCHIVE_PASS_INTERVAL_MS) return
+        lastArchivePassAt = now
+        flushExecutor.execute { runArchivePass() }
+    }
 
     /**
-     * Bound the WAL file size after a write transaction. PASSIVE never blocks
-     * readers and is a no-op if no work is needed; the DB stays durable either
-     * way thanks to synchronous=FULL.
+     * Seals rows past the age threshold, then merges the segments of every
+     * closed hour into one. Runs on the commit thread at most once per
+     * [ARCHIVE_PASS_INTERVAL_MS].
      */
-    private fun checkpoint(db: SQLiteDatabase) {
+    private fun runArchivePass() {
         try {
-            db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null).use { it.moveToFirst() }
+            val afterMs = archiveAfterMs
+            if (afterMs > 0) {
+                val cutoff = System.currentTimeMillis() - afterMs
+                // Chunked so one pass never holds the write lock for long.
+                do {
+                    val sealed = sealRows("timestamp < $cutoff", ARCHIVE_CHUNK_ROWS)
+                } while (sealed == ARCHIVE_CHUNK_ROWS)
+            }
+            compactSegments()
         } catch (e: Exception) {
-            android.util.Log.w("LocationStore", "wal_checkpoint failed: ${e.message}")
+            android.util.Log.e("LocationStore", "Failed to archive locations: ${e.message}", e)
+        }
+    }
+
+    /**
+     * Moves the live rows matching [where] (oldest first, at most [limit])
+     * into new per-hour segments and deletes them, in one transaction.
+     * Returns the number of rows sealed.
+     */
+    private fun sealRows(where: String, limit: Int = 0): Int = database.write { db ->
+        val ids = mutableListOf<Long>()
+        val byHour = sortedMapOf<Long, MutableList<LocationSegmentCodec.Row>>()
+        db.rawQuery(
+            "SELECT * FROM locations WHERE $where ORDER BY timestamp ASC" +
+                if (limit > 0) " LIMIT $limit" else "",
+            null
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                val row = readSegmentRow(cursor)
+                ids.add(row.id)
+                byHour.getOrPut(row.timestamp / HOUR_MS) { mutableListOf() }.add(row)
+            }
         }
+        byHour.forEach { (hour, rows) -> insertSegment(db, hour, rows) }
+        if (ids.isNotEmpty()) {
+            db.execSQL("DELETE FROM locations WHERE id IN (${ids.joinToString(",")})")
+        }
+        ids.size
+    }
+
+    /**
+     * Merges hours that have closed but still hold several segments (one
+     * per sealed sync batch) into a single segment each. Returns the
+     * number of hours merged.
+     */
+    private fun compactSegments(): Int {
+        val currentHour = System.currentTimeMillis() / HOUR_MS
+        val hours = mutableListOf<Long>()
+        readableDatabase.rawQuery(
+            "SELECT hour FROM location_segments WHERE hour < ? GROUP BY hour HAVING COUNT(*) > 1",
+            arrayOf(currentHour.toString())
+        ).use { cursor ->
+            while (cursor.moveToNext()) hours.add(cursor.getLong(0))
+        }
+        hours.forEach { hour ->
+            database.write { db ->
+                val rows = mutableListOf<LocationSegmentCodec.Row>()
+                db.rawQuery(
+                    "SELECT data FROM location_segments WHERE hour = ?",
+                    arrayOf(hour.toString())
+                ).use { cursor ->
+                    while (cursor.moveToNext()) rows.addAll(LocationSegmentCodec.decode(cursor.getBlob(0)))
+                }
+                db.delete("location_segments", "hour = ?", arrayOf(hour.toString()))
+                insertSegment(db, hour, rows.sortedBy { it.timestamp })
+            }
+        }
+        return hours.size
+    }
+
+    private fun insertSegment(db: SQLiteDatabase, hour: Long, rows: List<LocationSegmentCodec.Row>) {
+        if (rows.isEmpty()) return
+        db.compileStatement(
+            "INSERT INTO location_segments " +
+                "(hour, start_ts, end_ts, row_count, data, min_lat, max_lat, min_lng, max_lng) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)"
+        ).use { statement ->
+            statement.bindLong(1, hour)
+            statement.bindLong(2, rows.minOf { it.timestamp })
+            statement.bindLong(3, rows.maxOf { it.timestamp })
+            statement.bindLong(4, rows.size.toLong())
+            statement.bindBlob(5, LocationSegmentCodec.encode(rows, archiveDeflate))
+            statement.bindDouble(6, rows.minOf { it.latitude })
+            statement.bindDouble(7, rows.maxOf { it.latitude })
+            statement.bindDouble(8, rows.minOf { it.longitude })
+            statement.bindDouble(9, rows.maxOf { it.longitude })
+            statement.executeInsert()
+        }
+    }
+
+    private fun readSegmentRow(cursor: Cursor): LocationSegmentCodec.Row = LocationSegmentCodec.Row(
+        id = cursor.getLong(cursor.getColumnIndexOrThrow("id")),
+        uuid = bytesToUuid(cursor.getBlob(cursor.getColumnIndexOrThrow("uuid"))),
+        timestamp = cursor.getLong(cursor.getColumnIndexOrThrow("timestamp")),
+        latitude = cursor.getDouble(cursor.getColumnIndexOrThrow("latitude")),
+        longitude = cursor.getDouble(cursor.getColumnIndexOrThrow("longitude")),
+        accuracy = cursor.getDouble(cursor.getColumnIndexOrThrow("accuracy")),
+        speed = cursor.getDouble(cursor.getColumnIndexOrThrow("speed")),
+        heading = cursor.getDouble(cursor.getColumnIndexOrThrow("heading")),
+        altitude = cursor.getDouble(cursor.getColumnIndexOrThrow("altitude")),
+        isMoving = cursor.getInt(cursor.getColumnIndexOrThrow("is_moving")) == 1,
+        activityType = cursor.getString(cursor.getColumnIndexOrThrow("activity_type")),
+        activityConfidence = cursor.getInt(cursor.getColumnIndexOrThrow("activity_confidence")),
+        event = cursor.getString(cursor.getColumnIndexOrThrow("event")),
+        odometer = cursor.getDouble(cursor.getColumnIndexOrThrow("odometer")),
+        extrasJson = readExtrasId(cursor)?.let { extrasFor(it)?.json }
+            ?: cursor.getString(cursor.getColumnIndexOrThrow("extras_json")),
+    )
+
+    private fun readExtrasId(cursor: Cursor): Long? {
+        val index = cursor.getColumnIndexOrThrow("extras_id")
+        return if (cursor.isNull(index)) null else cursor.getLong(index)
+    }
+
+    /**
+     * Same shape as [readRecord]. `id` is the row's original key: unique
+     * across both tiers, so it orders pages, but deleting by it is a no-op.
+     */
+    private fun segmentRecord(row: LocationSegmentCodec.Row): Map<String, Any> {
+        val record = mutableMapOf<String, Any>(
+            "id" to row.id,
+            "uuid" to (row.uuid ?: derivedUuid(row.id)).toString(),
+            "timestamp" to row.timestamp,
+            "latitude" to row.latitude,
+            "longitude" to row.longitude,
+            "accuracy" to row.accuracy,
+            "speed" to row.speed,
+            "heading" to row.heading,
+            "altitude" to row.altitude,
+            "is_moving" to row.isMoving,
+            "activity_confidence" to row.activityConfidence,
+            "odometer" to row.odometer
+        )
+        row.activityType?.let { record["activity_type"] = it }
+        row.event?.let { record["event"] = it }
+        row.extrasJson?.let { record["extras_json"] = it }
+        return record
+    }
+
+    /**
+     * Eviction for [RetentionPruner]. Age and count limits apply to live
+     * rows (segments past the age limit go too); the byte quota evicts
+     * whichever tier holds the oldest data, a whole segment at a time, and
+     * is measured over both tiers and the extras dictionary.
+     */
+    private inner class RetentionTarget : RetentionPruner.IndexedTable("locations", "timestamp") {
+        override fun deleteOlderThan(db: SQLiteDatabase, cutoffMs: Long, limit: Int): Int {
+            val removed = super.deleteOlderThan(db, cutoffMs, limit)
+            if (removed >= limit) return removed
+            val sealed = db.rawQuery(
+                "SELECT COALESCE(SUM(row_count), 0) FROM location_segments WHERE end_ts < ?",
+                arrayOf(cutoffMs.toString())
+            ).use { if (it.moveToFirst()) it.getInt(0) else 0 }
+            if (sealed > 0) db.delete("location_segments", "end_ts < ?", arrayOf(cutoffMs.toString()))
+            return removed + sealed
+        }
+
+        override fun evictForSpace(db: SQLiteDatabase, limit: Int): Int {
+            val oldestSegment = db.rawQuery(
+                "SELECT id, start_ts, row_count FROM location_segments ORDER BY start_ts ASC LIMIT 1",
+                null
+            ).use { if (it.moveToFirst()) Triple(it.getLong(0), it.getLong(1), it.getInt(2)) else null }
+            val oldestLive = db.rawQuery("SELECT MIN(timestamp) FROM locations", null)
+                .use { if (it.moveToFirst() && !it.isNull(0)) it.getLong(0) else null }
+            if (oldestSegment != null && (oldestLive == null || oldestSegment.second <= oldestLive)) {
+                db.delete("location_segments", "id = ?", arrayOf(oldestSegment.first.toString()))
+                return oldestSegment.third.coerceAtLeast(1)
+            }
+            return deleteOldest(db, limit)
+        }
+
+        override fun sizeBytes(db: SQLiteDatabase): Long =
+            listOf("locations", "location_segments", "location_extras")
+                .sumOf { RetentionPruner.tableBytes(db, it) }
+    }
+
+    private fun Any?.toDoubleOrZero(): Double = (this as? Number)?.toDouble() ?: 0.0
+
+    private fun JSONObject.toMap(): Map<String, Any> {
+        val map = mutableMapOf<String, Any>()
+        val names = names() ?: return map
+
+        for (i in 0 until names.length()) {
+            val key = names.optString(i)
+            when (val value = opt(key)) {
+                is JSONObject -> map[key] = value.toMap()
+                is JSONArray -> map[key] = value.toList()
+                JSONObject.NULL -> { /* skip null values */ }
+                else -> value?.let { map[key] = it }
+            }
+        }
+        return map
+    }
+
+    private fun JSONArray.toList(): List<Any> {
+        val list = mutableListOf<Any>()
+        for (i in 0 until length()) {
+            when (val value = opt(i)) {
+                is JSONObject -> list.add(value.toMap())
+                is JSONArray -> list.add(value.toList())
+                JSONObject.NULL -> { /* skip null values */ }
+                else -> value?.let { list.add(it) }
+            }
+        }
+        return list
+    }
+
+    /**
+     * A version-4 UUID built from the per-database salt (high half) and
+     * the AUTOINCREMENT row key (low half), so it is unique per install
+     * and stable across reads without storing 16 bytes per row.
+     */
+    private fun derivedUuid(id: Long): UUID = UUID(
+        (uuidSalt and -0xF001L) or 0x4000L,
+        (id and 0x3FFF_FFFF_FFFF_FFFFL) or Long.MIN_VALUE
+    )
+
+    private fun uuidToBytes(value: String?): ByteArray? {
+        val uuid = value?.let { runCatching { UUID.fromString(it) }.getOrNull() } ?: return null
+        return ByteBuffer.allocate(16)
+            .putLong(uuid.mostSignificantBits)
+            .putLong(uuid.leastSignificantBits)
+            .array()
+    }
+
+    private fun bytesToUuid(bytes: ByteArray?): UUID? {
+        if (bytes == null || bytes.size != 16) return null
+        val buffer = ByteBuffer.wrap(bytes)
+        return UUID(buffer.long, buffer.long)
     }
 
     companion object {
-        private const val DB_NAME = "locus.db"
-        private const val DB_VERSION = 3
+        private const val DEFAULT_GROUP_COMMIT_WINDOW_MS = 5_000L
+        private const val DEFAULT_GROUP_COMMIT_MAX_ROWS = 20
+
+        private const val HOUR_MS = 60L * 60L * 1000L
+        private const val DAY_MS = 24L * HOUR_MS
+        private const val ARCHIVE_PASS_INTERVAL_MS = 15L * 60L * 1000L
+        private const val ARCHIVE_CHUNK_ROWS = 2_000
+        private const val EXTRAS_CACHE_SIZE = 32
+
+        private val ROUTE_CONTEXT_COLUMNS = listOf(
+            "owner_id",
+            "driver_id",
+            "task_id",
+            "tracking_session_id",
+            "started_at",
+        )
+
+        /** The v6 row layout, copied column for column by [migrateToIntegerKeys]. */
+        private val V6_COLUMNS = listOf(
+            "uuid",
+            "timestamp",
+            "latitude",
+            "longitude",
+            "accuracy",
+            "speed",
+            "heading",
+            "altitude",
+            "is_moving",
+            "activity_type",
+            "activity_confidence",
+            "event",
+            "odometer",
+            "extras_json",
+        ) + ROUTE_CONTEXT_COLUMNS
+
+        /**
+         * Columns written on insert, in bind order (1-based in [bindRow]):
+         * the v6 layout with `extras_id` in place of `extras_json`.
+         */
+        private val INSERT_COLUMNS = V6_COLUMNS.map { if (it == "extras_json") "extras_id" else it }
+
+        private val INSERT_SQL =
+            "INSERT INTO locations (${INSERT_COLUMNS.joinToString(", ")}) " +
+                "VALUES (${INSERT_COLUMNS.joinToString(", ") { "?" }})"
     }
 }
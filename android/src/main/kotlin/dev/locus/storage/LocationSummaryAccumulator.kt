@@ -0,0 +1,176 @@
+package dev.locus.storage
+
+import kotlin.math.floor
+
+/**
+ * Single-pass native counterpart of the Dart
+ * `LocationHistoryCalculator.calculateSummary`: rows are fed oldest first
+ * straight from a cursor and only the running aggregates are kept, so a
+ * summary over a month of fixes never materializes the rows themselves.
+ *
+ * The arithmetic mirrors the Dart implementation step for step — haversine
+ * distance between consecutive fixes, an interval counts as moving when
+ * either end is moving, speed stats over positive speeds only, and the
+ * same 100 m spatial-grid clustering of stationary fixes for
+ * `frequentLocations` — so both paths produce the same summary.
+ */
+class LocationSummaryAccumulator(
+    private val clusterRadiusMeters: Double = 100.0,
+    private val minVisits: Int = 2,
+    private val maxClusters: Int = 5,
+) {
+    private var count = 0
+    private var firstTimestamp = 0L
+    private var lastTimestamp = 0L
+    private var lastLatitude = 0.0
+    private var lastLongitude = 0.0
+    private var lastMoving = false
+
+    private var totalDistance = 0.0
+    private var movingMs = 0L
+    private var stationaryMs = 0L
+    private var totalSpeed = 0.0
+    private var speedCount = 0
+    private var maxSpeed: Double? = null
+    private var totalAccuracy = 0.0
+
+    private val cellSizeDegrees = clusterRadiusMeters / 111_000.0
+    private val cells = HashMap<Long, MutableList<Cluster>>()
+    private val clusters = mutableListOf<Cluster>()
+    private var stationaryCount = 0
+
+    private class Cluster(var latitude: Double, var longitude: Double, var lastTimestamp: Long, var cell: Long) {
+        var count = 1
+        var durationMs = 0L
+    }
+
+    /** Adds one fix; calls must be in ascending [timestamp] order. */
+    fun add(timestamp: Long, latitude: Double, longitude: Double, accuracy: Double, speed: Double, isMoving: Boolean) {
+        totalAccuracy += accuracy
+        if (speed > 0) {
+            totalSpeed += speed
+            speedCount++
+            if (maxSpeed == null || speed > maxSpeed!!) maxSpeed = speed
+        }
+
+        if (count == 0) {
+            firstTimestamp = timestamp
+        } else {
+            totalDistance += haversine(lastLatitude, lastLongitude, latitude, longitude)
+            val durationMs = timestamp - lastTimestamp
+            if (isMoving || lastMoving) movingMs += durationMs else stationaryMs += durationMs
+        }
+        count++
+        lastTimestamp = timestamp
+        lastLatitude = latitude
+        lastLongitude = longitude
+        lastMoving = isMoving
+
+        if (!isMoving) cluster(timestamp, latitude, longitude)
+    }
+
+    private fun cluster(timestamp: Long, latitude: Double, longitude: Double) {
+        stationaryCount++
+        val nearest = findNearest(latitude, longitude)
+        if (nearest == null) {
+            val cluster = Cluster(latitude, longitude, timestamp, cellKey(latitude, longitude))
+            cells.getOrPut(cluster.cell) { mutableListOf() }.add(cluster)
+            clusters.add(cluster)
+            return
+        }
+        nearest.latitude = (nearest.latitude * nearest.count + latitude) / (nearest.count + 1)
+        nearest.longitude = (nearest.longitude * nearest.count + longitude) / (nearest.count + 1)
+        nearest.count++
+        nearest.durationMs += timestamp - nearest.lastTimestamp
+        nearest.lastTimestamp = timestamp
+
+        val cell = cellKey(nearest.latitude, nearest.longitude)
+        if (cell != nearest.cell) {
+            cells[nearest.cell]?.let { list ->
+                list.remove(nearest)
+                if (list.isEmpty()) cells.remove(nearest.cell)
+            }
+            cells.getOrPut(cell) { mutableListOf() }.add(nearest)
+            nearest.cell = cell
+        }
+    }
+
+    private fun findNearest(latitude: Double, longitude: Double): Cluster? {
+        val cellLat = floor(latitude / cellSizeDegrees).toLong()
+        val cellLng = floor(longitude / cellSizeDegrees).toLong()
+        var nearest: Cluster? = null
+        var nearestDistance = Double.POSITIVE_INFINITY
+        for (dLat in -1L..1L) {
+            for (dLng in -1L..1L) {
+                cells[packCell(cellLat + dLat, cellLng + dLng)]?.forEach { cluster ->
+                    val distance = haversine(latitude, longitude, cluster.latitude, cluster.longitude)
+                    if (distance < clusterRadiusMeters && distance < nearestDistance) {
+                        nearest = cluster
+                        nearestDistance = distance
+                    }
+                }
+            }
+        }
+        return nearest
+    }
+
+    private fun cellKey(latitude: Double, longitude: Double): Long =
+        packCell(floor(latitude / cellSizeDegrees).toLong(), floor(longitude / cellSizeDegrees).toLong())
+
+    private fun packCell(cellLat: Long, cellLng: Long): Long = (cellLat shl 32) or (cellLng and 0xFFFF_FFFFL)
+
+    /**
+     * The summary in the shape `LocationSummary.fromMap` reads: durations
+     * in milliseconds, period bounds as epoch milliseconds. Empty history
+     * yields a zero summary without period bounds.
+     */
+    fun toMap(): Map<String, Any> {
+        val summary = mutableMapOf<String, Any>(
+            "locationCount" to count,
+            "totalDistanceMeters" to totalDistance,
+            "movingDurationMs" to movingMs,
+            "stationaryDurationMs" to stationaryMs,
+            "frequentLocations" to frequentLocations(),
+        )
+        if (count > 0) {
+            summary["periodStart"] = firstTimestamp
+            summary["periodEnd"] = lastTimestamp
+            summary["averageAccuracyMeters"] = totalAccuracy / count
+        }
+        if (speedCount > 0) summary["averageSpeedMps"] = totalSpeed / speedCount
+        maxSpeed?.let { summary["maxSpeedMps"] = it }
+        return summary
+    }
+
+    private fun frequentLocations(): List<Map<String, Any>> {
+        if (count < minVisits || stationaryCount < minVisits) return emptyList()
+        return clusters
+            .filter { it.count >= minVisits }
+            .sortedByDescending { it.count }
+            .take(maxClusters)
+            .map { cluster ->
+                mapOf(
+                    "center" to mapOf(
+                        "latitude" to cluster.latitude,
+                        "longitude" to cluster.longitude,
+                        "accuracy" to 0.0,
+                    ),
+                    "visitCount" to cluster.count,
+                    "totalDurationMs" to cluster.durationMs,
+                )
+            }
+    }
+
+    private fun haversine(lat1: Double, lng1: Double, lat2: Double, lng2: Double): Double {
+        val dLat = Math.toRadians(lat2 - lat1)
+        val dLng = Math.toRadians(lng2 - lng1)
+        val a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+            Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+            Math.sin(dLng / 2) * Math.sin(dLng / 2)
+        return EARTH_RADIUS_METERS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a))
+    }
+
+    private companion object {
+        const val EARTH_RADIUS_METERS = 6_371_000.0
+    }
+}
@@ -0,0 +1,242 @@
+package dev.locus.storage
+
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * The single `locus.db` behind [LocationStore], [QueueStore] and
+ * [LogStore]. Until v11 each store had its own database file, each with
+ * its own WAL, page cache, checkpoints and open cost on cold start; the
+ * stores now share one connection pool and one WAL, and a transaction can
+ * span their tables.
+ *
+ * Writes go through [write], which runs the block in a transaction on one
+ * dedicated writer thread: commits from different stores queue behind each
+ * other instead of contending for the write lock. Readers use the WAL
+ * connection pool directly through [readableDatabase] and never wait on
+ * the writer.
+ *
+ * `synchronous` is per connection, not per table, so the writer switches
+ * it per transaction: [write] with `durable = false` commits with
+ * `synchronous=NORMAL` (logs, `WriteDurability.NORMAL` locations), the
+ * default with FULL.
+ *
+ * Schema: each store registers a [Schema] before the database is first
+ * opened and keeps owning its tables; [DB_VERSION] is the one version of
+ * the whole file. v11 creates the queue and log tables and copies the rows
+ * of the legacy `locus_queue.db` and `locus_logs.db` across
+ * ([importLegacy]); the legacy files are deleted on the next open once the
+ * copy has committed ([dropLegacy]).
+ */
+class LocusDatabase(
+    context: Context,
+    private val checkpointScheduler: CheckpointScheduler,
+) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+
+    private val appContext = context.applicationContext
+    private val schemas = CopyOnWriteArrayList<Schema>()
+
+    /** Checkpoint bookkeeping for the shared WAL; [write] reports each commit. */
+    val checkpoints: CheckpointScheduler.Database = checkpointScheduler.register("locus") { writableDatabase }
+
+    @Volatile
+    private var writerThread: Thread? = null
+
+    private val writer: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "locus-db-writer").apply { isDaemon = true }.also { writerThread = it }
+    }
+
+    // Only read and written on the writer thread.
+    private var synchronousFull = true
+
+    /** Wall-clock time of the last committed [write]; 0 before the first. */
+    @Volatile
+    var lastWriteAt = 0L
+        private set
+
+    /** Schema hooks of one store, called from the matching [SQLiteOpenHelper] callbacks. */
+    interface Schema {
+        fun onCreate(db: SQLiteDatabase)
+
+        fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int)
+
+        fun onOpen(db: SQLiteDatabase) {}
+    }
+
+    init {
+        // Framework WAL: unlike the journal_mode pragma alone, this gives
+        // the connection pool its read connections.
+        setWriteAheadLoggingEnabled(true)
+    }
+
+    /** Registers a store's schema; must happen before the first open. */
+    fun addSchema(schema: Schema) {
+        schemas.add(schema)
+    }
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        // Durability: WAL keeps the journal independent of the main DB, and
+        // synchronous=FULL fsyncs both files on commit. Together they survive
+        // process kills between commit and checkpoint without data loss.
+        //
+        // Use rawQuery instead of execSQL: Samsung's hardened SQLite (seen on
+        // SM A346E / Android 16) treats `PRAGMA journal_mode=WAL` as a query
+        // because it returns the resulting mode, and rejects it from execSQL
+        // with "Queries can be performed using SQLiteDatabase query or
+        // rawQuery methods only." rawQuery works on AOSP and Samsung alike.
+        db.rawQuery("PRAGMA journal_mode=WAL", null).use { it.moveToFirst() }
+        checkpointScheduler.configure(db)
+        db.rawQuery("PRAGMA synchronous=FULL", null).use { it.moveToFirst() }
+        // Takes effect on a new file, before onCreate adds any table; an
+        // existing file keeps its mode until VacuumScheduler converts it.
+        db.rawQuery("PRAGMA auto_vacuum=INCREMENTAL", null).use { it.moveToFirst() }
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        schemas.forEach { it.onCreate(db) }
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        schemas.forEach { it.onUpgrade(db, oldVersion, newVersion) }
+    }
+
+    override fun onOpen(db: SQLiteDatabase) {
+        super.onOpen(db)
+        schemas.forEach { it.onOpen(db) }
+    }
+
+    /** True on the writer thread, i.e. inside a [write] block. */
+    val isWriterThread: Boolean
+        get() = Thread.currentThread() === writerThread
+
+    /**
+     * Runs [block] in a transaction on the writer thread and returns its
+     * result, blocking the caller until it has committed. Exceptions from
+     * [block] roll the transaction back and are rethrown to the caller.
+     * Calls made from inside a write run inline, as a nested transaction.
+     */
+    fun <T> write(durable: Boolean = true, block: (SQLiteDatabase) -> T): T {
+        if (isWriterThread) return inTransaction(durable, block)
+        try {
+            return writer.submit<T> { inTransaction(durable, block) }.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    private fun <T> inTransaction(durable: Boolean, block: (SQLiteDatabase) -> T): T {
+        val db = writableDatabase
+        val outermost = !db.inTransaction()
+        var committed = false
+        db.beginTransaction()
+        try {
+            if (outermost && durable != synchronousFull) {
+                // Inside the transaction, so it lands on the writer's
+                // primary connection rather than a pooled reader.
+                db.rawQuery("PRAGMA synchronous=${if (durable) "FULL" else "NORMAL"}", null)
+                    .use { it.moveToFirst() }
+                synchronousFull = durable
+            }
+            val result = block(db)
+            db.setTransactionSuccessful()
+            committed = true
+            return result
+        } finally {
+            db.endTransaction()
+            if (outermost && committed) {
+                lastWriteAt = System.currentTimeMillis()
+                checkpoints.onWrite()
+            }
+        }
+    }
+
+    /**
+     * Runs [block] on the writer thread outside any transaction, for
+     * statements SQLite refuses inside one (`VACUUM`). Other writes queue
+     * behind it.
+     */
+    fun <T> withoutTransaction(block: (SQLiteDatabase) -> T): T {
+        if (isWriterThread) return block(writableDatabase)
+        try {
+            return writer.submit<T> { block(writableDatabase) }.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * Copies [columns] of [table] from the legacy database file [legacyName]
+     * into the same table here, inside the caller's upgrade transaction.
+     * Rows are inserted with their original keys and `OR IGNORE`, so a copy
+     * repeated after a crash doesn't duplicate them. No-op when the file
+     * doesn't exist.
+     */
+    fun importLegacy(db: SQLiteDatabase, legacyName: String, table: String, columns: List<String>) {
+        val path = appContext.getDatabasePath(legacyName)
+        if (!path.exists()) return
+        try {
+            // Read-write so a WAL left behind by the old store is replayed.
+            SQLiteDatabase.openDatabase(path.path, null, SQLiteDatabase.OPEN_READWRITE).use { legacy ->
+                db.compileStatement(
+                    "INSERT OR IGNORE INTO $table (${columns.joinToString(", ")}) " +
+                        "VALUES (${columns.joinToString(", ") { "?" }})"
+                ).use { insert ->
+                    legacy.rawQuery("SELECT ${columns.joinToString(", ")} FROM $table", null).use { cursor ->
+                        while (cursor.moveToNext()) {
+                            insert.clearBindings()
+                            for (column in columns.indices) {
+                                val bindIndex = column + 1
+                                when (cursor.getType(column)) {
+                                    Cursor.FIELD_TYPE_INTEGER -> insert.bindLong(bindIndex, cursor.getLong(column))
+                                    Cursor.FIELD_TYPE_FLOAT -> insert.bindDouble(bindIndex, cursor.getDouble(column))
+                                    Cursor.FIELD_TYPE_STRING -> insert.bindString(bindIndex, cursor.getString(column))
+                                    Cursor.FIELD_TYPE_BLOB -> insert.bindBlob(bindIndex, cursor.getBlob(column))
+                                    else -> insert.bindNull(bindIndex)
+                                }
+                            }
+                            insert.executeInsert()
+                        }
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            // A legacy file we can't read must not block the upgrade; its
+            // rows are lost either way.
+            android.util.Log.e("LocusDatabase", "Failed to import $legacyName: ${e.message}", e)
+        }
+    }
+
+    /**
+     * Deletes the legacy database file [legacyName] (and its WAL/SHM).
+     * Call from [Schema.onOpen]: by then the v11 upgrade that imported it
+     * has committed.
+     */
+    fun dropLegacy(legacyName: String) {
+        if (appContext.getDatabasePath(legacyName).exists()) {
+            appContext.deleteDatabase(legacyName)
+        }
+    }
+
+    companion object {
+        private const val DB_NAME = "locus.db"
+
+        /**
+         * One version for the whole file. 1–10 were `LocationStore`'s own
+         * schema; 11 merged the queue and log databases in; 12 indexes the
+         * queue's retry schedule; 13 stores queue payloads as BLOBs; 14
+         * makes queue idempotency keys unique; 15 moves location extras
+         * into a dictionary table; 16 adds the queue's idempotency
+         * generation to that unique key and indexes `locations.extras_id`.
+         */
+        const val DB_VERSION = 16
+
+        /** The version that brought the queue and log tables into `locus.db`. */
+        const val CONSOLIDATED_VERSION = 11
+    }
+}
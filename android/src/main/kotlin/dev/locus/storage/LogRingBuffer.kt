@@ -0,0 +1,93 @@
+package dev.locus.storage
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Bounded lock-free queue for [LogStore]'s pending lines (Vyukov's
+ * array-based MPMC queue). Each slot carries a sequence number that says
+ * whether it is free for the producer at a given position or holds an item
+ * for the consumer there, so [offer] and [poll] are a CAS on their cursor
+ * and never block or allocate beyond the item itself.
+ *
+ * A full buffer rejects the new item rather than overwriting the oldest
+ * one the consumer may be reading; rejections are counted in [dropped].
+ */
+internal class LogRingBuffer<T : Any>(capacity: Int) {
+
+    private val size = Integer.highestOneBit((capacity - 1).coerceAtLeast(1)) shl 1
+    private val mask = (size - 1).toLong()
+    private val slots = AtomicReferenceArray<T?>(size)
+    private val sequences = AtomicLongArray(size).apply {
+        for (i in 0 until size) set(i, i.toLong())
+    }
+    private val enqueuePos = AtomicLong()
+    private val dequeuePos = AtomicLong()
+    private val droppedCount = AtomicLong()
+
+    val capacity: Int
+        get() = size
+
+    /** Items currently queued; approximate while producers are active. */
+    val pending: Int
+        get() = (enqueuePos.get() - dequeuePos.get()).coerceIn(0L, size.toLong()).toInt()
+
+    /** Items rejected because the buffer was full. */
+    val dropped: Long
+        get() = droppedCount.get()
+
+    /** Enqueues [item]; returns false (and counts a drop) when the buffer is full. */
+    fun offer(item: T): Boolean {
+        var pos = enqueuePos.get()
+        while (true) {
+            val index = (pos and mask).toInt()
+            val diff = sequences.get(index) - pos
+            when {
+                diff == 0L -> if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    slots.set(index, item)
+                    sequences.set(index, pos + 1)
+                    return true
+                } else {
+                    pos = enqueuePos.get()
+                }
+                diff < 0L -> {
+                    droppedCount.incrementAndGet()
+                    return false
+                }
+                else -> pos = enqueuePos.get()
+            }
+        }
+    }
+
+    /** Dequeues the oldest item, or null when the buffer is empty. */
+    fun poll(): T? {
+        var pos = dequeuePos.get()
+        while (true) {
+            val index = (pos and mask).toInt()
+            val diff = sequences.get(index) - (pos + 1)
+            when {
+                diff == 0L -> if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    val item = slots.get(index)
+                    slots.set(index, null)
+                    sequences.set(index, pos + size)
+                    return item
+                } else {
+                    pos = dequeuePos.get()
+                }
+                diff < 0L -> return null
+                else -> pos = dequeuePos.get()
+            }
+        }
+    }
+
+    /** Moves up to [max] items into [sink], oldest first; returns how many. */
+    fun drainTo(sink: MutableList<T>, max: Int): Int {
+        var moved = 0
+        while (moved < max) {
+            sink.add(poll() ?: break)
+            moved++
+        }
+        return moved
+    }
+}
@@ -3,38 +3,180 @@ package dev.locus.storage
 import android.content.ContentValues
 import android.content.Context
 import android.database.sqlite.SQLiteDatabase
-import android.database.sqlite.SQLiteOpenHelper
 import dev.locus.LocusPlugin
-
-class LogStore(context: Context) {
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Persists the plugin log in `locus.db`.
+ *
+ * [append] only enqueues the line into a lock-free [LogRingBuffer]; the
+ * caller (often the main thread or the sync executor mid-request) never
+ * touches SQLite. A background flusher drains the buffer [FLUSH_DELAY_MS]
+ * after the first pending line, or right away once it is half full, and
+ * inserts each batch in one transaction. Age pruning runs at most every
+ * [PRUNE_INTERVAL_MS] instead of after every line.
+ *
+ * Buffered lines are lost if the process dies before a flush, so crash-prone
+ * paths call [flush] (stop tracking, memory trim). Lines appended from
+ * inside a [LocusDatabase.write] are inserted directly into that
+ * transaction, so they commit atomically with the write that logs them.
+ */
+class LogStore(context: Context, private val database: LocusDatabase) : LocusDatabase.Schema {
 
     private val prefs = context.getSharedPreferences(LocusPlugin.PREFS_NAME, Context.MODE_PRIVATE)
-    private val dbHelper = LogDbHelper(context)
+
+    private class Entry(val timestamp: Long, val level: String, val message: String)
+
+    private val buffer = LogRingBuffer<Entry>(BUFFER_CAPACITY)
+    private val flushScheduled = AtomicBoolean(false)
+    private val urgentFlushQueued = AtomicBoolean(false)
+
+    // Serializes drains so that [flush] returns only after every line
+    // enqueued before it has committed, including a batch the background
+    // flusher already took.
+    private val drainLock = Any()
+    private var reportedDrops = 0L
+    private var lastPruneAt = 0L
+
+    @Volatile
+    private var maxDays = 0
+
+    private val flusher: ScheduledExecutorService by lazy {
+        Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "locus-log-flusher").apply { isDaemon = true }
+        }
+    }
 
     init {
-        migrateLegacyLog()
+        database.addSchema(this)
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE IF NOT EXISTS $TABLE_LOGS (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                timestamp INTEGER NOT NULL,
+                level TEXT NOT NULL,
+                message TEXT NOT NULL,
+                tag TEXT
+            )
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_logs_timestamp ON $TABLE_LOGS (timestamp)")
+        database.importLegacy(db, LEGACY_DB_NAME, TABLE_LOGS, listOf("id", "timestamp", "level", "message", "tag"))
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        if (oldVersion < LocusDatabase.CONSOLIDATED_VERSION) {
+            // Logs lived in their own locus_logs.db until then.
+            onCreate(db)
+        }
+    }
+
+    override fun onOpen(db: SQLiteDatabase) {
+        database.dropLegacy(LEGACY_DB_NAME)
+        migrateLegacyLog(db)
     }
 
+    /** Enqueues one line; see the class comment. Never blocks on SQLite. */
     fun append(level: String, message: String, maxDays: Int) {
-        val db = dbHelper.writableDatabase
-        val values = ContentValues().apply {
-            put("timestamp", System.currentTimeMillis())
-            put("level", level)
-            put("message", message)
-            put("tag", TAG)
+        this.maxDays = maxDays
+        val entry = Entry(System.currentTimeMillis(), level, message)
+        if (database.isWriterThread) {
+            // Already inside a write: join its transaction.
+            database.write(durable = false) { db -> insertBatch(db, listOf(entry)) }
+            return
+        }
+        if (!buffer.offer(entry)) return
+        if (buffer.pending >= buffer.capacity / 2) {
+            if (urgentFlushQueued.compareAndSet(false, true)) {
+                flusher.execute {
+                    urgentFlushQueued.set(false)
+                    drain()
+                }
+            }
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule({
+                flushScheduled.set(false)
+                drain()
+            }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Commits every buffered line before returning. Blocks the caller on
+     * the database writer; call on paths where the process may die next.
+     */
+    fun flush() {
+        drain()
+    }
+
+    private fun drain() {
+        synchronized(drainLock) {
+            try {
+                val batch = ArrayList<Entry>(BATCH_SIZE)
+                while (buffer.drainTo(batch, BATCH_SIZE) > 0 || pendingDropReport() != null) {
+                    pendingDropReport()?.let { dropped ->
+                        batch.add(Entry(System.currentTimeMillis(), "warning", "Dropped $dropped log line(s): buffer full"))
+                        reportedDrops += dropped
+                    }
+                    // Log lines are diagnostics: commit with synchronous=NORMAL,
+                    // so a batch is a sequential WAL write with no fsync. A
+                    // crash can't corrupt the DB; power loss may drop the last
+                    // few lines.
+                    database.write(durable = false) { db ->
+                        insertBatch(db, batch)
+                        maybePrune(db)
+                    }
+                    batch.clear()
+                }
+            } catch (e: Exception) {
+                android.util.Log.e("LogStore", "Failed to flush log entries: ${e.message}", e)
+            }
         }
-        db.insert(TABLE_LOGS, null, values)
+    }
 
-        if (maxDays > 0) {
-            pruneByAge(db, maxDays)
+    private fun pendingDropReport(): Long? = (buffer.dropped - reportedDrops).takeIf { it > 0 }
+
+    private fun insertBatch(db: SQLiteDatabase, entries: List<Entry>) {
+        db.compileStatement(
+            "INSERT INTO $TABLE_LOGS (timestamp, level, message, tag) VALUES (?, ?, ?, ?)"
+        ).use { insert ->
+            entries.forEach { entry ->
+                insert.bindLong(1, entry.timestamp)
+                insert.bindString(2, entry.level)
+                insert.bindString(3, entry.message)
+                insert.bindString(4, TAG)
+                insert.executeInsert()
+            }
         }
     }
 
+    private fun maybePrune(db: SQLiteDatabase) {
+        val maxDays = maxDays
+        if (maxDays <= 0) return
+        val now = System.currentTimeMillis()
+        if (now - lastPruneAt < PRUNE_INTERVAL_MS) return
+        lastPruneAt = now
+        pruneByAge(db, maxDays)
+    }
+
+    /**
+     * The newest [limit] lines (all for 0), buffered ones included. Commits
+     * the buffer first, so like [flush] this waits on the database writer;
+     * call it off the main thread.
+     */
     fun readEntries(limit: Int): List<Map<String, Any>> {
+        // Buffered lines are part of the log the caller asked for.
+        flush()
         val entries = mutableListOf<Map<String, Any>>()
         val limitClause = if (limit > 0) limit.toString() else null
 
-        dbHelper.readableDatabase.query(
+        database.readableDatabase.query(
             TABLE_LOGS,
             arrayOf("timestamp", "level", "message", "tag"),
             null,
@@ -64,11 +206,10 @@ class LogStore(context: Context) {
         db.delete(TABLE_LOGS, "timestamp < ?", arrayOf(cutoff.toString()))
     }
 
-    private fun migrateLegacyLog() {
+    private fun migrateLegacyLog(db: SQLiteDatabase) {
         if (prefs.getBoolean(KEY_LOG_MIGRATED, false)) return
 
         prefs.getString(KEY_LOG, "")?.takeIf { it.isNotEmpty() }?.let { existing ->
-            val db = dbHelper.writableDatabase
             existing.split("\n").forEach { line ->
                 val parts = line.split("|", limit = 3)
                 if (parts.size >= 3) {
@@ -90,34 +231,16 @@ class LogStore(context: Context) {
             .apply()
     }
 
-    private class LogDbHelper(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
-
-        override fun onCreate(db: SQLiteDatabase) {
-            db.execSQL(
-                """
-                CREATE TABLE IF NOT EXISTS $TABLE_LOGS (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    timestamp INTEGER NOT NULL,
-                    level TEXT NOT NULL,
-                    message TEXT NOT NULL,
-                    tag TEXT
-                )
-                """.trimIndent()
-            )
-            db.execSQL("CREATE INDEX IF NOT EXISTS idx_logs_timestamp ON $TABLE_LOGS (timestamp)")
-        }
-
-        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-            // No-op for now.
-        }
-    }
-
     companion object {
         private const val KEY_LOG = "bg_log"
         private const val KEY_LOG_MIGRATED = "bg_log_migrated"
-        private const val DB_NAME = "locus_logs.db"
-        private const val DB_VERSION = 1
+        private const val LEGACY_DB_NAME = "locus_logs.db"
         private const val TABLE_LOGS = "logs"
         private const val TAG = "locus"
+
+        private const val BUFFER_CAPACITY = 1024
+        private const val BATCH_SIZE = 256
+        private const val FLUSH_DELAY_MS = 1_000L
+        private const val PRUNE_INTERVAL_MS = 60L * 60L * 1000L
     }
 }
@@ -0,0 +1,370 @@
+package dev.locus.storage
+
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.security.SecureRandom
+import java.util.TreeMap
+import java.util.zip.CRC32
+
+/**
+ * Append-only journal of fixed-size records in memory-mapped segment
+ * files; the storage layer of [LocationJournal]. An append is a copy into
+ * the page cache: no SQL, no statement, no transaction. Durability is the
+ * caller's choice of when to call [sync].
+ *
+ * Each `segment-<n>` file holds [recordsPerSegment] slots of
+ * [RECORD_SIZE] bytes. 64-byte slots never straddle a page, so a torn
+ * write damages at most the record being written. A slot is
+ * `[payload][flags][crc]`: the CRC-32 covers the record id and payload, so
+ * a never-written (zeroed) or torn slot fails the check and ends the
+ * segment's data on open. The flags byte sits outside the CRC, so an
+ * acknowledgement is a single byte store.
+ *
+ * Record ids are `segment * recordsPerSegment + slot`: stable for the
+ * life of the record and never reused, segment numbers only grow. Once
+ * every record of a segment other than the one being written is
+ * acknowledged, the segment file is deleted (compaction).
+ *
+ * `journal.idx` is the head/tail index: the oldest unacknowledged id
+ * (reads and acks start there), the append position as of the last
+ * [sync], and a random [instanceId]. Slots before the recorded tail are
+ * trusted on open; only slots appended since are CRC-checked. The index
+ * is also rewritten by acks and compaction, which must not record a tail
+ * past what was forced to disk. A missing or damaged index just means a
+ * full CRC scan.
+ *
+ * Not thread-safe by itself: [LocationJournal] serializes access.
+ */
+internal class MappedJournal(
+    private val directory: File,
+    private val recordsPerSegment: Int = DEFAULT_RECORDS_PER_SEGMENT,
+) : Closeable {
+
+    private class Segment(val number: Long, val buffer: MappedByteBuffer, var written: Int, var live: Int)
+
+    private val segments = TreeMap<Long, Segment>()
+    private val indexFile = File(directory, INDEX_NAME)
+    private val scratch = ByteArray(PAYLOAD_SIZE + 8)
+    private val scratchBuffer = ByteBuffer.wrap(scratch)
+    private val crc = CRC32()
+
+    // Next segment number to create; only grows, so ids are never reused.
+    private var nextSegment = 0L
+
+    // Append position as of the last force of the tail segment; the only
+    // tail [writeIndex] may record.
+    private var syncedTail = 0L
+
+    /** Oldest id that may still be unacknowledged. */
+    var head = 0L
+        private set
+
+    /** Random per-journal value; survives reopen, renewed when the index is lost. */
+    var instanceId = 0L
+        private set
+
+    /** Unacknowledged records across all segments. */
+    val liveCount: Int
+        get() = segments.values.sumOf { it.live }
+
+    val segmentCount: Int
+        get() = segments.size
+
+    init {
+        directory.mkdirs()
+        open()
+    }
+
+    private fun open() {
+        val index = readIndex()
+        instanceId = index?.instanceId ?: SecureRandom().nextLong()
+        val tailHint = index?.tail ?: 0L
+        val numbers = directory.listFiles()
+            ?.mapNotNull { file -> file.name.removePrefix(SEGMENT_PREFIX).takeIf { it != file.name }?.toLongOrNull() }
+            ?.sorted()
+            .orEmpty()
+        for (number in numbers) {
+            val segment = mapSegment(number, create = false) ?: continue
+            val base = number * recordsPerSegment
+            for (slot in 0 until recordsPerSegment) {
+                val id = base + slot
+                // Trust what the last checkpoint covered; CRC-check the rest
+                // and stop at the first slot that was never (fully) written.
+                if (id >= tailHint && !isValid(segment.buffer, slot, id)) break
+                segment.written = slot + 1
+                if (!isAcked(segment.buffer, slot)) segment.live++
+            }
+            segments[number] = segment
+        }
+        nextSegment = maxOf(numbers.maxOrNull()?.plus(1) ?: 0L, (index?.nextSegment ?: 0L))
+        head = maxOf(index?.head ?: 0L, segments.firstEntry()?.let { it.key * recordsPerSegment } ?: 0L)
+        // Everything found valid was read back from disk.
+        syncedTail = appendPosition()
+        compact()
+        advanceHead()
+    }
+
+    /**
+     * Appends one record: [write] fills [PAYLOAD_SIZE] bytes of the buffer
+     * starting at the given offset (absolute puts only). Returns its id.
+     */
+    fun append(write: (ByteBuffer, Int) -> Unit): Long {
+        val segment = tailSegment() ?: rollSegment()
+        val slot = segment.written
+        val offset = slot * RECORD_SIZE
+        val buffer = segment.buffer
+        write(buffer, offset)
+        val id = segment.number * recordsPerSegment + slot
+        buffer.put(offset + FLAGS_OFFSET, 0)
+        buffer.putInt(offset + CRC_OFFSET, checksum(buffer, offset, id))
+        segment.written++
+        segment.live++
+        return id
+    }
+
+    /**
+     * Calls [block] with the buffer and offset of each unacknowledged
+     * record from [fromId] on, in append order, until it returns false.
+     */
+    fun forEach(fromId: Long = head, block: (id: Long, buffer: ByteBuffer, offset: Int) -> Boolean) {
+        val start = maxOf(fromId, head)
+        for (segment in segments.tailMap(start / recordsPerSegment, true).values) {
+            if (segment.live == 0) continue
+            val base = segment.number * recordsPerSegment
+            val firstSlot = if (start > base) (start - base).toInt() else 0
+            for (slot in firstSlot until segment.written) {
+                if (isAcked(segment.buffer, slot)) continue
+                if (!block(base + slot, segment.buffer, slot * RECORD_SIZE)) return
+            }
+        }
+    }
+
+    /** Calls [block] for record [id] if it exists and is unacknowledged. */
+    fun read(id: Long, block: (buffer: ByteBuffer, offset: Int) -> Unit): Boolean {
+        val segment = segments[id / recordsPerSegment] ?: return false
+        val slot = (id % recordsPerSegment).toInt()
+        if (slot >= segment.written || isAcked(segment.buffer, slot)) return false
+        block(segment.buffer, slot * RECORD_SIZE)
+        return true
+    }
+
+    /**
+     * Marks [ids] acknowledged, calling [onAck] for each one that was
+     * live just before it is flagged. Forces the touched segments, deletes
+     * the ones left without live records and moves [head] and the index
+     * on. Returns the number of records acknowledged.
+     */
+    fun ack(ids: Collection<Long>, onAck: (id: Long, buffer: ByteBuffer, offset: Int) -> Unit = { _, _, _ -> }): Int {
+        val touched = HashSet<Segment>()
+        var acked = 0
+        for (id in ids) {
+            val segment = segments[id / recordsPerSegment] ?: continue
+            val slot = (id % recordsPerSegment).toInt()
+            if (slot >= segment.written || isAcked(segment.buffer, slot)) continue
+            val offset = slot * RECORD_SIZE
+            onAck(id, segment.buffer, offset)
+            segment.buffer.put(offset + FLAGS_OFFSET, FLAG_ACKED)
+            segment.live--
+            touched.add(segment)
+            acked++
+        }
+        if (acked == 0) return 0
+        touched.forEach { it.buffer.force() }
+        compact()
+        advanceHead()
+        writeIndex()
+        return acked
+    }
+
+    /** Forces the segment being appended to; what was appended survives power loss. */
+    fun sync() {
+        segments.lastEntry()?.value?.buffer?.force()
+        syncedTail = appendPosition()
+    }
+
+    /** [sync] plus an index update, so the next open trusts everything appended so far. */
+    fun checkpoint() {
+        sync()
+        writeIndex()
+    }
+
+    /** Live records in the oldest segment, or 0 without segments. */
+    val oldestSegmentLive: Int
+        get() = segments.firstEntry()?.value?.live ?: 0
+
+    /** Calls [block] with the last written record of the oldest segment, acknowledged or not. */
+    fun readOldestSegmentLast(block: (buffer: ByteBuffer, offset: Int) -> Unit): Boolean {
+        val segment = segments.firstEntry()?.value ?: return false
+        if (segment.written == 0) return false
+        block(segment.buffer, (segment.written - 1) * RECORD_SIZE)
+        return true
+    }
+
+    /** Deletes the oldest segment whatever its state; returns the live records it held. */
+    fun dropOldestSegment(): Int {
+        val segment = segments.pollFirstEntry()?.value ?: return 0
+        deleteSegmentFile(segment.number)
+        advanceHead()
+        writeIndex()
+        return segment.live
+    }
+
+    /** Deletes every segment. Ids continue from the next segment number. */
+    fun clear() {
+        segments.keys.toList().forEach { deleteSegmentFile(it) }
+        segments.clear()
+        head = nextSegment * recordsPerSegment
+        syncedTail = head
+        writeIndex()
+    }
+
+    override fun close() {
+        checkpoint()
+        segments.clear()
+    }
+
+    private fun tailSegment(): Segment? =
+        segments.lastEntry()?.value?.takeIf { it.written < recordsPerSegment && it.number == nextSegment - 1 }
+
+    private fun rollSegment(): Segment {
+        // The finished segment must be on disk before the index says so.
+        segments.lastEntry()?.value?.buffer?.force()
+        syncedTail = appendPosition()
+        val number = nextSegment++
+        val segment = mapSegment(number, create = true)
+            ?: throw java.io.IOException("Failed to create journal segment $number")
+        segments[number] = segment
+        writeIndex()
+        return segment
+    }
+
+    private fun mapSegment(number: Long, create: Boolean): Segment? {
+        val file = File(directory, "$SEGMENT_PREFIX$number")
+        if (!create && !file.exists()) return null
+        val bytes = recordsPerSegment.toLong() * RECORD_SIZE
+        return RandomAccessFile(file, "rw").use { raf ->
+            if (raf.length() != bytes) raf.setLength(bytes)
+            // The mapping stays valid after the channel is closed.
+            val buffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes)
+            Segment(number, buffer, written = 0, live = 0)
+        }
+    }
+
+    /** Deletes fully acknowledged segments, except the one still being appended to. */
+    private fun compact() {
+        val tail = tailSegment()
+        segments.values
+            .filter { it.live == 0 && it !== tail }
+            .forEach { segment ->
+                segments.remove(segment.number)
+                deleteSegmentFile(segment.number)
+            }
+    }
+
+    private fun advanceHead() {
+        val first = segments.firstEntry()?.value
+        if (first == null) {
+            head = maxOf(head, nextSegment * recordsPerSegment)
+            return
+        }
+        head = maxOf(head, first.number * recordsPerSegment)
+        while (true) {
+            val segment = segments.ceilingEntry(head / recordsPerSegment)?.value ?: return
+            val base = segment.number * recordsPerSegment
+            if (head < base) head = base
+            val slot = (head - base).toInt()
+            if (slot >= segment.written) {
+                if (segment.written < recordsPerSegment) return
+                head = base + recordsPerSegment
+                continue
+            }
+            if (!isAcked(segment.buffer, slot)) return
+            head++
+        }
+    }
+
+    private fun deleteSegmentFile(number: Long) {
+        File(directory, "$SEGMENT_PREFIX$number").delete()
+    }
+
+    private fun isAcked(buffer: ByteBuffer, slot: Int): Boolean =
+        buffer.get(slot * RECORD_SIZE + FLAGS_OFFSET) == FLAG_ACKED
+
+    private fun isValid(buffer: ByteBuffer, slot: Int, id: Long): Boolean {
+        val offset = slot * RECORD_SIZE
+        return buffer.getInt(offset + CRC_OFFSET) == checksum(buffer, offset, id)
+    }
+
+    private fun checksum(buffer: ByteBuffer, offset: Int, id: Long): Int {
+        for (i in 0 until PAYLOAD_SIZE) scratch[i] = buffer.get(offset + i)
+        scratchBuffer.putLong(PAYLOAD_SIZE, id)
+        crc.reset()
+        crc.update(scratch, 0, scratch.size)
+        return crc.value.toInt()
+    }
+
+    private class Index(val head: Long, val tail: Long, val nextSegment: Long, val instanceId: Long)
+
+    private fun readIndex(): Index? {
+        if (indexFile.length() != INDEX_SIZE.toLong()) return null
+        val bytes = indexFile.readBytes()
+        val buffer = ByteBuffer.wrap(bytes)
+        if (buffer.getInt(0) != INDEX_MAGIC) return null
+        crc.reset()
+        crc.update(bytes, 0, INDEX_SIZE - 4)
+        if (buffer.getInt(INDEX_SIZE - 4) != crc.value.toInt()) return null
+        return Index(
+            head = buffer.getLong(4),
+            tail = buffer.getLong(12),
+            nextSegment = buffer.getLong(20),
+            instanceId = buffer.getLong(28),
+        )
+    }
+
+    /** The id the next append in the current tail segment would get. */
+    private fun appendPosition(): Long =
+        segments.lastEntry()?.value?.let { it.number * recordsPerSegment + it.written }
+            ?: (nextSegment * recordsPerSegment)
+
+    private fun writeIndex() {
+        val buffer = ByteBuffer.allocate(INDEX_SIZE)
+            .putInt(INDEX_MAGIC)
+            .putLong(head)
+            .putLong(syncedTail)
+            .putLong(nextSegment)
+            .putLong(instanceId)
+        crc.reset()
+        crc.update(buffer.array(), 0, INDEX_SIZE - 4)
+        buffer.putInt(crc.value.toInt())
+        RandomAccessFile(indexFile, "rw").use { raf ->
+            raf.seek(0)
+            raf.write(buffer.array())
+            raf.setLength(INDEX_SIZE.toLong())
+            raf.fd.sync()
+        }
+    }
+
+    companion object {
+        /** Bytes per slot; a divisor of the 4 KiB page. */
+        const val RECORD_SIZE = 64
+
+        /** Bytes of each slot available to the caller. */
+        const val PAYLOAD_SIZE = RECORD_SIZE - 5
+
+        /** 16 384 slots: 1 MiB segments. */
+        const val DEFAULT_RECORDS_PER_SEGMENT = 16_384
+
+        private const val FLAGS_OFFSET = PAYLOAD_SIZE
+        private const val CRC_OFFSET = PAYLOAD_SIZE + 1
+        private const val FLAG_ACKED: Byte = 1
+
+        private const val SEGMENT_PREFIX = "segment-"
+        private const val INDEX_NAME = "journal.idx"
+        private const val INDEX_MAGIC = 0x4C4A4E31 // "LJN1"
+        private const val INDEX_SIZE = 4 + 8 + 8 + 8 + 8 + 4
+    }
+}
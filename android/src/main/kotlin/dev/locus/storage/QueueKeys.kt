@@ -0,0 +1,50 @@
+package dev.locus.storage
+
+/**
+ * How `enqueue` treats a payload whose idempotency key is already queued.
+ *
+ * A queued row keeps the host's key verbatim and a generation number in
+ * its own column, starting at [FIRST_GENERATION]. When coalescing
+ * replaces a row that is already on the wire, the request has sent that
+ * row's key, and a server that dedupes on it would discard the
+ * replacement if it were sent under the same key. The replacement
+ * therefore takes the next generation, which [wireKey] folds into the
+ * header value. A queued row that hasn't been sent keeps its generation.
+ */
+object QueueKeys {
+
+    const val FIRST_GENERATION = 1
+
+    /** The queued row holding a key, and its generation. */
+    data class Existing(val id: String, val generation: Int)
+
+    sealed class Plan {
+        /** Store the payload under the key's first generation. */
+        object Insert : Plan()
+
+        /** Store nothing; the payload is already queued as [existingId]. */
+        data class Dedupe(val existingId: String) : Plan()
+
+        /** Delete [existingId] and store the payload as [generation]. */
+        data class Replace(val existingId: String, val generation: Int) : Plan()
+    }
+
+    /**
+     * What to do with a payload whose key is queued as [existing], if at
+     * all. [inFlight] says whether a queue id has been handed to a request.
+     */
+    fun plan(existing: Existing?, coalesce: Boolean, inFlight: (String) -> Boolean): Plan = when {
+        existing == null -> Plan.Insert
+        !coalesce -> Plan.Dedupe(existing.id)
+        inFlight(existing.id) -> Plan.Replace(existing.id, existing.generation + 1)
+        else -> Plan.Replace(existing.id, existing.generation)
+    }
+
+    /**
+     * The idempotency header value for [key] at [generation]: the key
+     * itself for the first generation, `key#N` after that. Only the
+     * request carries this form; the queue stores the key verbatim.
+     */
+    fun wireKey(key: String, generation: Int): String =
+        if (generation <= FIRST_GENERATION) key else "$key#$generation"
+}
@@ -0,0 +1,47 @@
+package dev.locus.storage
+
+import java.io.ByteArrayOutputStream
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Storage form of a queued payload: its JSON text as UTF-8 bytes, deflated
+ * (zlib) when that saves space. The JSON is serialized once at enqueue and
+ * the upload splices the decoded text into the request body as is, so a
+ * payload is never parsed back into a map on the sync path.
+ */
+object QueuePayloadCodec {
+
+    /** `payload_encoding` of bytes stored as-is. */
+    const val IDENTITY = "identity"
+
+    /** `payload_encoding` of zlib-deflated bytes. */
+    const val DEFLATE = "deflate"
+
+    /** Below this size deflate rarely pays for its header and CPU. */
+    private const val DEFLATE_THRESHOLD_BYTES = 256
+
+    class Encoded(val bytes: ByteArray, val encoding: String)
+
+    /** Encodes [json], deflating only if that makes it smaller. */
+    fun encode(json: String): Encoded {
+        val raw = json.toByteArray(Charsets.UTF_8)
+        if (raw.size < DEFLATE_THRESHOLD_BYTES) return Encoded(raw, IDENTITY)
+        val out = ByteArrayOutputStream(raw.size / 2)
+        DeflaterOutputStream(out, Deflater(Deflater.DEFAULT_COMPRESSION)).use { it.write(raw) }
+        val deflated = out.toByteArray()
+        return if (deflated.size < raw.size) Encoded(deflated, DEFLATE) else Encoded(raw, IDENTITY)
+    }
+
+    /**
+     * The JSON text of stored [bytes]. Throws [java.util.zip.ZipException]
+     * for corrupt deflate data and [IllegalArgumentException] for an
+     * unknown [encoding].
+     */
+    fun decode(bytes: ByteArray, encoding: String?): String = when (encoding ?: IDENTITY) {
+        IDENTITY -> String(bytes, Charsets.UTF_8)
+        DEFLATE -> InflaterInputStream(bytes.inputStream()).use { String(it.readBytes(), Charsets.UTF_8) }
+        else -> throw IllegalArgumentException("Unknown payload encoding: $encoding")
+    }
+}
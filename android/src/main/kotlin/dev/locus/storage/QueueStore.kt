@@ -1,86 +1,195 @@
 package dev.locus.storage
 
 import android.content.ContentValues
-import android.content.Context
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
-import android.database.sqlite.SQLiteOpenHelper
 import org.json.JSONException
 import org.json.JSONObject
 import java.util.UUID
 
-class QueueStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+class QueueStore(
+    private val database: LocusDatabase,
+    retentionPruner: RetentionPruner,
+) : LocusDatabase.Schema {
 
-    override fun onConfigure(db: SQLiteDatabase) {
-        // Durability: WAL keeps the journal independent of the main DB, and
-        // synchronous=FULL fsyncs both files on commit. Together they survive
-        // process kills between commit and checkpoint without data loss.
-        //
-        // Use rawQuery instead of execSQL: Samsung's hardened SQLite (seen on
-        // SM A346E / Android 16) treats `PRAGMA journal_mode=WAL` as a query
-        // because it returns the resulting mode, and rejects it from execSQL
-        // with "Queries can be performed using SQLiteDatabase query or
-        // rawQuery methods only." rawQuery works on AOSP and Samsung alike.
-        db.rawQuery("PRAGMA journal_mode=WAL", null).use { it.moveToFirst() }
-        db.rawQuery("PRAGMA synchronous=FULL", null).use { it.moveToFirst() }
+    private val retention = retentionPruner.register(
+        "queue",
+        RetentionPruner.IndexedTable("queue", "created_at"),
+        database
+    )
+
+    @Volatile
+    private var maxBytes = 0L
+
+    init {
+        database.addSchema(this)
     }
 
+    private val readableDatabase: SQLiteDatabase
+        get() = database.readableDatabase
+
     override fun onCreate(db: SQLiteDatabase) {
         db.execSQL(
             """
-            CREATE TABLE queue (
+            CREATE TABLE IF NOT EXISTS queue (
                 id TEXT PRIMARY KEY,
                 created_at INTEGER,
                 payload TEXT,
                 retry_count INTEGER,
                 next_retry_at INTEGER,
                 idempotency_key TEXT,
-                type TEXT
+                type TEXT,
+                payload_blob BLOB,
+                payload_encoding TEXT,
+                idempotency_generation INTEGER NOT NULL DEFAULT ${QueueKeys.FIRST_GENERATION}
             )
             """.trimIndent()
         )
+        createCreatedAtIndex(db)
+        database.importLegacy(db, LEGACY_DB_NAME, "queue", COLUMNS)
+        createDueIndex(db)
+        createIdempotencyIndex(db)
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         // Preserve data across schema upgrades.
         // Add migration steps for each version increment here.
-        // Example: if (oldVersion < 2) { db.execSQL("ALTER TABLE queue ADD COLUMN new_col TEXT") }
         // Only drop and recreate as last resort.
+        if (oldVersion < LocusDatabase.CONSOLIDATED_VERSION) {
+            // The queue lived in its own locus_queue.db until then;
+            // onCreate builds the current table.
+            onCreate(db)
+            return
+        }
+        if (oldVersion < 12) {
+            createDueIndex(db)
+        }
+        if (oldVersion < 13) {
+            // Rows from before keep their TEXT payload; see [readRecord].
+            db.execSQL("ALTER TABLE queue ADD COLUMN payload_blob BLOB")
+            db.execSQL("ALTER TABLE queue ADD COLUMN payload_encoding TEXT")
+        }
+        if (oldVersion < 16) {
+            // 14 made the key unique on its own; from 16 the generation is
+            // part of the unique key.
+            db.execSQL(
+                "ALTER TABLE queue ADD COLUMN idempotency_generation INTEGER NOT NULL " +
+                    "DEFAULT ${QueueKeys.FIRST_GENERATION}"
+            )
+            db.execSQL("DROP INDEX IF EXISTS idx_queue_idempotency_key")
+            createIdempotencyIndex(db)
+        }
+    }
+
+    override fun onOpen(db: SQLiteDatabase) {
+        database.dropLegacy(LEGACY_DB_NAME)
     }
 
+    /** Lets [RetentionPruner] evict oldest-first by index walk instead of sorting the queue. */
+    private fun createCreatedAtIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_queue_created_at ON queue(created_at)")
+    }
+
+    /**
+     * Backs [readDue] and [nextDueAt]. Every row has a `next_retry_at`
+     * (its `created_at` until the first retry is scheduled), so "due now"
+     * is one range of this index and the drain never walks rows in
+     * backoff.
+     */
+    private fun createDueIndex(db: SQLiteDatabase) {
+        db.execSQL("UPDATE queue SET next_retry_at = created_at WHERE next_retry_at IS NULL")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_queue_due ON queue(next_retry_at, created_at)")
+    }
+
+    /**
+     * One queued row per idempotency key and generation; see
+     * [insertPayload]. Duplicates stored before the index existed are
+     * collapsed to the first one queued.
+     */
+    private fun createIdempotencyIndex(db: SQLiteDatabase) {
+        db.execSQL(
+            "DELETE FROM queue WHERE idempotency_key IS NOT NULL AND rowid NOT IN (" +
+                "SELECT MIN(rowid) FROM queue WHERE idempotency_key IS NOT NULL " +
+                "GROUP BY idempotency_key, idempotency_generation)"
+        )
+        db.execSQL(
+            "CREATE UNIQUE INDEX IF NOT EXISTS idx_queue_idempotency " +
+                "ON queue(idempotency_key, idempotency_generation) WHERE idempotency_key IS NOT NULL"
+        )
+    }
+
+    /** Size quota for the queue in bytes; 0 disables. See [RetentionPruner]. */
+    fun configureRetention(maxBytes: Long) {
+        this.maxBytes = maxBytes.coerceAtLeast(0L)
+    }
+
+    /**
+     * Queues [payload] and returns its id. While a row with the same
+     * [idempotencyKey] is queued, nothing is stored and that row's id is
+     * returned, so a host retrying `enqueue` after a channel timeout doesn't
+     * upload twice. With [coalesce] the queued row is replaced by this
+     * payload under a new id instead. A request already carrying the old
+     * payload ([inFlight] says so) can't be recalled, so the new one is sent
+     * after it under the key's next generation; see [QueueKeys].
+     */
     fun insertPayload(
         payload: Map<String, Any>,
         type: String?,
         idempotencyKey: String?,
         maxDays: Int,
-        maxRecords: Int
+        maxRecords: Int,
+        coalesce: Boolean = false,
+        inFlight: (String) -> Boolean = { false },
     ): String {
         val id = UUID.randomUUID().toString()
         val createdAt = System.currentTimeMillis()
-        val payloadJson = JSONObject(payload).toString()
+        // Serialized once here; the upload splices these bytes into the
+        // request body without parsing them again.
+        val encoded = QueuePayloadCodec.encode(JSONObject(payload).toString())
 
         val values = ContentValues().apply {
             put("id", id)
             put("created_at", createdAt)
-            put("payload", payloadJson)
+            putNull("payload")
+            put("payload_blob", encoded.bytes)
+            put("payload_encoding", encoded.encoding)
             put("retry_count", 0)
-            putNull("next_retry_at")
+            // Due immediately; see [createDueIndex].
+            put("next_retry_at", createdAt)
             put("idempotency_key", idempotencyKey)
             put("type", type)
         }
 
         try {
-            val db = writableDatabase
-            db.beginTransaction()
-            try {
-                db.insertWithOnConflict("queue", null, values, SQLiteDatabase.CONFLICT_REPLACE)
-
-                if (maxDays > 0) pruneByAge(maxDays)
-                if (maxRecords > 0) pruneByCount(maxRecords)
-                db.setTransactionSuccessful()
-            } finally {
-                db.endTransaction()
+            val existingId = database.write { db ->
+                val plan = if (idempotencyKey == null) {
+                    QueueKeys.Plan.Insert
+                } else {
+                    QueueKeys.plan(findKeyed(db, idempotencyKey), coalesce, inFlight)
+                }
+                when (plan) {
+                    is QueueKeys.Plan.Dedupe -> plan.existingId
+                    is QueueKeys.Plan.Replace -> {
+                        db.delete("queue", "id = ?", arrayOf(plan.existingId))
+                        values.put("idempotency_generation", plan.generation)
+                        db.insertOrThrow("queue", null, values)
+                        null
+                    }
+                    is QueueKeys.Plan.Insert -> {
+                        db.insertOrThrow("queue", null, values)
+                        null
+                    }
+                }
             }
-            checkpoint(db)
+            if (existingId != null) return existingId
+            retention.configure(
+                RetentionPruner.Policy(
+                    maxAgeMs = if (maxDays > 0) maxDays * 24L * 60L * 60L * 1000L else 0L,
+                    maxRecords = maxRecords,
+                    maxBytes = maxBytes,
+                )
+            )
+            retention.onInsert()
         } catch (e: Exception) {
             android.util.Log.e("QueueStore", "Failed to insert queue payload: ${e.message}", e)
         }
@@ -88,6 +197,16 @@ class QueueStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB
         return id
     }
 
+    /** The queued row holding [key]; one at most, see [QueueKeys]. */
+    private fun findKeyed(db: SQLiteDatabase, key: String): QueueKeys.Existing? =
+        db.rawQuery(
+            "SELECT id, idempotency_generation FROM queue WHERE idempotency_key = ? " +
+                "ORDER BY idempotency_generation DESC LIMIT 1",
+            arrayOf(key)
+        ).use { cursor ->
+            if (cursor.moveToFirst()) QueueKeys.Existing(cursor.getString(0), cursor.getInt(1)) else null
+        }
+
     fun readQueue(limit: Int): List<Map<String, Any>> {
         val results = mutableListOf<Map<String, Any>>()
         val limitValue = if (limit > 0) limit.toString() else null
@@ -104,21 +223,7 @@ class QueueStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB
                 limitValue
             ).use { cursor ->
                 while (cursor.moveToNext()) {
-                    val record = mutableMapOf<String, Any>(
-                        "id" to cursor.getString(cursor.getColumnIndexOrThrow("id")),
-                        "createdAt" to cursor.getLong(cursor.getColumnIndexOrThrow("created_at")),
-                        "payload" to cursor.getString(cursor.getColumnIndexOrThrow("payload")),
-                        "retryCount" to cursor.getInt(cursor.getColumnIndexOrThrow("retry_count")),
-                        "idempotencyKey" to cursor.getString(cursor.getColumnIndexOrThrow("idempotency_key")),
-                        "type" to cursor.getString(cursor.getColumnIndexOrThrow("type"))
-                    )
-
-                    val nextRetryAtIndex = cursor.getColumnIndexOrThrow("next_retry_at")
-                    if (!cursor.isNull(nextRetryAtIndex)) {
-                        record["nextRetryAt"] = cursor.getLong(nextRetryAtIndex)
-                    }
-
-                    results.add(record)
+                    results.add(readRecord(cursor))
                 }
             }
         } catch (e: Exception) {
@@ -127,6 +232,71 @@ class QueueStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB
         return results
     }
 
+    /**
+     * Up to [limit] rows whose `next_retry_at` has passed at [now], earliest
+     * due first, skipping [excludedIds] (requests already in flight). Rows
+     * in backoff are outside the index range, so the cost doesn't grow
+     * with how many of them there are.
+     */
+    fun readDue(now: Long, limit: Int, excludedIds: Collection<String> = emptyList()): List<Map<String, Any>> {
+        val results = mutableListOf<Map<String, Any>>()
+        try {
+            readableDatabase.rawQuery(
+                "SELECT * FROM queue WHERE next_retry_at <= ?${excludeClause(excludedIds)} " +
+                    "ORDER BY next_retry_at ASC, created_at ASC LIMIT ${limit.coerceAtLeast(1)}",
+                arrayOf(now.toString()) + excludedIds
+            ).use { cursor ->
+                while (cursor.moveToNext()) {
+                    results.add(readRecord(cursor))
+                }
+            }
+        } catch (e: Exception) {
+            android.util.Log.e("QueueStore", "Failed to read due queue items: ${e.message}", e)
+        }
+        return results
+    }
+
+    /**
+     * The earliest `next_retry_at` among rows not in [excludedIds] and not
+     * [parked][park], or null when nothing is waiting. One index probe.
+     */
+    fun nextDueAt(excludedIds: Collection<String> = emptyList()): Long? =
+        try {
+            readableDatabase.rawQuery(
+                "SELECT next_retry_at FROM queue WHERE next_retry_at < $PARKED${excludeClause(excludedIds)} " +
+                    "ORDER BY next_retry_at ASC LIMIT 1",
+                excludedIds.toTypedArray()
+            ).use { cursor -> if (cursor.moveToFirst()) cursor.getLong(0) else null }
+        } catch (e: Exception) {
+            android.util.Log.e("QueueStore", "Failed to read next due time: ${e.message}", e)
+            null
+        }
+
+    private fun excludeClause(excludedIds: Collection<String>): String =
+        if (excludedIds.isEmpty()) "" else " AND id NOT IN (${excludedIds.joinToString(",") { "?" }})"
+
+    private fun readRecord(cursor: Cursor): Map<String, Any> {
+        val retryCount = cursor.getInt(cursor.getColumnIndexOrThrow("retry_count"))
+        val record = mutableMapOf<String, Any>(
+            "id" to cursor.getString(cursor.getColumnIndexOrThrow("id")),
+            "createdAt" to cursor.getLong(cursor.getColumnIndexOrThrow("created_at")),
+            "retryCount" to retryCount,
+            "idempotencyKey" to cursor.getString(cursor.getColumnIndexOrThrow("idempotency_key")),
+            "idempotencyGeneration" to cursor.getInt(cursor.getColumnIndexOrThrow("idempotency_generation")),
+            "type" to cursor.getString(cursor.getColumnIndexOrThrow("type"))
+        )
+        readPayloadJson(cursor)?.let { record["payload"] = it }
+
+        // Before the first retry next_retry_at is just created_at, and a
+        // parked row has no next retry.
+        val nextRetryAtIndex = cursor.getColumnIndexOrThrow("next_retry_at")
+        if (retryCount > 0 && !cursor.isNull(nextRetryAtIndex)) {
+            val nextRetryAt = cursor.getLong(nextRetryAtIndex)
+            if (nextRetryAt != PARKED) record["nextRetryAt"] = nextRetryAt
+        }
+        return record
+    }
+
     fun updateRetry(id: String, retryCount: Int, nextRetryAt: Long) {
         val values = ContentValues().apply {
             put("retry_count", retryCount)
@@ -134,69 +304,111 @@ class QueueStore(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB
         }
 
         try {
-            val db = writableDatabase
-            db.update("queue", values, "id = ?", arrayOf(id))
-            checkpoint(db)
+            database.write { db -> db.update("queue", values, "id = ?", arrayOf(id)) }
         } catch (e: Exception) {
             android.util.Log.e("QueueStore", "Failed to update retry: ${e.message}", e)
         }
     }
 
-    fun deleteByIds(ids: List<String>?) {
-        if (ids.isNullOrEmpty()) return
+    /**
+     * The payload's JSON text: decoded from `payload_blob` (see
+     * [QueuePayloadCodec]), or the TEXT `payload` of rows queued before
+     * v13. Null when missing or undecodable.
+     */
+    private fun readPayloadJson(cursor: Cursor): String? {
+        val blobIndex = cursor.getColumnIndexOrThrow("payload_blob")
+        if (cursor.isNull(blobIndex)) {
+            return cursor.getString(cursor.getColumnIndexOrThrow("payload"))
+        }
+        return try {
+            QueuePayloadCodec.decode(
+                cursor.getBlob(blobIndex),
+                cursor.getString(cursor.getColumnIndexOrThrow("payload_encoding"))
+            )
+        } catch (e: Exception) {
+            android.util.Log.e("QueueStore", "Failed to decode queue payload: ${e.message}", e)
+            null
+        }
+    }
 
+    /**
+     * Takes a row out of automatic retries once they are exhausted. It
+     * stays in the queue until [resumeParked] (an explicit `syncQueue`) or
+     * retention removes it.
+     */
+    fun park(id: String, retryCount: Int) {
+        updateRetry(id, retryCount, PARKED)
+    }
+
+    /** Makes every [parked][park] row due at [now]. */
+    fun resumeParked(now: Long) {
         try {
-            val db = writableDatabase
-            val placeholders = ids.joinToString(",") { "?" }
-            db.delete("queue", "id IN ($placeholders)", ids.toTypedArray())
-            checkpoint(db)
+            database.write { db ->
+                db.execSQL("UPDATE queue SET next_retry_at = ? WHERE next_retry_at = $PARKED", arrayOf<Any?>(now))
+            }
         } catch (e: Exception) {
-            android.util.Log.e("QueueStore", "Failed to delete queue items: ${e.message}", e)
+            android.util.Log.e("QueueStore", "Failed to resume parked queue items: ${e.message}", e)
         }
     }
 
-    fun clear() {
+    /** The outcome for one unacknowledged row of a sent batch; see [complete]. */
+    data class Retry(val id: String, val retryCount: Int, val nextRetryAt: Long?)
+
+    /**
+     * Applies the result of one sent batch in a single transaction: deletes
+     * [ackedIds] and reschedules [retries] (a null `nextRetryAt` parks the
+     * row, see [park]).
+     */
+    fun complete(ackedIds: Collection<String>, retries: Collection<Retry>) {
+        if (ackedIds.isEmpty() && retries.isEmpty()) return
         try {
-            val db = writableDatabase
-            db.execSQL("DELETE FROM queue")
-            checkpoint(db)
+            database.write { db ->
+                if (ackedIds.isNotEmpty()) {
+                    val placeholders = ackedIds.joinToString(",") { "?" }
+                    db.delete("queue", "id IN ($placeholders)", ackedIds.toTypedArray())
+                }
+                retries.forEach { retry ->
+                    val values = ContentValues().apply {
+                        put("retry_count", retry.retryCount)
+                        put("next_retry_at", retry.nextRetryAt ?: PARKED)
+                    }
+                    db.update("queue", values, "id = ?", arrayOf(retry.id))
+                }
+            }
         } catch (e: Exception) {
-            android.util.Log.e("QueueStore", "Failed to clear queue: ${e.message}", e)
+            android.util.Log.e("QueueStore", "Failed to complete queue batch: ${e.message}", e)
         }
     }
 
-    private fun pruneByAge(maxDays: Int) {
-        val cutoff = System.currentTimeMillis() - (maxDays * 24L * 60L * 60L * 1000L)
-        writableDatabase.delete("queue", "created_at < ?", arrayOf(cutoff.toString()))
-    }
+    fun deleteByIds(ids: List<String>?) {
+        if (ids.isNullOrEmpty()) return
 
-    private fun pruneByCount(maxRecords: Int) {
-        writableDatabase.execSQL(
-            """
-            DELETE FROM queue WHERE id IN (
-                SELECT id FROM queue ORDER BY created_at DESC LIMIT -1 OFFSET ?
-            )
-            """.trimIndent(),
-            arrayOf(maxRecords)
-        )
+        try {
+            val placeholders = ids.joinToString(",") { "?" }
+            database.write { db -> db.delete("queue", "id IN ($placeholders)", ids.toTypedArray()) }
+        } catch (e: Exception) {
+            android.util.Log.e("QueueStore", "Failed to delete queue items: ${e.message}", e)
+        }
     }
 
-    /**
-     * Bound the WAL file size after a write transaction. PASSIVE never blocks
-     * readers and is a no-op if no work is needed; the DB stays durable either
-     * way thanks to synchronous=FULL.
-     */
-    private fun checkpoint(db: SQLiteDatabase) {
+    fun clear() {
         try {
-            db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null).use { it.moveToFirst() }
+            database.write { db -> db.execSQL("DELETE FROM queue") }
         } catch (e: Exception) {
-            android.util.Log.w("QueueStore", "wal_checkpoint failed: ${e.message}")
+            android.util.Log.e("QueueStore", "Failed to clear queue: ${e.message}", e)
         }
     }
 
     companion object {
-        private const val DB_NAME = "locus_queue.db"
-        private const val DB_VERSION = 1
+        /** The queue's own database file before [LocusDatabase.CONSOLIDATED_VERSION]. */
+        private const val LEGACY_DB_NAME = "locus_queue.db"
+
+        /** `next_retry_at` of a row whose retries are exhausted. */
+        private const val PARKED = Long.MAX_VALUE
+
+        private val COLUMNS = listOf(
+            "id", "created_at", "payload", "retry_count", "next_retry_at", "idempotency_key", "type"
+        )
 
         @Throws(JSONException::class)
         fun parsePayload(payloadJson: String): Map<String, Any> {
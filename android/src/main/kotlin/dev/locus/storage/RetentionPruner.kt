@@ -0,0 +1,289 @@
+package dev.locus.storage
+
+import android.database.sqlite.SQLiteDatabase
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ExecutorService
+
+/**
+ * Enforces the retention limits of [LocationStore] and [QueueStore] off
+ * the insert path. Stores used to run an age delete and an
+ * `ORDER BY … OFFSET` count delete inside every insert transaction,
+ * sorting the whole table once per fix.
+ *
+ * Stores call [Table.onInsert] after committing. A pass then runs on a
+ * background thread when either:
+ *  - the estimated row count crosses the high-water mark, [Policy.maxRecords]
+ *    plus 5% (at least [MIN_SLACK_ROWS]), or the estimated size of the
+ *    store's tables crosses [Policy.maxBytes]; or
+ *  - [PASS_INTERVAL_MS] has elapsed since the last pass (age limit).
+ * The estimates come from the previous pass plus rows inserted since, so
+ * the check on the insert path is arithmetic only.
+ *
+ * A pass deletes oldest-first in chunks of [CHUNK_ROWS], each in its own
+ * transaction on the [LocusDatabase] writer, by walking the store's
+ * timestamp index; no statement sorts the table and no transaction holds
+ * the write lock for long. The byte quota is measured per store
+ * ([Target.sizeBytes]), not from the page counts of `locus.db`: the file
+ * is shared, and its pages would charge one store for another's rows.
+ *
+ * Evicted rows are counted per reason and exposed through [snapshot].
+ */
+class RetentionPruner {
+
+    private val tables = ConcurrentHashMap<String, Table>()
+
+    private val executor: ExecutorService by lazy {
+        Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "locus-retention").apply { isDaemon = true }
+        }
+    }
+
+    /** Retention limits; a value ≤ 0 disables that limit. */
+    data class Policy(val maxAgeMs: Long = 0L, val maxRecords: Int = 0, val maxBytes: Long = 0L) {
+        val isEmpty: Boolean
+            get() = maxAgeMs <= 0L && maxRecords <= 0 && maxBytes <= 0L
+    }
+
+    /**
+     * How a store evicts. Every method runs inside a transaction opened by
+     * the pruner and returns the number of rows it removed.
+     */
+    interface Target {
+        /** Rows the count limit applies to. */
+        fun count(db: SQLiteDatabase): Long
+
+        /** Deletes up to [limit] of the oldest rows older than [cutoffMs]. */
+        fun deleteOlderThan(db: SQLiteDatabase, cutoffMs: Long, limit: Int): Int
+
+        /** Deletes up to [limit] of the oldest rows, regardless of age. */
+        fun deleteOldest(db: SQLiteDatabase, limit: Int): Int
+
+        /** Frees space for the byte quota; by default the same as [deleteOldest]. */
+        fun evictForSpace(db: SQLiteDatabase, limit: Int): Int = deleteOldest(db, limit)
+
+        /** Estimated bytes held by the store's own tables; see [tableBytes]. */
+        fun sizeBytes(db: SQLiteDatabase): Long
+    }
+
+    /**
+     * [Target] for a plain table with an indexed [timeColumn]. Chunks are
+     * picked by rowid through that index, so each delete is a bounded
+     * index walk.
+     */
+    open class IndexedTable(private val table: String, private val timeColumn: String) : Target {
+        override fun count(db: SQLiteDatabase): Long =
+            db.rawQuery("SELECT COUNT(*) FROM $table", null).use { if (it.moveToFirst()) it.getLong(0) else 0L }
+
+        override fun deleteOlderThan(db: SQLiteDatabase, cutoffMs: Long, limit: Int): Int =
+            db.compileStatement(
+                "DELETE FROM $table WHERE rowid IN (" +
+                    "SELECT rowid FROM $table WHERE $timeColumn < $cutoffMs ORDER BY $timeColumn ASC LIMIT $limit)"
+            ).use { it.executeUpdateDelete() }
+
+        override fun deleteOldest(db: SQLiteDatabase, limit: Int): Int =
+            db.compileStatement(
+                "DELETE FROM $table WHERE rowid IN (" +
+                    "SELECT rowid FROM $table ORDER BY $timeColumn ASC LIMIT $limit)"
+            ).use { it.executeUpdateDelete() }
+
+        override fun sizeBytes(db: SQLiteDatabase): Long = tableBytes(db, table)
+    }
+
+    /**
+     * Registers a store's table under [name] (the diagnostics key). Chunks
+     * are deleted through [database]'s writer, so they queue behind inserts
+     * rather than contending with them; reads use its pool.
+     */
+    fun register(name: String, target: Target, database: LocusDatabase): Table =
+        tables.getOrPut(name) { Table(name, target, database) }
+
+    /** Per-table eviction counters for diagnostics, keyed by registration name. */
+    fun snapshot(): Map<String, Map<String, Any>> =
+        tables.values.associate { it.name to it.snapshot() }
+
+    inner class Table internal constructor(
+        internal val name: String,
+        private val target: Target,
+        private val database: LocusDatabase,
+    ) {
+        private val lock = Any()
+        private var policy = Policy()
+        private var passQueued = false
+        private var lastPassAt = 0L
+
+        // Estimates since the last pass; see the class comment.
+        private var estimatedRows = -1L
+        private var estimatedBytes = -1L
+        private var bytesPerRow = 0L
+
+        // Diagnostics.
+        private var passes = 0L
+        private var evictedByAge = 0L
+        private var evictedByCount = 0L
+        private var evictedBySize = 0L
+        private var lastEvicted = 0
+        private var lastPassMs = 0L
+        private var failedPasses = 0L
+
+        /** Replaces the limits; a changed policy queues a pass. */
+        fun configure(policy: Policy) {
+            synchronized(lock) {
+                if (policy == this.policy) return
+                this.policy = policy
+                if (!policy.isEmpty) queuePassLocked()
+            }
+        }
+
+        /** Records [rows] committed inserts and queues a pass if a limit may be exceeded. */
+        fun onInsert(rows: Int = 1) {
+            synchronized(lock) {
+                if (policy.isEmpty) return
+                if (estimatedRows >= 0) estimatedRows += rows
+                if (estimatedBytes >= 0) estimatedBytes += rows * bytesPerRow
+                val now = System.currentTimeMillis()
+                val due = estimatedRows < 0 ||
+                    now - lastPassAt >= PASS_INTERVAL_MS ||
+                    (policy.maxRecords > 0 && estimatedRows > highWaterMark(policy.maxRecords)) ||
+                    (policy.maxBytes > 0 && estimatedBytes > policy.maxBytes)
+                if (due) queuePassLocked()
+            }
+        }
+
+        /** Queues a pass regardless of the estimates. */
+        fun requestPass() {
+            synchronized(lock) { queuePassLocked() }
+        }
+
+        private fun queuePassLocked() {
+            if (passQueued) return
+            passQueued = true
+            executor.execute { runPass() }
+        }
+
+        private fun runPass() {
+            val policy: Policy
+            synchronized(lock) {
+                passQueued = false
+                lastPassAt = System.currentTimeMillis()
+                policy = this.policy
+            }
+            if (policy.isEmpty) return
+
+            val startedAt = System.nanoTime()
+            var byAge = 0
+            var byCount = 0
+            var bySize = 0
+            try {
+                val db = database.readableDatabase
+                if (policy.maxAgeMs > 0) {
+                    val cutoff = System.currentTimeMillis() - policy.maxAgeMs
+                    byAge = deleteInChunks(Int.MAX_VALUE) { tx, limit -> target.deleteOlderThan(tx, cutoff, limit) }
+                }
+                var rows = target.count(db)
+                if (policy.maxRecords > 0 && rows > policy.maxRecords) {
+                    val excess = (rows - policy.maxRecords).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+                    byCount = deleteInChunks(excess) { tx, limit -> target.deleteOldest(tx, limit) }
+                    rows -= byCount
+                }
+                var bytes = if (policy.maxBytes > 0) target.sizeBytes(db) else 0L
+                if (policy.maxBytes > 0) {
+                    while (bytes > policy.maxBytes) {
+                        val removed = deleteChunk { tx -> target.evictForSpace(tx, CHUNK_ROWS) }
+                        if (removed == 0) break
+                        bySize += removed
+                        rows -= removed
+                        bytes = target.sizeBytes(db)
+                    }
+                }
+                synchronized(lock) {
+                    estimatedRows = rows.coerceAtLeast(0)
+                    estimatedBytes = if (policy.maxBytes > 0) bytes else -1L
+                    bytesPerRow = if (rows > 0) bytes / rows else 0L
+                    passes++
+                    evictedByAge += byAge
+                    evictedByCount += byCount
+                    evictedBySize += bySize
+                    lastEvicted = byAge + byCount + bySize
+                    lastPassMs = (System.nanoTime() - startedAt) / 1_000_000L
+                }
+                if (byAge + byCount + bySize > 0) {
+                    android.util.Log.i(
+                        "RetentionPruner",
+                        "$name: evicted $byAge by age, $byCount by count, $bySize by size"
+                    )
+                }
+            } catch (e: Exception) {
+                synchronized(lock) { failedPasses++ }
+                android.util.Log.e("RetentionPruner", "Retention pass failed for $name: ${e.message}", e)
+            }
+        }
+
+        /** Runs [delete] chunk by chunk until it removes nothing or [max] rows are gone. */
+        private fun deleteInChunks(max: Int, delete: (SQLiteDatabase, Int) -> Int): Int {
+            var total = 0
+            while (total < max) {
+                val limit = minOf(CHUNK_ROWS, max - total)
+                val removed = deleteChunk { tx -> delete(tx, limit) }
+                total += removed
+                if (removed < limit) break
+            }
+            return total
+        }
+
+        // Evictions are re-derivable, so they commit without the extra fsync.
+        private fun deleteChunk(delete: (SQLiteDatabase) -> Int): Int =
+            database.write(durable = false) { tx -> delete(tx) }
+
+        internal fun snapshot(): Map<String, Any> = synchronized(lock) {
+            mapOf(
+                "passes" to passes,
+                "failedPasses" to failedPasses,
+                "evictedByAge" to evictedByAge,
+                "evictedByCount" to evictedByCount,
+                "evictedBySize" to evictedBySize,
+                "lastEvicted" to lastEvicted,
+                "lastPassMs" to lastPassMs,
+                "lastPassAt" to lastPassAt,
+                "estimatedRows" to estimatedRows,
+                "estimatedBytes" to estimatedBytes,
+            )
+        }
+    }
+
+    companion object {
+        private const val CHUNK_ROWS = 500
+        private const val MIN_SLACK_ROWS = 16
+        private const val PASS_INTERVAL_MS = 15L * 60L * 1000L
+        private const val SIZE_SAMPLE_ROWS = 64
+        private const val ROW_OVERHEAD_BYTES = 16L
+
+        /** Row count above which an insert triggers a pass for [maxRecords]. */
+        internal fun highWaterMark(maxRecords: Int): Long =
+            maxRecords + maxOf(maxRecords / 20, MIN_SLACK_ROWS).toLong()
+
+        /**
+         * Estimated bytes of [table]: its row count times the average
+         * `length()` of the columns of its newest [SIZE_SAMPLE_ROWS] rows,
+         * plus [ROW_OVERHEAD_BYTES] per row for the record header, rowid
+         * and index entries. Android's SQLite has no `dbstat` to give
+         * per-table page counts, and summing every row's length would read
+         * every payload on each pass.
+         */
+        fun tableBytes(db: SQLiteDatabase, table: String): Long {
+            val columns = db.rawQuery("PRAGMA table_info($table)", null).use { cursor ->
+                buildList { while (cursor.moveToNext()) add(cursor.getString(1)) }
+            }
+            if (columns.isEmpty()) return 0L
+            val rows = db.rawQuery("SELECT COUNT(*) FROM $table", null)
+                .use { if (it.moveToFirst()) it.getLong(0) else 0L }
+            if (rows == 0L) return 0L
+            val rowLength = columns.joinToString(" + ") { "COALESCE(LENGTH(\"$it\"), 0)" }
+            val averageRow = db.rawQuery(
+                "SELECT AVG($rowLength) FROM (SELECT * FROM $table ORDER BY rowid DESC LIMIT $SIZE_SAMPLE_ROWS)",
+                null
+            ).use { if (it.moveToFirst()) it.getDouble(0) else 0.0 }
+            return rows * (averageRow.toLong() + ROW_OVERHEAD_BYTES)
+        }
+    }
+}
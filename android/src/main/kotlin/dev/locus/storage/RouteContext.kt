@@ -0,0 +1,58 @@
+package dev.locus.storage
+
+/**
+ * The five `extras` fields that identify which route a stored location
+ * belongs to. Batches never mix contexts: the backend attributes every
+ * point in a request to a single owner/driver/task/session.
+ *
+ * A location whose extras are missing any of the five fields has no
+ * context and is *quarantined* — it stays on disk but is never drained.
+ * [LocationStore] persists the fields as real columns (all five or none)
+ * so the drain can pick the next context and its oldest rows with an
+ * indexed query instead of re-parsing `extras_json` for every row.
+ */
+data class RouteContext(
+    val ownerId: String,
+    val driverId: String,
+    val taskId: String,
+    val trackingSessionId: String,
+    val startedAt: String,
+) {
+    companion object {
+        const val KEY_OWNER_ID = "owner_id"
+        const val KEY_DRIVER_ID = "driver_id"
+        const val KEY_TASK_ID = "task_id"
+        const val KEY_TRACKING_SESSION_ID = "tracking_session_id"
+        const val KEY_STARTED_AT = "started_at"
+
+        /**
+         * Builds the context from a location's `extras` map, or returns
+         * `null` when any field is absent or blank (quarantined row).
+         */
+        fun fromExtras(extras: Map<*, *>?): RouteContext? {
+            if (extras == null) return null
+            val ownerId = extras[KEY_OWNER_ID]?.toString().orEmpty()
+            val driverId = extras[KEY_DRIVER_ID]?.toString().orEmpty()
+            val taskId = extras[KEY_TASK_ID]?.toString().orEmpty()
+            val trackingSessionId = extras[KEY_TRACKING_SESSION_ID]?.toString().orEmpty()
+            val startedAt = extras[KEY_STARTED_AT]?.toString().orEmpty()
+
+            if (ownerId.isBlank() ||
+                driverId.isBlank() ||
+                taskId.isBlank() ||
+                trackingSessionId.isBlank() ||
+                startedAt.isBlank()
+            ) {
+                return null
+            }
+
+            return RouteContext(
+                ownerId = ownerId,
+                driverId = driverId,
+                taskId = taskId,
+                trackingSessionId = trackingSessionId,
+                startedAt = startedAt,
+            )
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package dev.locus.storage
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Gives the free pages of `locus.db` back to the file system. Without
+ * auto_vacuum a SQLite file never shrinks: after a long offline stretch
+ * and the drain that follows, `locus.db` stays at its high-water size and
+ * later scans walk a fragmented file.
+ *
+ * [LocusDatabase] creates new files with `auto_vacuum=INCREMENTAL`.
+ * Files created before can only switch through a full `VACUUM`, which
+ * rewrites the file and can't run inside the upgrade transaction, so that
+ * conversion happens once here, when the device is on power or in doze
+ * and the database is idle.
+ *
+ * Every [CHECK_INTERVAL_MS] a pass runs if the device is charging or in
+ * doze, or the database has seen no write for [IDLE_MS]. It releases
+ * free pages with `incremental_vacuum(STEP_PAGES)`, each step in its own
+ * short transaction on the writer so tracking commits interleave with it,
+ * and stops after [MAX_STEPS_PER_PASS] steps or once fewer than
+ * [MIN_FREE_PAGES] pages are free.
+ */
+class VacuumScheduler(context: Context, private val database: LocusDatabase) {
+
+    private val appContext = context.applicationContext
+    private val lock = Any()
+
+    // Diagnostics.
+    private var passes = 0L
+    private var failedPasses = 0L
+    private var pagesReleased = 0L
+    private var lastPassAt = 0L
+    private var lastPassMs = 0L
+    private var convertedAt = 0L
+
+    private val executor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "locus-vacuum").apply { isDaemon = true }
+    }
+
+    init {
+        executor.scheduleWithFixedDelay({ maybeRunPass() }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+    }
+
+    private fun maybeRunPass() {
+        val quiet = CheckpointScheduler.isDeviceQuiet(appContext)
+        val idle = System.currentTimeMillis() - database.lastWriteAt >= IDLE_MS
+        if (!quiet && !idle) return
+
+        val startedAt = System.nanoTime()
+        try {
+            val released = if (autoVacuumMode(database.readableDatabase) == AUTO_VACUUM_INCREMENTAL) {
+                releaseFreePages()
+            } else if (quiet && idle) {
+                convert()
+            } else {
+                return
+            }
+            synchronized(lock) {
+                passes++
+                pagesReleased += released
+                lastPassAt = System.currentTimeMillis()
+                lastPassMs = (System.nanoTime() - startedAt) / 1_000_000L
+            }
+        } catch (e: Exception) {
+            synchronized(lock) { failedPasses++ }
+            android.util.Log.w("VacuumScheduler", "Vacuum pass failed: ${e.message}")
+        }
+    }
+
+    /** Incremental steps until the freelist is small or the pass budget is spent. */
+    private fun releaseFreePages(): Long {
+        var released = 0L
+        repeat(MAX_STEPS_PER_PASS) {
+            val before = pragma(database.readableDatabase, "freelist_count")
+            if (before < MIN_FREE_PAGES) return released
+            // Page moves are re-derivable from the file, so no extra fsync.
+            database.write(durable = false) { db ->
+                db.rawQuery("PRAGMA incremental_vacuum($STEP_PAGES)", null).use { while (it.moveToNext()) Unit }
+            }
+            val after = pragma(database.readableDatabase, "freelist_count")
+            if (after >= before) return released
+            released += before - after
+        }
+        return released
+    }
+
+    /** One-time switch of a pre-existing file to incremental mode; also drops every free page. */
+    private fun convert(): Long {
+        val before = pragma(database.readableDatabase, "page_count")
+        database.withoutTransaction { db ->
+            db.rawQuery("PRAGMA auto_vacuum=INCREMENTAL", null).use { it.moveToFirst() }
+            db.execSQL("VACUUM")
+        }
+        if (autoVacuumMode(database.readableDatabase) == AUTO_VACUUM_INCREMENTAL) {
+            synchronized(lock) { convertedAt = System.currentTimeMillis() }
+        }
+        // The rewrite went through the WAL; let the checkpointer fold it back.
+        database.checkpoints.onWrite()
+        return (before - pragma(database.readableDatabase, "page_count")).coerceAtLeast(0L)
+    }
+
+    /** File-size metrics and pass counters for diagnostics. */
+    fun snapshot(): Map<String, Any> {
+        val file = try {
+            val db = database.readableDatabase
+            mapOf(
+                "autoVacuum" to when (autoVacuumMode(db)) {
+                    AUTO_VACUUM_INCREMENTAL -> "incremental"
+                    AUTO_VACUUM_FULL -> "full"
+                    else -> "none"
+                },
+                "pageSize" to pragma(db, "page_size"),
+                "pageCount" to pragma(db, "page_count"),
+                "freelistCount" to pragma(db, "freelist_count"),
+            )
+        } catch (e: Exception) {
+            emptyMap()
+        }
+        return file + synchronized(lock) {
+            mapOf(
+                "vacuumPasses" to passes,
+                "failedVacuumPasses" to failedPasses,
+                "pagesReleased" to pagesReleased,
+                "lastVacuumAt" to lastPassAt,
+                "lastVacuumMs" to lastPassMs,
+                "convertedAt" to convertedAt,
+            )
+        }
+    }
+
+    private fun autoVacuumMode(db: SQLiteDatabase): Long = pragma(db, "auto_vacuum")
+
+    private fun pragma(db: SQLiteDatabase, name: String): Long =
+        db.rawQuery("PRAGMA $name", null).use { if (it.moveToFirst()) it.getLong(0) else 0L }
+
+    companion object {
+        private const val CHECK_INTERVAL_MS = 15L * 60L * 1000L
+        private const val IDLE_MS = 5L * 60L * 1000L
+        private const val STEP_PAGES = 256
+        private const val MAX_STEPS_PER_PASS = 16
+        private const val MIN_FREE_PAGES = 64L
+
+        private const val AUTO_VACUUM_FULL = 1L
+        private const val AUTO_VACUUM_INCREMENTAL = 2L
+    }
+}
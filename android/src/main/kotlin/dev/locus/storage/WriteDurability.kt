@@ -0,0 +1,35 @@
+package dev.locus.storage
+
+/**
+ * How [LocationStore] commits persisted locations. Trades fsyncs per fix
+ * against how much can be lost if the process or device dies.
+ */
+enum class WriteDurability {
+    /**
+     * One transaction per location under `synchronous=FULL`. Nothing that
+     * was stored is ever lost; costs two fsyncs per fix. The default.
+     */
+    FULL,
+
+    /**
+     * Locations are buffered in memory and committed together, under
+     * `synchronous=FULL`, once the group-commit window elapses or the
+     * buffer reaches its row limit. A process kill loses at most one
+     * window's worth of unflushed rows; what was committed is as durable
+     * as [FULL].
+     */
+    GROUPED,
+
+    /**
+     * One transaction per location under `synchronous=NORMAL`. WAL keeps
+     * every commit atomic and survives app crashes, but the most recent
+     * commits can roll back on power loss or an OS crash.
+     */
+    NORMAL;
+
+    companion object {
+        /** Parses the config value (case-insensitive); unknown → [FULL]. */
+        fun fromValue(value: String?): WriteDurability =
+            values().firstOrNull { it.name.equals(value, ignoreCase = true) } ?: FULL
+    }
+}
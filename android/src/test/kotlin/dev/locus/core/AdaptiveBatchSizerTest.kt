@@ -0,0 +1,67 @@
+package dev.locus.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AdaptiveBatchSizerTest {
+
+    private fun sizer(initial: Int = 50, min: Int = 10, max: Int = 100) = AdaptiveBatchSizer().apply {
+        configure(initial = initial, min = min, max = max, latencyTargetMs = 1_000L)
+    }
+
+    @Test
+    fun `full batches under the target grow the size up to max`() {
+        val sizer = sizer()
+        sizer.onSuccess(50, 200L)
+        assertEquals(60, sizer.current)
+
+        repeat(10) { sizer.onSuccess(sizer.current, 200L) }
+        assertEquals(100, sizer.current)
+    }
+
+    @Test
+    fun `short batches don't grow the size`() {
+        val sizer = sizer()
+        sizer.onSuccess(12, 200L)
+        assertEquals(50, sizer.current)
+    }
+
+    @Test
+    fun `slow successes trim the size`() {
+        val sizer = sizer()
+        sizer.onSuccess(50, 1_500L)
+        assertEquals(38, sizer.current)
+    }
+
+    @Test
+    fun `congestion halves the size down to min`() {
+        val sizer = sizer()
+        sizer.onCongestion()
+        assertEquals(25, sizer.current)
+
+        repeat(5) { sizer.onCongestion() }
+        assertEquals(10, sizer.current)
+    }
+
+    @Test
+    fun `reconfiguring clamps the size and a new initial resets it`() {
+        val sizer = sizer()
+        sizer.onSuccess(50, 200L)
+        sizer.configure(initial = 50, min = 10, max = 55, latencyTargetMs = 1_000L)
+        assertEquals(55, sizer.current)
+
+        sizer.configure(initial = 20, min = 10, max = 55, latencyTargetMs = 1_000L)
+        assertEquals(20, sizer.current)
+    }
+
+    @Test
+    fun `timeouts, 413 and 5xx count as congestion`() {
+        assertTrue(AdaptiveBatchSizer.isCongestion(408))
+        assertTrue(AdaptiveBatchSizer.isCongestion(413))
+        assertTrue(AdaptiveBatchSizer.isCongestion(503))
+        assertFalse(AdaptiveBatchSizer.isCongestion(400))
+        assertFalse(AdaptiveBatchSizer.isCongestion(429))
+    }
+}
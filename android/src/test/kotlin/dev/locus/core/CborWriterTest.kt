@@ -0,0 +1,60 @@
+package dev.locus.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+class CborWriterTest {
+
+    private fun hex(write: (CborWriter) -> Unit): String {
+        val out = ByteArrayOutputStream()
+        write(CborWriter(out))
+        return out.toByteArray().joinToString("") { "%02x".format(it) }
+    }
+
+    // Expected encodings are from RFC 8949, Appendix A.
+
+    @Test
+    fun `integers use the shortest head`() {
+        assertEquals("00", hex { it.int(0) })
+        assertEquals("17", hex { it.int(23) })
+        assertEquals("1818", hex { it.int(24) })
+        assertEquals("1903e8", hex { it.int(1000) })
+        assertEquals("1a000f4240", hex { it.int(1_000_000) })
+        assertEquals("1b000000e8d4a51000", hex { it.int(1_000_000_000_000) })
+        assertEquals("20", hex { it.int(-1) })
+        assertEquals("3863", hex { it.int(-100) })
+        assertEquals("3903e7", hex { it.int(-1000) })
+        assertEquals("3b7fffffffffffffff", hex { it.int(Long.MIN_VALUE) })
+    }
+
+    @Test
+    fun `doubles are written as integers or the narrowest exact float`() {
+        assertEquals("1903e8", hex { it.double(1000.0) })
+        assertEquals("1a000186a0", hex { it.double(100000.0) })
+        assertEquals("fa3fc00000", hex { it.double(1.5) })
+        assertEquals("fb3ff199999999999a", hex { it.double(1.1) })
+        assertEquals("fa7f800000", hex { it.double(Double.POSITIVE_INFINITY) })
+    }
+
+    @Test
+    fun `strings and simple values`() {
+        assertEquals("60", hex { it.string("") })
+        assertEquals("6449455446", hex { it.string("IETF") })
+        assertEquals("62c3bc", hex { it.string("ü") })
+        assertEquals("4401020304", hex { it.bytes(byteArrayOf(1, 2, 3, 4)) })
+        assertEquals("f4f5f6", hex { it.bool(false).bool(true).nul() })
+    }
+
+    @Test
+    fun `values convert maps and collections`() {
+        assertEquals("83010203", hex { it.value(listOf(1, 2, 3)) })
+        assertEquals(
+            "a26161016162820203",
+            hex { it.value(linkedMapOf("a" to 1, "b" to listOf(2, 3))) },
+        )
+        assertEquals("a1616101", hex { it.value(mapOf('a' to 1)) })
+        // Null values are left out, as in the JSON body.
+        assertEquals("a1616201", hex { it.value(linkedMapOf("a" to null, "b" to 1)) })
+    }
+}
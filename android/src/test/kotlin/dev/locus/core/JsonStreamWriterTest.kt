@@ -0,0 +1,92 @@
+package dev.locus.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.StringWriter
+import java.util.zip.GZIPInputStream
+
+class JsonStreamWriterTest {
+
+    private fun encode(block: (JsonStreamWriter) -> Unit): String {
+        val out = StringWriter()
+        JsonStreamWriter(out).also(block).flush()
+        return out.toString()
+    }
+
+    private fun batch(count: Int): (JsonStreamWriter) -> Unit = { writer ->
+        writer.beginObject().name("locations").beginArray()
+        repeat(count) { i ->
+            writer.value(mapOf("uuid" to "id-$i", "coords" to mapOf("latitude" to 52.5 + i * 1e-5, "accuracy" to 5.0)))
+        }
+        writer.endArray().endObject()
+    }
+
+    @Test
+    fun `nested values are written like org json`() {
+        val json = encode {
+            it.value(
+                linkedMapOf(
+                    "a" to listOf(1, 2.5, 3.0, true, null),
+                    "b" to mapOf("c" to "d"),
+                    "e" to emptyList<Any>(),
+                    "f" to Double.NaN,
+                    "g" to 7L,
+                ),
+            )
+        }
+        assertEquals("""{"a":[1,2.5,3,true,null],"b":{"c":"d"},"e":[],"f":null,"g":7}""", json)
+    }
+
+    @Test
+    fun `null map values are left out like org json`() {
+        // JSONObject(map) drops null entries; nulls inside arrays stay.
+        val json = encode { it.value(linkedMapOf("a" to null, "b" to listOf(null), "c" to mapOf("d" to null))) }
+        assertEquals("""{"b":[null],"c":{}}""", json)
+    }
+
+    @Test
+    fun `strings are escaped`() {
+        val json = encode { it.value("q\"b\\n\n\t\u0001\u2028é") }
+        assertEquals("\"q\\\"b\\\\n\\n\\t\\u0001\\u2028é\"", json)
+    }
+
+    @Test
+    fun `raw values and names interleave with commas`() {
+        val json = encode {
+            it.beginObject().name("x").rawValue("""{"y":1}""").name("z").value("w").endObject()
+        }
+        assertEquals("""{"x":{"y":1},"z":"w"}""", json)
+    }
+
+    @Test
+    fun `a small body is probed completely`() {
+        val probe = StreamingJsonBody.probe(16 * 1024, batch(2))
+        assertTrue(probe.complete)
+        assertEquals(encode(batch(2)), probe.bytes.toString(Charsets.UTF_8))
+    }
+
+    @Test
+    fun `a large body stops at the probe limit`() {
+        val probe = StreamingJsonBody.probe(1024, batch(500))
+        assertFalse(probe.complete)
+        assertEquals(1024, probe.bytes.size)
+        assertTrue(encode(batch(500)).startsWith(probe.bytes.toString(Charsets.UTF_8)))
+    }
+
+    @Test
+    fun `streamed gzip body decodes to the same json on every write`() {
+        val body = StreamingJsonBody(gzip = true, encode = batch(500))
+        val expected = encode(batch(500))
+        repeat(2) {
+            val out = ByteArrayOutputStream()
+            body.writeTo(out)
+            val decoded = GZIPInputStream(ByteArrayInputStream(out.toByteArray())).readBytes()
+            assertEquals(expected, decoded.toString(Charsets.UTF_8))
+        }
+        assertEquals(-1L, body.contentLength)
+    }
+}
@@ -0,0 +1,139 @@
+package dev.locus.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+class LocationBatchCborTest {
+
+    /** Decodes the subset of CBOR [CborWriter] produces. */
+    private class Decoder(private val bytes: ByteArray) {
+        private var position = 0
+
+        fun read(): Any? {
+            val initial = bytes[position++].toInt() and 0xFF
+            val major = initial shr 5
+            val info = initial and 0x1F
+            if (major == 7) {
+                return when (initial) {
+                    0xF4 -> false
+                    0xF5 -> true
+                    0xF6 -> null
+                    0xFA -> java.lang.Float.intBitsToFloat(argument(26).toInt()).toDouble()
+                    0xFB -> java.lang.Double.longBitsToDouble(argument(27))
+                    else -> error("simple value $initial")
+                }
+            }
+            val argument = argument(info)
+            return when (major) {
+                0 -> argument
+                1 -> -1L - argument
+                2 -> bytes.copyOfRange(position, position + argument.toInt()).also { position += argument.toInt() }
+                3 -> String(bytes, position, argument.toInt(), Charsets.UTF_8).also { position += argument.toInt() }
+                4 -> (0 until argument).map { read() }
+                5 -> (0 until argument).associate { read() as String to read() }
+                else -> error("major $major")
+            }
+        }
+
+        private fun argument(info: Int): Long {
+            val size = when (info) {
+                in 0..23 -> return info.toLong()
+                24 -> 1
+                25 -> 2
+                26 -> 4
+                27 -> 8
+                else -> error("info $info")
+            }
+            var value = 0L
+            repeat(size) { value = (value shl 8) or (bytes[position++].toLong() and 0xFF) }
+            return value
+        }
+    }
+
+    private fun point(uuid: String, timestamp: String, lat: Double, lon: Double, extras: Map<String, Any>) = mapOf(
+        "uuid" to uuid,
+        "timestamp" to timestamp,
+        "coords" to mapOf(
+            "latitude" to lat,
+            "longitude" to lon,
+            "accuracy" to 4.5,
+            "speed" to 1.25,
+            "heading" to 90.0,
+            "altitude" to null,
+        ),
+        "is_moving" to true,
+        "extras" to extras,
+    )
+
+    private fun encode(
+        payloads: List<Map<String, Any>>,
+        extras: Map<String, Any> = emptyMap(),
+        params: Map<String, Any> = emptyMap(),
+    ): Map<*, *> {
+        val out = ByteArrayOutputStream()
+        LocationBatchCbor.write(CborWriter(out), "locations", payloads, extras, params)
+        return Decoder(out.toByteArray()).read() as Map<*, *>
+    }
+
+    @Test
+    fun `points are positional and delta coded`() {
+        val context = mapOf("taskId" to "t-1")
+        val body = encode(
+            listOf(
+                point("550e8400-e29b-41d4-a716-446655440000", "2024-01-07T10:30:00Z", 37.774900, -122.419400, context),
+                point("not-a-uuid", "2024-01-07T10:30:05.250Z", 37.774950, -122.419350, context),
+            ),
+        )
+
+        val batch = body["locations"] as Map<*, *>
+        assertEquals(1L, batch["v"])
+        val (first, second) = batch["points"] as List<*>
+        first as List<*>
+        second as List<*>
+
+        val uuid = ByteBuffer.wrap(first[0] as ByteArray)
+        assertEquals(0x550e8400e29b41d4L, uuid.long)
+        assertEquals(1704623400000L, first[1])
+        assertEquals(37774900L, first[2])
+        assertEquals(-122419400L, first[3])
+        assertEquals(45L, first[4])
+        assertEquals(125L, first[5])
+        assertEquals(900L, first[6])
+        assertNull(first[7])
+        assertEquals(mapOf("is_moving" to true, "extras" to context), first[8])
+
+        assertEquals("not-a-uuid", second[0])
+        assertEquals(5250L, second[1])
+        assertEquals(50L, second[2])
+        assertEquals(50L, second[3])
+        assertEquals(true, second[8])
+    }
+
+    @Test
+    fun `envelope keeps extras and lets params win`() {
+        val body = encode(
+            listOf(point("a", "2024-01-07T10:30:00Z", 1.0, 2.0, emptyMap())),
+            extras = mapOf("deviceId" to "d-1", "shared" to "extra", "locations" to "dropped"),
+            params = mapOf("shared" to "param"),
+        )
+
+        assertEquals(setOf("deviceId", "shared", "locations"), body.keys)
+        assertEquals("d-1", body["deviceId"])
+        assertEquals("param", body["shared"])
+        assertTrue(body["locations"] is Map<*, *>)
+    }
+
+    @Test
+    fun `a param named like the root property replaces the batch`() {
+        val body = encode(
+            listOf(point("a", "2024-01-07T10:30:00Z", 1.0, 2.0, emptyMap())),
+            params = mapOf("locations" to "override"),
+        )
+
+        assertEquals(mapOf("locations" to "override"), body)
+    }
+}
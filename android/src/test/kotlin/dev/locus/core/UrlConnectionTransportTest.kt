@@ -0,0 +1,95 @@
+package dev.locus.core
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.net.InetSocketAddress
+import java.util.Collections
+
+class UrlConnectionTransportTest {
+
+    /** A local HTTP/1.1 server; records what it received. */
+    private class MockServer {
+        val server: HttpServer = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        val clientPorts: MutableSet<Int> = Collections.synchronizedSet(mutableSetOf())
+        val receivedBodies: MutableList<String> = Collections.synchronizedList(mutableListOf())
+        val receivedHeaders: MutableList<String?> = Collections.synchronizedList(mutableListOf())
+
+        init {
+            server.createContext("/sync") { exchange ->
+                clientPorts.add(exchange.remoteAddress.port)
+                receivedBodies.add(exchange.requestBody.readBytes().toString(Charsets.UTF_8))
+                receivedHeaders.add(exchange.requestHeaders.getFirst("X-Test"))
+                val body = """{"ok":true}""".toByteArray()
+                exchange.sendResponseHeaders(200, body.size.toLong())
+                exchange.responseBody.use { it.write(body) }
+            }
+            server.createContext("/error") { exchange ->
+                clientPorts.add(exchange.remoteAddress.port)
+                exchange.requestBody.readBytes()
+                exchange.sendResponseHeaders(503, 0)
+                exchange.responseBody.use { output ->
+                    output.write("first,".toByteArray())
+                    output.flush()
+                    output.write("second".toByteArray())
+                }
+            }
+            server.start()
+        }
+
+        fun request(path: String, body: SyncTransport.Body = SyncTransport.BytesBody("{}".toByteArray())) =
+            SyncTransport.Request(
+                url = "http://127.0.0.1:${server.address.port}$path",
+                method = "POST",
+                headers = mapOf("Content-Type" to "application/json", "X-Test" to "yes"),
+                body = body,
+                connectTimeoutMs = 5_000,
+                readTimeoutMs = 5_000,
+            )
+    }
+
+    private fun withServer(block: (MockServer, UrlConnectionTransport) -> Unit) {
+        val server = MockServer()
+        try {
+            block(server, UrlConnectionTransport())
+        } finally {
+            server.server.stop(0)
+        }
+    }
+
+    @Test
+    fun `consecutive requests reuse one connection`() = withServer { server, transport ->
+        val first = transport.execute(server.request("/sync", SyncTransport.BytesBody("""{"n":1}""".toByteArray())))
+        val second = transport.execute(server.request("/sync", SyncTransport.BytesBody("""{"n":2}""".toByteArray())))
+
+        assertEquals(200, first.status)
+        assertEquals("""{"ok":true}""", second.body)
+        assertEquals(1, server.clientPorts.size)
+        assertEquals(listOf("""{"n":1}""", """{"n":2}"""), server.receivedBodies.toList())
+        assertEquals(listOf("yes", "yes"), server.receivedHeaders.toList())
+        assertNull(second.timing.reusedConnection)
+    }
+
+    @Test
+    fun `error bodies are read and keep the connection`() = withServer { server, transport ->
+        val failed = transport.execute(server.request("/error"))
+        assertEquals(503, failed.status)
+        assertEquals("first,second", failed.body)
+
+        assertEquals(200, transport.execute(server.request("/sync")).status)
+        assertEquals(1, server.clientPorts.size)
+    }
+
+    @Test
+    fun `bodies of unknown length are sent chunked`() = withServer { server, transport ->
+        val json = "[" + (0 until 5_000).joinToString(",") + "]"
+        val body = object : SyncTransport.Body {
+            override val contentLength = -1L
+            override fun writeTo(out: java.io.OutputStream) = out.write(json.toByteArray())
+        }
+
+        assertEquals(200, transport.execute(server.request("/sync", body)).status)
+        assertEquals(json, server.receivedBodies.single())
+    }
+}
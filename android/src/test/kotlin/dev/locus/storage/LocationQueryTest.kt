@@ -0,0 +1,134 @@
+package dev.locus.storage
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Pins the channel contract of the native query: how the Dart map is
+ * parsed, the SQL it compiles to, and that the in-memory predicate used
+ * for archived rows agrees with it (including `LocationQuery.apply`'s
+ * inverted-sounding accuracy names).
+ */
+class LocationQueryTest {
+
+    @Test
+    fun `empty map is an unfiltered newest-first query`() {
+        val query = LocationQuery.fromMap(emptyMap<String, Any>())
+        assertEquals("", query.whereClause().first)
+        assertEquals(0, query.whereClause().second.size)
+        assertEquals("timestamp DESC, id DESC", query.orderBy())
+        assertNull(query.limit)
+        assertEquals(0, query.offset)
+    }
+
+    @Test
+    fun `compiles every filter into bound parameters`() {
+        val query = LocationQuery.fromMap(
+            mapOf(
+                "from" to 1_000L,
+                "to" to 2_000L,
+                "minAccuracy" to 20.0,
+                "maxAccuracy" to 5,
+                "isMoving" to true,
+                "bounds" to mapOf("south" to 1.0, "west" to 2.0, "north" to 3.0, "east" to 4.0),
+                "limit" to 10,
+                "offset" to 5,
+                "sortOrder" to "oldestFirst",
+            )
+        )
+        val (where, args) = query.whereClause()
+        assertEquals(
+            "timestamp >= ? AND timestamp <= ? AND accuracy <= ? AND accuracy >= ? AND is_moving = ? AND " +
+                "latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?",
+            where
+        )
+        assertArrayEquals(arrayOf("1000", "2000", "20.0", "5.0", "1", "1.0", "3.0", "2.0", "4.0"), args)
+        assertEquals("timestamp ASC, id ASC", query.orderBy())
+        assertEquals(10, query.limit)
+        assertEquals(5, query.offset)
+    }
+
+    @Test
+    fun `ignores incomplete bounds and negative paging`() {
+        val query = LocationQuery.fromMap(
+            mapOf("bounds" to mapOf("south" to 1.0), "limit" to -1, "offset" to -3)
+        )
+        assertNull(query.bounds)
+        assertNull(query.limit)
+        assertEquals(0, query.offset)
+    }
+
+    @Test
+    fun `matches agrees with the compiled filters`() {
+        val query = LocationQuery(
+            fromMs = 1_000L,
+            toMs = 2_000L,
+            minAccuracy = 20.0,
+            isMoving = true,
+            bounds = LocationQuery.Bounds(south = 1.0, west = 2.0, north = 3.0, east = 4.0),
+        )
+        assertTrue(query.matches(1_000L, 20.0, true, 1.0, 4.0))
+        assertFalse(query.matches(999L, 10.0, true, 2.0, 3.0))
+        assertFalse(query.matches(2_001L, 10.0, true, 2.0, 3.0))
+        assertFalse(query.matches(1_500L, 20.5, true, 2.0, 3.0))
+        assertFalse(query.matches(1_500L, 10.0, false, 2.0, 3.0))
+        assertFalse(query.matches(1_500L, 10.0, true, 3.5, 3.0))
+    }
+
+    @Test
+    fun `near parses its circle and rejects a non-positive radius`() {
+        val query = LocationQuery.fromMap(
+            mapOf("near" to mapOf("latitude" to 59.33, "longitude" to 18.07, "radius" to 250))
+        )
+        assertEquals(LocationQuery.Near(59.33, 18.07, 250.0), query.near)
+        assertTrue(query.needsPostFilter)
+        assertNull(LocationQuery.parseNear(mapOf("latitude" to 1.0, "longitude" to 2.0, "radius" to 0)))
+    }
+
+    @Test
+    fun `near bounding box contains the circle`() {
+        val near = LocationQuery.Near(59.33, 18.07, 1_000.0)
+        val box = near.boundingBox()
+        // ~1 km is ~0.009° of latitude and ~0.0176° of longitude at 59°N.
+        assertEquals(59.321, box.south, 0.001)
+        assertEquals(59.339, box.north, 0.001)
+        assertEquals(18.052, box.west, 0.001)
+        assertEquals(18.088, box.east, 0.001)
+        assertTrue(near.distanceTo(box.north, 18.07) <= 1_000.5)
+    }
+
+    @Test
+    fun `near bounding box drops longitude across the antimeridian and poles`() {
+        val east = LocationQuery.Near(0.0, 179.999, 5_000.0).boundingBox()
+        assertEquals(-180.0, east.west, 0.0)
+        assertEquals(180.0, east.east, 0.0)
+        val polar = LocationQuery.Near(89.99, 0.0, 5_000.0).boundingBox()
+        assertEquals(90.0, polar.north, 0.0)
+        assertEquals(-180.0, polar.west, 0.0)
+    }
+
+    @Test
+    fun `near filters by haversine distance, not the box corners`() {
+        val query = LocationQuery(near = LocationQuery.Near(0.0, 0.0, 1_000.0))
+        val box = query.near!!.boundingBox()
+        assertTrue(query.matches(0L, 0.0, false, 0.0, 0.0))
+        assertTrue(query.matches(0L, 0.0, false, box.north - 1e-6, 0.0))
+        assertFalse(query.matches(0L, 0.0, false, box.north - 1e-6, box.east - 1e-6))
+    }
+
+    @Test
+    fun `spatial index narrows through the rtree before the exact column test`() {
+        val query = LocationQuery(bounds = LocationQuery.Bounds(1.0, 2.0, 3.0, 4.0))
+        val (where, args) = query.whereClause(spatialIndex = true)
+        assertEquals(
+            "id IN (SELECT id FROM locations_rtree WHERE max_lat >= ? AND min_lat <= ? AND max_lng >= ? AND min_lng <= ?) " +
+                "AND latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?",
+            where
+        )
+        assertArrayEquals(arrayOf("1.0", "3.0", "2.0", "4.0", "1.0", "3.0", "2.0", "4.0"), args)
+    }
+}
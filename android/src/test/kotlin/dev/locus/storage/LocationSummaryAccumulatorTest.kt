@@ -0,0 +1,77 @@
+package dev.locus.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Pins the native summary to the Dart `LocationHistoryCalculator`
+ * semantics it mirrors.
+ */
+class LocationSummaryAccumulatorTest {
+
+    @Test
+    fun `empty history yields a zero summary`() {
+        val summary = LocationSummaryAccumulator().toMap()
+        assertEquals(0, summary["locationCount"])
+        assertEquals(0.0, summary["totalDistanceMeters"] as Double, 0.0)
+        assertEquals(0L, summary["movingDurationMs"])
+        assertFalse(summary.containsKey("periodStart"))
+        assertFalse(summary.containsKey("averageAccuracyMeters"))
+        assertEquals(emptyList<Any>(), summary["frequentLocations"])
+    }
+
+    @Test
+    fun `accumulates distance, durations and period`() {
+        val summary = LocationSummaryAccumulator().apply {
+            // 0.001° of latitude is ~111.2 m.
+            add(0L, 37.000, -122.0, 5.0, 0.0, isMoving = false)
+            add(60_000L, 37.001, -122.0, 15.0, 2.0, isMoving = true)
+            add(120_000L, 37.002, -122.0, 10.0, 4.0, isMoving = false)
+            add(300_000L, 37.002, -122.0, 10.0, 0.0, isMoving = false)
+        }.toMap()
+
+        assertEquals(4, summary["locationCount"])
+        assertEquals(222.4, summary["totalDistanceMeters"] as Double, 0.5)
+        // Both intervals touching the moving fix count as moving.
+        assertEquals(120_000L, summary["movingDurationMs"])
+        assertEquals(180_000L, summary["stationaryDurationMs"])
+        assertEquals(0L, summary["periodStart"])
+        assertEquals(300_000L, summary["periodEnd"])
+        assertEquals(10.0, summary["averageAccuracyMeters"] as Double, 1e-9)
+        assertEquals(3.0, summary["averageSpeedMps"] as Double, 1e-9)
+        assertEquals(4.0, summary["maxSpeedMps"] as Double, 1e-9)
+    }
+
+    @Test
+    fun `clusters stationary fixes into frequent locations`() {
+        val summary = LocationSummaryAccumulator().apply {
+            add(0L, 37.0000, -122.0, 5.0, 0.0, isMoving = false)
+            add(60_000L, 37.0001, -122.0, 5.0, 0.0, isMoving = false)
+            add(120_000L, 37.0002, -122.0, 5.0, 0.0, isMoving = false)
+            add(180_000L, 37.0500, -122.0, 5.0, 10.0, isMoving = true)
+            add(240_000L, 37.1000, -122.0, 5.0, 0.0, isMoving = false)
+            add(300_000L, 37.1000, -122.0, 5.0, 0.0, isMoving = false)
+        }.toMap()
+
+        @Suppress("UNCHECKED_CAST")
+        val frequent = summary["frequentLocations"] as List<Map<String, Any>>
+        assertEquals(2, frequent.size)
+        assertEquals(3, frequent[0]["visitCount"])
+        assertEquals(120_000L, frequent[0]["totalDurationMs"])
+        val center = frequent[0]["center"] as Map<*, *>
+        assertEquals(37.0001, center["latitude"] as Double, 1e-9)
+        assertEquals(2, frequent[1]["visitCount"])
+    }
+
+    @Test
+    fun `ignores a lone stationary fix for clustering`() {
+        val summary = LocationSummaryAccumulator().apply {
+            add(0L, 37.0, -122.0, 5.0, 3.0, isMoving = true)
+            add(1_000L, 37.0001, -122.0, 5.0, 3.0, isMoving = true)
+            add(2_000L, 37.0002, -122.0, 5.0, 0.0, isMoving = false)
+        }.toMap()
+        assertTrue((summary["frequentLocations"] as List<*>).isEmpty())
+    }
+}
@@ -0,0 +1,80 @@
+package dev.locus.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+class LogRingBufferTest {
+
+    @Test
+    fun `rounds capacity up to a power of two`() {
+        assertEquals(8, LogRingBuffer<String>(5).capacity)
+        assertEquals(1024, LogRingBuffer<String>(1024).capacity)
+    }
+
+    @Test
+    fun `polls in insertion order across wrap-around`() {
+        val buffer = LogRingBuffer<Int>(4)
+        repeat(3) { round ->
+            for (i in 0 until 4) assertTrue(buffer.offer(round * 10 + i))
+            for (i in 0 until 4) assertEquals(round * 10 + i, buffer.poll())
+            assertNull(buffer.poll())
+        }
+    }
+
+    @Test
+    fun `rejects and counts offers when full`() {
+        val buffer = LogRingBuffer<Int>(4)
+        for (i in 0 until 4) buffer.offer(i)
+        assertFalse(buffer.offer(99))
+        assertFalse(buffer.offer(100))
+        assertEquals(2L, buffer.dropped)
+        assertEquals(4, buffer.pending)
+
+        val drained = mutableListOf<Int>()
+        assertEquals(3, buffer.drainTo(drained, 3))
+        assertEquals(listOf(0, 1, 2), drained)
+        assertTrue(buffer.offer(4))
+        assertEquals(2, buffer.drainTo(drained, 10))
+        assertEquals(listOf(0, 1, 2, 3, 4), drained)
+    }
+
+    @Test
+    fun `concurrent producers neither lose nor duplicate items`() {
+        val buffer = LogRingBuffer<Int>(256)
+        val producers = 4
+        val perProducer = 10_000
+        val start = CountDownLatch(1)
+        val received = Collections.synchronizedList(mutableListOf<Int>())
+        val threads = (0 until producers).map { p ->
+            thread {
+                start.await()
+                for (i in 0 until perProducer) {
+                    while (!buffer.offer(p * perProducer + i)) Thread.yield()
+                }
+            }
+        }
+        val consumer = thread {
+            start.await()
+            while (received.size < producers * perProducer) {
+                buffer.poll()?.let { received.add(it) } ?: Thread.yield()
+            }
+        }
+        start.countDown()
+        threads.forEach { it.join() }
+        consumer.join(10_000)
+
+        assertEquals(producers * perProducer, received.size)
+        assertEquals(producers * perProducer, received.toSet().size)
+        // Each producer's items arrive in the order it offered them.
+        for (p in 0 until producers) {
+            val own = received.filter { it / perProducer == p }
+            assertEquals(own.sorted(), own)
+        }
+    }
+}
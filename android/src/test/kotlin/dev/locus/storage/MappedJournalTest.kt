@@ -0,0 +1,126 @@
+package dev.locus.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+
+class MappedJournalTest {
+
+    private fun withDirectory(block: (File) -> Unit) {
+        val directory = Files.createTempDirectory("journal").toFile()
+        try {
+            block(directory)
+        } finally {
+            directory.deleteRecursively()
+        }
+    }
+
+    private fun MappedJournal.appendValue(value: Long): Long = append { buffer, offset -> buffer.putLong(offset, value) }
+
+    private fun MappedJournal.values(): List<Pair<Long, Long>> {
+        val values = mutableListOf<Pair<Long, Long>>()
+        forEach { id, buffer, offset ->
+            values.add(id to buffer.getLong(offset))
+            true
+        }
+        return values
+    }
+
+    @Test
+    fun `records and ids survive reopening`() = withDirectory { directory ->
+        val journal = MappedJournal(directory, recordsPerSegment = 4)
+        val ids = (0 until 6).map { journal.appendValue(100L + it) }
+        val instanceId = journal.instanceId
+        journal.close()
+
+        val reopened = MappedJournal(directory, recordsPerSegment = 4)
+        assertEquals(ids.zip((0 until 6).map { 100L + it }), reopened.values())
+        assertEquals(instanceId, reopened.instanceId)
+        assertEquals(6L, reopened.appendValue(106))
+    }
+
+    @Test
+    fun `a torn record past the checkpoint ends the data`() = withDirectory { directory ->
+        val journal = MappedJournal(directory, recordsPerSegment = 8)
+        journal.appendValue(1)
+        journal.checkpoint()
+        journal.appendValue(2)
+        journal.appendValue(3)
+        journal.sync()
+
+        // Damage the payload of record 1 as a torn write would.
+        RandomAccessFile(File(directory, "segment-0"), "rw").use { raf ->
+            raf.seek(MappedJournal.RECORD_SIZE.toLong())
+            raf.write(byteArrayOf(0x7F))
+        }
+
+        val reopened = MappedJournal(directory, recordsPerSegment = 8)
+        assertEquals(listOf(0L to 1L), reopened.values())
+        assertEquals(1L, reopened.appendValue(4))
+    }
+
+    @Test
+    fun `fully acknowledged segments are compacted`() = withDirectory { directory ->
+        val journal = MappedJournal(directory, recordsPerSegment = 4)
+        repeat(10) { journal.appendValue(it.toLong()) }
+        assertEquals(3, journal.segmentCount)
+
+        assertEquals(3, journal.ack(listOf(0L, 2L, 3L)))
+        assertEquals(3, journal.segmentCount)
+        assertEquals(1L, journal.head)
+
+        assertEquals(1, journal.ack(listOf(1L, 1L)))
+        assertEquals(2, journal.segmentCount)
+        assertFalse(File(directory, "segment-0").exists())
+        assertEquals(4L, journal.head)
+        assertEquals(6, journal.liveCount)
+    }
+
+    @Test
+    fun `acknowledgements survive reopening`() = withDirectory { directory ->
+        val journal = MappedJournal(directory, recordsPerSegment = 4)
+        repeat(6) { journal.appendValue(it.toLong()) }
+        journal.ack(listOf(4L, 1L))
+        journal.close()
+
+        val reopened = MappedJournal(directory, recordsPerSegment = 4)
+        assertEquals(listOf(0L, 2L, 3L, 5L), reopened.values().map { it.first })
+        assertEquals(4, reopened.liveCount)
+    }
+
+    @Test
+    fun `an ack doesn't vouch for unsynced appends in a later segment`() = withDirectory { directory ->
+        val journal = MappedJournal(directory, recordsPerSegment = 4)
+        repeat(4) { journal.appendValue(it.toLong()) }
+        // Rolling forces segment 0; these three are never synced.
+        repeat(3) { journal.appendValue(10L + it) }
+        assertEquals(4, journal.ack(listOf(0L, 1L, 2L, 3L)))
+
+        // Power loss: the unsynced pages never reached the file.
+        RandomAccessFile(File(directory, "segment-1"), "rw").use { raf ->
+            raf.seek(0)
+            raf.write(ByteArray(3 * MappedJournal.RECORD_SIZE))
+        }
+
+        val reopened = MappedJournal(directory, recordsPerSegment = 4)
+        assertTrue(reopened.values().isEmpty())
+        assertEquals(0, reopened.liveCount)
+        assertEquals(4L, reopened.appendValue(20))
+    }
+
+    @Test
+    fun `clear keeps ids increasing`() = withDirectory { directory ->
+        val journal = MappedJournal(directory, recordsPerSegment = 4)
+        repeat(5) { journal.appendValue(it.toLong()) }
+        journal.clear()
+        assertTrue(journal.values().isEmpty())
+        assertEquals(8L, journal.appendValue(9))
+        journal.close()
+
+        assertEquals(listOf(8L to 9L), MappedJournal(directory, recordsPerSegment = 4).values())
+    }
+}
@@ -0,0 +1,67 @@
+package dev.locus.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Pins what `enqueue` does with an idempotency key that is already
+ * queued: a plain enqueue dedupes, a coalescing one replaces the row in
+ * its generation, and one replacing a row already on the wire moves to the
+ * next generation so the server can't dedupe the newer payload away.
+ */
+class QueueKeysTest {
+
+    private val notInFlight: (String) -> Boolean = { false }
+
+    @Test
+    fun `a new key is inserted`() {
+        assertEquals(QueueKeys.Plan.Insert, QueueKeys.plan(null, coalesce = false, inFlight = notInFlight))
+        assertEquals(QueueKeys.Plan.Insert, QueueKeys.plan(null, coalesce = true, inFlight = notInFlight))
+    }
+
+    @Test
+    fun `a queued key dedupes without coalesce`() {
+        val existing = QueueKeys.Existing("row-1", QueueKeys.FIRST_GENERATION)
+        assertEquals(
+            QueueKeys.Plan.Dedupe("row-1"),
+            QueueKeys.plan(existing, coalesce = false, inFlight = { true }),
+        )
+    }
+
+    @Test
+    fun `coalescing a queued row keeps its generation`() {
+        val existing = QueueKeys.Existing("row-1", QueueKeys.FIRST_GENERATION)
+        assertEquals(
+            QueueKeys.Plan.Replace("row-1", QueueKeys.FIRST_GENERATION),
+            QueueKeys.plan(existing, coalesce = true, inFlight = notInFlight),
+        )
+    }
+
+    @Test
+    fun `coalescing an in-flight row takes the next generation`() {
+        val inFlight = setOf("row-1", "row-2")
+        assertEquals(
+            QueueKeys.Plan.Replace("row-1", 2),
+            QueueKeys.plan(QueueKeys.Existing("row-1", 1), coalesce = true, inFlight = inFlight::contains),
+        )
+        assertEquals(
+            QueueKeys.Plan.Replace("row-2", 3),
+            QueueKeys.plan(QueueKeys.Existing("row-2", 2), coalesce = true, inFlight = inFlight::contains),
+        )
+    }
+
+    @Test
+    fun `wire key carries generations after the first`() {
+        assertEquals("k", QueueKeys.wireKey("k", QueueKeys.FIRST_GENERATION))
+        assertEquals("k#2", QueueKeys.wireKey("k", 2))
+    }
+
+    @Test
+    fun `a host key containing hash digits is kept verbatim`() {
+        // "order#2" is its own key, not a generation of "order": its first
+        // generation goes out unchanged and its next one extends it.
+        assertEquals("order#2", QueueKeys.wireKey("order#2", QueueKeys.FIRST_GENERATION))
+        assertEquals("order#2#2", QueueKeys.wireKey("order#2", 2))
+        assertEquals(QueueKeys.Plan.Insert, QueueKeys.plan(null, coalesce = true, inFlight = notInFlight))
+    }
+}
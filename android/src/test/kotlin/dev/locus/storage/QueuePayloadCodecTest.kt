@@ -0,0 +1,36 @@
+package dev.locus.storage
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class QueuePayloadCodecTest {
+
+    @Test
+    fun `stores small payloads as identity`() {
+        val json = """{"event":"ping"}"""
+        val encoded = QueuePayloadCodec.encode(json)
+        assertEquals(QueuePayloadCodec.IDENTITY, encoded.encoding)
+        assertEquals(json, QueuePayloadCodec.decode(encoded.bytes, encoded.encoding))
+    }
+
+    @Test
+    fun `deflates repetitive payloads and round-trips them`() {
+        val json = (1..50).joinToString(",", "[", "]") { """{"sku":"ITEM-$it","qty":1,"status":"délivré"}""" }
+        val encoded = QueuePayloadCodec.encode(json)
+        assertEquals(QueuePayloadCodec.DEFLATE, encoded.encoding)
+        assertTrue(encoded.bytes.size < json.toByteArray().size / 2)
+        assertEquals(json, QueuePayloadCodec.decode(encoded.bytes, encoded.encoding))
+    }
+
+    @Test
+    fun `treats a missing encoding as identity`() {
+        val bytes = """{"a":1}""".toByteArray()
+        assertEquals("""{"a":1}""", QueuePayloadCodec.decode(bytes, null))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `rejects unknown encodings`() {
+        QueuePayloadCodec.decode(ByteArray(0), "br")
+    }
+}
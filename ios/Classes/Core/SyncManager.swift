@@ -364,6 +364,7 @@ class SyncManager {
         return [
             "pendingLocationCount": backlog.pendingLocationCount,
             "pendingBatchCount": backlog.pendingBatchCount,
+            "effectiveBatchSize": config.maxBatchSize,
             "isPaused": isSyncPaused,
             "quarantinedLocationCount": backlog.quarantinedLocationCount,
             "lastSuccessAt": readLastSuccessAt() as Any,
@@ -57,6 +57,56 @@ enum PersistMode {
   all,
 }
 
+/// How persisted locations are committed to the native database (Android).
+enum WriteDurability {
+  /// Commits every location in its own fully synced transaction. Nothing
+  /// stored is ever lost, at the cost of two fsyncs per fix.
+  full,
+
+  /// Buffers locations in memory and commits them together once
+  /// [Config.groupCommitInterval] elapses or [Config.groupCommitMaxRows]
+  /// rows are buffered. A process kill can lose the unflushed rows.
+  grouped,
+
+  /// Commits every location on its own with relaxed syncing. Survives app
+  /// crashes; the latest commits can be lost on power loss or an OS crash.
+  normal,
+}
+
+/// Which native backend persists locations (Android).
+enum LocationStorage {
+  /// SQLite, with the archive tier and spatial index. The default.
+  sqlite,
+
+  /// A memory-mapped append-only journal: each fix is a 64-byte record
+  /// copied into the page cache instead of a database transaction. Meant
+  /// for very high update rates over long offline stretches. No archive
+  /// tier; queries and summaries scan the journal.
+  journal,
+}
+
+/// HTTP client used for sync requests (Android).
+enum HttpTransport {
+  /// The platform's `HttpURLConnection`, with connections kept alive in its
+  /// pool between requests. The default.
+  pooled,
+
+  /// HTTP/2 through OkHttp, multiplexing concurrent requests over one
+  /// connection. Needs OkHttp 4 in the app; falls back to [pooled].
+  http2,
+}
+
+/// Wire format of location batch bodies (Android).
+enum BodyCodec {
+  /// The JSON envelope. The default.
+  json,
+
+  /// CBOR (`application/cbor`) with positional, delta-coded points; see
+  /// the HTTP sync guide for the schema. Falls back to [json] for an hour
+  /// after the server answers 415.
+  cbor,
+}
+
 /// Tracking profile for adaptive behavior.
 enum LocusProfile {
   /// Optimized for stationary or minimal movement scenarios.
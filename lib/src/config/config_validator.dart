@@ -4,6 +4,7 @@
 /// when configurations are invalid or suboptimal.
 library;
 
+import 'package:locus/src/config/config_enums.dart';
 import 'package:locus/src/config/geolocation_config.dart';
 
 /// Result of a configuration validation.
@@ -319,6 +320,68 @@ class ConfigValidator {
       }
     }
 
+    if (config.maxConcurrentSyncBatches != null) {
+      if (config.maxConcurrentSyncBatches! < 1) {
+        errors.add(const ConfigValidationError(
+          field: 'maxConcurrentSyncBatches',
+          message: 'maxConcurrentSyncBatches must be at least 1',
+          suggestion: 'Use 1 to send one batch at a time',
+          example: 'Config(maxConcurrentSyncBatches: 3)',
+        ));
+      } else if (config.maxConcurrentSyncBatches! > 4) {
+        warnings.add(const ConfigValidationWarning(
+          field: 'maxConcurrentSyncBatches',
+          message: 'At most 4 batches are sent concurrently',
+          suggestion: 'Values above 4 behave like 4',
+        ));
+      }
+    }
+
+    if (config.minBatchSize != null && config.minBatchSize! < 1) {
+      errors.add(const ConfigValidationError(
+        field: 'minBatchSize',
+        message: 'minBatchSize must be at least 1',
+        example: 'Config(adaptiveBatchSize: true, minBatchSize: 10)',
+      ));
+    }
+
+    final minBatchSize = config.minBatchSize ?? 10;
+    if (config.maxAdaptiveBatchSize != null &&
+        config.maxAdaptiveBatchSize! < minBatchSize) {
+      errors.add(const ConfigValidationError(
+        field: 'maxAdaptiveBatchSize',
+        message: 'maxAdaptiveBatchSize must not be below minBatchSize',
+        example: 'Config(adaptiveBatchSize: true, maxAdaptiveBatchSize: 500)',
+      ));
+    }
+
+    if (config.batchLatencyTarget != null) {
+      if (config.batchLatencyTarget! < 1) {
+        errors.add(const ConfigValidationError(
+          field: 'batchLatencyTarget',
+          message: 'batchLatencyTarget must be a positive number of '
+              'milliseconds',
+          example: 'Config(adaptiveBatchSize: true, batchLatencyTarget: 3000)',
+        ));
+      } else if (config.httpTimeout != null &&
+          config.batchLatencyTarget! >= config.httpTimeout!) {
+        warnings.add(const ConfigValidationWarning(
+          field: 'batchLatencyTarget',
+          message: 'batchLatencyTarget is not below httpTimeout',
+          suggestion: 'Batches time out before they count as slow; use a '
+              'target well under httpTimeout',
+        ));
+      }
+    }
+
+    if (config.bodyCodec == BodyCodec.cbor && config.batchSync != true) {
+      warnings.add(const ConfigValidationWarning(
+        field: 'bodyCodec',
+        message: 'bodyCodec only applies to location batches',
+        suggestion: 'Enable batchSync, or single locations are sent as JSON',
+      ));
+    }
+
     // Validate schedule format
     if (config.schedule != null && config.schedule!.isNotEmpty) {
       final schedulePattern = RegExp(r'^\d{2}:\d{2}-\d{2}:\d{2}$');
@@ -363,6 +426,60 @@ class ConfigValidator {
       ));
     }
 
+    if (config.maxBytesToPersist != null && config.maxBytesToPersist! < 0) {
+      errors.add(const ConfigValidationError(
+        field: 'maxBytesToPersist',
+        message: 'maxBytesToPersist cannot be negative',
+        suggestion: 'Use 0 to disable or a positive size in bytes',
+        example: 'Config(maxBytesToPersist: 50 * 1024 * 1024)',
+      ));
+    }
+
+    if (config.queueMaxBytes != null && config.queueMaxBytes! < 0) {
+      errors.add(const ConfigValidationError(
+        field: 'queueMaxBytes',
+        message: 'queueMaxBytes cannot be negative',
+        suggestion: 'Use 0 to disable or a positive size in bytes',
+        example: 'Config(queueMaxBytes: 10 * 1024 * 1024)',
+      ));
+    }
+
+    if (config.queueBatchSize != null && config.queueBatchSize! < 0) {
+      errors.add(const ConfigValidationError(
+        field: 'queueBatchSize',
+        message: 'queueBatchSize cannot be negative',
+        suggestion: 'Use 1 to send queued payloads one by one',
+        example: 'Config(queueBatchSize: 50)',
+      ));
+    }
+
+    if (config.groupCommitInterval != null && config.groupCommitInterval! < 0) {
+      errors.add(const ConfigValidationError(
+        field: 'groupCommitInterval',
+        message: 'groupCommitInterval cannot be negative',
+        suggestion: 'Use 0 for the default window or a positive value in ms',
+        example: 'Config(groupCommitInterval: 5000)',
+      ));
+    }
+
+    if (config.groupCommitMaxRows != null && config.groupCommitMaxRows! < 0) {
+      errors.add(const ConfigValidationError(
+        field: 'groupCommitMaxRows',
+        message: 'groupCommitMaxRows cannot be negative',
+        suggestion: 'Use 0 for the default or a positive row count',
+        example: 'Config(groupCommitMaxRows: 20)',
+      ));
+    }
+
+    if (config.archiveAfterHours != null && config.archiveAfterHours! < 0) {
+      errors.add(const ConfigValidationError(
+        field: 'archiveAfterHours',
+        message: 'archiveAfterHours cannot be negative',
+        suggestion: 'Use 0 to disable age-based archiving or a positive hour count',
+        example: 'Config(archiveAfterHours: 24)',
+      ));
+    }
+
     // Validate geofence configuration
     if (config.maxMonitoredGeofences != null &&
         config.maxMonitoredGeofences! < 0) {
@@ -99,6 +99,24 @@ class Config {
     this.lowBattery,
     this.spoofDetection,
     this.compressRequests = true,
+    this.writeDurability,
+    this.groupCommitInterval,
+    this.groupCommitMaxRows,
+    this.archiveSyncedLocations,
+    this.archiveAfterHours,
+    this.archiveCompression,
+    this.maxBytesToPersist,
+    this.queueMaxBytes,
+    this.queueBatchSize,
+    this.queueBatchByType,
+    this.locationStorage,
+    this.maxConcurrentSyncBatches,
+    this.httpTransport,
+    this.adaptiveBatchSize,
+    this.minBatchSize,
+    this.maxAdaptiveBatchSize,
+    this.batchLatencyTarget,
+    this.bodyCodec,
   });
 
   /// Creates a [Config] from a map representation.
@@ -233,6 +251,37 @@ class Config {
               Map<String, dynamic>.from(map['spoofDetection'] as Map))
           : null,
       compressRequests: map['compressRequests'] as bool? ?? true,
+      writeDurability: _parseEnum(
+        map['writeDurability'] as String?,
+        WriteDurability.values,
+      ),
+      groupCommitInterval: (map['groupCommitInterval'] as num?)?.toInt(),
+      groupCommitMaxRows: (map['groupCommitMaxRows'] as num?)?.toInt(),
+      archiveSyncedLocations: map['archiveSyncedLocations'] as bool?,
+      archiveAfterHours: (map['archiveAfterHours'] as num?)?.toInt(),
+      archiveCompression: map['archiveCompression'] as bool?,
+      maxBytesToPersist: (map['maxBytesToPersist'] as num?)?.toInt(),
+      queueMaxBytes: (map['queueMaxBytes'] as num?)?.toInt(),
+      queueBatchSize: (map['queueBatchSize'] as num?)?.toInt(),
+      queueBatchByType: map['queueBatchByType'] as bool?,
+      locationStorage: _parseEnum(
+        map['locationStorage'] as String?,
+        LocationStorage.values,
+      ),
+      maxConcurrentSyncBatches:
+          (map['maxConcurrentSyncBatches'] as num?)?.toInt(),
+      httpTransport: _parseEnum(
+        map['httpTransport'] as String?,
+        HttpTransport.values,
+      ),
+      adaptiveBatchSize: map['adaptiveBatchSize'] as bool?,
+      minBatchSize: (map['minBatchSize'] as num?)?.toInt(),
+      maxAdaptiveBatchSize: (map['maxAdaptiveBatchSize'] as num?)?.toInt(),
+      batchLatencyTarget: (map['batchLatencyTarget'] as num?)?.toInt(),
+      bodyCodec: _parseEnum(
+        map['bodyCodec'] as String?,
+        BodyCodec.values,
+      ),
     );
   }
 
@@ -494,6 +543,106 @@ class Config {
   /// JSON. The flag plumbs through to native via the existing config channel.
   final bool compressRequests;
 
+  /// How persisted locations are committed to the native database (Android).
+  ///
+  /// Defaults to [WriteDurability.full]. [WriteDurability.grouped] trades a
+  /// bounded loss window for far fewer disk syncs at high update rates.
+  final WriteDurability? writeDurability;
+
+  /// Maximum time in milliseconds a location waits in the group-commit buffer
+  /// when [writeDurability] is [WriteDurability.grouped]. Defaults to 5000.
+  final int? groupCommitInterval;
+
+  /// Number of buffered locations that triggers an immediate group commit
+  /// when [writeDurability] is [WriteDurability.grouped]. Defaults to 20.
+  final int? groupCommitMaxRows;
+
+  /// Seal locations acknowledged by the server into compact archive segments
+  /// instead of deleting them (Android). Archived locations stay readable via
+  /// `getLocations` until `maxDaysToPersist` expires them. Defaults to `false`.
+  final bool? archiveSyncedLocations;
+
+  /// Age in hours after which stored locations are sealed into the archive
+  /// even if they were never synced (Android). Sealed locations are no longer
+  /// uploaded. `0` or unset disables age-based archiving.
+  final int? archiveAfterHours;
+
+  /// Whether archive segments are deflate-compressed (Android). Defaults to
+  /// `true`; disable to trade disk space for cheaper sealing and reads.
+  final bool? archiveCompression;
+
+  /// Maximum size in bytes of stored locations, live and archived, before
+  /// the oldest are discarded (Android). Estimated from the location tables
+  /// alone; the queue and logs in the same database don't count. Enforced
+  /// by the background retention pass together with [maxDaysToPersist] and
+  /// [maxRecordsToPersist].
+  final int? maxBytesToPersist;
+
+  /// Maximum size in bytes of queued payloads before the oldest are
+  /// discarded (Android). Estimated from the queue table alone.
+  final int? queueMaxBytes;
+
+  /// Maximum number of queued payloads sent in one request (Android).
+  /// `1` or unset sends one request per payload. Above `1`, due payloads are
+  /// sent together as an `items` array, each entry carrying its `queueId`
+  /// and `idempotencyKey`; see [queueBatchByType]. A 2xx response may
+  /// acknowledge entries one by one with
+  /// `{"results": [{"queueId": "...", "ok": true}]}`; entries it reports as
+  /// failed or leaves out are retried. Without `results`, a 2xx
+  /// acknowledges the whole batch.
+  final int? queueBatchSize;
+
+  /// Whether a queue batch only groups payloads of the same `type`
+  /// (Android). The shared type is then also sent at the top level of the
+  /// body. Has no effect unless [queueBatchSize] is above `1`.
+  final bool? queueBatchByType;
+
+  /// Which native backend persists locations (Android).
+  ///
+  /// Defaults to [LocationStorage.sqlite]. Switching moves unsynced
+  /// locations to the new backend; archived locations stay in SQLite.
+  final LocationStorage? locationStorage;
+
+  /// How many location batches may be in flight at once (Android), each
+  /// from a different route context (`ownerId`/`driverId`/`taskId`/
+  /// `trackingSessionId`/`startedAt` in the extras). A context never has
+  /// two batches out, so its locations still arrive oldest first, and a
+  /// context backing off after a failure doesn't hold up the others.
+  /// Unset or `1` sends one batch at a time. Capped at `4`.
+  final int? maxConcurrentSyncBatches;
+
+  /// Which HTTP client carries sync requests (Android). Defaults to
+  /// [HttpTransport.pooled], the platform's `HttpURLConnection` with
+  /// connections kept alive between syncs.
+  /// [HttpTransport.http2] multiplexes over HTTP/2 and needs OkHttp 4 in the
+  /// app; without it the pooled client is used.
+  final HttpTransport? httpTransport;
+
+  /// Sizes location batches from how recent ones went (Android). A full
+  /// batch acknowledged within [batchLatencyTarget] adds 10 locations to
+  /// the next; a slower one takes a quarter off; a timeout, 408, 413 or
+  /// 5xx halves it. Starts at [maxBatchSize] and stays between
+  /// [minBatchSize] and [maxAdaptiveBatchSize]. The current size is
+  /// reported as `LocationSyncBacklog.effectiveBatchSize`.
+  final bool? adaptiveBatchSize;
+
+  /// Smallest batch [adaptiveBatchSize] shrinks to. Defaults to `10`.
+  final int? minBatchSize;
+
+  /// Largest batch [adaptiveBatchSize] grows to. Defaults to `500`.
+  final int? maxAdaptiveBatchSize;
+
+  /// Round-trip time in milliseconds a batch must finish within for
+  /// [adaptiveBatchSize] to grow the next one. Defaults to `3000`.
+  final int? batchLatencyTarget;
+
+  /// Wire format for location batches (Android, batch sync). [BodyCodec.cbor]
+  /// sends a compact CBOR body with integer microdegrees and delta-coded
+  /// timestamps as `application/cbor`, overriding a `Content-Type` in
+  /// [headers]. A 415 response switches batches back to JSON for an hour.
+  /// Batches built by a sync body builder are always JSON. Unset sends JSON.
+  final BodyCodec? bodyCodec;
+
   /// Creates a copy of this [Config] with optionally modified fields.
   ///
   /// Returns a new [Config] instance with the specified fields updated
@@ -578,6 +727,24 @@ class Config {
     LowBatteryConfig? lowBattery,
     SpoofDetectionConfig? spoofDetection,
     bool? compressRequests,
+    WriteDurability? writeDurability,
+    int? groupCommitInterval,
+    int? groupCommitMaxRows,
+    bool? archiveSyncedLocations,
+    int? archiveAfterHours,
+    bool? archiveCompression,
+    int? maxBytesToPersist,
+    int? queueMaxBytes,
+    int? queueBatchSize,
+    bool? queueBatchByType,
+    LocationStorage? locationStorage,
+    int? maxConcurrentSyncBatches,
+    HttpTransport? httpTransport,
+    bool? adaptiveBatchSize,
+    int? minBatchSize,
+    int? maxAdaptiveBatchSize,
+    int? batchLatencyTarget,
+    BodyCodec? bodyCodec,
   }) {
     return Config(
       desiredAccuracy: desiredAccuracy ?? this.desiredAccuracy,
@@ -687,6 +854,26 @@ class Config {
       lowBattery: lowBattery ?? this.lowBattery,
       spoofDetection: spoofDetection ?? this.spoofDetection,
       compressRequests: compressRequests ?? this.compressRequests,
+      writeDurability: writeDurability ?? this.writeDurability,
+      groupCommitInterval: groupCommitInterval ?? this.groupCommitInterval,
+      groupCommitMaxRows: groupCommitMaxRows ?? this.groupCommitMaxRows,
+      archiveSyncedLocations:
+          archiveSyncedLocations ?? this.archiveSyncedLocations,
+      archiveAfterHours: archiveAfterHours ?? this.archiveAfterHours,
+      archiveCompression: archiveCompression ?? this.archiveCompression,
+      maxBytesToPersist: maxBytesToPersist ?? this.maxBytesToPersist,
+      queueMaxBytes: queueMaxBytes ?? this.queueMaxBytes,
+      queueBatchSize: queueBatchSize ?? this.queueBatchSize,
+      queueBatchByType: queueBatchByType ?? this.queueBatchByType,
+      locationStorage: locationStorage ?? this.locationStorage,
+      maxConcurrentSyncBatches:
+          maxConcurrentSyncBatches ?? this.maxConcurrentSyncBatches,
+      httpTransport: httpTransport ?? this.httpTransport,
+      adaptiveBatchSize: adaptiveBatchSize ?? this.adaptiveBatchSize,
+      minBatchSize: minBatchSize ?? this.minBatchSize,
+      maxAdaptiveBatchSize: maxAdaptiveBatchSize ?? this.maxAdaptiveBatchSize,
+      batchLatencyTarget: batchLatencyTarget ?? this.batchLatencyTarget,
+      bodyCodec: bodyCodec ?? this.bodyCodec,
     );
   }
 
@@ -788,6 +975,24 @@ class Config {
     put('lowBattery', lowBattery?.toMap());
     put('spoofDetection', spoofDetection?.toMap());
     put('compressRequests', compressRequests);
+    put('writeDurability', writeDurability?.name);
+    put('groupCommitInterval', groupCommitInterval);
+    put('groupCommitMaxRows', groupCommitMaxRows);
+    put('archiveSyncedLocations', archiveSyncedLocations);
+    put('archiveAfterHours', archiveAfterHours);
+    put('archiveCompression', archiveCompression);
+    put('maxBytesToPersist', maxBytesToPersist);
+    put('queueMaxBytes', queueMaxBytes);
+    put('queueBatchSize', queueBatchSize);
+    put('queueBatchByType', queueBatchByType);
+    put('locationStorage', locationStorage?.name);
+    put('maxConcurrentSyncBatches', maxConcurrentSyncBatches);
+    put('httpTransport', httpTransport?.name);
+    put('adaptiveBatchSize', adaptiveBatchSize);
+    put('minBatchSize', minBatchSize);
+    put('maxAdaptiveBatchSize', maxAdaptiveBatchSize);
+    put('batchLatencyTarget', batchLatencyTarget);
+    put('bodyCodec', bodyCodec?.name);
 
     return map;
   }
@@ -88,7 +88,14 @@ abstract class LocusInterface {
   });
 
   Future<List<Location>> getLocations({int? limit});
+  Stream<List<Location>> getLocationPages({int pageSize = 500});
   Future<List<Location>> queryLocations(LocationQuery query);
+  Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  });
   Future<LocationSummary> getLocationSummary({
     DateTime? date,
     LocationQuery? query,
@@ -268,6 +275,7 @@ abstract class LocusInterface {
     JsonMap payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   });
 
   Future<List<QueueItem>> getQueue({int? limit});
@@ -87,8 +87,8 @@ class MethodChannelLocus implements LocusInterface {
     );
 
     // QuarantineJanitor is intentionally NOT auto-started here. The native
-    // LocationStore.pruneByAge / pruneByCount paths already discard stale
-    // records (including those without route context) at insertion time, and
+    // RetentionPruner already discards stale records (including those
+    // without route context) in its background retention pass, and
     // the heartbeat above keeps `pointsQuarantinedNow` in step with the
     // backlog. Wiring a Dart-side janitor would require dedicated
     // platform-channel handlers (`purgeQuarantined`, `countQuarantined`) plus
@@ -180,11 +180,31 @@ class MethodChannelLocus implements LocusInterface {
     return LocusLocation.getLocations(limit: limit);
   }
 
+  @override
+  Stream<List<Location>> getLocationPages({int pageSize = 500}) {
+    return LocusLocation.getLocationPages(pageSize: pageSize);
+  }
+
   @override
   Future<List<Location>> queryLocations(LocationQuery query) {
     return LocusLocation.queryLocations(query);
   }
 
+  @override
+  Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  }) {
+    return LocusLocation.getLocationsNear(
+      latitude: latitude,
+      longitude: longitude,
+      radiusMeters: radiusMeters,
+      limit: limit,
+    );
+  }
+
   @override
   Future<LocationSummary> getLocationSummary({
     DateTime? date,
@@ -473,11 +493,13 @@ class MethodChannelLocus implements LocusInterface {
     JsonMap payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   }) {
     return LocusSync.enqueue(
       payload,
       type: type,
       idempotencyKey: idempotencyKey,
+      coalesce: coalesce,
     );
   }
 
@@ -6,6 +6,7 @@ library;
 
 import 'dart:math' as math;
 import 'package:locus/src/features/location/models/location.dart';
+import 'package:locus/src/shared/location_utils.dart';
 import 'package:locus/src/shared/models/coords.dart';
 import 'package:locus/src/shared/models/json_map.dart';
 
@@ -29,6 +30,7 @@ class LocationQuery {
     this.maxAccuracy,
     this.isMoving,
     this.bounds,
+    this.near,
     this.limit,
     this.offset = 0,
     this.sortOrder = LocationSortOrder.newestFirst,
@@ -71,6 +73,9 @@ class LocationQuery {
   /// Bounding box for spatial filtering.
   final LocationBounds? bounds;
 
+  /// Circle for radius filtering ("fixes near depot X").
+  final LocationRadius? near;
+
   /// Maximum number of results to return.
   final int? limit;
 
@@ -106,6 +111,7 @@ class LocationQuery {
 
       // Bounds filter
       if (bounds != null && !bounds!.contains(loc.coords)) continue;
+      if (near != null && !near!.contains(loc.coords)) continue;
 
       filtered.add(loc);
     }
@@ -149,6 +155,7 @@ class LocationQuery {
         if (maxAccuracy != null) 'maxAccuracy': maxAccuracy,
         if (isMoving != null) 'isMoving': isMoving,
         if (bounds != null) 'bounds': bounds!.toMap(),
+        if (near != null) 'near': near!.toMap(),
         if (limit != null) 'limit': limit,
         'offset': offset,
         'sortOrder': sortOrder.name,
@@ -205,6 +212,53 @@ class LocationBounds {
       };
 }
 
+/// Circle around a point for radius filtering.
+class LocationRadius {
+  /// Creates a circle of [meters] around ([latitude], [longitude]).
+  const LocationRadius({
+    required this.latitude,
+    required this.longitude,
+    required this.meters,
+  });
+
+  /// Creates from a map.
+  factory LocationRadius.fromMap(JsonMap map) {
+    return LocationRadius(
+      latitude: (map['latitude'] as num).toDouble(),
+      longitude: (map['longitude'] as num).toDouble(),
+      meters: (map['radius'] as num).toDouble(),
+    );
+  }
+
+  /// Latitude of the centre.
+  final double latitude;
+
+  /// Longitude of the centre.
+  final double longitude;
+
+  /// Radius in meters.
+  final double meters;
+
+  /// Haversine distance in meters from the centre to [coords].
+  double distanceTo(Coords coords) =>
+      LocationUtils.calculateDistanceFromCoords(
+        latitude,
+        longitude,
+        coords.latitude,
+        coords.longitude,
+      );
+
+  /// Whether [coords] lies within the circle.
+  bool contains(Coords coords) => distanceTo(coords) <= meters;
+
+  /// Converts to a map.
+  JsonMap toMap() => {
+        'latitude': latitude,
+        'longitude': longitude,
+        'radius': meters,
+      };
+}
+
 /// Summary of location history for a time period.
 ///
 /// Provides aggregated statistics about movement and activity.
@@ -243,6 +297,33 @@ class LocationSummary {
         frequentLocations = const [],
         averageAccuracyMeters = null;
 
+  /// Creates from a map.
+  ///
+  /// Accepts both [toMap] output (ISO-8601 period bounds, durations in
+  /// seconds) and the native summary (epoch-millisecond period bounds,
+  /// durations in milliseconds).
+  factory LocationSummary.fromMap(JsonMap map) {
+    return LocationSummary(
+      totalDistanceMeters:
+          (map['totalDistanceMeters'] as num?)?.toDouble() ?? 0,
+      movingDuration: _durationFromMap(map, 'movingDuration'),
+      stationaryDuration: _durationFromMap(map, 'stationaryDuration'),
+      locationCount: (map['locationCount'] as num?)?.toInt() ?? 0,
+      averageSpeedMps: (map['averageSpeedMps'] as num?)?.toDouble(),
+      maxSpeedMps: (map['maxSpeedMps'] as num?)?.toDouble(),
+      periodStart: _dateFromMap(map['periodStart']),
+      periodEnd: _dateFromMap(map['periodEnd']),
+      frequentLocations: (map['frequentLocations'] as List?)
+              ?.map((item) => FrequentLocation.fromMap(
+                    Map<String, dynamic>.from(item as Map),
+                  ))
+              .toList() ??
+          const [],
+      averageAccuracyMeters:
+          (map['averageAccuracyMeters'] as num?)?.toDouble(),
+    );
+  }
+
   /// Total distance traveled in meters.
   final double totalDistanceMeters;
 
@@ -316,6 +397,16 @@ class FrequentLocation {
     this.name,
   });
 
+  /// Creates from a map; see [LocationSummary.fromMap].
+  factory FrequentLocation.fromMap(JsonMap map) {
+    return FrequentLocation(
+      center: Coords.fromMap(Map<String, dynamic>.from(map['center'] as Map)),
+      visitCount: (map['visitCount'] as num?)?.toInt() ?? 0,
+      totalDuration: _durationFromMap(map, 'totalDuration'),
+      name: map['name'] as String?,
+    );
+  }
+
   /// Center coordinates of the cluster.
   final Coords center;
 
@@ -501,6 +592,21 @@ class LocationHistoryCalculator {
   }
 }
 
+/// Reads `<key>Ms` or, failing that, `<key>Seconds` from [map].
+Duration _durationFromMap(JsonMap map, String key) {
+  final ms = map['${key}Ms'] as num?;
+  if (ms != null) return Duration(milliseconds: ms.toInt());
+  return Duration(seconds: (map['${key}Seconds'] as num?)?.toInt() ?? 0);
+}
+
+DateTime? _dateFromMap(Object? value) {
+  if (value is num) {
+    return DateTime.fromMillisecondsSinceEpoch(value.toInt(), isUtc: true);
+  }
+  if (value is String) return DateTime.tryParse(value);
+  return null;
+}
+
 /// Internal cluster representation for frequent location calculation.
 class _Cluster {
   _Cluster(Location initial)
@@ -51,36 +51,140 @@ class LocusLocation {
     return [];
   }
 
+  /// Streams stored locations oldest first, one page of up to [pageSize]
+  /// at a time.
+  ///
+  /// Pages are fetched lazily with a keyset cursor: the next page is
+  /// requested only once the previous one has been consumed, so memory on
+  /// both sides stays bounded regardless of history size. Platforms without
+  /// native paging emit the whole history as a single page.
+  static Stream<List<Location>> getLocationPages({int pageSize = 500}) async* {
+    int? afterTimestamp;
+    int? afterId;
+    while (true) {
+      final Object? result;
+      try {
+        result = await LocusChannels.methods.invokeMethod('getLocationsPage', {
+          'pageSize': pageSize,
+          if (afterTimestamp != null) 'afterTimestamp': afterTimestamp,
+          if (afterId != null) 'afterId': afterId,
+        });
+      } on MissingPluginException {
+        if (afterTimestamp == null) {
+          final all = await getLocations();
+          if (all.isNotEmpty) yield all;
+        }
+        return;
+      }
+      if (result is! Map) return;
+
+      final page = (result['locations'] as List?)
+              ?.map((item) =>
+                  Location.fromMap((item as Map).cast<String, dynamic>()))
+              .toList() ??
+          const <Location>[];
+      if (page.isNotEmpty) yield page;
+
+      final next = result['next'];
+      if (next is! Map) return;
+      afterTimestamp = (next['afterTimestamp'] as num?)?.toInt();
+      afterId = (next['afterId'] as num?)?.toInt();
+      if (afterTimestamp == null) return;
+    }
+  }
+
   /// Queries stored locations with filtering and pagination.
+  ///
+  /// Filters, ordering, `offset` and `limit` run natively in SQL, so only
+  /// matching rows cross the method channel. Platforms without a native
+  /// query fall back to loading the stored history and applying [query]
+  /// in Dart.
   static Future<List<Location>> queryLocations(LocationQuery query) async {
-    // Pull only what is needed based on limit/offset to reduce memory use
-    final limit = query.limit;
-    final offset = query.offset;
-    final fetchLimit = limit != null ? limit + offset : null;
-
-    final fetched = await getLocations(limit: fetchLimit);
-    final clampedOffset = offset.clamp(0, fetched.length);
-    final end = limit != null
-        ? (clampedOffset + limit).clamp(0, fetched.length)
-        : fetched.length;
-    final sliced = fetched.sublist(clampedOffset, end);
-
-    final adjustedQuery = LocationQuery(
-      from: query.from,
-      to: query.to,
-      minAccuracy: query.minAccuracy,
-      maxAccuracy: query.maxAccuracy,
-      isMoving: query.isMoving,
-      bounds: query.bounds,
-      sortOrder: query.sortOrder,
-      offset: 0,
-      limit: null,
-    );
+    final Object? result;
+    try {
+      result = await LocusChannels.methods
+          .invokeMethod('queryLocations', _queryArguments(query));
+    } on MissingPluginException {
+      return query.apply(await getLocations());
+    }
+    if (result is List) {
+      return result
+          .map(
+              (item) => Location.fromMap((item as Map).cast<String, dynamic>()))
+          .toList();
+    }
+    return [];
+  }
+
+  /// Native `LocationQuery` arguments shared by `queryLocations` and
+  /// `getLocationSummary`.
+  static JsonMap _queryArguments(LocationQuery query) {
+    final bounds = query.bounds;
+    return {
+      if (query.from != null) 'from': query.from!.millisecondsSinceEpoch,
+      if (query.to != null) 'to': query.to!.millisecondsSinceEpoch,
+      if (query.minAccuracy != null) 'minAccuracy': query.minAccuracy,
+      if (query.maxAccuracy != null) 'maxAccuracy': query.maxAccuracy,
+      if (query.isMoving != null) 'isMoving': query.isMoving,
+      if (bounds != null)
+        'bounds': {
+          'south': bounds.southwest.latitude,
+          'west': bounds.southwest.longitude,
+          'north': bounds.northeast.latitude,
+          'east': bounds.northeast.longitude,
+        },
+      if (query.near != null) 'near': query.near!.toMap(),
+      if (query.limit != null) 'limit': query.limit,
+      'offset': query.offset,
+      'sortOrder': query.sortOrder.name,
+    };
+  }
 
-    return adjustedQuery.apply(sliced);
+  /// Gets stored locations within [radiusMeters] of a point, nearest first.
+  ///
+  /// Answered natively through a spatial index with an exact distance
+  /// check. Platforms without the native method filter the stored history
+  /// in Dart.
+  static Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  }) async {
+    final near = LocationRadius(
+      latitude: latitude,
+      longitude: longitude,
+      meters: radiusMeters,
+    );
+    final Object? result;
+    try {
+      result = await LocusChannels.methods.invokeMethod('getLocationsNear', {
+        ...near.toMap(),
+        if (limit != null) 'limit': limit,
+      });
+    } on MissingPluginException {
+      final stored = await getLocations();
+      final matches = List.of(LocationQuery(near: near).apply(stored))
+        ..sort((a, b) =>
+            near.distanceTo(a.coords).compareTo(near.distanceTo(b.coords)));
+      return limit != null && limit < matches.length
+          ? matches.sublist(0, limit)
+          : matches;
+    }
+    if (result is List) {
+      return result
+          .map(
+              (item) => Location.fromMap((item as Map).cast<String, dynamic>()))
+          .toList();
+    }
+    return [];
   }
 
   /// Gets a summary of location history.
+  ///
+  /// Aggregated natively in a single pass over the stored rows, so only
+  /// the summary crosses the method channel. Platforms without the native
+  /// method compute it in Dart from [queryLocations].
   static Future<LocationSummary> getLocationSummary({
     DateTime? date,
     LocationQuery? query,
@@ -101,8 +205,18 @@ class LocusLocation {
       effectiveQuery = LocationQuery(from: startOfDay, to: now);
     }
 
-    final locations = await queryLocations(effectiveQuery);
-    return LocationHistoryCalculator.calculateSummary(locations);
+    final Object? result;
+    try {
+      result = await LocusChannels.methods.invokeMethod(
+          'getLocationSummary', _queryArguments(effectiveQuery));
+    } on MissingPluginException {
+      final locations = await queryLocations(effectiveQuery);
+      return LocationHistoryCalculator.calculateSummary(locations);
+    }
+    if (result is Map) {
+      return LocationSummary.fromMap(Map<String, dynamic>.from(result));
+    }
+    return const LocationSummary.empty();
   }
 
   /// Changes the motion state (moving/stationary).
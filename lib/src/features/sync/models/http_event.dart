@@ -9,6 +9,9 @@ import 'package:locus/src/shared/models/json_map.dart';
 /// flushed by this attempt. The native side fills it on the success path of
 /// batched sync requests; on failures and on non-batched calls it is `null`.
 /// Treat it as a best-effort hint — never required for correct decisions.
+///
+/// [timing] breaks the request down by phase when the platform measured it
+/// (Android).
 class HttpEvent {
   const HttpEvent({
     required this.status,
@@ -16,6 +19,7 @@ class HttpEvent {
     this.responseText,
     this.response,
     this.recordsSent,
+    this.timing,
   });
 
   factory HttpEvent.fromMap(JsonMap map) {
@@ -25,6 +29,9 @@ class HttpEvent {
       responseText: map['responseText'] as String?,
       response: map['response'] as JsonMap?,
       recordsSent: (map['recordsSent'] as num?)?.toInt(),
+      timing: map['timing'] is Map
+          ? HttpTiming.fromMap(Map<String, dynamic>.from(map['timing'] as Map))
+          : null,
     );
   }
 
@@ -49,11 +56,78 @@ class HttpEvent {
   /// platforms that have not yet been instrumented.
   final int? recordsSent;
 
+  /// Where the request's time went, or `null` when not measured.
+  final HttpTiming? timing;
+
   JsonMap toMap() => {
         'status': status,
         'ok': ok,
         if (responseText != null) 'responseText': responseText,
         if (response != null) 'response': response,
         if (recordsSent != null) 'recordsSent': recordsSent,
+        if (timing != null) 'timing': timing!.toMap(),
+      };
+}
+
+/// Phase timings of one HTTP sync request, in milliseconds.
+///
+/// Phases the request skipped are `0`: a request on a reused connection
+/// ([reusedConnection]) has no DNS, connect or TLS time. Phases the
+/// transport can't observe are `0` too, and [reusedConnection] and
+/// [protocol] are null: the default `HttpURLConnection` client reports
+/// only [ttfbMs] and [totalMs].
+class HttpTiming {
+  const HttpTiming({
+    this.dnsMs = 0,
+    this.connectMs = 0,
+    this.tlsMs = 0,
+    this.ttfbMs = 0,
+    this.totalMs = 0,
+    this.reusedConnection,
+    this.protocol,
+  });
+
+  factory HttpTiming.fromMap(JsonMap map) {
+    return HttpTiming(
+      dnsMs: (map['dnsMs'] as num?)?.toInt() ?? 0,
+      connectMs: (map['connectMs'] as num?)?.toInt() ?? 0,
+      tlsMs: (map['tlsMs'] as num?)?.toInt() ?? 0,
+      ttfbMs: (map['ttfbMs'] as num?)?.toInt() ?? 0,
+      totalMs: (map['totalMs'] as num?)?.toInt() ?? 0,
+      reusedConnection: map['reusedConnection'] as bool?,
+      protocol: map['protocol'] as String?,
+    );
+  }
+
+  /// Host name resolution.
+  final int dnsMs;
+
+  /// TCP connect.
+  final int connectMs;
+
+  /// TLS handshake.
+  final int tlsMs;
+
+  /// From the request being sent to the first response byte.
+  final int ttfbMs;
+
+  /// The whole request, including reading the response body.
+  final int totalMs;
+
+  /// Whether the request went out on an already open connection, or null
+  /// when the transport can't tell.
+  final bool? reusedConnection;
+
+  /// Negotiated protocol, such as `http/1.1` or `h2`.
+  final String? protocol;
+
+  JsonMap toMap() => {
+        'dnsMs': dnsMs,
+        'connectMs': connectMs,
+        'tlsMs': tlsMs,
+        'ttfbMs': ttfbMs,
+        'totalMs': totalMs,
+        if (reusedConnection != null) 'reusedConnection': reusedConnection,
+        if (protocol != null) 'protocol': protocol,
       };
 }
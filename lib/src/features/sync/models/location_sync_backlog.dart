@@ -44,6 +44,7 @@ class LocationSyncBacklog {
   const LocationSyncBacklog({
     this.pendingLocationCount = 0,
     this.pendingBatchCount = 0,
+    this.effectiveBatchSize,
     this.isPaused = false,
     this.quarantinedLocationCount = 0,
     this.groups = const [],
@@ -64,6 +65,7 @@ class LocationSyncBacklog {
     return LocationSyncBacklog(
       pendingLocationCount: (map['pendingLocationCount'] as num?)?.toInt() ?? 0,
       pendingBatchCount: (map['pendingBatchCount'] as num?)?.toInt() ?? 0,
+      effectiveBatchSize: (map['effectiveBatchSize'] as num?)?.toInt(),
       isPaused: map['isPaused'] == true,
       quarantinedLocationCount:
           (map['quarantinedLocationCount'] as num?)?.toInt() ?? 0,
@@ -77,6 +79,12 @@ class LocationSyncBacklog {
 
   final int pendingLocationCount;
   final int pendingBatchCount;
+
+  /// Locations per batch the drain currently reads: `maxBatchSize`, or
+  /// with `Config.adaptiveBatchSize` the size it has adapted to. Null when
+  /// the platform doesn't report it.
+  final int? effectiveBatchSize;
+
   final bool isPaused;
   final int quarantinedLocationCount;
   final DateTime? lastSuccessAt;
@@ -86,6 +94,8 @@ class LocationSyncBacklog {
   JsonMap toMap() => {
         'pendingLocationCount': pendingLocationCount,
         'pendingBatchCount': pendingBatchCount,
+        if (effectiveBatchSize != null)
+          'effectiveBatchSize': effectiveBatchSize,
         'isPaused': isPaused,
         'quarantinedLocationCount': quarantinedLocationCount,
         if (lastSuccessAt != null)
@@ -235,11 +235,13 @@ class LocusSync {
     JsonMap payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   }) async {
     final result = await LocusChannels.methods.invokeMethod('enqueue', {
       'payload': payload,
       if (type != null) 'type': type,
       if (idempotencyKey != null) 'idempotencyKey': idempotencyKey,
+      if (coalesce) 'coalesce': true,
     });
     if (result is String && result.isNotEmpty) {
       return result;
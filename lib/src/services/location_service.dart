@@ -60,6 +60,19 @@ abstract class LocationService {
   /// [limit] - Maximum number of locations to return.
   Future<List<Location>> getLocations({int? limit});
 
+  /// Streams stored locations oldest first in pages of up to [pageSize].
+  ///
+  /// Each page is loaded only when the previous one has been consumed, so
+  /// memory stays bounded however large the stored history is.
+  ///
+  /// Example:
+  /// ```dart
+  /// await for (final page in Locus.location.getLocationPages()) {
+  ///   exporter.write(page);
+  /// }
+  /// ```
+  Stream<List<Location>> getLocationPages({int pageSize = 500});
+
   /// Queries stored locations with filtering and pagination.
   ///
   /// Example:
@@ -74,6 +87,23 @@ abstract class LocationService {
   /// ```
   Future<List<Location>> query(LocationQuery query);
 
+  /// Gets stored locations within [radiusMeters] of a point, nearest first.
+  ///
+  /// Example:
+  /// ```dart
+  /// final atDepot = await Locus.location.getLocationsNear(
+  ///   latitude: 59.3293,
+  ///   longitude: 18.0686,
+  ///   radiusMeters: 200,
+  /// );
+  /// ```
+  Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  });
+
   /// Gets a summary of location history.
   ///
   /// Returns statistics including total distance, time moving vs stationary,
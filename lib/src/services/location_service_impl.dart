@@ -49,11 +49,31 @@ class LocationServiceImpl implements LocationService {
     return _instance.getLocations(limit: limit);
   }
 
+  @override
+  Stream<List<Location>> getLocationPages({int pageSize = 500}) {
+    return _instance.getLocationPages(pageSize: pageSize);
+  }
+
   @override
   Future<List<Location>> query(LocationQuery query) {
     return _instance.queryLocations(query);
   }
 
+  @override
+  Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  }) {
+    return _instance.getLocationsNear(
+      latitude: latitude,
+      longitude: longitude,
+      radiusMeters: radiusMeters,
+      limit: limit,
+    );
+  }
+
   @override
   Future<LocationSummary> getSummary({
     DateTime? date,
@@ -198,11 +198,20 @@ abstract class SyncService {
   ///
   /// [payload] - The data to enqueue.
   /// [type] - Optional type identifier for the payload.
-  /// [idempotencyKey] - Optional key to prevent duplicate submissions.
+  /// [idempotencyKey] - Optional key to prevent duplicate submissions. While
+  /// a payload with the same key is still queued, enqueueing again stores
+  /// nothing and returns the queued item's id, so retrying a timed-out call
+  /// is safe. Without a key every call queues a new item.
+  /// [coalesce] - With an [idempotencyKey] already queued, replace the
+  /// queued payload with this one instead of keeping the older one. Returns
+  /// the id of the new item. If the older payload is already being uploaded,
+  /// the new one is sent after it with the header value `<key>#2` (then
+  /// `#3`, ...), so a server deduplicating on the key doesn't drop it.
   Future<String> enqueue(
     JsonMap payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   });
 
   /// Returns queued payloads.
@@ -213,6 +222,10 @@ abstract class SyncService {
 
   /// Attempts to sync queued payloads immediately.
   ///
+  /// Only items that are due are sent; items in retry backoff are sent
+  /// automatically when their retry time comes. On Android, items whose
+  /// retries were exhausted get one more attempt on each call.
+  ///
   /// Returns the number of items successfully synced.
   Future<int> syncQueue({int? limit});
 
@@ -106,8 +106,14 @@ class SyncServiceImpl implements SyncService {
     JsonMap payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   }) =>
-      _instance.enqueue(payload, type: type, idempotencyKey: idempotencyKey);
+      _instance.enqueue(
+        payload,
+        type: type,
+        idempotencyKey: idempotencyKey,
+        coalesce: coalesce,
+      );
 
   @override
   Future<List<QueueItem>> getQueue({int? limit}) =>
@@ -66,6 +66,7 @@ class MockLocus implements LocusInterface {
   final List<Geofence> _geofences = [];
   final List<Location> _storedLocations = [];
   final List<QueueItem> _queue = [];
+  int _queueSequence = 0;
 
   bool _isReady = false;
 
@@ -367,6 +368,16 @@ class MockLocus implements LocusInterface {
     return List.unmodifiable(_storedLocations);
   }
 
+  @override
+  Stream<List<Location>> getLocationPages({int pageSize = 500}) async* {
+    _methodCalls.add('getLocationPages');
+    final snapshot = List<Location>.of(_storedLocations);
+    for (var start = 0; start < snapshot.length; start += pageSize) {
+      final end = (start + pageSize).clamp(0, snapshot.length);
+      yield snapshot.sublist(start, end);
+    }
+  }
+
   @override
   Future<List<Location>> queryLocations(LocationQuery query) async {
     _methodCalls.add('getLocations');
@@ -374,6 +385,27 @@ class MockLocus implements LocusInterface {
     return query.apply(_storedLocations);
   }
 
+  @override
+  Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  }) async {
+    _methodCalls.add('getLocationsNear');
+    final near = LocationRadius(
+      latitude: latitude,
+      longitude: longitude,
+      meters: radiusMeters,
+    );
+    final matches = List.of(LocationQuery(near: near).apply(_storedLocations))
+      ..sort((a, b) =>
+          near.distanceTo(a.coords).compareTo(near.distanceTo(b.coords)));
+    return limit != null && limit < matches.length
+        ? matches.sublist(0, limit)
+        : matches;
+  }
+
   @override
   Future<LocationSummary> getLocationSummary({
     DateTime? date,
@@ -429,15 +461,24 @@ class MockLocus implements LocusInterface {
     Map<String, dynamic> payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   }) async {
     _methodCalls.add('enqueue');
-    final id = 'mock-queue-${_queue.length}';
+    final existing = idempotencyKey == null
+        ? -1
+        : _queue.indexWhere((item) => item.idempotencyKey == idempotencyKey);
+    if (existing >= 0 && !coalesce) return _queue[existing].id;
+    if (existing >= 0) _queue.removeAt(existing);
+    final id = 'mock-queue-$_queueSequence';
+    _queueSequence++;
     _queue.add(
       QueueItem(
         id: id,
         payload: payload,
         createdAt: DateTime.now(),
         retryCount: 0,
+        type: type,
+        idempotencyKey: idempotencyKey,
       ),
     );
     return id;
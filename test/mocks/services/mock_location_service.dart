@@ -144,11 +144,40 @@ class MockLocationService implements LocationService {
     return List.unmodifiable(_locations);
   }
 
+  @override
+  Stream<List<Location>> getLocationPages({int pageSize = 500}) async* {
+    final snapshot = List<Location>.of(_locations);
+    for (var start = 0; start < snapshot.length; start += pageSize) {
+      final end = (start + pageSize).clamp(0, snapshot.length);
+      yield snapshot.sublist(start, end);
+    }
+  }
+
   @override
   Future<List<Location>> query(LocationQuery query) async {
     return query.apply(_locations);
   }
 
+  @override
+  Future<List<Location>> getLocationsNear({
+    required double latitude,
+    required double longitude,
+    required double radiusMeters,
+    int? limit,
+  }) async {
+    final near = LocationRadius(
+      latitude: latitude,
+      longitude: longitude,
+      meters: radiusMeters,
+    );
+    final matches = List.of(LocationQuery(near: near).apply(_locations))
+      ..sort((a, b) =>
+          near.distanceTo(a.coords).compareTo(near.distanceTo(b.coords)));
+    return limit != null && limit < matches.length
+        ? matches.sublist(0, limit)
+        : matches;
+  }
+
   @override
   Future<LocationSummary> getSummary({
     DateTime? date,
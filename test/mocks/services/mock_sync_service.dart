@@ -182,6 +182,7 @@ class MockSyncService implements SyncService {
     JsonMap payload, {
     String? type,
     String? idempotencyKey,
+    bool coalesce = false,
   }) async {
     final id = 'mock-${_queue.length}-${DateTime.now().millisecondsSinceEpoch}';
     _queue.add(
@@ -157,20 +157,73 @@ void main() {
     const config = Config(
       queueMaxDays: 3,
       queueMaxRecords: 100,
+      queueMaxBytes: 4096,
       idempotencyHeader: 'Idempotency-Key',
     );
 
     final map = config.toMap();
     expect(map['queueMaxDays'], 3);
     expect(map['queueMaxRecords'], 100);
+    expect(map['queueMaxBytes'], 4096);
     expect(map['idempotencyHeader'], 'Idempotency-Key');
 
     final restored = Config.fromMap(map);
     expect(restored.queueMaxDays, 3);
     expect(restored.queueMaxRecords, 100);
+    expect(restored.queueMaxBytes, 4096);
     expect(restored.idempotencyHeader, 'Idempotency-Key');
   });
 
+  test('config maps the location sync window', () {
+    const config = Config(maxConcurrentSyncBatches: 3);
+
+    final map = config.toMap();
+    expect(map['maxConcurrentSyncBatches'], 3);
+    expect(Config.fromMap(map).maxConcurrentSyncBatches, 3);
+    expect(
+      const Config().toMap().containsKey('maxConcurrentSyncBatches'),
+      isFalse,
+    );
+  });
+
+  test('config maps adaptive batch sizing', () {
+    const config = Config(
+      adaptiveBatchSize: true,
+      minBatchSize: 5,
+      maxAdaptiveBatchSize: 300,
+      batchLatencyTarget: 2000,
+    );
+
+    final restored = Config.fromMap(config.toMap());
+    expect(restored.adaptiveBatchSize, isTrue);
+    expect(restored.minBatchSize, 5);
+    expect(restored.maxAdaptiveBatchSize, 300);
+    expect(restored.batchLatencyTarget, 2000);
+    expect(const Config().toMap().containsKey('adaptiveBatchSize'), isFalse);
+  });
+
+  test('config maps queue batching', () {
+    const config = Config(queueBatchSize: 25, queueBatchByType: true);
+
+    final map = config.toMap();
+    expect(map['queueBatchSize'], 25);
+    expect(map['queueBatchByType'], isTrue);
+
+    final restored = Config.fromMap(map);
+    expect(restored.queueBatchSize, 25);
+    expect(restored.queueBatchByType, isTrue);
+    expect(const Config().toMap().containsKey('queueBatchSize'), isFalse);
+  });
+
+  test('config maps persistence byte quota', () {
+    const config = Config(maxBytesToPersist: 1 << 20);
+
+    final map = config.toMap();
+    expect(map['maxBytesToPersist'], 1 << 20);
+    expect(Config.fromMap(map).maxBytesToPersist, 1 << 20);
+    expect(const Config().toMap().containsKey('maxBytesToPersist'), isFalse);
+  });
+
   group('TripConfig defaults', () {
     test('has reasonable defaults', () {
       const config = TripConfig(startDistanceMeters: 100);
@@ -216,4 +269,147 @@ void main() {
       expect(restored.compressRequests, isTrue);
     });
   });
+
+  group('writeDurability', () {
+    test('is unset by default and omitted from toMap', () {
+      const defaults = Config();
+      expect(defaults.writeDurability, isNull);
+      expect(defaults.groupCommitInterval, isNull);
+      expect(defaults.groupCommitMaxRows, isNull);
+
+      final map = defaults.toMap();
+      expect(map.containsKey('writeDurability'), isFalse);
+      expect(map.containsKey('groupCommitInterval'), isFalse);
+      expect(map.containsKey('groupCommitMaxRows'), isFalse);
+    });
+
+    test('round-trips through toMap/fromMap', () {
+      const config = Config(
+        writeDurability: WriteDurability.grouped,
+        groupCommitInterval: 2000,
+        groupCommitMaxRows: 50,
+      );
+
+      final map = config.toMap();
+      expect(map['writeDurability'], 'grouped');
+      expect(map['groupCommitInterval'], 2000);
+      expect(map['groupCommitMaxRows'], 50);
+
+      final restored = Config.fromMap(map);
+      expect(restored.writeDurability, WriteDurability.grouped);
+      expect(restored.groupCommitInterval, 2000);
+      expect(restored.groupCommitMaxRows, 50);
+    });
+
+    test('copyWith updates the durability settings', () {
+      const config = Config(writeDurability: WriteDurability.full);
+      final updated = config.copyWith(
+        writeDurability: WriteDurability.normal,
+        groupCommitMaxRows: 10,
+      );
+      expect(updated.writeDurability, WriteDurability.normal);
+      expect(updated.groupCommitMaxRows, 10);
+    });
+
+    test('fromMap ignores unknown durability values', () {
+      final restored = Config.fromMap(<String, dynamic>{
+        'writeDurability': 'eventual',
+      });
+      expect(restored.writeDurability, isNull);
+    });
+  });
+
+  group('locationStorage', () {
+    test('is unset by default and omitted from toMap', () {
+      const defaults = Config();
+      expect(defaults.locationStorage, isNull);
+      expect(defaults.toMap().containsKey('locationStorage'), isFalse);
+    });
+
+    test('round-trips through toMap/fromMap', () {
+      const config = Config(locationStorage: LocationStorage.journal);
+      final map = config.toMap();
+      expect(map['locationStorage'], 'journal');
+      expect(Config.fromMap(map).locationStorage, LocationStorage.journal);
+    });
+
+    test('fromMap ignores unknown storage values', () {
+      final restored = Config.fromMap(<String, dynamic>{
+        'locationStorage': 'leveldb',
+      });
+      expect(restored.locationStorage, isNull);
+    });
+  });
+
+  group('httpTransport', () {
+    test('round-trips through toMap/fromMap', () {
+      const config = Config(httpTransport: HttpTransport.http2);
+      final map = config.toMap();
+      expect(map['httpTransport'], 'http2');
+      expect(Config.fromMap(map).httpTransport, HttpTransport.http2);
+      expect(const Config().toMap().containsKey('httpTransport'), isFalse);
+    });
+
+    test('fromMap ignores unknown transports', () {
+      final restored = Config.fromMap(<String, dynamic>{
+        'httpTransport': 'quic',
+      });
+      expect(restored.httpTransport, isNull);
+    });
+  });
+
+  group('bodyCodec', () {
+    test('round-trips through toMap/fromMap', () {
+      const config = Config(bodyCodec: BodyCodec.cbor);
+      final map = config.toMap();
+      expect(map['bodyCodec'], 'cbor');
+      expect(Config.fromMap(map).bodyCodec, BodyCodec.cbor);
+      expect(const Config().toMap().containsKey('bodyCodec'), isFalse);
+    });
+
+    test('fromMap ignores unknown codecs', () {
+      final restored = Config.fromMap(<String, dynamic>{
+        'bodyCodec': 'protobuf',
+      });
+      expect(restored.bodyCodec, isNull);
+    });
+  });
+
+  group('archive', () {
+    test('is unset by default and omitted from toMap', () {
+      const defaults = Config();
+      expect(defaults.archiveSyncedLocations, isNull);
+      expect(defaults.archiveAfterHours, isNull);
+      expect(defaults.archiveCompression, isNull);
+
+      final map = defaults.toMap();
+      expect(map.containsKey('archiveSyncedLocations'), isFalse);
+      expect(map.containsKey('archiveAfterHours'), isFalse);
+      expect(map.containsKey('archiveCompression'), isFalse);
+    });
+
+    test('round-trips through toMap/fromMap', () {
+      const config = Config(
+        archiveSyncedLocations: true,
+        archiveAfterHours: 24,
+        archiveCompression: false,
+      );
+
+      final map = config.toMap();
+      expect(map['archiveSyncedLocations'], isTrue);
+      expect(map['archiveAfterHours'], 24);
+      expect(map['archiveCompression'], isFalse);
+
+      final restored = Config.fromMap(map);
+      expect(restored.archiveSyncedLocations, isTrue);
+      expect(restored.archiveAfterHours, 24);
+      expect(restored.archiveCompression, isFalse);
+    });
+
+    test('copyWith updates the archive settings', () {
+      const config = Config(archiveSyncedLocations: false);
+      final updated = config.copyWith(archiveSyncedLocations: true);
+      expect(updated.archiveSyncedLocations, isTrue);
+    });
+  });
 }
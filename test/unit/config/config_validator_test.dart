@@ -201,6 +201,58 @@ void main() {
         expect(
             result.errors.any((e) => e.field == 'maxRecordsToPersist'), isTrue);
       });
+
+      test('negative byte quotas are errors', () {
+        const config = Config(maxBytesToPersist: -1, queueMaxBytes: -1);
+        final result = ConfigValidator.validate(config);
+        expect(result.isValid, isFalse);
+        expect(
+            result.errors.any((e) => e.field == 'maxBytesToPersist'), isTrue);
+        expect(result.errors.any((e) => e.field == 'queueMaxBytes'), isTrue);
+      });
+
+      test('maxConcurrentSyncBatches below 1 is an error', () {
+        const config = Config(maxConcurrentSyncBatches: 0);
+        final result = ConfigValidator.validate(config);
+        expect(result.isValid, isFalse);
+        expect(
+          result.errors.any((e) => e.field == 'maxConcurrentSyncBatches'),
+          isTrue,
+        );
+      });
+
+      test('maxAdaptiveBatchSize below minBatchSize is an error', () {
+        const config = Config(minBatchSize: 50, maxAdaptiveBatchSize: 20);
+        final result = ConfigValidator.validate(config);
+        expect(result.isValid, isFalse);
+        expect(
+          result.errors.any((e) => e.field == 'maxAdaptiveBatchSize'),
+          isTrue,
+        );
+      });
+
+      test('batchLatencyTarget at or above httpTimeout warns', () {
+        const config = Config(batchLatencyTarget: 10000, httpTimeout: 10000);
+        final result = ConfigValidator.validate(config);
+        expect(
+          result.warnings.any((w) => w.field == 'batchLatencyTarget'),
+          isTrue,
+        );
+      });
+
+      test('cbor bodyCodec without batchSync warns', () {
+        const config = Config(bodyCodec: BodyCodec.cbor);
+        final result = ConfigValidator.validate(config);
+        expect(result.isValid, isTrue);
+        expect(result.warnings.any((w) => w.field == 'bodyCodec'), isTrue);
+      });
+
+      test('negative queueBatchSize is an error', () {
+        const config = Config(queueBatchSize: -1);
+        final result = ConfigValidator.validate(config);
+        expect(result.isValid, isFalse);
+        expect(result.errors.any((e) => e.field == 'queueBatchSize'), isTrue);
+      });
     });
 
     group('conflicting options', () {
@@ -0,0 +1,93 @@
+import 'package:flutter/services.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:locus/locus.dart';
+
+Map<String, dynamic> _locationMap(int i) => {
+      'uuid': 'loc-$i',
+      'timestamp': DateTime.utc(2026, 1, 1, 0, 0, i).toIso8601String(),
+      'coords': {
+        'latitude': 37.0 + i * 0.001,
+        'longitude': -122.0,
+        'accuracy': 5.0,
+      },
+    };
+
+void main() {
+  TestWidgetsFlutterBinding.ensureInitialized();
+
+  const channel = MethodChannel('locus/methods');
+  late List<MethodCall> calls;
+
+  setUp(() {
+    calls = [];
+  });
+
+  tearDown(() {
+    TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+        .setMockMethodCallHandler(channel, null);
+  });
+
+  group('LocusLocation.getLocationPages', () {
+    test('follows the continuation token until it is null', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        final args = (call.arguments as Map).cast<String, dynamic>();
+        if (args['afterTimestamp'] == null) {
+          return {
+            'locations': [_locationMap(0), _locationMap(1)],
+            'next': {'afterTimestamp': 1001, 'afterId': 2},
+          };
+        }
+        return {
+          'locations': [_locationMap(2)],
+          'next': null,
+        };
+      });
+
+      final pages = await LocusLocation.getLocationPages(pageSize: 2).toList();
+
+      expect(pages.map((p) => p.length), [2, 1]);
+      expect(pages.last.single.uuid, 'loc-2');
+      expect(calls, hasLength(2));
+      expect(calls.first.method, 'getLocationsPage');
+      expect(calls.first.arguments, {'pageSize': 2});
+      expect(calls.last.arguments,
+          {'pageSize': 2, 'afterTimestamp': 1001, 'afterId': 2});
+    });
+
+    test('fetches the next page only when the consumer asks for it', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        return {
+          'locations': [_locationMap(calls.length)],
+          'next': {'afterTimestamp': calls.length, 'afterId': calls.length},
+        };
+      });
+
+      final first = await LocusLocation.getLocationPages(pageSize: 1).first;
+
+      expect(first.single.uuid, 'loc-1');
+      expect(calls, hasLength(1));
+    });
+
+    test('falls back to a single getLocations page without native paging',
+        () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        if (call.method == 'getLocationsPage') {
+          throw MissingPluginException();
+        }
+        return [_locationMap(0), _locationMap(1), _locationMap(2)];
+      });
+
+      final pages = await LocusLocation.getLocationPages().toList();
+
+      expect(pages, hasLength(1));
+      expect(pages.single, hasLength(3));
+      expect(calls.map((c) => c.method), ['getLocationsPage', 'getLocations']);
+    });
+  });
+}
@@ -0,0 +1,190 @@
+import 'package:flutter/services.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:locus/locus.dart';
+
+Map<String, dynamic> _locationMap(int i, {double accuracy = 5.0}) => {
+      'uuid': 'loc-$i',
+      'timestamp': DateTime.utc(2026, 1, 1, 0, 0, i).toIso8601String(),
+      'coords': {
+        'latitude': 37.0 + i * 0.001,
+        'longitude': -122.0,
+        'accuracy': accuracy,
+      },
+    };
+
+void main() {
+  TestWidgetsFlutterBinding.ensureInitialized();
+
+  const channel = MethodChannel('locus/methods');
+  late List<MethodCall> calls;
+
+  setUp(() {
+    calls = [];
+  });
+
+  tearDown(() {
+    TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+        .setMockMethodCallHandler(channel, null);
+  });
+
+  group('LocusLocation.queryLocations', () {
+    test('sends the query to native with epoch-millisecond bounds', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        return [_locationMap(1)];
+      });
+      final from = DateTime.utc(2026, 1, 1);
+      final to = DateTime.utc(2026, 1, 2);
+
+      final result = await LocusLocation.queryLocations(LocationQuery(
+        from: from,
+        to: to,
+        minAccuracy: 20,
+        isMoving: true,
+        bounds: const LocationBounds(
+          southwest: Coords(latitude: 1, longitude: 2, accuracy: 0),
+          northeast: Coords(latitude: 3, longitude: 4, accuracy: 0),
+        ),
+        limit: 10,
+        offset: 20,
+        sortOrder: LocationSortOrder.oldestFirst,
+      ));
+
+      expect(result.single.uuid, 'loc-1');
+      expect(calls.single.method, 'queryLocations');
+      expect(calls.single.arguments, {
+        'from': from.millisecondsSinceEpoch,
+        'to': to.millisecondsSinceEpoch,
+        'minAccuracy': 20.0,
+        'isMoving': true,
+        'bounds': {'south': 1.0, 'west': 2.0, 'north': 3.0, 'east': 4.0},
+        'limit': 10,
+        'offset': 20,
+        'sortOrder': 'oldestFirst',
+      });
+    });
+
+    test('filters before paging when native query is unavailable', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        if (call.method == 'queryLocations') {
+          throw MissingPluginException();
+        }
+        return [
+          for (var i = 0; i < 6; i++)
+            _locationMap(i, accuracy: i.isEven ? 5.0 : 50.0),
+        ];
+      });
+
+      final result = await LocusLocation.queryLocations(const LocationQuery(
+        minAccuracy: 10,
+        limit: 2,
+        offset: 1,
+        sortOrder: LocationSortOrder.oldestFirst,
+      ));
+
+      expect(result.map((l) => l.uuid), ['loc-2', 'loc-4']);
+      expect(calls.map((c) => c.method), ['queryLocations', 'getLocations']);
+    });
+  });
+
+  group('LocusLocation.getLocationsNear', () {
+    test('sends the circle and limit to native', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        return [_locationMap(0)];
+      });
+
+      final result = await LocusLocation.getLocationsNear(
+        latitude: 37.0,
+        longitude: -122.0,
+        radiusMeters: 150,
+        limit: 5,
+      );
+
+      expect(result.single.uuid, 'loc-0');
+      expect(calls.single.method, 'getLocationsNear');
+      expect(calls.single.arguments, {
+        'latitude': 37.0,
+        'longitude': -122.0,
+        'radius': 150.0,
+        'limit': 5,
+      });
+    });
+
+    test('falls back to nearest-first filtering in Dart', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        if (call.method == 'getLocationsNear') {
+          throw MissingPluginException();
+        }
+        // 0.001° of latitude is ~111 m.
+        return [for (var i = 0; i < 5; i++) _locationMap(i)];
+      });
+
+      final result = await LocusLocation.getLocationsNear(
+        latitude: 37.003,
+        longitude: -122.0,
+        radiusMeters: 150,
+      );
+
+      expect(result.first.uuid, 'loc-3');
+      expect(result.map((l) => l.uuid).toSet(), {'loc-2', 'loc-3', 'loc-4'});
+    });
+  });
+
+  group('LocusLocation.getLocationSummary', () {
+    test('returns the native summary for the query', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        calls.add(call);
+        return {
+          'locationCount': 2,
+          'totalDistanceMeters': 111.2,
+          'movingDurationMs': 60000,
+          'stationaryDurationMs': 0,
+          'periodStart': 0,
+          'periodEnd': 60000,
+          'frequentLocations': <Object>[],
+        };
+      });
+
+      final summary = await LocusLocation.getLocationSummary(
+        query: LocationQuery(
+          from: DateTime.utc(2026, 1, 1),
+          isMoving: true,
+        ),
+      );
+
+      expect(summary.locationCount, 2);
+      expect(summary.movingDuration, const Duration(minutes: 1));
+      expect(calls.single.method, 'getLocationSummary');
+      expect(calls.single.arguments, {
+        'from': DateTime.utc(2026, 1, 1).millisecondsSinceEpoch,
+        'isMoving': true,
+        'offset': 0,
+        'sortOrder': 'newestFirst',
+      });
+    });
+
+    test('falls back to summarizing in Dart', () async {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockMethodCallHandler(channel, (call) async {
+        if (call.method == 'getLocations') {
+          return [for (var i = 0; i < 3; i++) _locationMap(i)];
+        }
+        throw MissingPluginException();
+      });
+
+      final summary = await LocusLocation.getLocationSummary(
+        query: const LocationQuery(),
+      );
+
+      expect(summary.locationCount, 3);
+      expect(summary.totalDistanceMeters, closeTo(222.4, 0.5));
+    });
+  });
+}
@@ -125,6 +125,20 @@ void main() {
       expect(result.length, 4);
     });
 
+    test('should filter by radius', () {
+      const query = LocationQuery(
+        near: LocationRadius(
+          latitude: 37.4220,
+          longitude: -122.0841,
+          meters: 5,
+        ),
+      );
+      final result = query.apply(testLocations);
+      // Neighbouring fixes are ~14 m apart
+      expect(result.length, 1);
+      expect(result.single.coords.latitude, 37.4220);
+    });
+
     test('should respect limit', () {
       const query = LocationQuery(limit: 2);
       final result = query.apply(testLocations);
@@ -206,6 +220,31 @@ void main() {
     });
   });
 
+  group('LocationRadius', () {
+    test('should contain points within the radius', () {
+      const circle = LocationRadius(
+        latitude: 37.4220,
+        longitude: -122.0841,
+        meters: 500,
+      );
+      const nearby =
+          Coords(latitude: 37.4240, longitude: -122.0841, accuracy: 0);
+      const faraway =
+          Coords(latitude: 37.4320, longitude: -122.0841, accuracy: 0);
+      expect(circle.contains(nearby), true);
+      expect(circle.contains(faraway), false);
+    });
+
+    test('should round-trip through toMap', () {
+      const circle =
+          LocationRadius(latitude: 1.5, longitude: 2.5, meters: 30);
+      final restored = LocationRadius.fromMap(circle.toMap());
+      expect(restored.latitude, 1.5);
+      expect(restored.longitude, 2.5);
+      expect(restored.meters, 30);
+    });
+  });
+
   group('LocationHistoryCalculator', () {
     test('should return empty summary for empty locations', () {
       final summary = LocationHistoryCalculator.calculateSummary([]);
@@ -466,6 +505,67 @@ void main() {
       expect(summary.totalDistanceKm, 5.0);
       expect(summary.movingPercent, closeTo(33.33, 0.1));
     });
+
+    test('should round-trip through toMap', () {
+      final summary = LocationSummary(
+        locationCount: 3,
+        totalDistanceMeters: 120.5,
+        movingDuration: const Duration(minutes: 2),
+        stationaryDuration: const Duration(minutes: 5),
+        averageAccuracyMeters: 8,
+        periodStart: DateTime.utc(2024, 1, 15, 12),
+        periodEnd: DateTime.utc(2024, 1, 15, 12, 7),
+        frequentLocations: const [
+          FrequentLocation(
+            center: Coords(latitude: 1, longitude: 2, accuracy: 0),
+            visitCount: 2,
+            totalDuration: Duration(minutes: 5),
+          ),
+        ],
+      );
+      final restored = LocationSummary.fromMap(summary.toMap());
+      expect(restored.locationCount, 3);
+      expect(restored.totalDistanceMeters, 120.5);
+      expect(restored.movingDuration, const Duration(minutes: 2));
+      expect(restored.stationaryDuration, const Duration(minutes: 5));
+      expect(restored.averageSpeedMps, isNull);
+      expect(restored.averageAccuracyMeters, 8);
+      expect(restored.periodStart, DateTime.utc(2024, 1, 15, 12));
+      expect(restored.frequentLocations.single.visitCount, 2);
+      expect(
+        restored.frequentLocations.single.totalDuration,
+        const Duration(minutes: 5),
+      );
+    });
+
+    test('should read the native summary shape', () {
+      final summary = LocationSummary.fromMap({
+        'locationCount': 2,
+        'totalDistanceMeters': 10,
+        'movingDurationMs': 1500,
+        'stationaryDurationMs': 0,
+        'periodStart': 1700000000000,
+        'periodEnd': 1700000001500,
+        'maxSpeedMps': 4,
+        'frequentLocations': [
+          {
+            'center': {'latitude': 1.0, 'longitude': 2.0, 'accuracy': 0.0},
+            'visitCount': 2,
+            'totalDurationMs': 1500,
+          },
+        ],
+      });
+      expect(summary.movingDuration, const Duration(milliseconds: 1500));
+      expect(
+        summary.periodStart,
+        DateTime.fromMillisecondsSinceEpoch(1700000000000, isUtc: true),
+      );
+      expect(summary.maxSpeedMps, 4.0);
+      expect(
+        summary.frequentLocations.single.totalDuration,
+        const Duration(milliseconds: 1500),
+      );
+    });
   });
 }
 
@@ -62,6 +62,55 @@ void main() {
     expect(event.accuracyAuthorization, LocationAccuracyAuthorization.unknown);
   });
 
+  test('http event reads request timing', () {
+    final event = HttpEvent.fromMap(<String, dynamic>{
+      'status': 200,
+      'ok': true,
+      'timing': <Object?, Object?>{
+        'dnsMs': 12,
+        'connectMs': 40,
+        'tlsMs': 85,
+        'ttfbMs': 120,
+        'totalMs': 260,
+        'reusedConnection': false,
+        'protocol': 'http/1.1',
+      },
+    });
+
+    expect(event.timing?.tlsMs, 85);
+    expect(event.timing?.reusedConnection, isFalse);
+    expect(HttpEvent.fromMap(event.toMap()).timing?.totalMs, 260);
+    expect(const HttpEvent(status: 200, ok: true).toMap(),
+        isNot(contains('timing')));
+  });
+
+  test('http timing leaves unobserved connection details null', () {
+    final timing = HttpTiming.fromMap(<String, dynamic>{
+      'ttfbMs': 120,
+      'totalMs': 260,
+    });
+
+    expect(timing.reusedConnection, isNull);
+    expect(timing.protocol, isNull);
+    expect(timing.toMap(), isNot(contains('reusedConnection')));
+  });
+
+  test('location sync backlog reads the effective batch size', () {
+    final backlog = LocationSyncBacklog.fromMap(<String, dynamic>{
+      'pendingLocationCount': 120,
+      'pendingBatchCount': 2,
+      'effectiveBatchSize': 80,
+    });
+
+    expect(backlog.effectiveBatchSize, 80);
+    expect(
+      LocationSyncBacklog.fromMap(backlog.toMap()).effectiveBatchSize,
+      80,
+    );
+    expect(const LocationSyncBacklog().toMap(),
+        isNot(contains('effectiveBatchSize')));
+  });
+
   test('http event round-trip includes response payload', () {
     const httpEvent = HttpEvent(
       status: 201,
@@ -158,6 +158,28 @@ void main() {
       });
     });
 
+    group('getLocationPages', () {
+      test('should page through stored locations in order', () async {
+        for (var i = 0; i < 5; i++) {
+          mockLocus.emitLocation(
+            LocationFactory().at(37.0 + i * 0.1, -122.0).build(),
+          );
+        }
+
+        final pages = await service.getLocationPages(pageSize: 2).toList();
+
+        expect(pages.map((p) => p.length), [2, 2, 1]);
+        expect(pages.expand((p) => p), hasLength(5));
+        expect(pages.first.first, isLocationAt(37.0, -122.0));
+      });
+
+      test('should emit nothing when no locations are stored', () async {
+        final pages = await service.getLocationPages().toList();
+
+        expect(pages, isEmpty);
+      });
+    });
+
     group('query', () {
       test('should filter by date range', () async {
         final now = DateTime.now();
@@ -106,6 +106,31 @@ void main() {
 
         expect(mockLocus.methodCalls, contains('enqueue'));
       });
+
+      test('should return the queued id for a repeated idempotency key',
+          () async {
+        final first = await service.enqueue({'v': 1}, idempotencyKey: 'k');
+        final second = await service.enqueue({'v': 2}, idempotencyKey: 'k');
+
+        expect(second, first);
+        final queue = await service.getQueue();
+        expect(queue, hasLength(1));
+        expect(queue.single.payload['v'], 1);
+      });
+
+      test('should replace the queued payload when coalescing', () async {
+        final first = await service.enqueue({'v': 1}, idempotencyKey: 'k');
+        final second = await service.enqueue(
+          {'v': 2},
+          idempotencyKey: 'k',
+          coalesce: true,
+        );
+
+        expect(second, isNot(first));
+        final queue = await service.getQueue();
+        expect(queue, hasLength(1));
+        expect(queue.single.payload['v'], 2);
+      });
     });
 
     group('getQueue', () {